@@ -415,7 +415,8 @@ int readBufferCpyJNI(const void *buf, int32 rowbytes, DCAM_PIXELTYPE type,
     int32 noelemperframe = cx * cy;
     int32 x, y;
 
-    if (isCopy == true || imgobj.enableCriticalAccess == 0)
+    // carray is NULL unless the frames can be written in place
+    if (carray == NULL || isCopy == true)
     {
         // read from buffer
         const char *src = (const char *)buf;
@@ -1002,13 +1003,12 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1
     return outArray;
 }
 
-JNIEXPORT void JNICALL
-Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1SDK4_runInfiniteLoopSDK4(
-    JNIEnv *env, jclass cls, jshortArray outArray, jobject framecounterObj)
+// Frames go either to a Java array (outArray) or to a direct buffer (outBuffer),
+// the other one being NULL. A direct buffer is written in place, without a JNI
+// copy per frame and without holding a critical section during acquisition.
+void runInfiniteLoop(JNIEnv *env, jshortArray outArray, jobject outBuffer,
+                     jobject framecounterObj)
 {
-    assert((env->GetArrayLength(outArray) == imgobj.temparraysize)
-           && "1Darraysize mismatch");
-
     static jclass framecounter_class = env->FindClass(
         "fiji/plugin/imaging_fcs/directCameraReadout/control/FrameCounter"); // method caching
     static jmethodID increment_id =
@@ -1022,12 +1022,26 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1
 
     jboolean isCopy{ false };
     jshort *carray = NULL;
-    if (imgobj.enableCriticalAccess == 1)
+    if (outBuffer != NULL)
+    {
+        carray = (jshort *)env->GetDirectBufferAddress(outBuffer);
+        assert((carray != NULL
+                && env->GetDirectBufferCapacity(outBuffer)
+                    >= (jlong)imgobj.temparraysize * 2)
+               && "1Darraysize mismatch");
+    }
+    else
     {
-        carray = (jshort *)env->GetPrimitiveArrayCritical(outArray, &isCopy);
-        if (isCopy == true)
+        assert((env->GetArrayLength(outArray) == imgobj.temparraysize)
+               && "1Darraysize mismatch");
+        if (imgobj.enableCriticalAccess == 1)
         {
-            env->ReleasePrimitiveArrayCritical(outArray, carray, 0);
+            carray =
+                (jshort *)env->GetPrimitiveArrayCritical(outArray, &isCopy);
+            if (isCopy == true)
+            {
+                env->ReleasePrimitiveArrayCritical(outArray, carray, 0);
+            }
         }
     }
 
@@ -1100,12 +1114,34 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1
     env->SetDoubleField(framecounterObj, time2_id, imgobj.timeelapsed2);
     env->SetDoubleField(framecounterObj, time3_id, imgobj.timeelapsed3);
 
-    if (isCopy == false && imgobj.enableCriticalAccess == 1)
+    if (outBuffer == NULL && isCopy == false
+        && imgobj.enableCriticalAccess == 1)
     {
         env->ReleasePrimitiveArrayCritical(outArray, carray, 0);
     }
 }
 
+JNIEXPORT void JNICALL
+Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1SDK4_runInfiniteLoopSDK4(
+    JNIEnv *env, jclass cls, jshortArray outArray, jobject framecounterObj)
+{
+    runInfiniteLoop(env, outArray, NULL, framecounterObj);
+}
+
+JNIEXPORT void JNICALL
+Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1SDK4_runInfiniteLoopDirectSDK4(
+    JNIEnv *env, jclass cls, jobject outBuffer, jobject framecounterObj)
+{
+    runInfiniteLoop(env, NULL, outBuffer, framecounterObj);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1SDK4_isDirectBufferSupportedSDK4(
+    JNIEnv *env, jclass cls)
+{
+    return JNI_TRUE;
+}
+
 JNIEXPORT void JNICALL
 Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1SDK4_setStopMechanismSDK4(
     JNIEnv *env, jclass cls, jboolean isstoppressed)
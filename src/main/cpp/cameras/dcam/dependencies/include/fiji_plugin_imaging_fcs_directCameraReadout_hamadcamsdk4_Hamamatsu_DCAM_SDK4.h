@@ -131,6 +131,22 @@ JNIEXPORT jshortArray JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_
 JNIEXPORT void JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1SDK4_runInfiniteLoopSDK4
   (JNIEnv *, jclass, jshortArray, jobject);
 
+/*
+ * Class:     fiji_plugin_imaging_fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_DCAM_SDK4
+ * Method:    runInfiniteLoopDirectSDK4
+ * Signature: (Ljava/nio/ShortBuffer;Lfiji/plugin/imaging_fcs/directCameraReadout/control/FrameCounter;)V
+ */
+JNIEXPORT void JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1SDK4_runInfiniteLoopDirectSDK4
+  (JNIEnv *, jclass, jobject, jobject);
+
+/*
+ * Class:     fiji_plugin_imaging_fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_DCAM_SDK4
+ * Method:    isDirectBufferSupportedSDK4
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_1DCAM_1SDK4_isDirectBufferSupportedSDK4
+  (JNIEnv *, jclass);
+
 /*
  * Class:     fiji_plugin_imaging_fcs_directCameraReadout_hamadcamsdk4_Hamamatsu_DCAM_SDK4
  * Method:    setStopMechanismSDK4
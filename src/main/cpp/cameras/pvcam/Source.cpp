@@ -119,7 +119,8 @@ void readBufferCpyJNI(jshort *buffer, int pixelperframe, int new_c,
     //  std::copy -> 0 + 0.0983 ms / 0.003 + 0.786 ms
     //  for loop ->	0.0016 + 0.15 ms	/ 0.0254 + 0.856 ms
 
-    if (isCopy == true || imgobj.enableCriticalAccess == 0)
+    // carray is NULL unless the frames can be written in place
+    if (carray == NULL || isCopy == true)
     {
         tk3.setTimeStart();
         const jshort *s = (const jshort *)buffer;
@@ -163,7 +164,8 @@ void readBufferCpy8bitJNI(uns8 *buffer8bit, int pixelperframe, int new_c,
     //  std::copy -> 0 + 0.0983 ms / 0.003 + 0.786 ms
     //  for loop ->	0.0016 + 0.15 ms	/ 0.0254 + 0.856 ms
 
-    if (isCopy == true || imgobj.enableCriticalAccess == 0)
+    // carray is NULL unless the frames can be written in place
+    if (carray == NULL || isCopy == true)
     {
         tk3.setTimeStart();
         const uns8 *s8bit = (const uns8 *)buffer8bit;
@@ -439,13 +441,12 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1
     return outArray;
 }
 
-JNIEXPORT void JNICALL
-Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1SDK_runInfiniteLoopPVCAM(
-    JNIEnv *env, jclass cls, jshortArray outArray, jobject framecounterObj)
+// Frames go either to a Java array (outArray) or to a direct buffer (outBuffer),
+// the other one being NULL. A direct buffer is written in place, without a JNI
+// copy per frame and without holding a critical section during acquisition.
+void runInfiniteLoop(JNIEnv *env, jshortArray outArray, jobject outBuffer,
+                     jobject framecounterObj)
 {
-    assert((env->GetArrayLength(outArray) == imgobj.temparraysize)
-           && "1Darraysize mismatch");
-
     static jclass framecounter_class = env->FindClass(
         "fiji/plugin/imaging_fcs/directCameraReadout/control/FrameCounter"); // method caching
     static jmethodID increment_id =
@@ -459,12 +460,26 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1
 
     jboolean isCopy{ false };
     jshort *carray = NULL;
-    if (imgobj.enableCriticalAccess == 1)
+    if (outBuffer != NULL)
+    {
+        carray = (jshort *)env->GetDirectBufferAddress(outBuffer);
+        assert((carray != NULL
+                && env->GetDirectBufferCapacity(outBuffer)
+                    >= (jlong)imgobj.temparraysize * 2)
+               && "1Darraysize mismatch");
+    }
+    else
     {
-        carray = (jshort *)env->GetPrimitiveArrayCritical(outArray, &isCopy);
-        if (isCopy == true)
+        assert((env->GetArrayLength(outArray) == imgobj.temparraysize)
+               && "1Darraysize mismatch");
+        if (imgobj.enableCriticalAccess == 1)
         {
-            env->ReleasePrimitiveArrayCritical(outArray, carray, 0);
+            carray =
+                (jshort *)env->GetPrimitiveArrayCritical(outArray, &isCopy);
+            if (isCopy == true)
+            {
+                env->ReleasePrimitiveArrayCritical(outArray, carray, 0);
+            }
         }
     }
 
@@ -621,7 +636,8 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1
     env->SetDoubleField(framecounterObj, time2_id, imgobj.timeelapsed5);
     env->SetDoubleField(framecounterObj, time3_id, imgobj.timeelapsed4);
 
-    if (isCopy == false && imgobj.enableCriticalAccess == 1)
+    if (outBuffer == NULL && isCopy == false
+        && imgobj.enableCriticalAccess == 1)
     {
         if (carray != NULL)
         {
@@ -637,6 +653,27 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1
     return;
 }
 
+JNIEXPORT void JNICALL
+Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1SDK_runInfiniteLoopPVCAM(
+    JNIEnv *env, jclass cls, jshortArray outArray, jobject framecounterObj)
+{
+    runInfiniteLoop(env, outArray, NULL, framecounterObj);
+}
+
+JNIEXPORT void JNICALL
+Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1SDK_runInfiniteLoopDirectPVCAM(
+    JNIEnv *env, jclass cls, jobject outBuffer, jobject framecounterObj)
+{
+    runInfiniteLoop(env, NULL, outBuffer, framecounterObj);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1SDK_isDirectBufferSupportedPVCAM(
+    JNIEnv *env, jclass cls)
+{
+    return JNI_TRUE;
+}
+
 JNIEXPORT void JNICALL
 Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1SDK_setStopMechanismPVCAM(
     JNIEnv *env, jclass cls, jboolean isstoppressed)
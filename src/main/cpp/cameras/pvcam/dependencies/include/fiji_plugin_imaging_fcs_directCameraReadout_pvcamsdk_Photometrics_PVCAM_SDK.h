@@ -107,6 +107,22 @@ JNIEXPORT jshortArray JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_
 JNIEXPORT void JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1SDK_runInfiniteLoopPVCAM
   (JNIEnv *, jclass, jshortArray, jobject);
 
+/*
+ * Class:     fiji_plugin_imaging_fcs_directCameraReadout_pvcamsdk_Photometrics_PVCAM_SDK
+ * Method:    runInfiniteLoopDirectPVCAM
+ * Signature: (Ljava/nio/ShortBuffer;Lfiji/plugin/imaging_fcs/directCameraReadout/control/FrameCounter;)V
+ */
+JNIEXPORT void JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1SDK_runInfiniteLoopDirectPVCAM
+  (JNIEnv *, jclass, jobject, jobject);
+
+/*
+ * Class:     fiji_plugin_imaging_fcs_directCameraReadout_pvcamsdk_Photometrics_PVCAM_SDK
+ * Method:    isDirectBufferSupportedPVCAM
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_pvcamsdk_Photometrics_1PVCAM_1SDK_isDirectBufferSupportedPVCAM
+  (JNIEnv *, jclass);
+
 /*
  * Class:     fiji_plugin_imaging_fcs_directCameraReadout_pvcamsdk_Photometrics_PVCAM_SDK
  * Method:    setStopMechanismPVCAM
@@ -147,6 +147,22 @@ JNIEXPORT jboolean JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_and
 JNIEXPORT void JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_runInfiniteLoopSDK2
   (JNIEnv *, jclass, jshortArray, jobject);
 
+/*
+ * Class:     fiji_plugin_imaging_fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3
+ * Method:    runInfiniteLoopDirectSDK2
+ * Signature: (Ljava/nio/ShortBuffer;Lfiji/plugin/imaging_fcs/directCameraReadout/control/FrameCounter;)V
+ */
+JNIEXPORT void JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_runInfiniteLoopDirectSDK2
+  (JNIEnv *, jclass, jobject, jobject);
+
+/*
+ * Class:     fiji_plugin_imaging_fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3
+ * Method:    isDirectBufferSupportedSDK2
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_isDirectBufferSupportedSDK2
+  (JNIEnv *, jclass);
+
 /*
  * Class:     fiji_plugin_imaging_fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3
  * Method:    setParameterContinuousAcquisitionSDK2
@@ -804,13 +804,12 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_setPar
     return true;
 }
 
-JNIEXPORT void JNICALL
-Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_runInfiniteLoopSDK2(
-    JNIEnv *env, jclass cls, jshortArray outArray, jobject framecounterObj)
+// Frames go either to a Java array (outArray) or to a direct buffer (outBuffer),
+// the other one being NULL. A direct buffer is written in place, without a JNI
+// copy per frame and without holding a critical section during acquisition.
+void runInfiniteLoop(JNIEnv *env, jshortArray outArray, jobject outBuffer,
+                     jobject framecounterObj)
 {
-    assert((env->GetArrayLength(outArray) == imgobj.temparraysize)
-           && "1Darraysize mismatch");
-
     static jclass framecounter_class = env->FindClass(
         "fiji/plugin/imaging_fcs/directCameraReadout/control/FrameCounter"); // method caching
     static jmethodID increment_id =
@@ -824,12 +823,26 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_runInf
 
     jboolean isCopy{ false };
     jshort *carray = NULL;
-    if (imgobj.enableCriticalAccess == 1)
+    if (outBuffer != NULL)
     {
-        carray = (jshort *)env->GetPrimitiveArrayCritical(outArray, &isCopy);
-        if (isCopy == true)
+        carray = (jshort *)env->GetDirectBufferAddress(outBuffer);
+        assert((carray != NULL
+                && env->GetDirectBufferCapacity(outBuffer)
+                    >= (jlong)imgobj.temparraysize * 2)
+               && "1Darraysize mismatch");
+    }
+    else
+    {
+        assert((env->GetArrayLength(outArray) == imgobj.temparraysize)
+               && "1Darraysize mismatch");
+        if (imgobj.enableCriticalAccess == 1)
         {
-            env->ReleasePrimitiveArrayCritical(outArray, carray, 0);
+            carray =
+                (jshort *)env->GetPrimitiveArrayCritical(outArray, &isCopy);
+            if (isCopy == true)
+            {
+                env->ReleasePrimitiveArrayCritical(outArray, carray, 0);
+            }
         }
     }
     tk1.setTimeStart();
@@ -908,7 +921,8 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_runInf
         imgobj.isZeroFrameOccur = false;
 
         tk2.setTimeStart();
-        if (isCopy == true || imgobj.enableCriticalAccess == 0)
+        // carray is NULL unless the frames can be written in place
+        if (carray == NULL || isCopy == true)
         { // copy elem of long array into double or short array
             /*// for loop is slower; us estd::copy
       if (imgobj.pImageArray_ && imgobj.pImageArrayBuf_) {
@@ -962,7 +976,8 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_runInf
     env->SetDoubleField(framecounterObj, time2_id, imgobj.timeelapsed2);
     env->SetDoubleField(framecounterObj, time3_id, imgobj.timeelapsed3);
 
-    if (isCopy == false && imgobj.enableCriticalAccess == 1)
+    if (outBuffer == NULL && isCopy == false
+        && imgobj.enableCriticalAccess == 1)
     {
         env->ReleasePrimitiveArrayCritical(outArray, carray, 0);
     }
@@ -970,6 +985,27 @@ Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_runInf
     return;
 }
 
+JNIEXPORT void JNICALL
+Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_runInfiniteLoopSDK2(
+    JNIEnv *env, jclass cls, jshortArray outArray, jobject framecounterObj)
+{
+    runInfiniteLoop(env, outArray, NULL, framecounterObj);
+}
+
+JNIEXPORT void JNICALL
+Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_runInfiniteLoopDirectSDK2(
+    JNIEnv *env, jclass cls, jobject outBuffer, jobject framecounterObj)
+{
+    runInfiniteLoop(env, NULL, outBuffer, framecounterObj);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_isDirectBufferSupportedSDK2(
+    JNIEnv *env, jclass cls)
+{
+    return JNI_TRUE;
+}
+
 // Acqusition mode
 JNIEXPORT jboolean JNICALL
 Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk2v3_AndorSDK2v3_setParameterContinuousAcquisitionSDK2(
@@ -219,6 +219,22 @@ JNIEXPORT void JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsd
 JNIEXPORT void JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk3v2_AndorSDK3v2_runInfiniteLoopSDK3
   (JNIEnv *, jclass, jshortArray, jobject);
 
+/*
+ * Class:     fiji_plugin_imaging_fcs_directCameraReadout_andorsdk3v2_AndorSDK3v2
+ * Method:    runInfiniteLoopDirectSDK3
+ * Signature: (Ljava/nio/ShortBuffer;Lfiji/plugin/imaging_fcs/directCameraReadout/control/FrameCounter;)V
+ */
+JNIEXPORT void JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk3v2_AndorSDK3v2_runInfiniteLoopDirectSDK3
+  (JNIEnv *, jclass, jobject, jobject);
+
+/*
+ * Class:     fiji_plugin_imaging_fcs_directCameraReadout_andorsdk3v2_AndorSDK3v2
+ * Method:    isDirectBufferSupportedSDK3
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_fiji_plugin_imaging_1fcs_directCameraReadout_andorsdk3v2_AndorSDK3v2_isDirectBufferSupportedSDK3
+  (JNIEnv *, jclass);
+
 /*
  * Class:     fiji_plugin_imaging_fcs_directCameraReadout_andorsdk3v2_AndorSDK3v2
  * Method:    setStopMechanismSDK3
@@ -14,6 +14,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
@@ -30,12 +31,16 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel.Common;
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounter;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.Camera;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameRingBuffer;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.NativeCamera;
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounterX;
 import fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.*;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.LiveVideoWorkerV2Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.SynchronizerWorkerInstant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.LiveVideoWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.BufferToStackWorkerInstant;
+import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.newRecorder;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.CumulativeACFWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.NonCumulativeACFWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.ICCSWorkerInstant;
@@ -433,6 +438,9 @@ public class AndorSDK2v3 {
 
     public static native void setStopMechanismSDK2(boolean isStopCalled);
 
+    public static final Camera CAMERA = new NativeCamera(AndorSDK2v3::runInfiniteLoopSDK2, AndorSDK2v3::runInfiniteLoopDirectSDK2,
+            AndorSDK2v3::isDirectBufferSupportedSDK2, AndorSDK2v3::setStopMechanismSDK2);
+
     public static native int isEMCCDconnectedSDK2();//20002 SUCCESS; 20990 NO CAMERA CONNECTED; 20992 Other application such as Andor Solis/uManager is accessing
 
     public static native void setParameterSingleSDK2(float exposuretime, int width, int height, int left, int top, int acqmode, int gain, int incamerabinning, int ixonmodel, int iVspeed, int iVamp, int iHspeed, int iPreAmpGain, int isCropMode, int croppedWidth, int croppedHeight, int croppedLeft, int croppedTop);// acqMode = 1 for single scan; AcqMode = 5 for runtillAbort
@@ -443,6 +451,10 @@ public class AndorSDK2v3 {
 
     public static synchronized native void runInfiniteLoopSDK2(short[] outArray, FrameCounter fcObj);
 
+    public static synchronized native void runInfiniteLoopDirectSDK2(ShortBuffer outBuffer, FrameCounter fcObj); // outBuffer: direct, native byte order
+
+    public static native boolean isDirectBufferSupportedSDK2();
+
     public static native boolean setParameterContinuousAcquisitionSDK2(int size_b, int totalFrame, int transferFrameInterval, float exposureTimeCont, int width, int height, int left, int top, int acqmode, int gain, int incamerabinning, int ixonmodel, int iVspeed, int iVamp, int iHspeed, int iPreAmpGain, int isCropMode, int croppedWidth, int croppedHeight, int croppedLeft, int croppedTop, int arraysize);
 
     public static synchronized native void runContinuousScanAcquisitionSDK2(short[] outArray, FrameCounter fcObj);
@@ -685,9 +697,10 @@ public class AndorSDK2v3 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -698,7 +711,7 @@ public class AndorSDK2v3 {
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
                 DoCameraAcquisitionSDK2(); // Trigger
 
-                CppToJavaTransferInfWorkerEXTENDEDV2 CppToJavaTransferInfWorkerEXTENDEDV2Instant = new CppToJavaTransferInfWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferInfWorkerEXTENDEDV2 CppToJavaTransferInfWorkerEXTENDEDV2Instant = new CppToJavaTransferInfWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV2Instant = new LiveVideoWorkerV2(Common.tempWidth, Common.tempHeight, latch);
                 SynchronizerWorkerInstant = new SynchronizerWorker(latch);
 
@@ -743,9 +756,10 @@ public class AndorSDK2v3 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -757,7 +771,7 @@ public class AndorSDK2v3 {
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
                 DoCameraAcquisitionSDK2(); // Trigger
 
-                CppToJavaTransferInfWorkerEXTENDEDV2 CppToJavaTransferInfWorkerEXTENDEDV2Instant = new CppToJavaTransferInfWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferInfWorkerEXTENDEDV2 CppToJavaTransferInfWorkerEXTENDEDV2Instant = new CppToJavaTransferInfWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
                 NonCumulativeACFWorkerV3Instant = new NonCumulativeACFWorkerV3(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -802,11 +816,12 @@ public class AndorSDK2v3 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.ims_cum = new ImageStack(Common.tempWidth, Common.tempHeight);
                 Common.framecounterIMSX = new FrameCounterX();
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, false);
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -820,9 +835,9 @@ public class AndorSDK2v3 {
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
                 DoCameraAcquisitionSDK2(); // Trigger
 
-                CppToJavaTransferAcqWorkerEXTENDEDV2 CppToJavaTransferAcqWorkerEXTENDEDV2Instant = new CppToJavaTransferAcqWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferAcqWorkerEXTENDEDV2 CppToJavaTransferAcqWorkerEXTENDEDV2Instant = new CppToJavaTransferAcqWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
-                BufferToStackWorkerInstant = new BufferToStackWorker(Common.tempWidth, Common.tempHeight, Common.totalFrame, latch, Common.arraysize);
+                BufferToStackWorkerInstant = newRecorder(Common.tempWidth, Common.tempHeight, Common.totalFrame, latch, Common.arraysize);
                 CumulativeACFWorkerV3Instant = new CumulativeACFWorkerV3(latch);
                 NonCumulativeACFWorkerV3Instant = new NonCumulativeACFWorkerV3(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -874,9 +889,10 @@ public class AndorSDK2v3 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call setParameter
@@ -888,7 +904,7 @@ public class AndorSDK2v3 {
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
                 DoCameraAcquisitionSDK2(); // Trigger
 
-                CppToJavaTransferInfWorkerEXTENDEDV2 CppToJavaTransferInfWorkerEXTENDEDV2Instant = new CppToJavaTransferInfWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferInfWorkerEXTENDEDV2 CppToJavaTransferInfWorkerEXTENDEDV2Instant = new CppToJavaTransferInfWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
                 ICCSWorkerInstant = new ICCSWorker(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -928,26 +944,26 @@ public class AndorSDK2v3 {
 
     private static class CppToJavaTransferInfWorkerEXTENDEDV2 extends CppTOJavaTransferWorkerV2 {
 
-        public CppToJavaTransferInfWorkerEXTENDEDV2(short[] array, CountDownLatch latch) {
-            super(array, latch);
+        public CppToJavaTransferInfWorkerEXTENDEDV2(FrameRingBuffer ring, CountDownLatch latch) {
+            super(ring, latch);
         }
 
         @Override
         protected void runInfinteLoop() {
-            runInfiniteLoopSDK2(array, Common.framecounter);
+            CAMERA.acquire(ring);
         }
 
     }
 
     private static class CppToJavaTransferAcqWorkerEXTENDEDV2 extends CppTOJavaTransferWorkerV2 {
 
-        public CppToJavaTransferAcqWorkerEXTENDEDV2(short[] array, CountDownLatch latch) {
-            super(array, latch);
+        public CppToJavaTransferAcqWorkerEXTENDEDV2(FrameRingBuffer ring, CountDownLatch latch) {
+            super(ring, latch);
         }
 
         @Override
         protected void runInfinteLoop() {
-            runContinuousScanAcquisitionSDK2(array, Common.framecounter);
+            runContinuousScanAcquisitionSDK2(ring.array(), ring.getSequence());
         }
     }
 
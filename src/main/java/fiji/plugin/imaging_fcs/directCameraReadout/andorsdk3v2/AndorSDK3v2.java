@@ -13,6 +13,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
@@ -28,6 +29,9 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounter;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.Camera;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameRingBuffer;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.NativeCamera;
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounterX;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel.Common;
@@ -37,6 +41,7 @@ import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.LiveVi
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.SynchronizerWorkerInstant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.LiveVideoWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.BufferToStackWorkerInstant;
+import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.newRecorder;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.CumulativeACFWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.ICCSWorkerInstant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.NonCumulativeACFWorkerV3Instant;
@@ -415,8 +420,15 @@ public class AndorSDK3v2 {
 
     public static native void runInfiniteLoopSDK3(short[] outArray, FrameCounter fcObj);
 
+    public static native void runInfiniteLoopDirectSDK3(ShortBuffer outBuffer, FrameCounter fcObj); // outBuffer: direct, native byte order
+
+    public static native boolean isDirectBufferSupportedSDK3();
+
     public static native void setStopMechanismSDK3(boolean isStopCalled);
 
+    public static final Camera CAMERA = new NativeCamera(AndorSDK3v2::runInfiniteLoopSDK3, AndorSDK3v2::runInfiniteLoopDirectSDK3,
+            AndorSDK3v2::isDirectBufferSupportedSDK3, AndorSDK3v2::setStopMechanismSDK3);
+
     /*
     JNI END
      */
@@ -605,9 +617,10 @@ public class AndorSDK3v2 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -617,7 +630,7 @@ public class AndorSDK3v2 {
                 Common.kineticCycleTime = 1 / GetDoubleValueSDK3("FrameRate"); // get real kinetic cycle
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV2Instant = new LiveVideoWorkerV2(Common.tempWidth, Common.tempHeight, latch);
                 SynchronizerWorkerInstant = new SynchronizerWorker(latch);
 
@@ -662,9 +675,10 @@ public class AndorSDK3v2 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -675,7 +689,7 @@ public class AndorSDK3v2 {
                 Common.kineticCycleTime = 1 / GetDoubleValueSDK3("FrameRate"); // get real kinetic cycle
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
                 NonCumulativeACFWorkerV3Instant = new NonCumulativeACFWorkerV3(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -719,11 +733,12 @@ public class AndorSDK3v2 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.ims_cum = new ImageStack(Common.tempWidth, Common.tempHeight);
                 Common.framecounterIMSX = new FrameCounterX();
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -734,9 +749,9 @@ public class AndorSDK3v2 {
                 Common.kineticCycleTime = 1 / GetDoubleValueSDK3("FrameRate"); // get real kinetic cycle
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
-                BufferToStackWorkerInstant = new BufferToStackWorker(Common.tempWidth, Common.tempHeight, Common.totalFrame, latch, Common.arraysize);
+                BufferToStackWorkerInstant = newRecorder(Common.tempWidth, Common.tempHeight, Common.totalFrame, latch, Common.arraysize);
                 CumulativeACFWorkerV3Instant = new CumulativeACFWorkerV3(latch);
                 NonCumulativeACFWorkerV3Instant = new NonCumulativeACFWorkerV3(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -789,9 +804,10 @@ public class AndorSDK3v2 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call setParameter
@@ -802,7 +818,7 @@ public class AndorSDK3v2 {
                 Common.kineticCycleTime = 1 / GetDoubleValueSDK3("FrameRate"); // get real kinetic cycle
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
                 ICCSWorkerInstant = new ICCSWorker(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -843,13 +859,13 @@ public class AndorSDK3v2 {
 
     private static class CppToJavaTransferWorkerEXTENDEDV2 extends CppTOJavaTransferWorkerV2 {
 
-        public CppToJavaTransferWorkerEXTENDEDV2(short[] array, CountDownLatch latch) {
-            super(array, latch);
+        public CppToJavaTransferWorkerEXTENDEDV2(FrameRingBuffer ring, CountDownLatch latch) {
+            super(ring, latch);
         }
 
         @Override
         protected void runInfinteLoop() {
-            runInfiniteLoopSDK3(array, Common.framecounter);
+            CAMERA.acquire(ring);
         }
     }
 
@@ -0,0 +1,29 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.control;
+
+/**
+ * Source of frames for the live pipeline. The camera fills a {@link FrameRingBuffer} and publishes each frame through
+ * its {@link FrameCounter}; the workers only see the ring, whatever the camera and wherever the frames are stored.
+ * <p>
+ * Implemented by {@link NativeCamera} for the SDKs and by the virtual camera of the simulator package.
+ * </p>
+ */
+public interface Camera {
+    /**
+     * @return true if the camera can write to a direct ring, which saves a copy per frame.
+     */
+    boolean isDirectBufferSupported();
+
+    /**
+     * Acquires frames into the ring until the total number of frames is reached or {@link #stop()} is called. Frame n
+     * (counted from 1) goes to {@link FrameRingBuffer#offsetOf(int)}, then the sequence of the ring is incremented.
+     * The times of the sequence (time1, time2, time3) are set on return.
+     *
+     * @param ring the ring, set up for the size of the ROI.
+     */
+    void acquire(FrameRingBuffer ring);
+
+    /**
+     * Asks a running acquisition to stop. {@link #acquire(FrameRingBuffer)} returns once the current frame is done.
+     */
+    void stop();
+}
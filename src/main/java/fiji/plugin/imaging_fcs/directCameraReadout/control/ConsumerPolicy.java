@@ -0,0 +1,22 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.control;
+
+/**
+ * What a consumer of the {@link FrameRingBuffer} does when the camera is faster than it.
+ */
+public enum ConsumerPolicy {
+    /**
+     * Only the newest frame matters, e.g. the live video: the frames published meanwhile are skipped and not counted
+     * as lost.
+     */
+    LATEST_ONLY,
+    /**
+     * The frames are read in order as long as the consumer is at most a given number of frames behind, e.g. the
+     * calibration ACF. Beyond that, the oldest frames are skipped on purpose and counted as decimated.
+     */
+    BOUNDED_LAG,
+    /**
+     * Every frame is read, e.g. the recording; the frames overwritten before they were read are counted as overruns.
+     * The ring reports the backlog of these consumers, so that the others can back off while they are behind.
+     */
+    LOSSLESS
+}
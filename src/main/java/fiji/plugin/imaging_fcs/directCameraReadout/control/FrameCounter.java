@@ -1,16 +1,27 @@
 package fiji.plugin.imaging_fcs.directCameraReadout.control;
 
-public class FrameCounter {
-    // Alternative solution is to have multiple private volatile int counter at expense of one extra JNI method call //TODO: which is better?
+import java.util.function.BooleanSupplier;
 
-    private final Object L1 = new Object();
-    private final Object L2 = new Object();
+/**
+ * Sequence of the frames published to Java1Dbuffer by the native runInfiniteLoop. The native loop is the single
+ * writer: it calls {@link #increment()} once a frame has been copied, so every frame up to {@link #getCounter()} is
+ * readable. The counter is a single volatile int, reads never take a lock and never see a count ahead of the copied
+ * frames.
+ */
+public class FrameCounter {
+    // publication time of the last frames, to measure how long after its arrival a frame is displayed or analyzed
+    private static final int TIMESTAMPS = 1 << 16;
 
     private volatile int counter; // Used to keep track number of frames available to Java1Dbuffer in 1)LiveVideoWorker 2) updateTfFrameCounter() 3)SynchronizerWorker 4)NonCumulativeACFWorker
     public volatile double time1; //time taken for native runInfiniteLoop (ms)
     public volatile double time2; //average readBuffer per frame (ms)
     public volatile double time3; // average native to java heap copy (ms)
 
+    private final long[] publishNanos = new long[TIMESTAMPS];
+    private final FrameWaiters waiters = new FrameWaiters();
+    // time between two frames as seen by Java, its spread shows the stalls of the native loop
+    private final StageLatency frameInterval = LiveMetrics.newStage("Camera frame interval");
+
     public FrameCounter() {
         resetCounter();
     }
@@ -20,15 +31,56 @@ public class FrameCounter {
     }
 
     public void increment() {
-        synchronized (L1) {
-            //increment counter by 1 frame every single time new counts has been transferred to javabuffer1D
-            counter++;
+        //increment counter by 1 frame every single time new counts has been transferred to javabuffer1D
+        //called by the native loop only, a plain volatile write publishes the frame
+        int frame = counter + 1;
+        long now = System.nanoTime();
+        if (frame > 1) {
+            frameInterval.record(now - publishNanos[(frame - 1) % TIMESTAMPS]);
         }
+        publishNanos[frame % TIMESTAMPS] = now;
+        counter = frame;
+        waiters.signal(frame);
     }
 
     public int getCounter() { // accessed by 1)LiveVideoWorker 2) updateTfFrameCounter() 3)SynchronizerWorker 4)NonCumulativeACFWorker
-        synchronized (L2) {
-            return counter;
+        return counter;
+    }
+
+    /**
+     * @param frame the frame, counted from 1.
+     * @return the System.nanoTime() at which the frame was published, 0 if it is not published or too old.
+     */
+    public long getPublishNanos(int frame) {
+        int current = counter;
+        if (frame < 1 || frame > current || current - frame >= TIMESTAMPS - 1) {
+            return 0;
         }
+        return publishNanos[frame % TIMESTAMPS];
+    }
+
+    /**
+     * Waits until a frame is published.
+     *
+     * @param frame     the frame to wait for, counted from 1.
+     * @param strategy  how to wait. With BLOCKING, the thread is woken once this frame is published.
+     * @param cancelled checked while waiting, the wait stops when it returns true.
+     * @return the number of frames published, lower than {@code frame} if the wait was cancelled or interrupted.
+     */
+    public int await(int frame, WaitStrategy strategy, BooleanSupplier cancelled) {
+        return await(frame, strategy, Long.MAX_VALUE, cancelled);
+    }
+
+    /**
+     * Waits until a frame is published or a timeout elapses.
+     *
+     * @param frame        the frame to wait for, counted from 1.
+     * @param strategy     how to wait.
+     * @param timeoutNanos the longest wait.
+     * @param cancelled    checked while waiting, the wait stops when it returns true.
+     * @return the number of frames published, lower than {@code frame} on timeout or cancellation.
+     */
+    public int await(int frame, WaitStrategy strategy, long timeoutNanos, BooleanSupplier cancelled) {
+        return waiters.await(this::getCounter, frame, strategy, timeoutNanos, cancelled);
     }
 }
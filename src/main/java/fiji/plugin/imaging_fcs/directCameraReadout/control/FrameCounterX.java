@@ -1,25 +1,36 @@
 package fiji.plugin.imaging_fcs.directCameraReadout.control;
 
-public class FrameCounterX {//TODO to syncrhonize or not to synchronize
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
-    private Object L1 = new Object();
-    private Object L2 = new Object();
-    private int count;
+public class FrameCounterX {
+    // number of frames copied to the cumulative ImageStack, lock-free for both the writer and the readers
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final FrameWaiters waiters = new FrameWaiters();
 
     public FrameCounterX() {
-        count = 0;
     }
 
     public void incrementby(int inc) {
-        synchronized (L1) {
-            count = count + inc;
-        }
+        waiters.signal(count.addAndGet(inc));
+    }
+
+    public int getCount() {
+        return count.get();
     }
 
-    public synchronized int getCount() {
-        synchronized (L2) {
-            return count;
-        }
+    /**
+     * Waits until the count reaches a value or a timeout elapses. The thread is woken by {@link #incrementby(int)}
+     * once the value is reached.
+     *
+     * @param target       the count to wait for.
+     * @param timeoutNanos the longest wait.
+     * @param cancelled    checked while waiting, the wait stops when it returns true.
+     * @return the count.
+     */
+    public int await(int target, long timeoutNanos, BooleanSupplier cancelled) {
+        return waiters.await(count::get, target, WaitStrategy.BLOCKING, timeoutNanos, cancelled);
     }
 
 }
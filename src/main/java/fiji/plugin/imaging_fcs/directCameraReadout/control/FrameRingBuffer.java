@@ -0,0 +1,454 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.control;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Ring of frames filled by the native runInfiniteLoop (Java1Dbuffer) and read by the workers.
+ * <p>
+ * The camera thread is the single producer: it copies frame n (counted from 1) to slot (n - 1) % capacity, then
+ * publishes it through the {@link FrameCounter}. Nothing is locked; each consumer holds its own {@link Cursor} and
+ * checks, after reading a slot, that the camera did not start overwriting it in the meantime. A consumer that falls
+ * more than a ring behind loses frames, which its cursor counts as overruns. How a cursor handles a camera faster
+ * than its consumer is given by its {@link ConsumerPolicy}.
+ * </p>
+ * <p>
+ * The frames are either in a Java array or in a direct buffer outside the Java heap. A direct buffer is written in
+ * place by the native loop, without a JNI copy per frame, and is read through {@link #get}, {@link #copy} and
+ * {@link #frameView} without knowing where it lives.
+ * </p>
+ */
+public class FrameRingBuffer {
+    // Unsafe.loadFence(), or null if it is not available
+    private static final MethodHandle LOAD_FENCE = findLoadFence();
+    private static volatile int fence;
+
+    private final ShortBuffer buffer;
+    private final short[] array;
+    private final int frameSize;
+    private final int capacity;
+    private final FrameCounter sequence;
+    private final List<Cursor> lossless = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param buffer    the array the native loop writes to.
+     * @param frameSize the number of pixels of a frame.
+     * @param sequence  the counter the native loop increments after each frame.
+     */
+    public FrameRingBuffer(short[] buffer, int frameSize, FrameCounter sequence) {
+        this(ShortBuffer.wrap(buffer), buffer, frameSize, sequence);
+    }
+
+    private FrameRingBuffer(ShortBuffer buffer, short[] array, int frameSize, FrameCounter sequence) {
+        if (frameSize <= 0 || buffer.capacity() < 2 * frameSize) {
+            throw new IllegalArgumentException("The buffer must hold at least two frames.");
+        }
+        this.buffer = buffer;
+        this.array = array;
+        this.frameSize = frameSize;
+        this.capacity = buffer.capacity() / frameSize;
+        this.sequence = sequence;
+    }
+
+    private static MethodHandle findLoadFence() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup().findVirtual(unsafeClass, "loadFence", MethodType.methodType(void.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the reads of a slot from being reordered after the following read of the frame counter, which a
+     * volatile read alone does not prevent. Without this fence, a consumer could check that a slot was not
+     * overwritten before its copy of the slot is actually done.
+     */
+    private static void loadFence() {
+        if (LOAD_FENCE != null) {
+            try {
+                LOAD_FENCE.invokeExact();
+                return;
+            } catch (Throwable ignored) {
+                // fall back to the volatile write below
+            }
+        }
+        // a volatile write is not reordered with the loads before it, nor with the volatile read after it
+        fence = 0;
+    }
+
+    /**
+     * Allocates a ring.
+     *
+     * @param length    the number of pixels of the ring.
+     * @param frameSize the number of pixels of a frame.
+     * @param sequence  the counter the camera increments after each frame.
+     * @param direct    true to allocate a direct buffer in native byte order, false for a Java array.
+     * @return the ring.
+     */
+    public static FrameRingBuffer allocate(int length, int frameSize, FrameCounter sequence, boolean direct) {
+        if (!direct) {
+            return new FrameRingBuffer(new short[length], frameSize, sequence);
+        }
+        ShortBuffer buffer = ByteBuffer.allocateDirect(length * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+        return new FrameRingBuffer(buffer, null, frameSize, sequence);
+    }
+
+    /**
+     * @return the storage of the frames, positioned at 0. Only the camera writes to it.
+     */
+    public ShortBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return true if the frames are outside the Java heap.
+     */
+    public boolean isDirect() {
+        return array == null;
+    }
+
+    /**
+     * @return the array holding the frames, null if the ring is direct.
+     */
+    public short[] array() {
+        return array;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public FrameCounter getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the number of frames published so far, which is also the last frame published.
+     */
+    public int getPublished() {
+        return sequence.getCounter();
+    }
+
+    /**
+     * @param frame the frame, counted from 1.
+     * @return the index of the first pixel of the frame in the buffer.
+     */
+    public int offsetOf(int frame) {
+        return ((frame - 1) % capacity) * frameSize;
+    }
+
+    /**
+     * Reads a pixel in place. The value is only valid if the frame is still readable afterwards.
+     *
+     * @param frame the frame, counted from 1.
+     * @param pixel the index of the pixel in the frame.
+     * @return the pixel value.
+     */
+    public short get(int frame, int pixel) {
+        return array != null ? array[offsetOf(frame) + pixel] : buffer.get(offsetOf(frame) + pixel);
+    }
+
+    /**
+     * Copies pixels of a frame. The copy is only valid if the frame is still readable afterwards.
+     *
+     * @param frame       the frame, counted from 1.
+     * @param pixel       the index of the first pixel in the frame.
+     * @param destination the array receiving the pixels.
+     * @param position    the index of the first pixel in the destination.
+     * @param length      the number of pixels.
+     */
+    public void copy(int frame, int pixel, short[] destination, int position, int length) {
+        if (array != null) {
+            System.arraycopy(array, offsetOf(frame) + pixel, destination, position, length);
+        } else {
+            ShortBuffer source = buffer.duplicate();
+            source.position(offsetOf(frame) + pixel);
+            source.get(destination, position, length);
+        }
+    }
+
+    /**
+     * Copies a frame to a buffer, at its position, which is moved past the frame. The copy is only valid if the
+     * frame is still readable afterwards.
+     *
+     * @param frame       the frame, counted from 1.
+     * @param destination the buffer receiving the frame, with room for a frame.
+     */
+    public void copy(int frame, ShortBuffer destination) {
+        int offset = offsetOf(frame);
+        if (array != null) {
+            destination.put(array, offset, frameSize);
+        } else {
+            ShortBuffer source = buffer.duplicate();
+            source.position(offset);
+            source.limit(offset + frameSize);
+            destination.put(source);
+        }
+    }
+
+    /**
+     * @param frame the frame, counted from 1.
+     * @return a read-only view of the frame, without copy. The camera overwrites it once the ring wrapped around.
+     */
+    public ShortBuffer frameView(int frame) {
+        ShortBuffer view = buffer.duplicate();
+        int offset = offsetOf(frame);
+        view.position(offset);
+        view.limit(offset + frameSize);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Tells if a frame can be read: it is published and its slot is not being overwritten. The slot of the oldest
+     * frame is the one the camera writes to next, so it does not count as readable.
+     *
+     * @param frame the frame, counted from 1.
+     * @return true if the frame is readable.
+     */
+    public boolean isReadable(int frame) {
+        int published = sequence.getCounter();
+        return frame >= 1 && frame <= published && published - frame < capacity - 1;
+    }
+
+    /**
+     * @return the oldest frame that is still readable.
+     */
+    public int getOldestReadable() {
+        return Math.max(1, sequence.getCounter() - capacity + 2);
+    }
+
+    /**
+     * Creates a cursor. A {@link ConsumerPolicy#LOSSLESS} cursor is tracked by {@link #getLosslessBacklog()} until it
+     * is closed.
+     *
+     * @param next   the first frame the cursor reads, counted from 1.
+     * @param policy what the consumer does when it falls behind.
+     * @return the cursor.
+     */
+    public Cursor newCursor(int next, ConsumerPolicy policy) {
+        Cursor cursor = new Cursor(next, policy);
+        if (policy == ConsumerPolicy.LOSSLESS) {
+            lossless.add(cursor);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the largest backlog of the open lossless cursors, 0 if there is none. The other consumers back off
+     * while it is high, so that the recording is not starved.
+     */
+    public int getLosslessBacklog() {
+        int backlog = 0;
+        for (Cursor cursor : lossless) {
+            backlog = Math.max(backlog, cursor.getBacklog());
+        }
+        return backlog;
+    }
+
+    /**
+     * Position of one consumer in the ring. A cursor is used by a single thread.
+     */
+    public final class Cursor {
+        private final ConsumerPolicy policy;
+        private volatile int next; // written by the consumer only, read by the others through getLosslessBacklog()
+        private long overruns;
+        private long decimated;
+
+        private Cursor(int next, ConsumerPolicy policy) {
+            this.next = Math.max(1, next);
+            this.policy = policy;
+        }
+
+        public ConsumerPolicy getPolicy() {
+            return policy;
+        }
+
+        /**
+         * @return the next frame to read, counted from 1.
+         */
+        public int getNext() {
+            return next;
+        }
+
+        /**
+         * @return the number of frames skipped on purpose by {@link #limitLag(int)}.
+         */
+        public long getDecimated() {
+            return decimated;
+        }
+
+        /**
+         * Moves the cursor forward if it is more than {@code maxLag} frames behind the newest published frame, and
+         * counts the skipped frames as decimated.
+         *
+         * @param maxLag the largest number of published frames left unread.
+         * @return the next frame to read.
+         */
+        public int limitLag(int maxLag) {
+            int first = sequence.getCounter() - maxLag + 1;
+            if (first > next) {
+                decimated += first - next;
+                next = first;
+            }
+            return next;
+        }
+
+        /**
+         * Stops tracking the backlog of a lossless cursor, once its consumer is done.
+         */
+        public void close() {
+            lossless.remove(this);
+        }
+
+        /**
+         * @return the number of frames published and not read yet by this consumer.
+         */
+        public int getBacklog() {
+            return Math.max(0, sequence.getCounter() - next + 1);
+        }
+
+        /**
+         * @return the number of frames this consumer lost because the camera overwrote them before they were read.
+         */
+        public long getOverruns() {
+            return overruns;
+        }
+
+        /**
+         * Waits until the next {@code count} frames are published.
+         *
+         * @param count     the number of frames to wait for.
+         * @param strategy  how to wait.
+         * @param cancelled checked while waiting, the wait stops when it returns true.
+         * @return true if the frames are published, false if the wait was cancelled.
+         */
+        public boolean await(int count, WaitStrategy strategy, BooleanSupplier cancelled) {
+            int last = next + count - 1;
+            return sequence.await(last, strategy, cancelled) >= last;
+        }
+
+        /**
+         * Waits for a batch of frames: returns once {@code frames} frames are published after the cursor, or once
+         * {@code maxWaitNanos} elapsed, whichever comes first. A consumer is thereby woken every N frames or every T
+         * nanoseconds, not on every frame.
+         *
+         * @param frames       the number of frames of a batch.
+         * @param maxWaitNanos the longest wait.
+         * @param strategy     how to wait.
+         * @param cancelled    checked while waiting, the wait stops when it returns true.
+         * @return the number of frames published and not read yet, which may be more or less than a batch.
+         */
+        public int awaitBatch(int frames, long maxWaitNanos, WaitStrategy strategy, BooleanSupplier cancelled) {
+            int published = sequence.await(next + frames - 1, strategy, maxWaitNanos, cancelled);
+            return Math.max(0, published - next + 1);
+        }
+
+        /**
+         * @param frame a frame read by this consumer.
+         * @return the time elapsed since the frame was published, in nanoseconds, -1 if it is too old to know.
+         */
+        public long latencyOf(int frame) {
+            long published = sequence.getPublishNanos(frame);
+            return published == 0 ? -1 : System.nanoTime() - published;
+        }
+
+        /**
+         * Moves the cursor.
+         *
+         * @param frame the next frame to read.
+         */
+        public void seek(int frame) {
+            next = Math.max(1, frame);
+        }
+
+        /**
+         * Moves the cursor past the newest published frame, dropping the unread frames without counting them as
+         * overruns. Used by the consumers that only care about the latest frames, like the live display.
+         *
+         * @return the newest published frame, 0 if none is published yet.
+         */
+        public int skipToLatest() {
+            int published = sequence.getCounter();
+            next = published + 1;
+            return published;
+        }
+
+        /**
+         * Copies the next frame and advances the cursor. If the frame was overwritten, the lost frames are counted,
+         * the cursor moves to the oldest readable frame and nothing is copied.
+         *
+         * @param destination the array receiving the frame, at least {@link #getFrameSize()} long.
+         * @return true if the frame was copied.
+         */
+        public boolean read(short[] destination) {
+            if (!validate(next)) {
+                return false;
+            }
+            copy(next, 0, destination, 0, frameSize);
+            // the copy is only valid if the camera did not reach the slot while it was read
+            if (!validate(next)) {
+                return false;
+            }
+            next++;
+            return true;
+        }
+
+        /**
+         * Copies the next frame to a buffer and advances the cursor, like {@link #read(short[])}. The position of the
+         * buffer only moves if the frame was copied.
+         *
+         * @param destination the buffer receiving the frame, with room for a frame.
+         * @return true if the frame was copied.
+         */
+        public boolean read(ShortBuffer destination) {
+            if (!validate(next)) {
+                return false;
+            }
+            int position = destination.position();
+            copy(next, destination);
+            if (!validate(next)) {
+                destination.position(position);
+                return false;
+            }
+            next++;
+            return true;
+        }
+
+        /**
+         * Checks that a window of frames starting at a frame is still readable, after it was read in place. If it
+         * is not, the lost frames are counted and the cursor moves to the oldest readable frame. The reads of the
+         * window made before the call are complete when the frame counter is checked.
+         *
+         * @param frame the first frame of the window.
+         * @return true if the frame was not overwritten.
+         */
+        public boolean validate(int frame) {
+            loadFence();
+            if (isReadable(frame)) {
+                return true;
+            }
+            int oldest = getOldestReadable();
+            if (frame < oldest) {
+                overruns += Math.max(0, oldest - Math.max(frame, next));
+                next = Math.max(next, oldest);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.control;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Threads waiting for a frame count. The writer calls {@link #signal(int)} after each update; it only wakes the
+ * threads whose count is reached, so a consumer waiting for a batch of frames is woken once per batch.
+ */
+final class FrameWaiters {
+    // bound on a blocking wait, so a consumer still checks for cancellation when no frame comes
+    private static final long BLOCKING_TIMEOUT_NANOS = 10_000_000; // 10 ms
+
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    private static final class Waiter {
+        final Thread thread;
+        final int target;
+
+        Waiter(Thread thread, int target) {
+            this.thread = thread;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Wakes the threads waiting for a count lower or equal to {@code count}.
+     *
+     * @param count the new count.
+     */
+    void signal(int count) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        for (Waiter waiter : waiters) {
+            if (count >= waiter.target) {
+                LockSupport.unpark(waiter.thread);
+            }
+        }
+    }
+
+    /**
+     * Waits until a count reaches a target, a timeout elapses or the wait is cancelled.
+     *
+     * @param count        reads the count.
+     * @param target       the count to wait for.
+     * @param strategy     how to wait.
+     * @param timeoutNanos the longest wait, Long.MAX_VALUE to wait without timeout.
+     * @param cancelled    checked while waiting, the wait stops when it returns true.
+     * @return the last count read.
+     */
+    int await(IntSupplier count, int target, WaitStrategy strategy, long timeoutNanos, BooleanSupplier cancelled) {
+        int current = count.getAsInt();
+        if (current >= target || timeoutNanos <= 0) {
+            return current;
+        }
+
+        long start = System.nanoTime();
+        Thread thread = Thread.currentThread();
+        Waiter waiter = strategy == WaitStrategy.BLOCKING ? new Waiter(thread, target) : null;
+        if (waiter != null) {
+            // registered before the count is read again, so an update in between still wakes the thread
+            waiters.add(waiter);
+        }
+        try {
+            while ((current = count.getAsInt()) < target) {
+                long remaining = timeoutNanos - (System.nanoTime() - start);
+                if (remaining <= 0 || cancelled.getAsBoolean() || thread.isInterrupted()) {
+                    break;
+                }
+                if (waiter != null) {
+                    LockSupport.parkNanos(this, Math.min(remaining, BLOCKING_TIMEOUT_NANOS));
+                } else {
+                    strategy.idle();
+                }
+            }
+            return current;
+        } finally {
+            if (waiter != null) {
+                waiters.remove(waiter);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.control;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Stack of consecutive frames of a {@link FrameRingBuffer}, cropped to a rectangle, read in place. Nothing is copied
+ * when the window moves: the same stack is reused for every interval of a live analysis.
+ * <p>
+ * {@link #getValue(int, int, int)} reads one pixel without copy and is what the correlator uses. The generic
+ * {@link ImageStack} accessors ({@link #getPixels(int)}, {@link #getProcessor(int)}) still work but copy the slice.
+ * The values are only valid while the camera has not wrapped around the window: check the window with a
+ * {@link FrameRingBuffer.Cursor} once it was read.
+ * </p>
+ */
+public class FrameWindowStack extends ImageStack {
+    private final FrameRingBuffer ring;
+    private final int frameWidth;
+    private final int left;
+    private final int top;
+    private final int width;
+    private final int height;
+    private int first;
+    private int frames;
+
+    /**
+     * @param ring       the ring.
+     * @param frameWidth the width of the frames of the ring.
+     * @param left       the first column of the rectangle, counted from 0.
+     * @param top        the first row of the rectangle, counted from 0.
+     * @param width      the width of the rectangle.
+     * @param height     the height of the rectangle.
+     */
+    public FrameWindowStack(FrameRingBuffer ring, int frameWidth, int left, int top, int width, int height) {
+        super(width, height);
+        if (left < 0 || top < 0 || left + width > frameWidth || (top + height) * frameWidth > ring.getFrameSize()) {
+            throw new IllegalArgumentException("The rectangle must fit in the frames of the ring.");
+        }
+        this.ring = ring;
+        this.frameWidth = frameWidth;
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Moves the window.
+     *
+     * @param first  the first frame, counted from 1.
+     * @param frames the number of frames, at most the capacity of the ring minus one.
+     */
+    public void setWindow(int first, int frames) {
+        if (frames > ring.getCapacity() - 1) {
+            throw new IllegalArgumentException("The window is larger than the ring.");
+        }
+        this.first = first;
+        this.frames = frames;
+    }
+
+    /**
+     * @return the first frame of the window, counted from 1.
+     */
+    public int getFirst() {
+        return first;
+    }
+
+    /**
+     * @return true if this stack shows this rectangle of this ring.
+     */
+    public boolean isViewOf(FrameRingBuffer ring, int left, int top, int width, int height) {
+        return this.ring == ring && this.left == left && this.top == top && this.width == width &&
+                this.height == height;
+    }
+
+    /**
+     * @param x the column in the rectangle.
+     * @param y the row in the rectangle.
+     * @param n the slice, counted from 1.
+     * @return the unsigned pixel value, read in place.
+     */
+    public int getValue(int x, int y, int n) {
+        return ring.get(first + n - 1, (top + y) * frameWidth + left + x) & 0xffff;
+    }
+
+    @Override
+    public int getSize() {
+        return frames;
+    }
+
+    @Override
+    public int size() {
+        return frames;
+    }
+
+    /**
+     * @return true, the slices are not held by the stack.
+     */
+    @Override
+    public boolean isVirtual() {
+        return true;
+    }
+
+    @Override
+    public int getBitDepth() {
+        return 16;
+    }
+
+    /**
+     * @return a copy of the slice.
+     */
+    @Override
+    public Object getPixels(int n) {
+        if (n < 1 || n > frames) {
+            throw new IllegalArgumentException("Argument out of range: " + n);
+        }
+        short[] pixels = new short[width * height];
+        int frame = first + n - 1;
+        for (int y = 0; y < height; y++) {
+            ring.copy(frame, (top + y) * frameWidth + left, pixels, y * width, width);
+        }
+        return pixels;
+    }
+
+    /**
+     * @return a processor over a copy of the slice.
+     */
+    @Override
+    public ImageProcessor getProcessor(int n) {
+        return new ShortProcessor(width, height, (short[]) getPixels(n), null);
+    }
+
+    @Override
+    public String getSliceLabel(int n) {
+        return null;
+    }
+
+    /**
+     * Does nothing, the frames belong to the camera.
+     */
+    @Override
+    public void setPixels(Object pixels, int n) {
+    }
+
+    @Override
+    public float[] getVoxels(int x0, int y0, int z0, int w, int h, int d, float[] voxels) {
+        if (voxels == null || voxels.length != w * h * d) {
+            voxels = new float[w * h * d];
+        }
+        int i = 0;
+        for (int z = z0; z < z0 + d; z++) {
+            for (int y = y0; y < y0 + h; y++) {
+                for (int x = x0; x < x0 + w; x++) {
+                    voxels[i++] = getValue(x, y, z + 1);
+                }
+            }
+        }
+        return voxels;
+    }
+}
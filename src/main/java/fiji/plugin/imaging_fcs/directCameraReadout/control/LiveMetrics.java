@@ -0,0 +1,102 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.control;
+
+import ij.measure.ResultsTable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Registry of the {@link StageLatency} of the live pipeline (camera, live video, recording, correlations, ICCS), one
+ * per stage. Each worker registers its stage when it is created, replacing the one of the previous run, so that the
+ * registry always shows the last run of every stage.
+ */
+public final class LiveMetrics {
+    private static final Map<String, StageLatency> STAGES = new LinkedHashMap<>();
+
+    private LiveMetrics() {
+    }
+
+    /**
+     * Creates the metrics of a stage and registers them in place of the previous ones.
+     *
+     * @param stage the name of the stage.
+     * @return the new metrics.
+     */
+    public static synchronized StageLatency newStage(String stage) {
+        StageLatency latency = new StageLatency(stage);
+        STAGES.put(stage, latency);
+        return latency;
+    }
+
+    public static synchronized List<StageLatency> getStages() {
+        return new ArrayList<>(STAGES.values());
+    }
+
+    public static synchronized void clear() {
+        STAGES.clear();
+    }
+
+    /**
+     * @return one row per stage, latencies in ms.
+     */
+    public static ResultsTable toTable() {
+        ResultsTable table = new ResultsTable();
+        table.showRowNumbers(false);
+        for (StageLatency latency : getStages()) {
+            table.incrementCounter();
+            table.addValue("Stage", latency.getStage());
+            table.addValue("Frames", latency.getCount());
+            table.addValue("Mean [ms]", latency.getMeanMillis());
+            table.addValue("p50 [ms]", latency.getPercentileMillis(50));
+            table.addValue("p99 [ms]", latency.getPercentileMillis(99));
+            table.addValue("Max [ms]", latency.getMaxMillis());
+            table.addValue("Backlog", latency.getBacklog());
+            table.addValue("Max backlog", latency.getMaxBacklog());
+            table.addValue("Overruns", latency.getOverruns());
+            table.addValue("Decimated", latency.getDecimated());
+        }
+        return table;
+    }
+
+    /**
+     * Writes the metrics to a file: JSON if the name ends with .json, CSV otherwise.
+     *
+     * @param file the file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void save(File file) throws IOException {
+        if (file.getName().toLowerCase().endsWith(".json")) {
+            try (FileWriter writer = new FileWriter(file)) {
+                writer.write(toJson().toJSONString());
+            }
+        } else if (!toTable().save(file.getPath())) {
+            throw new IOException("Cannot write " + file.getPath());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONArray toJson() {
+        JSONArray stages = new JSONArray();
+        for (StageLatency latency : getStages()) {
+            JSONObject stage = new JSONObject();
+            stage.put("stage", latency.getStage());
+            stage.put("frames", latency.getCount());
+            stage.put("mean [ms]", latency.getMeanMillis());
+            stage.put("p50 [ms]", latency.getPercentileMillis(50));
+            stage.put("p99 [ms]", latency.getPercentileMillis(99));
+            stage.put("max [ms]", latency.getMaxMillis());
+            stage.put("backlog", latency.getBacklog());
+            stage.put("max backlog", latency.getMaxBacklog());
+            stage.put("overruns", latency.getOverruns());
+            stage.put("decimated", latency.getDecimated());
+            stages.add(stage);
+        }
+        return stages;
+    }
+}
@@ -0,0 +1,63 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.control;
+
+import java.nio.ShortBuffer;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * {@link Camera} over the native methods of an SDK class: runInfiniteLoop for a Java array, runInfiniteLoopDirect for
+ * a direct buffer and setStopMechanism.
+ * <p>
+ * Libraries built before runInfiniteLoopDirect was added do not have it; the camera then reports that direct buffers
+ * are not supported and the ring is allocated on the Java heap as before.
+ * </p>
+ */
+public final class NativeCamera implements Camera {
+    private final BiConsumer<short[], FrameCounter> arrayLoop;
+    private final BiConsumer<ShortBuffer, FrameCounter> directLoop;
+    private final BooleanSupplier directSupported;
+    private final Consumer<Boolean> stopMechanism;
+    private Boolean isDirectBufferSupported;
+
+    /**
+     * @param arrayLoop       the native loop writing to a Java array.
+     * @param directLoop      the native loop writing to a direct buffer.
+     * @param directSupported the native check of the direct loop.
+     * @param stopMechanism   the native stop.
+     */
+    public NativeCamera(BiConsumer<short[], FrameCounter> arrayLoop, BiConsumer<ShortBuffer, FrameCounter> directLoop,
+                        BooleanSupplier directSupported, Consumer<Boolean> stopMechanism) {
+        this.arrayLoop = arrayLoop;
+        this.directLoop = directLoop;
+        this.directSupported = directSupported;
+        this.stopMechanism = stopMechanism;
+    }
+
+    @Override
+    public synchronized boolean isDirectBufferSupported() {
+        if (isDirectBufferSupported == null) {
+            try {
+                isDirectBufferSupported = directSupported.getAsBoolean();
+            } catch (UnsatisfiedLinkError e) {
+                // library built without the direct loop
+                isDirectBufferSupported = false;
+            }
+        }
+        return isDirectBufferSupported;
+    }
+
+    @Override
+    public void acquire(FrameRingBuffer ring) {
+        if (ring.isDirect()) {
+            directLoop.accept(ring.getBuffer(), ring.getSequence());
+        } else {
+            arrayLoop.accept(ring.array(), ring.getSequence());
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopMechanism.accept(true);
+    }
+}
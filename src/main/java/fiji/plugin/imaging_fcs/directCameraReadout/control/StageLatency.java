@@ -0,0 +1,146 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.control;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time between the publication of a frame by the camera and the moment a stage is done with it (displayed, stored,
+ * correlated...). Updated by the stage thread, read by any thread.
+ * <p>
+ * Besides the mean and the maximum, the latencies are counted in a histogram with one bucket per power of two of
+ * microseconds, enough for percentiles. When the stage reads the ring with a cursor, the frames waiting for it
+ * (backlog), the frames it lost (overruns) and the frames it skipped on purpose (decimated) are sampled too.
+ * </p>
+ */
+public class StageLatency {
+    // bucket i holds the latencies from 2^i to 2^(i+1) us, the last one everything above ~ 30 s
+    private static final int BUCKETS = 26;
+
+    private final String stage;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] histogram = new LongAdder[BUCKETS];
+    private final LongAccumulator maxBacklog = new LongAccumulator(Math::max, 0);
+    private volatile long backlog;
+    private volatile long overruns;
+    private volatile long decimated;
+
+    public StageLatency(String stage) {
+        this.stage = stage;
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    /**
+     * Records the latency of a frame, and samples the backlog, the overruns and the decimated frames of the cursor.
+     *
+     * @param cursor the cursor of the stage.
+     * @param frame  the frame the stage is done with.
+     */
+    public void record(FrameRingBuffer.Cursor cursor, int frame) {
+        record(cursor.latencyOf(frame));
+        update(cursor);
+    }
+
+    /**
+     * @param nanos a latency in nanoseconds, ignored if negative (unknown).
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        histogram[bucketOf(nanos)].increment();
+    }
+
+    /**
+     * Samples the backlog, the overruns and the decimated frames of a cursor, e.g. once the stage stops.
+     *
+     * @param cursor the cursor of the stage.
+     */
+    public void update(FrameRingBuffer.Cursor cursor) {
+        backlog = cursor.getBacklog();
+        maxBacklog.accumulate(backlog);
+        overruns = cursor.getOverruns();
+        decimated = cursor.getDecimated();
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        return micros == 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100.
+     * @return an upper bound of the percentile: the upper edge of its histogram bucket, at most the maximum.
+     */
+    public double getPercentileMillis(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * n);
+        long cumulated = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            cumulated += histogram[i].sum();
+            if (cumulated >= rank) {
+                return Math.min((2L << i) / 1e3, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * @return the frames published and not read yet by the stage, when last sampled.
+     */
+    public long getBacklog() {
+        return backlog;
+    }
+
+    public long getMaxBacklog() {
+        return maxBacklog.get();
+    }
+
+    /**
+     * @return the frames overwritten before the stage read them, when last sampled.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return the frames skipped on purpose by a bounded-lag stage, when last sampled.
+     */
+    public long getDecimated() {
+        return decimated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s latency: %d frame(s), mean %.3f ms, p99 %.3f ms, max %.3f ms", stage, getCount(),
+                getMeanMillis(), getPercentileMillis(99), getMaxMillis()) +
+                (overruns > 0 ? ", " + overruns + " frame(s) overrun" : "") +
+                (decimated > 0 ? ", " + decimated + " frame(s) decimated" : "");
+    }
+}
@@ -0,0 +1,43 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.control;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a consumer of the live frames waits for the camera to publish a frame.
+ */
+public enum WaitStrategy {
+    /**
+     * Re-reads the frame counter without giving up the core. Lowest latency, one core is kept busy.
+     */
+    BUSY_SPIN,
+    /**
+     * Yields the core between reads of the frame counter.
+     */
+    YIELDING,
+    /**
+     * Parks for a short time between reads of the frame counter, no wakeup is needed from the camera thread.
+     */
+    SLEEPING,
+    /**
+     * Parks until the camera thread publishes the frame waited for.
+     */
+    BLOCKING;
+
+    private static final long SLEEP_NANOS = 100_000; // 0.1 ms
+
+    /**
+     * Waits once, after a read of the frame counter saw no new frame. BLOCKING is handled by the counter waited on,
+     * which registers the thread to be woken up before parking.
+     */
+    void idle() {
+        switch (this) {
+            case BUSY_SPIN:
+                break;
+            case YIELDING:
+                Thread.yield();
+                break;
+            default:
+                LockSupport.parkNanos(SLEEP_NANOS);
+        }
+    }
+}
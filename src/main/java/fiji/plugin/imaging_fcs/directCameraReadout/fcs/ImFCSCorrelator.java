@@ -5,6 +5,7 @@
  */
 package fiji.plugin.imaging_fcs.directCameraReadout.fcs;
 
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameWindowStack;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel.Common;
 import fiji.plugin.imaging_fcs.gpufit.*;
@@ -12,11 +13,11 @@ import fiji.plugin.imaging_fcs.imfcs.gpu.GpuCorrelator;
 import fiji.plugin.imaging_fcs.imfcs.gpu.GpuParameters;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.gui.HistogramWindow;
 import ij.gui.Plot;
 import ij.gui.PlotWindow;
 import ij.gui.Roi;
-import ij.process.ImageProcessor;
 import org.apache.commons.math3.analysis.ParametricUnivariateFunction;
 import org.apache.commons.math3.analysis.UnivariateFunction;
 import org.apache.commons.math3.analysis.solvers.BrentSolver;
@@ -32,6 +33,9 @@ import org.apache.commons.math3.special.Erf;
 import javax.swing.*;
 import java.awt.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import static fiji.plugin.imaging_fcs.directCameraReadout.gui.parameterName.modeType.$amode;
 
@@ -273,7 +277,7 @@ public class ImFCSCorrelator {
     private double msdaveacf[];                // Array to store variance of the average FCS function
     private double resaveacf[];                // Array to store residuals of the average FCS function
     private double chi2aveacf;                // chi2 value for fit of average ACF function
-    private double[][] datac;
+    private final Queue<PixelBuffers> pixelBuffers = new ConcurrentLinkedQueue<>();    // see takePixelBuffers()
     private int noparam = 11;
     private boolean[] paramfit;
     private int[] lag;
@@ -305,7 +309,6 @@ public class ImFCSCorrelator {
     private double mind;
     private double maxd;
     private int nopit = 1;                // points in the shortened intensity traces for plotting
-    private int blockIndS;
     // Image window
     private int impmin;            // minimum value in the stack
     private double scimp;        // scaling factor to adjust window to an acceptable size for the user
@@ -506,6 +509,16 @@ public class ImFCSCorrelator {
         closeWindowsCalibration();
     }
 
+    // shows a plot in a new window at the given position; in batch mode (headless runs) ImageJ opens no window and
+    // null is returned, so that the next plot tries again
+    private PlotWindow showPlot(Plot plot, int posX, int posY) {
+        PlotWindow window = plot.show();
+        if (window != null) {
+            window.setLocation(posX, posY);
+        }
+        return window;
+    }
+
     public void runPlotACF() {
 
         if (!plotACFCurves && !plotIntensityCurves) {
@@ -659,7 +672,7 @@ public class ImFCSCorrelator {
                             if (improi.contains(x1, x2) && improi.contains(x1, x2 + binningY - 1) &&
                                     improi.contains(x1 + binningX - 1, x2) &&
                                     improi.contains(x1 + binningX - 1, x2 + binningY - 1)) {
-                                filterArray[x1][x2] += imp.getStack().getProcessor(firstframe).get(x1 + x3, x2 + x4);
+                                filterArray[x1][x2] += pixel(imp.getStack(), firstframe, x1 + x3, x2 + x4);
                                 pixcount++;
                             } else {
                                 filterArray[x1][x2] = Float.NaN;
@@ -692,23 +705,15 @@ public class ImFCSCorrelator {
                     //                        IJ.showProgress(x - startXmap, startXmap - endXmap);
                     //                    }
                 } else {
+                    ArrayList<Point> pixels = new ArrayList<>();
                     for (int x = startXmap; x <= endXmap; x++) {
                         for (int y = startYmap; y <= endYmap; y++) {
                             if (!Float.isNaN(filterArray[x * pixbinX][y * pixbinY])) {
-                                if (use2imp) {
-                                    calcIntensityTrace(imp, imp2, x * pixbinX, y * pixbinY, firstframe, lastframe);
-                                    correlate(imp, imp2, x * pixbinX, y * pixbinY, 2, firstframe, lastframe);
-                                } else {
-                                    calcIntensityTrace(imp, x * pixbinX, y * pixbinY, x * pixbinX + cfXDistance,
-                                            y * pixbinY + cfYDistance, firstframe, lastframe);
-                                    correlate(imp, x * pixbinX, y * pixbinY, x * pixbinX + cfXDistance,
-                                            y * pixbinY + cfYDistance, 0, firstframe, lastframe);
-                                }
-
+                                pixels.add(new Point(x, y));
                             }
-                            IJ.showProgress(x - startXmap, startXmap - endXmap);
                         }
                     }
+                    correlatePixels(pixels, false);
                 }
             }
 
@@ -761,34 +766,15 @@ public class ImFCSCorrelator {
                     //                        IJ.showProgress(x - startXmap, startXmap - endXmap);
                     //                    }
                 } else {
+                    ArrayList<Point> pixels = new ArrayList<>();
                     for (int x = startXmap; x <= endXmap; x++) {
                         for (int y = startYmap; y <= endYmap; y++) {
                             if (filterArray[x * pixbinX][y * pixbinY] >= 0) {
-                                if (use2imp) {
-                                    calcIntensityTrace(imp, imp2, x * pixbinX, y * pixbinY, firstframe, lastframe);
-                                    correlate(imp, imp2, x * pixbinX, y * pixbinY, 0, firstframe, lastframe);
-                                    correlate(imp, imp2, x * pixbinX, y * pixbinY, 1, firstframe, lastframe);
-                                    correlate(imp, imp2, x * pixbinX, y * pixbinY, 2, firstframe, lastframe);
-                                } else {
-                                    calcIntensityTrace(imp, x * pixbinX, y * pixbinY, x * pixbinX, y * pixbinY,
-                                            firstframe, lastframe);
-                                    correlate(imp, x * pixbinX, y * pixbinY, x * pixbinX, y * pixbinY, 0, firstframe,
-                                            lastframe);
-                                    calcIntensityTrace(imp, x * pixbinX + cfXDistance, y * pixbinY + cfYDistance,
-                                            x * pixbinX + cfXDistance, y * pixbinY + cfYDistance, firstframe,
-                                            lastframe);
-                                    correlate(imp, x * pixbinX + cfXDistance, y * pixbinY + cfYDistance,
-                                            x * pixbinX + cfXDistance, y * pixbinY + cfYDistance, 1, firstframe,
-                                            lastframe);
-                                    calcIntensityTrace(imp, x * pixbinX, y * pixbinY, x * pixbinX + cfXDistance,
-                                            y * pixbinY + cfYDistance, firstframe, lastframe);
-                                    correlate(imp, x * pixbinX, y * pixbinY, x * pixbinX + cfXDistance,
-                                            y * pixbinY + cfYDistance, 2, firstframe, lastframe);
-                                }
+                                pixels.add(new Point(x, y));
                             }
                         }
-                        IJ.showProgress(x - startXmap, startXmap - endXmap);
                     }
+                    correlatePixels(pixels, true);
                 }
             }
 
@@ -1030,8 +1016,7 @@ public class ImFCSCorrelator {
             //            }
             // either create a new plot window or plot within the existing window
             if (acfWindow == null || acfWindow.isClosed() == true) {
-                acfWindow = acfPlot.show();
-                acfWindow.setLocation(acfWindowPosX, acfWindowPosY);
+                acfWindow = showPlot(acfPlot, acfWindowPosX, acfWindowPosY);
             } else {
                 acfWindow.drawPlot(acfPlot);
                 acfWindow.setTitle($acfWindowTitle);
@@ -1185,8 +1170,7 @@ public class ImFCSCorrelator {
 
             // either create a new plot window or plot within the existing window
             if (acfWindow == null || acfWindow.isClosed() == true) {
-                acfWindow = acfPlot.show();
-                acfWindow.setLocation(acfWindowPosX, acfWindowPosY);
+                acfWindow = showPlot(acfPlot, acfWindowPosX, acfWindowPosY);
             } else {
                 acfWindow.drawPlot(acfPlot);
                 acfWindow.setTitle($acfWindowTitle);
@@ -1331,8 +1315,7 @@ public class ImFCSCorrelator {
 
             // either create a new plot window or plot within the existing window
             if (acfWindow == null || acfWindow.isClosed() == true) {
-                acfWindow = acfPlot.show();
-                acfWindow.setLocation(acfWindowPosX, acfWindowPosY);
+                acfWindow = showPlot(acfPlot, acfWindowPosX, acfWindowPosY);
             } else {
                 acfWindow.drawPlot(acfPlot);
                 acfWindow.setTitle($acfWindowTitle);
@@ -1436,8 +1419,7 @@ public class ImFCSCorrelator {
 
             // either create a new plot window or plot within the existing window
             if (acfWindow == null || acfWindow.isClosed() == true) {
-                acfWindow = acfPlot.show();
-                acfWindow.setLocation(acfWindowPosX, acfWindowPosY);
+                acfWindow = showPlot(acfPlot, acfWindowPosX, acfWindowPosY);
             } else {
                 acfWindow.drawPlot(acfPlot);
                 acfWindow.setTitle($acfWindowTitle);
@@ -1539,8 +1521,7 @@ public class ImFCSCorrelator {
 
             // either create a new plot window or plot within the existing window
             if (acfWindow == null || acfWindow.isClosed() == true) {
-                acfWindow = acfPlot.show();
-                acfWindow.setLocation(acfWindowPosX, acfWindowPosY);
+                acfWindow = showPlot(acfPlot, acfWindowPosX, acfWindowPosY);
             } else {
                 acfWindow.drawPlot(acfPlot);
                 acfWindow.setTitle($acfWindowTitle);
@@ -1685,8 +1666,7 @@ public class ImFCSCorrelator {
 
             // either create a new plot window or plot within the existing window
             if (acfWindow == null || acfWindow.isClosed() == true) {
-                acfWindow = acfPlot.show();
-                acfWindow.setLocation(acfWindowPosX, acfWindowPosY);
+                acfWindow = showPlot(acfPlot, acfWindowPosX, acfWindowPosY);
             } else {
                 acfWindow.drawPlot(acfPlot);
                 acfWindow.setTitle($acfWindowTitle);
@@ -1732,8 +1712,7 @@ public class ImFCSCorrelator {
 
         if (sdWindow == null ||
                 sdWindow.isClosed() == true) {    // create new plot if window doesn't exist, or reuse existing window
-            sdWindow = sdplot.show();
-            sdWindow.setLocation(sdWindowPosX, sdWindowPosY);
+            sdWindow = showPlot(sdplot, sdWindowPosX, sdWindowPosY);
         } else {
             sdWindow.drawPlot(sdplot);
             sdWindow.setTitle($sdWindowTitle);
@@ -1834,8 +1813,7 @@ public class ImFCSCorrelator {
 
             if (intWindow == null || intWindow.isClosed() ==
                     true) {    // create new plot if window doesn't exist, or reuse existing window
-                intWindow = iplot.show();
-                intWindow.setLocation(intWindowPosX, intWindowPosY);
+                intWindow = showPlot(iplot, intWindowPosX, intWindowPosY);
             } else {
                 intWindow.drawPlot(iplot);
                 intWindow.setTitle($intWindowTitle);
@@ -1885,8 +1863,7 @@ public class ImFCSCorrelator {
 
             if (intWindow == null || intWindow.isClosed() ==
                     true) {    // create new plot if window doesn't exist, or reuse existing window
-                intWindow = iplot.show();
-                intWindow.setLocation(intWindowPosX, intWindowPosY);
+                intWindow = showPlot(iplot, intWindowPosX, intWindowPosY);
             } else {
                 intWindow.drawPlot(iplot);
                 intWindow.setTitle($intWindowTitle);
@@ -2387,7 +2364,7 @@ public class ImFCSCorrelator {
                         for (int x4 = 0; x4 < binningX; x4++) {
                             for (int x5 = 0; x5 < binningY; x5++) {
                                 if (!Float.isNaN(filterArray[x1][x2])) {
-                                    intTrace1[i] += imp.getStack().getProcessor(j).get(x1 + x4, x2 + x5) - bckg;
+                                    intTrace1[i] += pixel(imp.getStack(), j, x1 + x4, x2 + x5) - bckg;
                                     pixcount++;
                                     intTime[i] = frametime * (i + 0.5) * ave;
                                 }
@@ -2602,7 +2579,7 @@ public class ImFCSCorrelator {
 
     private double getAverageInt() {
         //calculate average counts of size RoiX * RoiY * RoiZ
-        ImageProcessor ip;
+        ImageStack stack = imp.getStack();
         double res = 0.0;
         int startXmap = 0;
         int startYmap = 0;
@@ -2613,13 +2590,12 @@ public class ImFCSCorrelator {
         //        startYmap + ", endXmap: " + endXmap + ", endYmap" + endYmap);
         int counter = 0;
         for (int z = firstframe; z <= lastframe; z++) {
-            ip = imp.getStack().getProcessor(z);
             for (int x = startXmap; x <= endXmap; x++) {
                 for (int y = startYmap; y <= endYmap; y++) {
 
                     for (int j = 0; j < binningX; j++) {
                         for (int k = 0; k < binningY; k++) {
-                            res += ip.getPixel((x * pixbinX) + j, (y * pixbinY) + k);
+                            res += pixel(stack, z, (x * pixbinX) + j, (y * pixbinY) + k);
                         }
                     }
 
@@ -2710,8 +2686,7 @@ public class ImFCSCorrelator {
 
             if (ampCalibWindow == null || ampCalibWindow.isClosed() ==
                     true) {    // create new plot if window doesn't exist, or reuse existing window
-                ampCalibWindow = CalibAmplitudePlot.show();
-                ampCalibWindow.setLocation(ampCalibWindowPosX, ampCalibWindowPosY);
+                ampCalibWindow = showPlot(CalibAmplitudePlot, ampCalibWindowPosX, ampCalibWindowPosY);
 
             } else {
                 ampCalibWindow.drawPlot(CalibAmplitudePlot);
@@ -2769,8 +2744,7 @@ public class ImFCSCorrelator {
 
             if (DiffCalibWindow == null || DiffCalibWindow.isClosed() ==
                     true) {    // create new plot if window doesn't exist, or reuse existing window
-                DiffCalibWindow = CalibDiffusionPlot.show();
-                DiffCalibWindow.setLocation(DCalibWindowPosX, DCalibWindowPosY);
+                DiffCalibWindow = showPlot(CalibDiffusionPlot, DCalibWindowPosX, DCalibWindowPosY);
 
             } else {
                 DiffCalibWindow.drawPlot(CalibDiffusionPlot);
@@ -2831,8 +2805,7 @@ public class ImFCSCorrelator {
 
             if (intCalibWindow == null || intCalibWindow.isClosed() ==
                     true) {    // create new plot if window doesn't exist, or reuse existing window
-                intCalibWindow = CalibIntensityPlot.show();
-                intCalibWindow.setLocation(IntCalibWindowPosX, IntCalibWindowPosY);
+                intCalibWindow = showPlot(CalibIntensityPlot, IntCalibWindowPosX, IntCalibWindowPosY);
 
             } else {
                 intCalibWindow.drawPlot(CalibIntensityPlot);
@@ -3312,15 +3285,23 @@ public class ImFCSCorrelator {
         //        printlog("--fromImFCSCPUGPU class");
     }
 
+    // pixel (x, y) of slice z, counted from 1. The live frames are read in place instead of through a processor.
+    private static int pixel(ImageStack stack, int z, int x, int y) {
+        if (stack instanceof FrameWindowStack) {
+            return ((FrameWindowStack) stack).getValue(x, y, z);
+        }
+        return stack.getProcessor(z).get(x, y);
+    }
+
     // determine minimum value in stack
     public int minDetermination(ImagePlus image) {
         int min;
-        min = image.getStack().getProcessor(1).get(0, 0);
+        min = pixel(image.getStack(), 1, 0, 0);
         for (int z = 1; z <= frames; z++) {
             for (int x = 0; x < width; x++) {
                 for (int y = 0; y < height; y++) {
-                    if (image.getStack().getProcessor(z).get(x, y) < min) {
-                        min = image.getStack().getProcessor(z).get(x, y);
+                    if (pixel(image.getStack(), z, x, y) < min) {
+                        min = pixel(image.getStack(), z, x, y);
                     }
                 }
             }
@@ -3368,55 +3349,81 @@ public class ImFCSCorrelator {
         }
     }
 
-    // calculate reduced intensity traces for plotting average and use not more than 'nopit' (defined in
-    // setParameters()) points for a trace
-    public void calcIntensityTrace(ImagePlus image, int ipx1, int ipy1, int ipx2, int ipy2, int initialframe,
-                                   int finalframe) {
-        // image: imp form which intensity will be taken
-        // px1, py1, px2, py2: coordinates of pixels to be correlated
-        // initialframe and finalframe provide the range of frames to be used
-        int ave = (int) Math.floor(
-                (finalframe - initialframe + 1) / nopit); // calculate number of data points which are averaged
-        int sum1;
-        int sum2;
-        int bckg1 = background; // artificially setted to zero to make sure we dont subrtract background when displaying
-        // intensity trance; does not affect ACF
-        int bckg2 = background;    //needs to be adapted for background2 once available
+    // correlate the pixels (on the binned grid) of a ROI, in parallel unless the blocking curves are plotted. The last
+    // pixel is correlated last, on this thread, so that the intensity traces plotted are the ones of the last pixel.
+    private void correlatePixels(ArrayList<Point> pixels, boolean dcfccs) {
+        if (pixels.isEmpty()) {
+            return;
+        }
+        int last = pixels.size() - 1;
+        AtomicInteger done = new AtomicInteger();
+        IntStream range = IntStream.range(0, last);
+        if (!plotBlockingCurve) {
+            range = range.parallel();
+        }
+        range.forEach(i -> {
+            PixelBuffers buffers = takePixelBuffers();
+            correlatePixel(pixels.get(i), dcfccs, buffers);
+            pixelBuffers.offer(buffers);
+            IJ.showProgress(done.incrementAndGet(), pixels.size());
+        });
+
+        PixelBuffers buffers = takePixelBuffers();
+        correlatePixel(pixels.get(last), dcfccs, buffers);
+        intTime = buffers.intTime.clone();
+        intTrace1 = buffers.intTrace1.clone();
+        intTrace2 = buffers.intTrace2.clone();
+        currentCovmats = buffers.covmats;
+        pixelBuffers.offer(buffers);
+        IJ.showProgress(1.0);
+    }
 
-        if (fitModel == "DC-FCCS") {
-            bckg2 = background2;
+    // buffers sized for the current settings, reused if a previous pixel gave them back
+    private PixelBuffers takePixelBuffers() {
+        PixelBuffers buffers = pixelBuffers.poll();
+        if (buffers == null) {
+            buffers = new PixelBuffers();
         }
+        buffers.ensureCapacity(nopit, lastframe - firstframe + 1, chanum);
+        return buffers;
+    }
 
-        for (int x = 0; x < nopit; x++) {
-            sum1 = 0;    // initialize arrays with 0
-            sum2 = 0;
-            for (int i = 0; i < binningX; i++) {
-                for (int k = 0; k < binningY; k++) {
-                    for (int y = initialframe + x * ave; y <= initialframe + (x + 1) * ave - 1; y++) {
-                        if (bgrloaded) { // if a background image is loaded, then subtract the mean of the background
-                            // image for each pixel
-                            bckg1 = (int) Math.round(bgrmean[ipx1 + i][ipy1 + k]);
-                            bckg2 = (int) Math.round(bgrmean[ipx1 + i][ipy1 + k]);
-                        }
-                        sum1 += image.getStack().getProcessor(y).get(ipx1 + i, ipy1 + k) - bckg1;
-                        sum2 += image.getStack().getProcessor(y).get(ipx2 + i, ipy2 + k) - bckg2;
-                    }
-                }
-            }
-            intTime[x] = frametime * (x + 0.5) * ave;
-            intTrace1[x] = sum1 / ave;    // calculate average intensity for the 'ave' points
-            intTrace2[x] = sum2 / ave;
+    // FCS: ACF of the pixel, or CCF with the pixel at the CCF distance (or in imp2)
+    // DC-FCCS: ACF of both pixels (or of the pixel in imp and imp2) and their CCF
+    private void correlatePixel(Point pixel, boolean dcfccs, PixelBuffers buffers) {
+        int x = pixel.x * pixbinX;
+        int y = pixel.y * pixbinY;
+        if (use2imp) {
+            calcIntensityTrace(imp, imp2, x, y, x, y, firstframe, lastframe, buffers);
+            if (dcfccs) {
+                correlate(imp, imp2, x, y, 0, firstframe, lastframe, buffers);
+                correlate(imp, imp2, x, y, 1, firstframe, lastframe, buffers);
+            }
+            correlate(imp, imp2, x, y, 2, firstframe, lastframe, buffers);
+        } else if (dcfccs) {
+            calcIntensityTrace(imp, imp, x, y, x, y, firstframe, lastframe, buffers);
+            correlate(imp, x, y, x, y, 0, firstframe, lastframe, buffers);
+            calcIntensityTrace(imp, imp, x + cfXDistance, y + cfYDistance, x + cfXDistance, y + cfYDistance,
+                    firstframe, lastframe, buffers);
+            correlate(imp, x + cfXDistance, y + cfYDistance, x + cfXDistance, y + cfYDistance, 1, firstframe,
+                    lastframe, buffers);
+            calcIntensityTrace(imp, imp, x, y, x + cfXDistance, y + cfYDistance, firstframe, lastframe, buffers);
+            correlate(imp, x, y, x + cfXDistance, y + cfYDistance, 2, firstframe, lastframe, buffers);
+        } else {
+            calcIntensityTrace(imp, imp, x, y, x + cfXDistance, y + cfYDistance, firstframe, lastframe, buffers);
+            correlate(imp, x, y, x + cfXDistance, y + cfYDistance, 0, firstframe, lastframe, buffers);
         }
     }
 
-    // calculate reduced intensity traces from 2 imageplus
-    public void calcIntensityTrace(ImagePlus image, ImagePlus image2, int ipx1, int ipy1, int initialframe,
-                                   int finalframe) {
-        // image: imp form which intensity will be taken
-        // image2: imp2 form which intensity will be taken
-        // px1, py1: coordinates of pixel to be correlated
+    // calculate reduced intensity traces for plotting average and use not more than 'nopit' (defined in
+    // setParameters()) points for a trace
+    private void calcIntensityTrace(ImagePlus image, ImagePlus image2, int ipx1, int ipy1, int ipx2, int ipy2,
+                                    int initialframe, int finalframe, PixelBuffers buffers) {
+        // image: imp form which intensity will be taken for pixel 1
+        // image2: imp (or imp2) form which intensity will be taken for pixel 2
+        // px1, py1, px2, py2: coordinates of pixels to be correlated
         // initialframe and finalframe provide the range of frames to be used
-
+        // buffers: receives the traces
         int ave = (int) Math.floor(
                 (finalframe - initialframe + 1) / nopit); // calculate number of data points which are averaged
         int sum1;
@@ -3440,26 +3447,26 @@ public class ImFCSCorrelator {
                             bckg1 = (int) Math.round(bgrmean[ipx1 + i][ipy1 + k]);
                             bckg2 = (int) Math.round(bgrmean[ipx1 + i][ipy1 + k]);
                         }
-                        sum1 += image.getStack().getProcessor(y).get(ipx1 + i, ipy1 + k) - bckg1;
-                        sum2 += image2.getStack().getProcessor(y).get(ipx1 + i, ipy1 + k) - bckg2;
+                        sum1 += pixel(image.getStack(), y, ipx1 + i, ipy1 + k) - bckg1;
+                        sum2 += pixel(image2.getStack(), y, ipx2 + i, ipy2 + k) - bckg2;
                     }
                 }
             }
-            intTime[x] = frametime * (x + 0.5) * ave;
-            intTrace1[x] = sum1 / ave;    // calculate average intensity for the 'ave' points
-            intTrace2[x] = sum2 / ave;
+            buffers.intTime[x] = frametime * (x + 0.5) * ave;
+            buffers.intTrace1[x] = sum1 / ave;    // calculate average intensity for the 'ave' points
+            buffers.intTrace2[x] = sum2 / ave;
         }
     }
 
     //correlate one pixel with itself or two pixels with each other
-    public void correlate(ImagePlus image, int px1, int py1, int px2, int py2, int kcf, int initialframe,
-                          int finalframe) {
+    private void correlate(ImagePlus image, int px1, int py1, int px2, int py2, int kcf, int initialframe,
+                           int finalframe, PixelBuffers buffers) {
         // image: the imp to be used
         // px1, py1, px2, py2: pixel cooredinates for pixel 1 and pixel 2 which are to be correalted
         // if px1 = px2 AND py1 = py2: then a autocorrelation is calculated
         // kcf (0, 1, or 2) determines whether ACF1, ACF2, or CCF is calculated
         // initialframe and finalframe provide the range of frames to be used for the correlation
-        int num = (finalframe - initialframe + 1);    // total number of frames to be correlated
+        // buffers: intensity traces of the pixels, from calcIntensityTrace(), and work arrays
         int numofsw;                            // number of sliding windows
         int swinitialframe;                    // if sliding window (bleach) correction is selected these are the
         // initial and final frames of the sub-windows
@@ -3481,26 +3488,26 @@ public class ImFCSCorrelator {
         String $bcmode = (String) bleachCorMem;
 
         // Sliding window is not selected, correlate the full intensity trace
-        datac = new double[2][num + 1];                            // get the intensity data for the correlation
-        datac[0] = getIntensity(image, px1, py1, 1, initialframe,
-                finalframe);        // getIntensity for first pixel; performs a bleach correction if indicated in the
-        // panel
+        double[][] datac = new double[2][];                        // get the intensity data for the correlation
+        datac[0] = getIntensity(image, px1, py1, 1, initialframe, finalframe, background,
+                buffers);    // getIntensity for first pixel; performs a bleach correction if indicated in the panel
         if (px1 != px2 ||
                 py1 != py2) {                        // if the two pixels are not equal (i.e. for a cross-correlation)
-            datac[1] = getIntensity(image, px2, py2, 2, initialframe, finalframe);    // getIntensity for second pixel
+            datac[1] = getIntensity(image, px2, py2, 2, initialframe, finalframe,
+                    fitModel == "DC-FCCS" ? background2 : background, buffers);    // getIntensity for second pixel
         } else {
 
             datac[1] = datac[0];            // otherwise perform an autocorrelation
         }
 
         Map result;
-        result = correlator(datac, initialframe, finalframe);        // correlate the data
+        result = correlator(datac, initialframe, finalframe, buffers);        // correlate the data
         acf[kcf][pxm1][pym1] = (double[]) result.get("corav");            // acf
         varacf[kcf][pxm1][pym1] = (double[]) result.get("blockvar");        // variance of the ACF; blocked
         sdacf[kcf][pxm1][pym1] = (double[]) result.get("blocksd");        // standard deviation of the ACF; blocked
-        currentCovmats = (double[][]) result.get("covmats");
+        buffers.covmats = (double[][]) result.get("covmats");
 
-        blocked[kcf][pxm1][pym1] = blockIndS;            // store whether blocking worked successfully for the pixel
+        blocked[kcf][pxm1][pym1] = buffers.blockIndS;    // store whether blocking worked successfully for the pixel
 
         // calculate MSD if switched on
         /*
@@ -3517,14 +3524,14 @@ public class ImFCSCorrelator {
     }
 
     //correlate two imageplus (allpixels)
-    public void correlate(ImagePlus image, ImagePlus image2, int px1, int py1, int kcf, int initialframe,
-                          int finalframe) {
+    private void correlate(ImagePlus image, ImagePlus image2, int px1, int py1, int kcf, int initialframe,
+                           int finalframe, PixelBuffers buffers) {
         // image: the imp to be used
         // image2: the imp2 to be used
         // px1, py1: pixel cooredinates to be correalted
         // kcf (0, 1, or 2) determines whether ACF1, ACF2, or CCF is calculated
         // initialframe and finalframe provide the range of frames to be used for the correlation
-        int num = (finalframe - initialframe + 1);    // total number of frames to be correlated
+        // buffers: intensity traces of the pixel, from calcIntensityTrace(), and work arrays
         int numofsw;                            // number of sliding windows
         int swinitialframe;                    // if sliding window (bleach) correction is selected these are the
         // initial and final frames of the sub-windows
@@ -3540,29 +3547,29 @@ public class ImFCSCorrelator {
 
         // Sliding window is not selected, correlate the full intensity trace
         // Sliding window is not selected, correlate the full intensity trace
-        datac = new double[2][num + 1];
+        double[][] datac = new double[2][];
         // get the intensity data for the correlation
         if (kcf == 0) { //perform autocorrelation on green channel
-            datac[0] = getIntensity(image, px1, py1, 1, initialframe, finalframe, 1);
+            datac[0] = getIntensity(image, px1, py1, 1, initialframe, finalframe, background, buffers);
             datac[1] = datac[0];
         }
         if (kcf == 1) {//perform autocorrelation on red channel
-            datac[0] = getIntensity(image2, px1, py1, 2, initialframe, finalframe, 2);
+            datac[0] = getIntensity(image2, px1, py1, 2, initialframe, finalframe, background2, buffers);
             datac[1] = datac[0];
         }
         if (kcf == 2) {//perform ccf
-            datac[0] = getIntensity(image, px1, py1, 1, initialframe, finalframe, 1);
-            datac[1] = getIntensity(image2, px1, py1, 2, initialframe, finalframe, 2);
+            datac[0] = getIntensity(image, px1, py1, 1, initialframe, finalframe, background, buffers);
+            datac[1] = getIntensity(image2, px1, py1, 2, initialframe, finalframe, background2, buffers);
         }
 
         Map result;
-        result = correlator(datac, initialframe, finalframe);        // correlate the data
+        result = correlator(datac, initialframe, finalframe, buffers);        // correlate the data
         acf[kcf][pxm1][pym1] = (double[]) result.get("corav");            // acf
         varacf[kcf][pxm1][pym1] = (double[]) result.get("blockvar");        // variance of the ACF; blocked
         sdacf[kcf][pxm1][pym1] = (double[]) result.get("blocksd");        // standard deviation of the ACF; blocked
-        currentCovmats = (double[][]) result.get("covmats");
+        buffers.covmats = (double[][]) result.get("covmats");
 
-        blocked[kcf][pxm1][pym1] = blockIndS;            // store whether blocking worked successfully for the pixel
+        blocked[kcf][pxm1][pym1] = buffers.blockIndS;    // store whether blocking worked successfully for the pixel
 
         // calculate MSD if switched on
         /*
@@ -3579,29 +3586,31 @@ public class ImFCSCorrelator {
     }
 
     // correlator calculates correlation functions
-    public Map correlator(double[][] intcor, int initialframe, int finalframe) {
+    private Map correlator(double[][] intcor, int initialframe, int finalframe, PixelBuffers buffers) {
         // intcor contains the array of intensity values to be correlated for pixels 1 and 2
         // initialframe and finalframe provide the range of frames to be used for the correlation
+        // buffers provides the work arrays and receives whether blocking worked
         int num = (finalframe - initialframe + 1);            // total number of frames to be correlated
         int blockIndex;                                    // index at which optimal blocking is reached; if it
         // fails maximal blocking is used
 
-        blockIndex = blockTransform(intcor, num,
-                1);            // perform blocking on the first channel to determine when intensity bins are independent
+        blockIndex = blockTransform(intcor, num, 1,
+                buffers);            // perform blocking on the first channel to determine when intensity bins are independent
 
         Map result;
-        result = calculateCF(intcor, num, blockIndex,
-                1);            // perform optimal blocking and return the CF, SD and covariance matrix
+        result = calculateCF(intcor, num, blockIndex, 1,
+                buffers);            // perform optimal blocking and return the CF, SD and covariance matrix
 
         return result;
     }
 
     // calculate the standard deviation by blocking
-    public Map calculateCF(double[][] intcor, int num, int ind, int blocklag) {
+    private Map calculateCF(double[][] intcor, int num, int ind, int blocklag, PixelBuffers buffers) {
         // intcor is the array of intensity values for the two traces which are correlated
         // num is the number of frames which are correlated
         // ind is the blockindex, at which the SD has converged, previously found in blockSD()
         // blocklag defines for which lag the blocking will be done; typically we use the smalles, i.e. 1
+        // buffers provides the binned intensities and the products, which are overwritten
         int numbin = num;        // number of data points when they are binned
         int del;                // delay or correlation time expressed in lags
         int currentIncrement;
@@ -3619,8 +3628,8 @@ public class ImFCSCorrelator {
         double[] delayedm = new double[chanum];    // delayed monitor required for ACF normalization
         double[] blockvar;
         double[] blocksd;
-        double[][] intblock;
-        double[][] prod = new double[chanum][num];
+        double[][] intblock = buffers.intblock;
+        double[][] prod = buffers.prod;
         double[] corav = new double[chanum];
         double[] mcov = new double[chanum];
         double[] diagcovmat = new double[chanum];
@@ -3635,7 +3644,6 @@ public class ImFCSCorrelator {
         double lamvar;
         double lamcov;
 
-        intblock = new double[2][num];
         blockvar = new double[chanum];
         blocksd = new double[chanum];
 
@@ -3681,6 +3689,9 @@ public class ImFCSCorrelator {
             sumprod = 0;
             sumprod2 = 0;
 
+            if (pnum > prodnum[x]) {    // products missing for the minimal number of products count as 0
+                Arrays.fill(prod[x], Math.max(prodnum[x], 0), pnum, 0);
+            }
             for (int y = 0; y < prodnum[x]; y++) {                    // calculate the correlation
                 prod[x][y] = intblock[0][y] * intblock[1][y + del] - delayedm[x] * intblock[0][y] -
                         directm[x] * intblock[1][y + del] + delayedm[x] * directm[x];
@@ -3865,10 +3876,12 @@ public class ImFCSCorrelator {
 
     }
 
-    public int blockTransform(double[][] intcor, int num, int blocklag) {
+    private int blockTransform(double[][] intcor, int num, int blocklag, PixelBuffers buffers) {
         // intcor is the array of intensity values for the two traces which are correlated
         // num is the number of frames which are correlated
         // blocklag defines for which lag the blocking will be done; typically we use the smalles, i.e. 1
+        // buffers provides the binned intensities and the products, which are overwritten, and receives whether
+        // blocking worked
         int blocknum = (int) Math.floor(Math.log(mtab[blocklag]) / Math.log(2)) -
                 2;    // number of blocking operations that can be performed given blocklag
         int numbin = num;        // number of data points when they are binned
@@ -3880,8 +3893,8 @@ public class ImFCSCorrelator {
                 0.0;    // sum of all intensity products squared; divide by num to get the average <(i(n)i(n+del))^2>
         double directm = 0.0;        // direct monitor required for ACF normalization
         double delayedm = 0.0;    // delayed monitor required for ACF normalization
-        double[][] intblock;
-        double[] prod = new double[num];
+        double[][] intblock = buffers.intblock;
+        double[] prod = buffers.prod[0];
         double[][] varblock;
         double[] upper;
         double[] lower;
@@ -3900,7 +3913,6 @@ public class ImFCSCorrelator {
 
         varblock = new double[3][blocknum];
         prodnum = new double[blocknum];
-        intblock = new double[2][num];
         blocksd = new double[chanum];
         upper = new double[blocknum];
         lower = new double[blocknum];
@@ -4046,7 +4058,7 @@ public class ImFCSCorrelator {
 
         if (ind == 0) {                                                    // if optimal blocking is not possible, use
             // maximal blocking
-            blockIndS = 0;
+            buffers.blockIndS = 0;
             if (blocknum - 3 > 0) {
                 ind = blocknum -
                         3;                                            // maximal blocking is performed for the 3rd
@@ -4055,7 +4067,7 @@ public class ImFCSCorrelator {
                 ind = blocknum - 1;
             }
         } else {
-            blockIndS = 1;
+            buffers.blockIndS = 1;
         }
 
         ind = (int) Math.max(ind, correlatorq - 1);                // block at least until maximum sample time
@@ -4099,8 +4111,7 @@ public class ImFCSCorrelator {
             plot.draw();
             // either create a new plot window or plot within the existing window
             if (blockingWindow == null || blockingWindow.isClosed() == true) {
-                blockingWindow = plot.show();
-                blockingWindow.setLocation(blockingWindowPosX, blockingWindowPosY);
+                blockingWindow = showPlot(plot, blockingWindowPosX, blockingWindowPosY);
             } else {
                 blockingWindow.drawPlot(plot);
             }
@@ -4111,22 +4122,21 @@ public class ImFCSCorrelator {
 
     // get intensity data for correlate() and correct for bleaching if required; note that you should call
     // calcIntensityTrace() before to obtain intTrace1 and 2
-    public double[] getIntensity(ImagePlus image, int px, int py, int mode, int initialframe, int finalframe) {
+    private double[] getIntensity(ImagePlus image, int px, int py, int mode, int initialframe, int finalframe,
+                                  int bckg, PixelBuffers buffers) {
         // image: imp form which intensity will be taken
         // px, py: coordinates of pixel within image
-        // mode: determines whether intensity for pixel 1 or pixel 2 is read, and in case of DC-FCCS,
-        // whether background1 or background 2 is to be subtracted from the intensity trace
+        // mode: determines whether intensity for pixel 1 or pixel 2 is read
         // initialframe and finalframe provide the range of frames to be used
+        // bckg: background to be subtracted from the intensity trace (background or background2), unless a
+        // background image is loaded
+        // buffers: intensity traces of the pixels, bleach corrected here; the intensity data is returned in one of
+        // its arrays, valid until the next call for the same mode
         int num = (finalframe - initialframe + 1);
-        double[] intdat = new double[num + 1];
+        double[] intdat = buffers.intensity[mode - 1];
         double[] res = new double[5];
-        int bckg;
 
-        if (mode == 2 && fitModel == "DC-FCCS") {
-            bckg = background2;
-        } else {
-            bckg = background;
-        }
+        Arrays.fill(intdat, 0, num + 1, 0);
 
         for (int x = 1;
              x <= num; x++) {    //read data from all relevant pixels, depending on the selected frames and binning
@@ -4135,7 +4145,7 @@ public class ImFCSCorrelator {
                     if (bgrloaded) {
                         bckg = (int) Math.round(bgrmean[px + i][py + k]);
                     }
-                    intdat[x] += image.getStack().getProcessor(initialframe + x - 1).get(px + i, py + k) - bckg;
+                    intdat[x] += pixel(image.getStack(), initialframe + x - 1, px + i, py + k) - bckg;
                 }
             }
 
@@ -4222,11 +4232,11 @@ public class ImFCSCorrelator {
             int maxord = polyOrder;
             if (mode == 1) {
                 res = polfit.doFit(
-                        intTrace1);            // note that the bleach correction is performed on the averaged
+                        buffers.intTrace1);    // note that the bleach correction is performed on the averaged
                 // intensity traces to make it faster
             } else {                                    // while you may have 20,000 intensity points, intTrace1 and
                 // 2 contain only 1,000 points
-                res = polfit.doFit(intTrace2);            // see definition in setParameters()
+                res = polfit.doFit(buffers.intTrace2);            // see definition in setParameters()
             }
 
             for (int x = 1; x <= num; x++) {
@@ -4240,229 +4250,20 @@ public class ImFCSCorrelator {
                 for (int x = 0; x < nopit; x++) {
                     corfunc = 0;
                     for (int i = 0; i <= maxord; i++) {
-                        corfunc += res[i] * Math.pow(intTime[x], i);
+                        corfunc += res[i] * Math.pow(buffers.intTime[x], i);
                     }
-                    intTrace1[x] =
-                            intTrace1[x] / Math.sqrt(corfunc / res[0]) + res[0] * (1 - Math.sqrt(corfunc / res[0]));
+                    buffers.intTrace1[x] = buffers.intTrace1[x] / Math.sqrt(corfunc / res[0]) +
+                            res[0] * (1 - Math.sqrt(corfunc / res[0]));
                 }
             }
             if (mode == 2) {
                 for (int x = 0; x < nopit; x++) {
                     corfunc = 0;
                     for (int i = 0; i <= maxord; i++) {
-                        corfunc += res[i] * Math.pow(intTime[x], i);
+                        corfunc += res[i] * Math.pow(buffers.intTime[x], i);
                     }
-                    intTrace2[x] =
-                            intTrace2[x] / Math.sqrt(corfunc / res[0]) + res[0] * (1 - Math.sqrt(corfunc / res[0]));
-                }
-            }
-        }
-
-        //        if ("Lin Segment".equals($bcmode)) {		// approximating bleaching by a partially linear function
-        //            int ave = (int) Math.floor((finalframe - initialframe + 1) / nopit); // number of points
-        //            averaged in intTrace
-        //            int bcNopit = (int) num / slidingWindowLength; // number of linear segments
-        //            int bcAve = (int) Math.floor((finalframe - initialframe + 1) / bcNopit);
-        //            double[] bcTrace = new double[bcNopit];
-        //            int nf;
-        //            double bcInt0;
-        //            double sum;
-        //
-        //            for (int x = 0; x < bcNopit; x++) {		// calculating the average intensity in each segment
-        //                sum = 0;	// initialize arrays with 0
-        //                for (int y = 1 + x * bcAve; y < (x + 1) * bcAve; y++) {
-        //                    sum += intdat[y];
-        //                }
-        //                bcTrace[x] = sum / bcAve;
-        //            }
-        //
-        //            bcInt0 = bcTrace[0] + (bcTrace[0] - bcTrace[1]) / 2;	// Initial intensity obtained by
-        //            extrapolating the line between average intensities in 1st and second segment to 0
-        //
-        //            for (int x = 1; x < (int) Math.floor(bcAve / 2); x++) {
-        //                intdat[x] = intdat[x] / Math.sqrt((bcTrace[0] + (bcTrace[0] - bcTrace[1]) / bcAve * (bcAve
-        //                / 2 - x)) / bcInt0) + bcInt0 * (1 - Math.sqrt((bcTrace[0] + (bcTrace[0] - bcTrace[1]) /
-        //                bcAve * (bcAve / 2 - x)) / bcInt0));
-        //            }
-        //
-        //            for (int x = 1; x < bcNopit; x++) {
-        //                for (int y = 0; y < bcAve; y++) {
-        //                    nf = (x - 1) * bcAve + (int) Math.floor(bcAve / 2) + y;
-        //                    intdat[nf] = intdat[nf] / Math.sqrt((bcTrace[x - 1] + (bcTrace[x] - bcTrace[x - 1]) * y
-        //                    / bcAve) / bcInt0) + bcInt0 * (1 - Math.sqrt((bcTrace[x - 1] + (bcTrace[x] - bcTrace[x
-        //                    - 1]) * y / bcAve) / bcInt0));
-        //                }
-        //            }
-        //
-        //            for (int x = (bcNopit - 1) * bcAve + (int) Math.floor(bcAve / 2); x <= num; x++) {
-        //                nf = x - (bcNopit - 1) * bcAve + (int) Math.floor(bcAve / 2) + bcAve;
-        //                intdat[x] = intdat[x] / Math.sqrt((bcTrace[bcNopit - 2] + (bcTrace[bcNopit - 1] -
-        //                bcTrace[bcNopit - 2]) * nf / bcAve) / bcInt0) + bcInt0 * (1 - Math.sqrt((bcTrace[bcNopit -
-        //                2] + (bcTrace[bcNopit - 1] - bcTrace[bcNopit - 2]) * nf / bcAve) / bcInt0));
-        //            }
-        //
-        //            if (mode == 1) {
-        //                for (int x = 0; x < nopit; x++) {
-        //                    intTrace1[x] = intdat[(int) (x + 0.5) * ave + 1];
-        //                }
-        //            }
-        //            if (mode == 2) {
-        //                for (int x = 0; x < nopit; x++) {
-        //                    intTrace2[x] = intdat[(int) (x + 0.5) * ave + 1];
-        //                }
-        //            }
-        //        }
-        return (intdat);
-    }
-
-    // get intensity data for correlate() and correct for bleaching if required; note that you should call
-    // calcIntensityTrace() before to obtain intTrace1 and 2
-    // 2 imageplus variation
-    public double[] getIntensity(ImagePlus image, int px, int py, int mode, int initialframe, int finalframe,
-                                 int image1or2) {
-        // image: imp form which intensity will be taken
-        // px, py: coordinates of pixel within image
-        // mode: determines whether intensity for pixel 1 or pixel 2 is read, and in case of DC-FCCS,
-        // whether background1 or background 2 is to be subtracted from the intensity trace
-        // initialframe and finalframe provide the range of frames to be used
-
-        int num = (finalframe - initialframe + 1);
-        double[] intdat = new double[num + 1];
-        double[] res = new double[5];
-        int bckg;
-
-        if (image1or2 == 1) {
-            bckg = background;
-        } else {
-            bckg = background2;
-        }
-
-        for (int x = 1;
-             x <= num; x++) {    //read data from all relevant pixels, depending on the selected frames and binning
-            for (int i = 0; i < binningX; i++) {
-                for (int k = 0; k < binningY; k++) {
-                    if (bgrloaded) {
-                        bckg = (int) Math.round(bgrmean[px + i][py + k]);
-                    }
-                    intdat[x] += image.getStack().getProcessor(initialframe + x - 1).get(px + i, py + k) - bckg;
-                }
-            }
-
-        }
-
-        String $bcmode =
-                (String) bleachCorMem;    // perform single or double exponential bleach corrections if selected
-
-        //        if ("Single Exp".equals($bcmode)) {
-        //            SingleExpFit efit = new SingleExpFit();
-        //            if (mode == 1) {
-        //                res = efit.doFit(intTrace1);			// note that the bleach correction is performed on the
-        //                averaged intensity traces to make it faster
-        //            } else {									// while you may have 20,000 intensity points,
-        //            intTrace1 and 2 contain only 1,000 points
-        //                res = efit.doFit(intTrace2);			// see definition in setParameters()
-        //            }
-        //            if (res[0] * res[1] != 0) {				// correct the full intensity trace if the fit was
-        //            succesful
-        //                for (int x = 1; x <= num; x++) {
-        //                    intdat[x] = intdat[x] / Math.sqrt((res[0] * Math.exp(-frametime * (x + 0.5) / res[1]) +
-        //                    res[2]) / (res[0] + res[2])) + (res[0] + res[2]) * (1 - Math.sqrt((res[0] * Math.exp
-        //                    (-frametime * (x + 0.5) / res[1]) + res[2]) / (res[0] + res[2])));
-        //                }
-        //                if (mode == 1) {
-        //                    for (int x = 0; x < nopit; x++) {
-        //                        intTrace1[x] = intTrace1[x] / Math.sqrt((res[0] * Math.exp(-intTime[x] / res[1]) +
-        //                        res[2]) / (res[0] + res[2])) + (res[0] + res[2]) * (1 - Math.sqrt((res[0] * Math
-        //                        .exp(-intTime[x] / res[1]) + res[2]) / (res[0] + res[2])));
-        //                    }
-        //                }
-        //                if (mode == 2) {
-        //                    for (int x = 0; x < nopit; x++) {
-        //                        intTrace2[x] = intTrace2[x] / Math.sqrt((res[0] * Math.exp(-intTime[x] / res[1]) +
-        //                        res[2]) / (res[0] + res[2])) + (res[0] + res[2]) * (1 - Math.sqrt((res[0] * Math
-        //                        .exp(-intTime[x] / res[1]) + res[2]) / (res[0] + res[2])));
-        //                    }
-        //                }
-        //            } else {
-        //                IJ.log("Exponential Fit not successful for (" + px + ", " + py + ")");
-        //            }
-        //        }
-        //        if ("Double Exp".equals($bcmode)) {		// same as single exponential fit only for double
-        //        exponential
-        //            DoubleExpFit defit = new DoubleExpFit();
-        //            if (mode == 1) {
-        //                res = defit.doFit(intTrace1);
-        //            } else {
-        //                res = defit.doFit(intTrace2);
-        //            }
-        //            if (res[0] * res[1] * res[2] * res[3] != 0) {
-        //                for (int x = 1; x <= num; x++) {
-        //                    intdat[x] = intdat[x] / Math.sqrt((res[0] * Math.exp(-frametime * (x + 0.5) / res[1]) +
-        //                    res[2] * Math.exp(-frametime * (x + 0.5) / res[3]) + res[4]) / (res[0] + res[2] +
-        //                    res[4])) + (res[0] + res[2] + res[4]) * (1 - Math.sqrt((res[0] * Math.exp(-frametime *
-        //                    (x + 0.5) / res[1]) + res[2] * Math.exp(-frametime * (x + 0.5) / res[3]) + res[4]) /
-        //                    (res[0] + res[2] + res[4])));
-        //                }
-        //                if (mode == 1) {
-        //                    for (int x = 0; x < nopit; x++) {
-        //                        intTrace1[x] = intTrace1[x] / Math.sqrt((res[0] * Math.exp(-intTime[x] / res[1]) +
-        //                        res[2] * Math.exp(-intTime[x] / res[3]) + res[4]) / (res[0] + res[2] + res[4])) +
-        //                        (res[0] + res[2] + res[4]) * (1 - Math.sqrt((res[0] * Math.exp(-intTime[x] /
-        //                        res[1]) + res[2] * Math.exp(-intTime[x] / res[3]) + res[4]) / (res[0] + res[2] +
-        //                        res[4])));
-        //                    }
-        //                }
-        //                if (mode == 2) {
-        //                    for (int x = 0; x < nopit; x++) {
-        //                        intTrace2[x] = intTrace2[x] / Math.sqrt((res[0] * Math.exp(-intTime[x] / res[1]) +
-        //                        res[2] * Math.exp(-intTime[x] / res[3]) + res[4]) / (res[0] + res[2] + res[4])) +
-        //                        (res[0] + res[2] + res[4]) * (1 - Math.sqrt((res[0] * Math.exp(-intTime[x] /
-        //                        res[1]) + res[2] * Math.exp(-intTime[x] / res[3]) + res[4]) / (res[0] + res[2] +
-        //                        res[4])));
-        //                    }
-        //                }
-        //            } else {
-        //                IJ.log("Double Exponential Fit not successful for (" + px + ", " + py + ")");
-        //            }
-        //        }
-        if ("Polynomial".equals($bcmode)) {        //fitting with a polynomial of selected order
-            PolynomFit polfit = new PolynomFit();
-            double corfunc;
-            int maxord = polyOrder;
-            if (mode == 1) {
-                res = polfit.doFit(
-                        intTrace1);            // note that the bleach correction is performed on the averaged
-                // intensity traces to make it faster
-            } else {                                    // while you may have 20,000 intensity points, intTrace1 and
-                // 2 contain only 1,000 points
-                res = polfit.doFit(intTrace2);            // see definition in setParameters()
-            }
-
-            for (int x = 1; x <= num; x++) {
-                corfunc = 0;
-                for (int i = 0; i <= maxord; i++) {
-                    corfunc += res[i] * Math.pow(frametime * (x + 0.5), i);
-                }
-                intdat[x] = intdat[x] / Math.sqrt(corfunc / res[0]) + res[0] * (1 - Math.sqrt(corfunc / res[0]));
-            }
-            if (mode == 1) {
-                for (int x = 0; x < nopit; x++) {
-                    corfunc = 0;
-                    for (int i = 0; i <= maxord; i++) {
-                        corfunc += res[i] * Math.pow(intTime[x], i);
-                    }
-                    intTrace1[x] =
-                            intTrace1[x] / Math.sqrt(corfunc / res[0]) + res[0] * (1 - Math.sqrt(corfunc / res[0]));
-                }
-            }
-            if (mode == 2) {
-                for (int x = 0; x < nopit; x++) {
-                    corfunc = 0;
-                    for (int i = 0; i <= maxord; i++) {
-                        corfunc += res[i] * Math.pow(intTime[x], i);
-                    }
-                    intTrace2[x] =
-                            intTrace2[x] / Math.sqrt(corfunc / res[0]) + res[0] * (1 - Math.sqrt(corfunc / res[0]));
+                    buffers.intTrace2[x] = buffers.intTrace2[x] / Math.sqrt(corfunc / res[0]) +
+                            res[0] * (1 - Math.sqrt(corfunc / res[0]));
                 }
             }
         }
@@ -5405,7 +5206,7 @@ public class ImFCSCorrelator {
                                     if (improi.contains(x1, x2) && improi.contains(x1, x2 + binningY - 1) &&
                                             improi.contains(x1 + binningX - 1, x2) &&
                                             improi.contains(x1 + binningX - 1, x2 + binningY - 1)) {
-                                        filterArray[x1][x2] += imp.getStack().getProcessor(x3).get(x1 + x4, x2 + x5);
+                                        filterArray[x1][x2] += pixel(imp.getStack(), x3, x1 + x4, x2 + x5);
                                     } else {
                                         filterArray[x1][x2] = Float.NaN;
                                     }
@@ -5424,7 +5225,7 @@ public class ImFCSCorrelator {
                                         improi.contains(x1 + binningX - 1, x2) &&
                                         improi.contains(x1 + binningX - 1, x2 + binningY - 1)) {
                                     filterArray[x1][x2] +=
-                                            imp.getStack().getProcessor(firstframe).get(x1 + x3, x2 + x4);
+                                            pixel(imp.getStack(), firstframe, x1 + x3, x2 + x4);
                                 } else {
                                     filterArray[x1][x2] = Float.NaN;
                                 }
@@ -5441,7 +5242,7 @@ public class ImFCSCorrelator {
                             if (improi.contains(x1, x2) && improi.contains(x1, x2 + binningY - 1) &&
                                     improi.contains(x1 + binningX - 1, x2) &&
                                     improi.contains(x1 + binningX - 1, x2 + binningY - 1)) {
-                                filterArray[x1][x2] += imp.getStack().getProcessor(firstframe).get(x1 + x3, x2 + x4);
+                                filterArray[x1][x2] += pixel(imp.getStack(), firstframe, x1 + x3, x2 + x4);
                             } else {
                                 filterArray[x1][x2] = Float.NaN;
                             }
@@ -5599,6 +5400,35 @@ public class ImFCSCorrelator {
     }
 
     // UNUSED; not required to wrap swing worker as parent function is already wrapped with swing worker
+    // intensity traces and work arrays for the correlation of one pixel at a time. Each thread correlating pixels
+    // takes its own from the pool and gives it back, so that the arrays are reused from pixel to pixel and from one
+    // interval to the next, and only reallocated when the settings change.
+    private static final class PixelBuffers {
+        private double[] intTime = new double[0];        // reduced intensity traces; see calcIntensityTrace()
+        private double[] intTrace1 = new double[0];
+        private double[] intTrace2 = new double[0];
+        private double[][] intensity = new double[2][0];    // full intensity traces of pixels 1 and 2; [2][num + 1]
+        private double[][] intblock = new double[2][0];     // binned intensities; [2][num]
+        private double[][] prod = new double[1][0];         // intensity products of each channel; [chanum][num]
+        private int blockIndS;            // whether blocking was successful (1) or maximal blocking was used (0)
+        private double[][] covmats;       // regularized covariance matrix of the last correlation
+
+        private void ensureCapacity(int nopit, int num, int chanum) {
+            if (intTime.length != nopit) {    // the bleach correction fits the whole reduced traces
+                intTime = new double[nopit];
+                intTrace1 = new double[nopit];
+                intTrace2 = new double[nopit];
+            }
+            if (intblock[0].length < num) {
+                intensity = new double[2][num + 1];
+                intblock = new double[2][num];
+            }
+            if (prod.length < chanum || prod[0].length < num) {
+                prod = new double[Math.max(chanum, 1)][num];
+            }
+        }
+    }
+
     public class correlateRoiWorker extends SwingWorker<Void, Void> {
 
         private final Roi currentROI;
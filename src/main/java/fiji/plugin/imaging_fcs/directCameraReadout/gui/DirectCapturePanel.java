@@ -4,6 +4,8 @@ import fiji.plugin.imaging_fcs.directCameraReadout.andorsdk2v3.AndorSDK2v3;
 import fiji.plugin.imaging_fcs.directCameraReadout.andorsdk3v2.AndorSDK3v2;
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounter;
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounterX;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameRingBuffer;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.LiveMetrics;
 import fiji.plugin.imaging_fcs.directCameraReadout.fcs.ImFCSCorrelator;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.parameterName.liveVideoBinMode;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.parameterName.liveVideoBinMode.liveVideoBinModeEnum;
@@ -121,6 +123,7 @@ public class DirectCapturePanel {
     private JButton btnTemperature;
     private JButton btnFan;
     private JButton btnOption; //acf,trace,liveVideo
+    private JButton btnMetrics;
     private JComboBox<String> cbVspeed;
     private JComboBox<String> cbVSAmp;
     private JComboBox<String> cbHspeed;
@@ -1651,6 +1654,9 @@ public class DirectCapturePanel {
         public static int background = 1_000_000;
         public static boolean RunLiveReadOutOnGPU;
         public static boolean useGpu;
+        //Acquisition mode: false keeps the frames in memory (ims_cum); true writes them to a raw file in recordingFolder
+        public static boolean isRecordToDisk = false;
+        public static String recordingFolder = System.getProperty("user.home");
         // Calibration plot
         public static boolean isCalibFixScale = false;
         //Live video display setting
@@ -1686,9 +1692,10 @@ public class DirectCapturePanel {
         public static ImageStack ims_cum;
         public static ImagePlus imp_cum;
         public static int arraysize; //calibration //live //cumualtive
-        public volatile static short[] bufferArray1D;
+        public volatile static short[] bufferArray1D; // array of frameRing, null when its frames are in a direct buffer
         public static FrameCounterX framecounterIMSX; //cumulative
         public static FrameCounter framecounter;
+        public static FrameRingBuffer frameRing; // frames with framecounter as their sequence, one cursor per consumer
         public static int lWidth = 6; //index start from 1
         public static int lHeight = 6; //index start from 1
         public static int lLeft = 1; //index start from 1
@@ -1735,6 +1742,10 @@ public class DirectCapturePanel {
         //Default settings are as follows; Live video/Calibration mode: true; CF acquisition mode: false;
         // ICCS mode: false
 
+        public static TimeTaggedStorage getTimeTaggedStorage() {
+            return ttsObj;
+        }
+
         public static boolean getAutoAdjustImageDynamicRange() {
             return isAutoAdjustLiveImagesDynamicRange;
         }
@@ -2913,7 +2924,10 @@ public class DirectCapturePanel {
             if (Common.isAcquisitionRunning) {
                 JOptionPane.showMessageDialog(null, "Please press stop or wait for acquisition to finish");
             } else {
-                if (Common.ims_cum != null) {
+                if (Common.ims_cum != null && Common.ims_cum.getSize() == 0 && Common.isRecordToDisk) {
+                    // the disk recorder leaves the stack empty, its frames are already in the raw file
+                    IJ.showMessage("The acquisition was recorded to disk, its frames are already saved as a .raw file in " + Common.recordingFolder);
+                } else if (Common.ims_cum != null && Common.ims_cum.getSize() > 0) {
                     if (Common.isSaveDone) {
                         int ret = DisplaySavedImageDialogue();
                         if (ret == 1 || ret == 2) {
@@ -4455,6 +4469,10 @@ public class DirectCapturePanel {
         ActionListener btnOptionPressed = (ActionEvent event) -> {
             OptionsDialogue();
         };
+        ActionListener btnMetricsPressed = (ActionEvent event) -> {
+            // latency, backlog and overruns of each stage of the last run; File > Save As in the table writes a CSV
+            LiveMetrics.toTable().show("Live metrics");
+        };
         ActionListener rbGPUonChanged = new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -4574,7 +4592,7 @@ public class DirectCapturePanel {
             }
 
             //Other panel
-            JPanel OtherPane = new JPanel(new GridLayout(1, 2));
+            JPanel OtherPane = new JPanel(new GridLayout(1, 3));
             OtherPane.setBorder(BorderFactory.createTitledBorder("Other"));
 
             //initialize
@@ -4605,6 +4623,8 @@ public class DirectCapturePanel {
             btnFan.setToolTipText("Opens dialog for sensor fan.");
             btnOption = new JButton("Options");
             btnOption.setToolTipText("Opens dialog to activate various plotting option.");
+            btnMetrics = new JButton("Metrics");
+            btnMetrics.setToolTipText("Shows the latency, backlog and lost frames of each stage of the live pipeline.");
             btnClearWindow = new JButton("Clear Windows");
             btnClearWindow.setFont(new java.awt.Font($panelFont, java.awt.Font.BOLD, 11));
             btnClearWindow.setToolTipText("Close all graph windows.");
@@ -4784,6 +4804,7 @@ public class DirectCapturePanel {
 
             //Other settigs
             OtherPane.add(btnOption);
+            OtherPane.add(btnMetrics);
             OtherPane.add(btnClearWindow);
 
             Container cp = this.getContentPane();
@@ -4807,6 +4828,7 @@ public class DirectCapturePanel {
             cbCorrelator_p.addActionListener(cbCorrelator_pChanged);
             btnCorrelator_q.addActionListener(btnCorrelator_qPressed);
             btnOption.addActionListener(btnOptionPressed);
+            btnMetrics.addActionListener(btnMetricsPressed);
             rbGPUon.addActionListener(rbGPUonChanged);
             btnTemperature.addActionListener(btnTemperaturePressed);
             btnClearWindow.addActionListener(btnClearWindowPressed);
@@ -4933,6 +4955,8 @@ public class DirectCapturePanel {
             gd.addCheckbox("Plot ACFs and CCF", !Common.plotJustCCF);
             gd.addCheckbox("Auto adjust ACF & Intensity scale", Common.isAutoAdjustACFintensityTraceScale);
             gd.addCheckbox("Auto adjust video dynamic range", Common.getAutoAdjustImageDynamicRange());
+            gd.addCheckbox("Record acquisition to disk", Common.isRecordToDisk);
+            gd.addDirectoryField("Recording folder", Common.recordingFolder);
             gd.hideCancelButton();
             gd.showDialog();
             if (gd.wasOKed()) {
@@ -4943,6 +4967,14 @@ public class DirectCapturePanel {
                 Common.plotJustCCF = !gd.getNextBoolean();
                 Common.isAutoAdjustACFintensityTraceScale = gd.getNextBoolean();
                 boolean tempIsAutoAdjustDynamicRange = gd.getNextBoolean();
+                boolean tempIsRecordToDisk = gd.getNextBoolean();
+                String tempRecordingFolder = gd.getNextString();
+                if (tempIsRecordToDisk && !new File(tempRecordingFolder).isDirectory()) {
+                    IJ.showMessage("Recording folder not found: " + tempRecordingFolder);
+                    tempIsRecordToDisk = false;
+                }
+                Common.isRecordToDisk = tempIsRecordToDisk;
+                Common.recordingFolder = tempRecordingFolder;
 
                 Common.setAutoAdjustImageDynamicRange(tempIsAutoAdjustDynamicRange);
 
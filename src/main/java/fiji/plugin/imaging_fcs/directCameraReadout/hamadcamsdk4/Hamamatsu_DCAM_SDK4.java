@@ -16,6 +16,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,12 +34,16 @@ import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel.Common;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.cameraConstant.Common_Orca;
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounter;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.Camera;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameRingBuffer;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.NativeCamera;
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounterX;
 import fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.*;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.LiveVideoWorkerV2Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.SynchronizerWorkerInstant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.LiveVideoWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.BufferToStackWorkerInstant;
+import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.newRecorder;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.CumulativeACFWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.NonCumulativeACFWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.ICCSWorkerInstant;
@@ -345,8 +350,15 @@ public class Hamamatsu_DCAM_SDK4 {
 
     public static native void runInfiniteLoopSDK4(short[] outArray, FrameCounter frameObj);
 
+    public static native void runInfiniteLoopDirectSDK4(ShortBuffer outBuffer, FrameCounter frameObj); // outBuffer: direct, native byte order
+
+    public static native boolean isDirectBufferSupportedSDK4();
+
     public static native void setStopMechanismSDK4(boolean isStopPressed);
 
+    public static final Camera CAMERA = new NativeCamera(Hamamatsu_DCAM_SDK4::runInfiniteLoopSDK4, Hamamatsu_DCAM_SDK4::runInfiniteLoopDirectSDK4,
+            Hamamatsu_DCAM_SDK4::isDirectBufferSupportedSDK4, Hamamatsu_DCAM_SDK4::setStopMechanismSDK4);
+
 
     /*
     JNI END
@@ -476,9 +488,10 @@ public class Hamamatsu_DCAM_SDK4 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -488,7 +501,7 @@ public class Hamamatsu_DCAM_SDK4 {
                 Common.kineticCycleTime = 1 / getKineticCycleSDK4();
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV2Instant = new LiveVideoWorkerV2(Common.tempWidth, Common.tempHeight, latch);
                 SynchronizerWorkerInstant = new SynchronizerWorker(latch);
 
@@ -533,9 +546,10 @@ public class Hamamatsu_DCAM_SDK4 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -546,7 +560,7 @@ public class Hamamatsu_DCAM_SDK4 {
                 Common.kineticCycleTime = 1 / getKineticCycleSDK4(); // Get real kinetic cycle time
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
                 NonCumulativeACFWorkerV3Instant = new NonCumulativeACFWorkerV3(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -592,11 +606,12 @@ public class Hamamatsu_DCAM_SDK4 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.ims_cum = new ImageStack(Common.tempWidth, Common.tempHeight);
                 Common.framecounterIMSX = new FrameCounterX();
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -607,9 +622,9 @@ public class Hamamatsu_DCAM_SDK4 {
                 Common.kineticCycleTime = 1 / getKineticCycleSDK4(); // TODO: get real kinetic cycle time
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
-                BufferToStackWorkerInstant = new BufferToStackWorker(Common.tempWidth, Common.tempHeight, Common.totalFrame, latch, Common.arraysize);
+                BufferToStackWorkerInstant = newRecorder(Common.tempWidth, Common.tempHeight, Common.totalFrame, latch, Common.arraysize);
                 CumulativeACFWorkerV3Instant = new CumulativeACFWorkerV3(latch);
                 NonCumulativeACFWorkerV3Instant = new NonCumulativeACFWorkerV3(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -661,9 +676,10 @@ public class Hamamatsu_DCAM_SDK4 {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call setParameter
@@ -674,7 +690,7 @@ public class Hamamatsu_DCAM_SDK4 {
                 Common.kineticCycleTime = 1 / getKineticCycleSDK4(); // Get real kinetic cycle time
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
                 ICCSWorkerInstant = new ICCSWorker(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -715,13 +731,13 @@ public class Hamamatsu_DCAM_SDK4 {
 
     private static class CppToJavaTransferWorkerEXTENDEDV2 extends CppTOJavaTransferWorkerV2 {
 
-        public CppToJavaTransferWorkerEXTENDEDV2(short[] array, CountDownLatch latch) {
-            super(array, latch);
+        public CppToJavaTransferWorkerEXTENDEDV2(FrameRingBuffer ring, CountDownLatch latch) {
+            super(ring, latch);
         }
 
         @Override
         protected void runInfinteLoop() {
-            runInfiniteLoopSDK4(array, Common.framecounter);
+            CAMERA.acquire(ring);
         }
 
     }
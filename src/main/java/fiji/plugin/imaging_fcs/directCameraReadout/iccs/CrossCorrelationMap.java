@@ -0,0 +1,124 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.iccs;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Pearson correlation coefficient (PCC) between a green ROI of a frame and the red ROI of the same size, for every
+ * shift of a window, in one pass.
+ * <p>
+ * The sums over the green ROI are the same for all shifts. The sums of the red ROIs (I and I^2) are read from
+ * summed-area tables of the search region, built once. Only the cross term sum(G * R) depends on the shift; it is
+ * accumulated for a whole row of shifts while the green ROI is scanned once. All sums are exact integers, so the
+ * coefficients match a per-shift Pearson correlation to rounding.
+ * </p>
+ */
+public final class CrossCorrelationMap {
+    // above this number of multiply-adds, the rows of shifts are correlated in parallel
+    private static final long PARALLEL_WORK = 1 << 20;
+
+    private CrossCorrelationMap() {
+    }
+
+    /**
+     * @param pixels the frame; the values are taken as the short they are stored as, like the per-shift PCC did.
+     * @param width  the width of the frame.
+     * @param height the height of the frame.
+     * @param left   the first column of the green ROI, counted from 0.
+     * @param top    the first row of the green ROI, counted from 0.
+     * @param w      the width of the ROI.
+     * @param h      the height of the ROI.
+     * @param dx0    the horizontal offset of the red ROI for the first column of the map.
+     * @param dy0    the vertical offset of the red ROI for the first row of the map.
+     * @param map    receives the PCC, [row][column] for the offset (dx0 + column, dy0 + row); NaN where the red ROI
+     *               leaves the frame or one of the ROIs is uniform.
+     */
+    public static void compute(short[] pixels, int width, int height, int left, int top, int w, int h, int dx0,
+                               int dy0, double[][] map) {
+        int rows = map.length;
+        int cols = map[0].length;
+        int n = w * h;
+
+        long sumG = 0;
+        long sumGG = 0;
+        for (int y = 0; y < h; y++) {
+            int index = (top + y) * width + left;
+            for (int x = 0; x < w; x++) {
+                long g = pixels[index + x];
+                sumG += g;
+                sumGG += g * g;
+            }
+        }
+        double meanG = (double) sumG / n;
+        double varG = sumGG - meanG * sumG;
+
+        // search region: union of the red ROIs, clipped to the frame
+        int rx0 = Math.max(0, left + dx0);
+        int ry0 = Math.max(0, top + dy0);
+        int rx1 = Math.min(width, left + dx0 + cols - 1 + w);
+        int ry1 = Math.min(height, top + dy0 + rows - 1 + h);
+        if (rx1 - rx0 < w || ry1 - ry0 < h) {
+            for (double[] row : map) {
+                Arrays.fill(row, Double.NaN);
+            }
+            return;
+        }
+        int rw = rx1 - rx0;
+        long[] sat = new long[(rw + 1) * (ry1 - ry0 + 1)];
+        long[] sat2 = new long[sat.length];
+        for (int y = 0; y < ry1 - ry0; y++) {
+            long line = 0;
+            long line2 = 0;
+            int index = (ry0 + y) * width + rx0;
+            for (int x = 0; x < rw; x++) {
+                long v = pixels[index + x];
+                line += v;
+                line2 += v * v;
+                int s = (y + 1) * (rw + 1) + x + 1;
+                sat[s] = sat[s - rw - 1] + line;
+                sat2[s] = sat2[s - rw - 1] + line2;
+            }
+        }
+
+        IntStream range = IntStream.range(0, rows);
+        if ((long) rows * cols * n > PARALLEL_WORK) {
+            range = range.parallel();
+        }
+        // shifts keeping the red ROI in the frame
+        int jmin = Math.max(0, -(left + dx0));
+        int jmax = Math.min(cols, width - w - left - dx0 + 1);
+        range.forEach(i -> {
+            int ry = top + dy0 + i;
+            Arrays.fill(map[i], Double.NaN);
+            if (ry < 0 || ry + h > height) {
+                return;
+            }
+            long[] sumGR = new long[cols];
+            for (int y = 0; y < h; y++) {
+                int indexG = (top + y) * width + left;
+                int indexR = (ry + y) * width + left + dx0;
+                for (int x = 0; x < w; x++) {
+                    int g = pixels[indexG + x];
+                    int r = indexR + x;
+                    for (int j = jmin; j < jmax; j++) {
+                        sumGR[j] += g * pixels[r + j];
+                    }
+                }
+            }
+
+            for (int j = jmin; j < jmax; j++) {
+                int x0 = left + dx0 + j - rx0;
+                int y0 = ry - ry0;
+                long sumR = boxSum(sat, rw + 1, x0, y0, w, h);
+                long sumRR = boxSum(sat2, rw + 1, x0, y0, w, h);
+                double varR = sumRR - (double) sumR * sumR / n;
+                double cov = sumGR[j] - meanG * sumR;
+                map[i][j] = cov / Math.sqrt(varG * varR);
+            }
+        });
+    }
+
+    private static long boxSum(long[] sat, int stride, int x, int y, int w, int h) {
+        return sat[(y + h) * stride + x + w] - sat[y * stride + x + w] - sat[(y + h) * stride + x] + sat[y * stride + x];
+    }
+}
@@ -7,6 +7,7 @@ import ij.ImagePlus;
 import ij.gui.ImageWindow;
 import ij.gui.Plot;
 import ij.gui.PlotWindow;
+import ij.macro.Interpreter;
 import ij.process.FloatProcessor;
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer;
 import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
@@ -213,8 +214,7 @@ public class ICCS {
 
         if (MeanXYWindow == null || MeanXYWindow.isClosed() ==
                 true) {    // create new plot if window doesn't exist, or reuse existing window
-            MeanXYWindow = MeanXYPlot.show();
-            MeanXYWindow.setLocation(MeanXYWindowPosX, MeanXYWindowPosY);
+            MeanXYWindow = showPlot(MeanXYPlot, MeanXYWindowPosX, MeanXYWindowPosY);
 
         } else {
             MeanXYWindow.drawPlot(MeanXYPlot);
@@ -255,71 +255,11 @@ public class ICCS {
     }
 
     private void calcICCS(double[][] PCCValue, Rectangle rect1, int width) {
-        //total number of CCF to performed serially = trow * tcol (only CPU implementation)
-        int trow = listICCSCoordinate.length;
-        int tcol = listICCSCoordinate[0].length; //works for square or rectangular ROI
-
-        double maxPCC = 0;
-        for (int i = 0; i < trow; i++) {
-            for (int j = 0; j < tcol; j++) {
-
-                PCCValue[i][j] = getPCC(i, j, rect1, width);
-
-                if (PCCValue[i][j] > maxPCC) {
-                    maxPCC = PCCValue[i][j];
-                }
-
-            }
-        }
-        //        IJ.log("max PCC: " + maxPCC);
-    }
-
-    private double getPCC(int nrow, int ncol, Rectangle rect1, int width) {
-        int ol = (int) rect1.getX();
-        int ot = (int) rect1.getY();
-        int ow = (int) rect1.getWidth();
-        int oh = (int) rect1.getHeight();
-
-        int CCFxdist = listICCSCoordinate[nrow][ncol][0];
-        int CCFydist = listICCSCoordinate[nrow][ncol][1];
-        int irl = ol + CCFxdist;
-        int irt = ot + CCFydist;
-        int sizetocor = ow * oh;
-        int indexG = (ot * width + ol);
-        int indexR = (irt * width + irl);
-        short[] flatten;
-        double[] greenChannel = new double[sizetocor];
-        double[] redChannel = new double[sizetocor];
-
-        // set green and red roi for visual (not necessary)
-        //flatten pixels of size width*height
-        flatten = (short[]) imp.getStack().getPixels(1);
-
-        int counterG = 0;
-        int counterR = 0;
-        for (int i = 0; i < sizetocor; i++) {
-            //fill green array
-            greenChannel[i] = flatten[indexG];
-            if (counterG == (ow - 1)) {
-                counterG = 0;
-                indexG = indexG + width - ow + 1;
-            } else {
-                indexG++;
-                counterG++;
-            }
-
-            //fill red array
-            redChannel[i] = flatten[indexR];
-            if (counterR == (ow - 1)) {
-                counterR = 0;
-                indexR = indexR + width - ow + 1;
-            } else {
-                indexR++;
-                counterR++;
-            }
-        }
-        //calculate and return PCC value
-        return new PearsonsCorrelation().correlation(greenChannel, redChannel);
+        //whole map in one pass: the shift [0][0] is the offset of the red ROI listICCSCoordinate[0][0]
+        short[] flatten = (short[]) imp.getStack().getPixels(1);
+        CrossCorrelationMap.compute(flatten, width, flatten.length / width, (int) rect1.getX(), (int) rect1.getY(),
+                (int) rect1.getWidth(), (int) rect1.getHeight(), listICCSCoordinate[0][0][0],
+                listICCSCoordinate[0][0][1], PCCValue);
     }
 
     private double getPCC(int nrow, int ncol, Rectangle rect1, int width, ArrayList<double[]> outarray) {
@@ -385,7 +325,7 @@ public class ICCS {
         }
         ipICCS.resetMinAndMax();
         impICCS.updateAndDraw();
-        if (!impICCSmapWin.isVisible()) {
+        if (impICCSmapWin != null && !impICCSmapWin.isVisible()) {
             impICCSmapWin.setVisible(
                     true);// Problematic: startle settings combobox when called sequentially at fast rate; threfore
             // is the if statement
@@ -538,6 +478,10 @@ public class ICCS {
 
         ipICCS = new FloatProcessor(wid, hei);
         impICCS = new ImagePlus("ICCS", ipICCS);
+        if (Interpreter.isBatchMode()) {
+            // no window in batch mode (headless runs), the map is only calculated
+            return;
+        }
         impICCS.show();
         impICCSmapWin = impICCS.getWindow();
         impICCSmapWin.setVisible(false);
@@ -582,8 +526,7 @@ public class ICCS {
 
         // either create a new plot window or plot within the existing window
         if (pearsonScatterWindow == null || pearsonScatterWindow.isClosed() == true) {
-            pearsonScatterWindow = iplot.show();
-            pearsonScatterWindow.setLocation(ScatterPearsonWindowPosX, ScatterPearsonWindowPosY);
+            pearsonScatterWindow = showPlot(iplot, ScatterPearsonWindowPosX, ScatterPearsonWindowPosY);
         } else {
             pearsonScatterWindow.drawPlot(iplot);
             pearsonScatterWindow.setTitle("center PCC (" + midW + "," + midH + ")");
@@ -598,6 +541,15 @@ public class ICCS {
         }
     }
 
+    // shows a plot in a new window at the given position; in batch mode ImageJ opens no window and null is returned
+    private PlotWindow showPlot(Plot plot, int posX, int posY) {
+        PlotWindow window = plot.show();
+        if (window != null) {
+            window.setLocation(posX, posY);
+        }
+        return window;
+    }
+
     //Unused //TODO
     private void disposeAllWIndow() {
         if (pearsonScatterWindow != null && pearsonScatterWindow.isClosed() == false) {
@@ -20,6 +20,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.logging.Level;
@@ -37,6 +38,9 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel.Common;
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounter;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.Camera;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameRingBuffer;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.NativeCamera;
 import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounterX;
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.cameraConstant;
 import fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.*;
@@ -44,6 +48,7 @@ import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.LiveVi
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.SynchronizerWorkerInstant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.LiveVideoWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.BufferToStackWorkerInstant;
+import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.newRecorder;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.CumulativeACFWorkerV3Instant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.ICCSWorkerInstant;
 import static fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers.NonCumulativeACFWorkerV3Instant;
@@ -304,8 +309,15 @@ public class Photometrics_PVCAM_SDK {
 
     public static native void runInfiniteLoopPVCAM(short[] outArray, FrameCounter fcObj);
 
+    public static native void runInfiniteLoopDirectPVCAM(ShortBuffer outBuffer, FrameCounter fcObj); // outBuffer: direct, native byte order
+
+    public static native boolean isDirectBufferSupportedPVCAM();
+
     public static native void setStopMechanismPVCAM(boolean isStopPressed);
 
+    public static final Camera CAMERA = new NativeCamera(Photometrics_PVCAM_SDK::runInfiniteLoopPVCAM, Photometrics_PVCAM_SDK::runInfiniteLoopDirectPVCAM,
+            Photometrics_PVCAM_SDK::isDirectBufferSupportedPVCAM, Photometrics_PVCAM_SDK::setStopMechanismPVCAM);
+
     public static native int debugMyData1PVCAM();
 
     public static native int debugMyData2PVCAM();
@@ -454,9 +466,10 @@ public class Photometrics_PVCAM_SDK {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -469,7 +482,7 @@ public class Photometrics_PVCAM_SDK {
 //                Common.kineticCycleTime = 1 / getKineticCycleSDK4(); // TODO: get real kinetic cycle time
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
 
                 LiveVideoWorkerV2Instant = new LiveVideoWorkerV2(Common.tempWidth, Common.tempHeight, latch);
 
@@ -517,9 +530,10 @@ public class Photometrics_PVCAM_SDK {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -531,7 +545,7 @@ public class Photometrics_PVCAM_SDK {
 //                Common.kineticCycleTime = 1 / getKineticCycleSDK4(); // TODO: get real kinetic cycle time
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
                 NonCumulativeACFWorkerV3Instant = new NonCumulativeACFWorkerV3(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -576,11 +590,12 @@ public class Photometrics_PVCAM_SDK {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.ims_cum = new ImageStack(Common.tempWidth, Common.tempHeight);
                 Common.framecounterIMSX = new FrameCounterX();
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call SetParameter
@@ -592,9 +607,9 @@ public class Photometrics_PVCAM_SDK {
 //                Common.kineticCycleTime = 1 / getKineticCycleSDK4(); // TODO: get real kinetic cycle time
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
-                BufferToStackWorkerInstant = new BufferToStackWorker(Common.tempWidth, Common.tempHeight, Common.totalFrame, latch, Common.arraysize);
+                BufferToStackWorkerInstant = newRecorder(Common.tempWidth, Common.tempHeight, Common.totalFrame, latch, Common.arraysize);
                 CumulativeACFWorkerV3Instant = new CumulativeACFWorkerV3(latch);
                 NonCumulativeACFWorkerV3Instant = new NonCumulativeACFWorkerV3(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -644,9 +659,10 @@ public class Photometrics_PVCAM_SDK {
                 Common.arraysize = fbuffersize * Common.tempWidth * Common.tempHeight;
                 printlog("Size JavaBuffer cr8ed: " + (Common.arraysize * 2 / 1000000) + " MB");
                 long timer1 = System.currentTimeMillis();
-                Common.bufferArray1D = new short[Common.arraysize];
-                printlog("Time cr8 bufferArray1D: " + (System.currentTimeMillis() - timer1) + " ms");
                 Common.framecounter = new FrameCounter();
+                Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, Common.tempWidth * Common.tempHeight, Common.framecounter, CAMERA.isDirectBufferSupported());
+                Common.bufferArray1D = Common.frameRing.array(); // null when the frames are in a direct buffer
+                printlog("Time cr8 frameRing: " + (System.currentTimeMillis() - timer1) + " ms");
                 CountDownLatch latch = new CountDownLatch(noThread);
 
                 // JNI call setParameter
@@ -658,7 +674,7 @@ public class Photometrics_PVCAM_SDK {
 //                Common.kineticCycleTime = 1 / getKineticCycleSDK4(); // TODO: get real kinetic cycle time
                 DirectCapturePanel.tfExposureTime.setText(String.format("%.6f", Common.kineticCycleTime));// update real kinetic cycle time [s] to GUI
 
-                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.bufferArray1D, latch);
+                CppToJavaTransferWorkerEXTENDEDV2 CppToJavaTransferWorkerEXTENDEDV2Instant = new CppToJavaTransferWorkerEXTENDEDV2(Common.frameRing, latch);
                 LiveVideoWorkerV3Instant = new LiveVideoWorkerV3(Common.tempWidth, Common.tempHeight, latch);
                 ICCSWorkerInstant = new ICCSWorker(Common.tempWidth, Common.tempHeight, latch, Common.arraysize);
 
@@ -699,13 +715,13 @@ public class Photometrics_PVCAM_SDK {
 
     private static class CppToJavaTransferWorkerEXTENDEDV2 extends CppTOJavaTransferWorkerV2 {
 
-        public CppToJavaTransferWorkerEXTENDEDV2(short[] array, CountDownLatch latch) {
-            super(array, latch);
+        public CppToJavaTransferWorkerEXTENDEDV2(FrameRingBuffer ring, CountDownLatch latch) {
+            super(ring, latch);
         }
 
         @Override
         protected void runInfinteLoop() {
-            runInfiniteLoopPVCAM(array, Common.framecounter);
+            CAMERA.acquire(ring);
         }
 
     }
@@ -0,0 +1,91 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.simulator;
+
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.SimulationBase;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames replayed by the {@link VirtualCamera}, held in memory so that they can be served at camera rates. They come
+ * either from the simulation engine or from an image stack, e.g. a TIFF recorded with a real camera.
+ */
+public final class FramePool {
+    private final int width;
+    private final int height;
+    private final short[][] frames;
+
+    private FramePool(int width, int height, short[][] frames) {
+        if (frames.length == 0) {
+            throw new IllegalArgumentException("The frame pool is empty.");
+        }
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+    }
+
+    /**
+     * Runs a simulation and keeps all its frames.
+     *
+     * @param simulation the configured simulation.
+     * @return the pool.
+     */
+    public static FramePool fromSimulation(SimulationBase simulation) {
+        List<short[]> frames = new ArrayList<>(simulation.getNumFrames());
+        simulation.simulate(frames::add);
+        return new FramePool(simulation.getWidth(), simulation.getHeight(), frames.toArray(new short[0][]));
+    }
+
+    /**
+     * Uses the slices of an image, converted to 16-bit if needed.
+     *
+     * @param image the image.
+     * @return the pool.
+     */
+    public static FramePool fromImage(ImagePlus image) {
+        ImageStack stack = image.getStack();
+        short[][] frames = new short[stack.getSize()][];
+        for (int i = 0; i < frames.length; i++) {
+            Object pixels = stack.getPixels(i + 1);
+            frames[i] = pixels instanceof short[] ? (short[]) pixels :
+                    (short[]) stack.getProcessor(i + 1).convertToShort(false).getPixels();
+        }
+        return new FramePool(stack.getWidth(), stack.getHeight(), frames);
+    }
+
+    /**
+     * Opens an image file, e.g. a TIFF.
+     *
+     * @param path the path of the image.
+     * @return the pool.
+     */
+    public static FramePool open(String path) {
+        ImagePlus image = IJ.openImage(path);
+        if (image == null) {
+            throw new RuntimeException("Cannot open the image " + path);
+        }
+        return fromImage(image);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * @param index the index of the frame, counted from 0. The pool loops, any index is valid.
+     * @return the pixels of the frame, not to be modified.
+     */
+    public short[] getFrame(long index) {
+        return frames[(int) (index % frames.length)];
+    }
+}
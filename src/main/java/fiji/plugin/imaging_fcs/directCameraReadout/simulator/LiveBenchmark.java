@@ -0,0 +1,269 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.simulator;
+
+import fiji.plugin.imaging_fcs.directCameraReadout.control.ConsumerPolicy;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounter;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounterX;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameRingBuffer;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.LiveMetrics;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.StageLatency;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.WaitStrategy;
+import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel.Common;
+import fiji.plugin.imaging_fcs.directCameraReadout.workers.Workers;
+import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
+import fiji.plugin.imaging_fcs.imfcs.model.SimulationModel;
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.Simulation2D;
+import ij.ImageStack;
+import ij.macro.Interpreter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingWorker;
+
+import static fiji.plugin.imaging_fcs.directCameraReadout.gui.parameterName.modeType.$amode;
+
+/**
+ * Command line load test of the live pipeline without a camera: a {@link VirtualCamera} fills the frame ring, the
+ * recording worker stores every frame and a number of readers copy the latest frame like the live display does.
+ * Optionally, the calibration worker ({@link Workers.NonCumulativeACFWorkerV3}) and the ICCS worker
+ * ({@link Workers.ICCSWorker}) run on the ring as in the acquisition mode, in ImageJ batch mode so that they correlate
+ * without opening their plot windows.
+ * <p>
+ * The live video worker is not run: it draws into an image window and needs a display. The readers stand in for it,
+ * they take the latest frame the same way but only copy it.
+ * </p>
+ * <p>
+ * Usage: {@code LiveBenchmark [key=value]...} with the keys
+ * <ul>
+ *     <li>tiff: image replayed by the camera. Without it, frames are simulated with sim.pixels (default 64),
+ *     sim.frames (2000) and sim.particles (1000).</li>
+ *     <li>roi: left,top,width,height, counted from 1 (default: the whole frame).</li>
+ *     <li>fps: frame rate in Hz, 0 for as fast as possible (default 1000).</li>
+ *     <li>frames: frames acquired and recorded (default 20000). The recording is kept in memory, unless record is
+ *     given.</li>
+ *     <li>record: folder to record the frames to a raw file, like the recording to disk of the acquisition mode.</li>
+ *     <li>buffer: frames held by the ring (default 1000).</li>
+ *     <li>readers: live readers (default 1).</li>
+ *     <li>analysis: comma separated workers correlating the frames during the acquisition, calibration and/or iccs
+ *     (default none). They analyze the centre of the frame, leaving a margin of iccs.shift + 1 pixels for the ICCS
+ *     worker.</li>
+ *     <li>plotInterval: frames correlated by the calibration worker per update (default 500).</li>
+ *     <li>iccs.shift: largest shift in pixels of the ICCS map (default 2).</li>
+ *     <li>direct: true to keep the ring in a direct buffer, false for a Java array (default true).</li>
+ *     <li>metrics: file receiving the metrics of every stage at the end, JSON if it ends with .json, CSV otherwise.</li>
+ * </ul>
+ * </p>
+ */
+public final class LiveBenchmark {
+    private LiveBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                System.err.println("Usage: LiveBenchmark [tiff=<path>] [roi=l,t,w,h] [fps=1000] [frames=20000] " +
+                        "[buffer=1000] [readers=1] [direct=true] [record=<folder>] [metrics=<file>] " +
+                        "[analysis=calibration,iccs] [plotInterval=500] [iccs.shift=2] [sim.pixels=64] " +
+                        "[sim.frames=2000] [sim.particles=1000]");
+                System.exit(2);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        FramePool pool = options.containsKey("tiff") ? FramePool.open(options.get("tiff")) : simulate(options);
+        System.out.printf("Frame pool: %d frame(s) of %dx%d%n", pool.size(), pool.getWidth(), pool.getHeight());
+
+        String[] roi = options.getOrDefault("roi", "1,1," + pool.getWidth() + "," + pool.getHeight()).split(",");
+        double fps = Double.parseDouble(options.getOrDefault("fps", "1000"));
+        int totalFrame = Integer.parseInt(options.getOrDefault("frames", "20000"));
+        VirtualCamera camera = new VirtualCamera(pool);
+        if (!camera.setParameter(Integer.parseInt(roi[2].trim()), Integer.parseInt(roi[3].trim()),
+                Integer.parseInt(roi[0].trim()), Integer.parseInt(roi[1].trim()), fps, totalFrame)) {
+            System.exit(2);
+        }
+
+        if (options.containsKey("record")) {
+            Common.isRecordToDisk = true;
+            Common.recordingFolder = options.get("record");
+        }
+        List<String> analysis = options.containsKey("analysis") ?
+                Arrays.asList(options.get("analysis").split(",")) : Collections.emptyList();
+        for (String worker : analysis) {
+            if (!worker.equals("calibration") && !worker.equals("iccs")) {
+                System.err.println("Unknown analysis: " + worker + ", expected calibration or iccs");
+                System.exit(2);
+            }
+        }
+        if (!analysis.isEmpty()) {
+            setAnalysis(Integer.parseInt(roi[2].trim()), Integer.parseInt(roi[3].trim()),
+                    Integer.parseInt(options.getOrDefault("plotInterval", "500")),
+                    Integer.parseInt(options.getOrDefault("iccs.shift", "2")));
+        }
+        run(camera, Integer.parseInt(roi[2].trim()), Integer.parseInt(roi[3].trim()), totalFrame,
+                Integer.parseInt(options.getOrDefault("buffer", "1000")),
+                Integer.parseInt(options.getOrDefault("readers", "1")),
+                Boolean.parseBoolean(options.getOrDefault("direct", "true")), analysis);
+        if (options.containsKey("metrics")) {
+            try {
+                LiveMetrics.save(new File(options.get("metrics")));
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static FramePool simulate(Map<String, String> options) {
+        ExpSettingsModel settings = new ExpSettingsModel();
+        SimulationModel model = new SimulationModel(settings);
+        model.setIs2D(true);
+        model.setPixelNum(options.getOrDefault("sim.pixels", "64"));
+        model.setNumFrames(options.getOrDefault("sim.frames", "2000"));
+        model.setNumParticles(options.getOrDefault("sim.particles", "1000"));
+        model.setNumThreads(Integer.toString(Runtime.getRuntime().availableProcessors()));
+        return FramePool.fromSimulation(new Simulation2D(model, settings));
+    }
+
+    /**
+     * Sets the parameters of the analysis workers to the defaults of the acquisition mode, on a ROI centred in the
+     * frame. Batch mode keeps ImageJ from opening the plot windows.
+     */
+    private static void setAnalysis(int width, int height, int plotInterval, int shift) {
+        Interpreter.batchMode = true;
+        Common.oWidth = width;
+        Common.oHeight = height;
+        Common.analysisMode = $amode[1];
+        Common.plotInterval = plotInterval;
+        Common.BinXSoft = 1;
+        Common.BinYSoft = 1;
+        Common.CCFdistX = 0;
+        Common.CCFdistY = 0;
+        Common.isCCFmode = false;
+        Common.bleachCor = "none";
+        Common.polynomDegree = 4;
+        Common.correlator_p = 16;
+        Common.correlator_q = 8;
+        Common.plotACFCurves = true;
+        Common.plotTrace = true;
+        Common.plotJustCCF = true;
+        Common.plotAverage = false;
+        Common.plotCalibAmplitude = false;
+        Common.plotCalibDiffusion = false;
+        Common.plotCalibIntensity = false;
+
+        // the ICCS map shifts the ROI by up to shift pixels on each side
+        int margin = Math.max(0, Math.min(shift + 1, (Math.min(width, height) - 1) / 2));
+        Common.ICCSShiftX = shift;
+        Common.ICCSShiftY = shift;
+        Common.isICCSValid = true;
+        Common.lLeft = margin + 1;
+        Common.lTop = margin + 1;
+        Common.lWidth = width - 2 * margin;
+        Common.lHeight = height - 2 * margin;
+    }
+
+    /**
+     * Runs one acquisition and prints the throughput and latency of each stage.
+     */
+    private static void run(VirtualCamera camera, int width, int height, int totalFrame, int bufferFrames,
+                            int readers, boolean direct, List<String> analysis) throws InterruptedException {
+        // same set up as the acquisition mode of the SDK classes
+        Common.tempWidth = width;
+        Common.tempHeight = height;
+        Common.totalFrame = totalFrame;
+        Common.kineticCycleTime = camera.getKineticCycle();
+        Common.arraysize = bufferFrames * width * height;
+        Common.ims_cum = new ImageStack(width, height);
+        Common.framecounterIMSX = new FrameCounterX();
+        Common.framecounter = new FrameCounter();
+        Common.frameRing = FrameRingBuffer.allocate(Common.arraysize, width * height, Common.framecounter,
+                direct && camera.isDirectBufferSupported());
+        Common.bufferArray1D = Common.frameRing.array();
+        System.out.println(Common.frameRing.isDirect() ? "Ring in a direct buffer" : "Ring in a Java array");
+        Common.isPrematureTermination = false;
+
+        CountDownLatch latch = new CountDownLatch(1);
+        SwingWorker<Boolean, Void> recorder = Workers.newRecorder(width, height, totalFrame, latch, Common.arraysize);
+
+        CountDownLatch analysisLatch = new CountDownLatch(analysis.size());
+        List<SwingWorker<Boolean, Void>> analysisWorkers = new ArrayList<>();
+        for (String worker : analysis) {
+            analysisWorkers.add(worker.equals("calibration") ?
+                    new Workers.NonCumulativeACFWorkerV3(width, height, analysisLatch, Common.arraysize) :
+                    new Workers.ICCSWorker(width, height, analysisLatch, Common.arraysize));
+        }
+
+        List<Thread> readerThreads = new ArrayList<>();
+        List<StageLatency> readerLatencies = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            StageLatency latency = LiveMetrics.newStage("Reader " + (i + 1));
+            readerLatencies.add(latency);
+            readerThreads.add(new Thread(() -> readLatest(width * height, latency), "LiveBenchmark-reader-" + i));
+        }
+
+        Thread producer = new Thread(() -> camera.acquire(Common.frameRing), "VirtualCamera");
+        long start = System.nanoTime();
+        recorder.execute();
+        analysisWorkers.forEach(SwingWorker::execute);
+        readerThreads.forEach(Thread::start);
+        producer.start();
+
+        producer.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // the recorder finishes the frames already published, like after the native loop returns
+        latch.await(10, TimeUnit.SECONDS);
+        Common.isPrematureTermination = true;
+        for (Thread thread : readerThreads) {
+            thread.join();
+        }
+        // the analysis workers finish their current update
+        if (!analysisLatch.await(60, TimeUnit.SECONDS)) {
+            System.err.println("The analysis workers did not stop");
+        }
+
+        FrameCounter counter = Common.framecounter;
+        System.out.printf("Produced %d frame(s) in %.2f s: %.0f fps, %.1f MB/s. Copy per frame: %.4f ms%n",
+                counter.getCounter(), seconds, counter.getCounter() / seconds,
+                counter.getCounter() * 2.0 * width * height / seconds / 1e6, counter.time3);
+        if (Common.isRecordToDisk) {
+            // the disk recorder logs the frames written and the bandwidth
+            System.out.printf("Recorded %d frame(s) to %s%n", Common.framecounterIMSX.getCount(),
+                    new File(Common.recordingFolder).getAbsolutePath());
+        } else {
+            System.out.printf("Recorded %d frame(s), %d lost%n", Common.ims_cum.getSize(),
+                    Common.framecounterIMSX.getCount() - Common.ims_cum.getSize());
+        }
+        readerLatencies.forEach(System.out::println);
+        // the analysis workers log their latencies to the ImageJ log, printed to the console in batch mode
+    }
+
+    /**
+     * Copies the latest frame each time a new one is published, like the live display without its refresh limit.
+     */
+    private static void readLatest(int frameSize, StageLatency latency) {
+        FrameRingBuffer.Cursor cursor = Common.frameRing.newCursor(1, ConsumerPolicy.LATEST_ONLY);
+        short[] frame = new short[frameSize];
+        while (cursor.await(1, WaitStrategy.BLOCKING, () -> Common.isPrematureTermination)) {
+            int latest = cursor.skipToLatest();
+            cursor.seek(latest);
+            if (cursor.read(frame)) {
+                latency.record(cursor, latest);
+            }
+        }
+        latency.update(cursor);
+    }
+}
@@ -0,0 +1,141 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.simulator;
+
+import fiji.plugin.imaging_fcs.directCameraReadout.control.Camera;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameCounter;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameRingBuffer;
+import ij.IJ;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Camera without hardware, producing frames the same way as the native runInfiniteLoop of the SDK classes: each frame
+ * of the ROI is copied to the next slot of the ring, then published with {@link FrameCounter#increment()}. The
+ * frames are replayed from a {@link FramePool} at a fixed frame rate, or as fast as possible.
+ */
+public class VirtualCamera implements Camera {
+    // below this wait, the loop yields instead of parking, parkNanos being too coarse for tens of kHz
+    private static final long SPIN_NANOS = 200_000;
+
+    private final FramePool pool;
+
+    private int width;
+    private int height;
+    private int left;
+    private int top;
+    private long periodNanos;
+    private int totalFrame;
+    private volatile boolean isStopPressed;
+
+    public VirtualCamera(FramePool pool) {
+        this.pool = pool;
+        this.width = pool.getWidth();
+        this.height = pool.getHeight();
+        this.left = 1;
+        this.top = 1;
+    }
+
+    /**
+     * Sets the acquisition parameters, like setParameter of the SDK classes.
+     *
+     * @param width      the width of the ROI in pixels.
+     * @param height     the height of the ROI in pixels.
+     * @param left       the first column of the ROI, counted from 1.
+     * @param top        the first row of the ROI, counted from 1.
+     * @param frameRate  the frame rate in Hz, 0 to produce frames as fast as possible.
+     * @param totalFrame the number of frames to produce, 0 to run until stopped.
+     * @return false if the ROI does not fit in the frames of the pool.
+     */
+    public boolean setParameter(int width, int height, int left, int top, double frameRate, int totalFrame) {
+        if (width < 1 || height < 1 || left < 1 || top < 1 || left - 1 + width > pool.getWidth() ||
+                top - 1 + height > pool.getHeight()) {
+            IJ.log("Virtual camera: the ROI must fit in the " + pool.getWidth() + "x" + pool.getHeight() +
+                    " frames.");
+            return false;
+        }
+        this.width = width;
+        this.height = height;
+        this.left = left;
+        this.top = top;
+        this.periodNanos = frameRate > 0 ? Math.round(1e9 / frameRate) : 0;
+        this.totalFrame = totalFrame;
+        return true;
+    }
+
+    /**
+     * @return the time between two frames in seconds, 0 when the frames are produced as fast as possible.
+     */
+    public double getKineticCycle() {
+        return periodNanos / 1e9;
+    }
+
+    @Override
+    public boolean isDirectBufferSupported() {
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        isStopPressed = true;
+    }
+
+    /**
+     * Produces frames until the total is reached or the acquisition is stopped. The times of the sequence are set at
+     * the end, in ms: overall time, average time to get a frame and average time to copy it.
+     *
+     * @param ring the ring, with frames of the size of the ROI.
+     */
+    @Override
+    public void acquire(FrameRingBuffer ring) {
+        if (ring.getFrameSize() != width * height) {
+            throw new IllegalArgumentException("The frames of the ring do not match the ROI.");
+        }
+        FrameCounter frameObj = ring.getSequence();
+        ShortBuffer out = ring.getBuffer().duplicate();
+        isStopPressed = false;
+
+        long start = System.nanoTime();
+        long readNanos = 0;
+        long copyNanos = 0;
+        int n = 0;
+        while (!isStopPressed && (totalFrame <= 0 || n < totalFrame)) {
+            if (periodNanos > 0) {
+                waitUntil(start + n * periodNanos);
+            }
+
+            long time = System.nanoTime();
+            short[] frame = pool.getFrame(n);
+            long readTime = System.nanoTime();
+
+            out.position(ring.offsetOf(n + 1));
+            if (width == pool.getWidth()) {
+                out.put(frame, (top - 1) * width, width * height);
+            } else {
+                for (int y = 0; y < height; y++) {
+                    out.put(frame, (top - 1 + y) * pool.getWidth() + left - 1, width);
+                }
+            }
+            long copyTime = System.nanoTime();
+
+            readNanos += readTime - time;
+            copyNanos += copyTime - readTime;
+            n++;
+            frameObj.increment();
+        }
+
+        frameObj.time1 = (System.nanoTime() - start) / 1e6;
+        frameObj.time2 = n == 0 ? 0 : readNanos / 1e6 / n;
+        frameObj.time3 = n == 0 ? 0 : copyNanos / 1e6 / n;
+    }
+
+    private void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !isStopPressed) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS / 2);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ public class SystemInfo {
         long time = System.nanoTime();
 
         Common.bufferArray1D = null;
+        Common.frameRing = null; // a direct ring is freed once collected
         Common.imp_cum = null;
         Common.ims_cum = null;
         Common.ims_nonCumRed = null;
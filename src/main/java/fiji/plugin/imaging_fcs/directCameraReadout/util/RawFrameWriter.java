@@ -0,0 +1,214 @@
+package fiji.plugin.imaging_fcs.directCameraReadout.util;
+
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameRingBuffer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * Writes 16-bit frames one after the other to a raw file, little-endian, without header: the file can be opened with
+ * File > Import > Raw in ImageJ. The geometry is written to a JSON file next to it.
+ * <p>
+ * The file is preallocated for the expected number of frames. Frames are gathered in a chunk of several MB outside the
+ * Java heap and written with one positional write per chunk; the chunks are a multiple of 4 kB long, so that every
+ * write starts on a block boundary of the disk.
+ * </p>
+ */
+public class RawFrameWriter implements Closeable {
+
+    private static final int ALIGNMENT = 4096;
+    private static final int CHUNK_BYTES = 8 << 20;
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int frameBytes;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteBuffer chunk;
+    private final ShortBuffer chunkPixels;
+    private final int framesPerChunk;
+
+    private long position; // bytes written
+    private int frames; // frames staged
+    private long writeNanos;
+    private final long startNanos;
+
+    /**
+     * Creates or overwrites the file.
+     *
+     * @param file        the raw file.
+     * @param width       the width of the frames.
+     * @param height      the height of the frames.
+     * @param totalFrames the number of frames expected, to preallocate the file. 0 if unknown.
+     * @throws IOException if the file cannot be created.
+     */
+    public RawFrameWriter(File file, int width, int height, int totalFrames) throws IOException {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.frameBytes = 2 * width * height;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(totalFrames > 0 ? (long) totalFrames * frameBytes : 0);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        this.channel = raf.getChannel();
+
+        // whole frames, and a whole number of blocks
+        int step = ALIGNMENT / gcd(frameBytes, ALIGNMENT);
+        this.framesPerChunk = Math.max(step, CHUNK_BYTES / frameBytes / step * step);
+        this.chunk = ByteBuffer.allocateDirect(framesPerChunk * frameBytes).order(ByteOrder.LITTLE_ENDIAN);
+        this.chunkPixels = chunk.asShortBuffer();
+        this.startNanos = System.nanoTime();
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of frames written by one write to the disk.
+     */
+    public int getFramesPerChunk() {
+        return framesPerChunk;
+    }
+
+    /**
+     * @return the number of frames written so far, including those still in the chunk.
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the bytes written per second since the file was opened, in MB/s.
+     */
+    public double getSustainedBandwidth() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds == 0 ? 0 : position / seconds / 1e6;
+    }
+
+    /**
+     * @return the bytes written per second spent in writes, in MB/s: what the disk achieves.
+     */
+    public double getWriteBandwidth() {
+        return writeNanos == 0 ? 0 : position / (writeNanos / 1e9) / 1e6;
+    }
+
+    /**
+     * Reads the next frame of a cursor into the file.
+     *
+     * @param cursor the cursor of the recording.
+     * @return false if the frame was overwritten before it was read; nothing is written then.
+     * @throws IOException if the chunk cannot be written.
+     */
+    public boolean write(FrameRingBuffer.Cursor cursor) throws IOException {
+        if (!cursor.read(chunkPixels)) {
+            return false;
+        }
+        frames++;
+        if (!chunkPixels.hasRemaining()) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Writes empty frames in place of frames lost before they were read, so that frame n of the file stays frame n of
+     * the acquisition.
+     *
+     * @param count the number of frames lost.
+     * @throws IOException if the chunk cannot be written.
+     */
+    public void writeBlank(int count) throws IOException {
+        short[] blank = new short[width * height];
+        for (int i = 0; i < count; i++) {
+            chunkPixels.put(blank);
+            frames++;
+            if (!chunkPixels.hasRemaining()) {
+                flush();
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        chunk.position(0);
+        chunk.limit(chunkPixels.position() * 2);
+        long time = System.nanoTime();
+        while (chunk.hasRemaining()) {
+            position += channel.write(chunk, position);
+        }
+        writeNanos += System.nanoTime() - time;
+        chunk.clear();
+        chunkPixels.clear();
+    }
+
+    /**
+     * Writes the geometry of the frames to a JSON file next to the raw file, with the same name ending in .json.
+     *
+     * @param extra other entries, e.g. the frame time or the dropped frames.
+     * @return the JSON file.
+     * @throws IOException if the file cannot be written.
+     */
+    public File writeMetadata(Map<String, Object> extra) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("raw file", file.getName());
+        map.put("width", width);
+        map.put("height", height);
+        map.put("frames", frames);
+        map.put("pixel type", "16-bit unsigned");
+        map.put("byte order", "little-endian");
+        map.putAll(extra);
+
+        File json = new File(file.getParentFile(), baseName(file) + ".json");
+        try (FileWriter writer = new FileWriter(json)) {
+            writer.write(new JSONObject(map).toJSONString());
+        }
+        return json;
+    }
+
+    /**
+     * @return the name of the file without extension.
+     */
+    public static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Writes the last chunk and trims the file to the frames written. Does nothing if the file is already closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            if (chunkPixels.position() > 0) {
+                flush();
+            }
+            if (channel.size() > position) {
+                channel.truncate(position);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -63,4 +63,21 @@ public class Utilities {
         return (int) Math.floor(sizeA * sizeB / 1.5);
     }
 
+    /**
+     * Largest plot interval the calibration can correlate in place at the measured speed: while an interval of P
+     * frames is correlated, the camera publishes P * correlationTime / frameTime frames, which the buffer must hold
+     * too (with a margin of 50%).
+     *
+     * @param bufferFrames    the number of frames of the buffer.
+     * @param frameTime       the kinetic cycle in s.
+     * @param correlationTime the measured time to correlate one frame of an interval in s, 0 if not known yet.
+     * @return the largest plot interval in frames.
+     */
+    public static int retMaxAllowablePlotInterval(int bufferFrames, double frameTime, double correlationTime) {
+        if (frameTime <= 0 || correlationTime <= 0) {
+            return (int) Math.floor(bufferFrames / 1.5);
+        }
+        return (int) Math.floor((bufferFrames - 1) / (1 + 1.5 * correlationTime / frameTime));
+    }
+
 }
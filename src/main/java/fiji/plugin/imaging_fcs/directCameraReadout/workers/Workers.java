@@ -1,6 +1,15 @@
 package fiji.plugin.imaging_fcs.directCameraReadout.workers;
 
+import fiji.plugin.imaging_fcs.directCameraReadout.control.ConsumerPolicy;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameRingBuffer;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.FrameWindowStack;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.LiveMetrics;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.StageLatency;
+import fiji.plugin.imaging_fcs.directCameraReadout.control.WaitStrategy;
 import fiji.plugin.imaging_fcs.directCameraReadout.iccs.ICCS;
+import fiji.plugin.imaging_fcs.directCameraReadout.util.RawFrameWriter;
+import fiji.plugin.imaging_fcs.directCameraReadout.util.TimeTaggedStorage;
+import fiji.plugin.imaging_fcs.directCameraReadout.util.Utilities;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
@@ -11,10 +20,18 @@ import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import javax.swing.SwingWorker;
 
 import fiji.plugin.imaging_fcs.directCameraReadout.gui.DirectCapturePanel;
@@ -42,7 +59,7 @@ public class Workers {
     public static LiveVideoWorkerV2 LiveVideoWorkerV2Instant;
     public static SynchronizerWorker SynchronizerWorkerInstant;
     public static LiveVideoWorkerV3 LiveVideoWorkerV3Instant;
-    public static BufferToStackWorker BufferToStackWorkerInstant;
+    public static SwingWorker<Boolean, Void> BufferToStackWorkerInstant; // BufferToStackWorker or DiskRecorderWorker
     public static CumulativeACFWorkerV3 CumulativeACFWorkerV3Instant;
     public static NonCumulativeACFWorkerV3 NonCumulativeACFWorkerV3Instant;
 
@@ -61,6 +78,37 @@ public class Workers {
         }
     }
 
+    private static boolean isTerminated() {
+        return Common.isPrematureTermination;
+    }
+
+    /**
+     * Creates the worker storing the frames of an acquisition: in memory (Common.ims_cum), or in a raw file of the
+     * recording folder when recording to disk is selected.
+     */
+    public static SwingWorker<Boolean, Void> newRecorder(int w, int h, int f, CountDownLatch latch, int arraysize) {
+        if (Common.isRecordToDisk) {
+            String name = "recording_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + ".raw";
+            return new DiskRecorderWorker(new File(Common.recordingFolder, name), w, h, f, latch);
+        }
+        return new BufferToStackWorker(w, h, f, latch, arraysize);
+    }
+
+    // the analysis waits while the recording is more than half a buffer behind, so that the recording is never starved
+    private static final long BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static void yieldToRecording() {
+        while (Common.frameRing.getLosslessBacklog() > Common.frameRing.getCapacity() / 2 && !isTerminated()) {
+            LockSupport.parkNanos(BACKOFF_NANOS);
+        }
+    }
+
+    private static void printlatency(StageLatency latency) {
+        if (latency.getCount() > 0) {
+            IJ.log(latency.toString());
+        }
+    }
+
     public static class LiveVideoWorkerV2 extends SwingWorker<Void, Void> {
 
         int width;
@@ -74,6 +122,7 @@ public class Workers {
         final int impwinposy = 125;
         String $impLiveVideo;
         boolean imagewindowready;
+        final StageLatency latency = LiveMetrics.newStage("Live video");
 
         public LiveVideoWorkerV2(int width, int height, CountDownLatch latch) {
             this.width = width;
@@ -380,19 +429,10 @@ public class Workers {
             };
         }
 
-        private int getBufferIndex(int frameAcquired) {
-            // return index of first element of last available image
-            if (frameAcquired == 0) {
-                IJ.log("error25");
-                return -1;
-            }
-            return (int) ((frameAcquired - Common.transferFrameInterval) % size_f) * size;
-        }
-
         private void doDisplay(short[] tempPixelArr) {
             // assign last available image for display
             int count = SynchronizerWorkerInstant.getCounter();
-            System.arraycopy(Common.bufferArray1D, getBufferIndex(count), tempPixelArr, 0, size); //
+            Common.frameRing.copy(count, 0, tempPixelArr, 0, size); //
             Common.ip.setPixels(tempPixelArr);
 
             // Saturation warning
@@ -414,6 +454,7 @@ public class Workers {
             if (!Common.impwin.isVisible()) {
                 Common.impwin.setVisible(true);// Problematic: startle settings combobox when called sequentially at fast rate; threfore is the if statement
             }
+            latency.record(SynchronizerWorkerInstant.latencyOf(count));
         }
 
         @Override
@@ -449,6 +490,7 @@ public class Workers {
                     End work
                  */
             }
+            printlatency(latency);
             printlogthread("Ending thread: " + Thread.currentThread().getName());
             return null;
         }
@@ -480,6 +522,8 @@ public class Workers {
         final int impwinposy = 125;
         String $impLiveVideo;
         boolean imagewindowready;
+        final StageLatency latency = LiveMetrics.newStage("Live video");
+        private FrameRingBuffer.Cursor cursor;
 
         public LiveVideoWorkerV3(int width, int height, CountDownLatch latch) {
             this.width = width;
@@ -794,19 +838,10 @@ public class Workers {
             };
         }
 
-        private int getBufferIndex(int frameAcquired) {
-            // return index of first element of last available image
-            if (frameAcquired == 0) {
-                IJ.log("error25");
-                return -1;
-            }
-            return (int) ((frameAcquired - Common.transferFrameInterval) % size_f) * size;
-        }
-
         private void doDisplay_DEPRECATED(short[] tempPixelArr) {
             // assign last available image for display
             int count = Common.framecounter.getCounter();
-            System.arraycopy(Common.bufferArray1D, getBufferIndex(count), tempPixelArr, 0, size);
+            Common.frameRing.copy(count, 0, tempPixelArr, 0, size);
             Common.ip.setPixels(tempPixelArr);
 
             // Saturation warning
@@ -857,7 +892,21 @@ public class Workers {
         }
 
         private void fillImageProcessorArray(short[] tempPixelArr, int count) {
-            System.arraycopy(Common.bufferArray1D, getBufferIndex(count), tempPixelArr, 0, size);
+            Common.frameRing.copy(count, 0, tempPixelArr, 0, size);
+        }
+
+        private boolean isDisplayedFrame(int frame, int displayFramesMode) {
+            switch (displayFramesMode) {
+                case 1:
+                    // odd frames
+                    return frame % 2 == 1;
+                case 2:
+                    // even frames
+                    return frame % 2 == 0;
+                default:
+                    // all frames
+                    return true;
+            }
         }
 
         private void performSumOperation(short[] tempPixelArr, short[] PixelArrForDisp) {
@@ -882,60 +931,43 @@ public class Workers {
             short[] tempArr = new short[size]; //hold at any one time temporary value of a pixel at certain frame
 
             settingLiveImage();
+            cursor = Common.frameRing.newCursor(1, ConsumerPolicy.LATEST_ONLY);
+            long nextDisplay = System.nanoTime();
 
             while (!Common.isPrematureTermination) {
                 if (Common.isPrematureTermination == true) {
                     break;
                 }
 
+                // at most one display per sleepTime, as soon as a frame newer than the last one displayed arrives
+                LockSupport.parkNanos(nextDisplay - System.nanoTime());
+                if (!cursor.await(1, WaitStrategy.BLOCKING, Workers::isTerminated)) {
+                    break;
+                }
+                nextDisplay = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sleepTime);
+
                 // Retrieve UI paremeters
                 int temp_livevideo_displayFramesMode = Common.livevideo_displayFramesMode;
                 int temp_livevideo_binningNo = Common.livevideo_binningNo;
                 liveVideoBinModeEnum temp_selectedliveVideoBinMode = Common.selected_livevideo_binningMode;
 
-                if (imagewindowready && Common.showLiveVideoCumul && (Common.framecounter.getCounter() > (Common.transferFrameInterval - 1))) {
+                if (imagewindowready && Common.showLiveVideoCumul) {
 
-//                    doDisplay_DEPRECATED(PixelArrForDisplay);
                     if (temp_selectedliveVideoBinMode.equals(liveVideoBinModeEnum.NO_BINNING)) {
 
-                        int currcount = Common.framecounter.getCounter();
-//                        IJ.log("no binning currcount: " + currcount);
-                        boolean proceed = false;
-
-                        // add a check to plot curcount - 1 if frame is valid
-                        switch (temp_livevideo_displayFramesMode) {
-                            case 1:
-                                // odd frames
-                                if (currcount % 2 == 1) {
-                                    proceed = true;
-                                } else {
-                                    if (currcount - 1 > 0) {
-                                        currcount = currcount - 1;
-                                        proceed = true;
-                                    }
-                                }
-                                break;
-                            case 2:
-                                // even frames
-                                if (currcount % 2 == 0) {
-                                    proceed = true;
-                                } else {
-                                    if (currcount - 1 > 0) {
-                                        currcount = currcount - 1;
-                                        proceed = true;
-                                    }
-                                }
-                                break;
-                            default:
-                                // all frames
-                                proceed = true;
+                        int currcount = cursor.skipToLatest();
+                        boolean proceed = true;
+
+                        // plot curcount - 1 if curcount is not of the selected parity
+                        if (!isDisplayedFrame(currcount, temp_livevideo_displayFramesMode)) {
+                            currcount = currcount - 1;
+                            proceed = currcount > 0;
                         }
 
                         if (proceed) {
-//                            IJ.log("proceed currcount: " + currcount);
                             fillImageProcessorArray(PixelArrForDisplay, currcount); //retrieve array counts from circular buffer of size w * h (one frame worth of intensity)
                             doDisplayImage(PixelArrForDisplay);
-
+                            latency.record(cursor, currcount);
                         }
 
                     } else {
@@ -945,70 +977,34 @@ public class Workers {
                             PixelArrForDisplay[i] = 0;
                         }
 
+                        // accumulate the next frames of the selected parity, starting from the latest one
+                        int step = temp_livevideo_displayFramesMode == 0 ? 1 : 2;
+                        int memcount2 = cursor.skipToLatest();
+                        if (!isDisplayedFrame(memcount2, temp_livevideo_displayFramesMode)) {
+                            memcount2++;
+                        }
                         int accumulatedFrame = 0;
-                        int memcount2 = 0;
 
                         while (accumulatedFrame != temp_livevideo_binningNo) {
-
-                            if (Common.isPrematureTermination == true) {
+                            cursor.seek(memcount2);
+                            if (!cursor.await(1, WaitStrategy.BLOCKING, Workers::isTerminated)) {
                                 break;
                             }
-
-                            int currcount = Common.framecounter.getCounter();
-                            boolean proceed = false;
-
-                            if (memcount2 != 0) {
-                                //check if valid new frame available
-                                if (currcount >= memcount2) {
-                                    proceed = true;
-                                }
-
-                            } else {
-                                memcount2 = currcount;
-                                proceed = true;
-                            }
-
-                            boolean proceed2 = false;
-                            if (proceed) {
-                                switch (temp_livevideo_displayFramesMode) {
-                                    case 1:
-                                        // odd frames
-                                        if (memcount2 % 2 == 1) {
-                                            proceed2 = true;
-                                        }
-                                        break;
-                                    case 2:
-                                        // even frames
-                                        if (memcount2 % 2 == 0) {
-                                            proceed2 = true;
-                                        }
-                                        break;
-                                    default:
-                                        // all frames
-                                        proceed2 = true;
-                                }
-                            }
-
-                            if (proceed2) {
-                                fillImageProcessorArray(tempArr, memcount2); //retrieve array counts from circular buffer of size w * h (one frame worth of intensity)
-                                performSumOperation(tempArr, PixelArrForDisplay); //sum two array
-                                accumulatedFrame++;
-                                switch (temp_livevideo_displayFramesMode) {
-                                    case 0:
-                                        // all frames
-                                        memcount2++;
-                                        break;
-
-                                    default:
-                                        // odd or even frames
-                                        memcount2 = memcount2 + 2;
+                            if (!cursor.read(tempArr)) {
+                                // overwritten before it was read, continue from the oldest frame still available
+                                memcount2 = cursor.getNext();
+                                if (!isDisplayedFrame(memcount2, temp_livevideo_displayFramesMode)) {
+                                    memcount2++;
                                 }
+                                continue;
                             }
+                            performSumOperation(tempArr, PixelArrForDisplay); //sum two array
+                            accumulatedFrame++;
+                            memcount2 += step;
+                        }
 
-                            if (accumulatedFrame == 0) {
-                                memcount2 = 0;
-                            }
-
+                        if (accumulatedFrame == 0) {
+                            continue;
                         }
 
                         if (temp_selectedliveVideoBinMode.equals(liveVideoBinModeEnum.AVERAGE_BINNING)) {
@@ -1016,27 +1012,15 @@ public class Workers {
                         }
 
                         doDisplayImage(PixelArrForDisplay);
+                        latency.record(cursor, memcount2 - step);
                     }
 
-                } else {
-                    try {
-                        Thread.sleep(10); //100
-                    } catch (InterruptedException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    }
-
-                }
-
-                try {
-                    Thread.sleep(sleepTime);
-                } catch (InterruptedException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
                 }
 
             }
 
+            latency.update(cursor);
+            printlatency(latency);
             printlogthread("Ending thread: " + Thread.currentThread().getName());
             return null;
         }
@@ -1063,15 +1047,16 @@ public class Workers {
         int sleepTime; //Live video
         long timelastDisplay; //Live video
         long timelastDisplay2; //GUI clock
-        int counter; //native frame counter
+        volatile int counter; //native frame counter
         final int sleepTimeGUI = 40;//ms //GUI clock
-
-        private Object L1 = new Object();
+        private FrameRingBuffer.Cursor cursor;
 
         public int getCounter() {
-            synchronized (L1) {
-                return counter;
-            }
+            return counter;
+        }
+
+        public long latencyOf(int frame) {
+            return cursor.latencyOf(frame);
         }
 
         private boolean checkLiveVideo() { //check if needed to plot display
@@ -1123,17 +1108,20 @@ public class Workers {
             timelastDisplay = System.currentTimeMillis();
             timelastDisplay2 = System.currentTimeMillis();
 
-            // This is preferred instead of regular checking for coutner != 0
-            while (Common.framecounter.getCounter() == 0) {
-                Thread.sleep(100);
-            }
+            // woken by the camera thread: once per batch of frames covering the shortest refresh period, or after
+            // that period when the camera is slower
+            int tick = Math.max(1, Math.min(sleepTime, sleepTimeGUI)); //ms
+            int batch = Math.max(1, (int) (tick / 1000.0 / Common.kineticCycleTime));
+            cursor = Common.frameRing.newCursor(1, ConsumerPolicy.LATEST_ONLY);
+            cursor.await(1, WaitStrategy.BLOCKING, Workers::isTerminated);
 
             while (!Common.isPrematureTermination) {
                 if (Common.isPrematureTermination == true) {
                     break;
                 }
 
-                counter = Common.framecounter.getCounter(); //get frame counter incremented by native C++
+                cursor.awaitBatch(batch, TimeUnit.MILLISECONDS.toNanos(tick), WaitStrategy.BLOCKING, Workers::isTerminated);
+                counter = cursor.skipToLatest(); //get frame counter incremented by native C++
 
                 //Live video
                 if (Common.showLiveVideoCumul && !Common.cIsDisplayLatestFrame) {
@@ -1180,8 +1168,6 @@ public class Workers {
         private final int oWidth; //original Width dimesntion available to java //stored in WidthDisp variable
         private final int oHeight; // original Height dimension available to Java // stored in HeighDisp  variable
         private final CountDownLatch latch;
-        private final int size;
-        private final int size_f;
 
         private int lWidth;
         private int lHeight;
@@ -1194,15 +1180,22 @@ public class Workers {
         private int lLeftRed;//coordiante of red channel
         private int lTopRed;//coordinate of red channel
 
-        private int inct1;
-        private int inct2R;
-        private int inct2G;
-        private int idxResetR;
-        private int idxResetG;
-
         private int framestart; // eg. 1
         public volatile int frameend; //  eg. 5001 for 5000 plot interval
         private int tempPlotInterval;
+        private FrameRingBuffer.Cursor cursor;
+        private FrameWindowStack greenStack; // views of the ring, moved to each interval instead of copied
+        private FrameWindowStack redStack;
+        private final StageLatency latency = LiveMetrics.newStage("Calibration ACF");
+        // measured time to correlate and plot one frame of an interval (s), 0 until the first interval is done
+        private double correlationTime;
+        private int adaptedPlotInterval; // last plot interval reduced below the user's one, to log changes only once
+        private static final int MIN_ADAPTED_PLOT_INTERVAL = 100;
+        // time to correlate and plot an interval, against the time the camera takes to acquire it
+        private final StageLatency updateTime = LiveMetrics.newStage("Calibration update");
+        private double updateSeconds;
+        private double intervalSeconds;
+        private boolean isUpdateLate; // last update took longer than its interval, to log changes only once
 
         boolean proceed;
 
@@ -1210,8 +1203,6 @@ public class Workers {
             this.oWidth = width;
             this.oHeight = height;
             this.latch = latch;
-            this.size = width * height;
-            this.size_f = (arraysize - (arraysize % size)) / size;
             Common.fromImFCSobj1 = new ImFCSCorrelator("Non-cumulative");
         }
 
@@ -1230,113 +1221,44 @@ public class Workers {
                 lTopRed = lTop + Common.CCFdistY;
             }
 
-            inct1 = oWidth - lWidth + 1;
-            inct2G = (oWidth * (oHeight - (lTop - 1) - lHeight) + (oWidth - (lLeft - 1) - lWidth) + oWidth * (lTop - 1) + (lLeft - 1) + 1);
-            inct2G -= oWidth - lWidth + 1;
-            if (isCCFmode) {
-                inct2R = (oWidth * (oHeight - (lTopRed - 1) - lHeight) + (oWidth - (lLeftRed - 1) - lWidth) + oWidth * (lTopRed - 1) + (lLeftRed - 1) + 1);
-                inct2R -= oWidth - lWidth + 1;
-            }
-            idxResetG = (lTop - 1) * oWidth + (lLeft - 1);
-            idxResetR = (lTopRed - 1) * oWidth + (lLeftRed - 1);
-
-            tempPlotInterval = Common.plotInterval;
-            framestart = Common.framecounter.getCounter();
+            // bounded lag: the interval follows the previous one, unless it would start more than maxLag frames behind the camera
+            int allowed = Utilities.retMaxAllowablePlotInterval(Common.frameRing.getCapacity(), Common.kineticCycleTime, correlationTime);
+            tempPlotInterval = adaptPlotInterval(Common.plotInterval, allowed);
+            int maxLag = Math.max(0, Math.min(tempPlotInterval, allowed - tempPlotInterval));
+            framestart = cursor.limitLag(maxLag);
             frameend = framestart + tempPlotInterval; // framestart + tempPlotInterval - 1
         }
 
-        private void InitStack() {
-            //Green and Red of same size
-            Common.ims_nonCumGreen = new ImageStack(lWidth, lHeight);
-            if (isCCFmode) {
-                Common.ims_nonCumRed = new ImageStack(lWidth, lHeight);
-            }
-        }
-
-        private boolean needToReset() {
-            return getBufferIndex(framestart) / size + tempPlotInterval > size_f; //need reset
-        }
-
-        private int getBufferIndex(int frameAcquired) {
-
-            // return index of first element of first image to be transferred to imagestack
-            if (frameAcquired == 0) {
-                assert false : " invalid frameAcquired";
-                return -1;
+        /*
+        Reduce the plot interval so that the camera cannot overwrite an interval while it is correlated, at the measured
+        correlation speed. The user's plot interval is used again as soon as the correlation is fast enough.
+         */
+        private int adaptPlotInterval(int plotInterval, int allowed) {
+            int adapted = Math.min(plotInterval, Math.max(MIN_ADAPTED_PLOT_INTERVAL, allowed));
+            if (adapted < plotInterval && adapted != adaptedPlotInterval) {
+                IJ.log("Calibration: plot interval reduced to " + adapted + " frames to keep up with the camera.");
             }
-            return (int) ((frameAcquired - Common.transferFrameInterval) % size_f) * size;
+            adaptedPlotInterval = adapted < plotInterval ? adapted : 0;
+            return adapted;
         }
 
-        private void fillImageStack(boolean needReset, ImageStack ims, String channel) {
-//            long timestart = System.nanoTime();
-
-            int idx = getIndexGR(channel);
-            int inct2;
-            int idxReset;
-            if (channel.equals("green")) {
-                inct2 = inct2G;
-                idxReset = idxResetG;
-            } else {
-                //red
-                inct2 = inct2R;
-                idxReset = idxResetR;
-
-            }
-
-            if (needReset) {
-                int zReset = tempPlotInterval - (((framestart - Common.transferFrameInterval) % size_f) + tempPlotInterval - size_f) - 1;
-                for (int z = 0; z < tempPlotInterval; z++) {
-                    ShortProcessor ip = new ShortProcessor(lWidth, lHeight);
-                    for (int y = 0; y < lHeight; y++) {
-                        for (int x = 0; x < lWidth; x++) {
-                            ip.set(x, y, Common.bufferArray1D[idx]);
-                            if (x == (lWidth - 1)) {
-                                idx += inct1;
-                            } else {
-                                idx++;
-                            }
-                        }
-                        if (y == (lHeight - 1)) {
-                            idx += inct2;
-                        }
-                    }
-                    ims.addSlice(ip);
-                    if (z == zReset) {
-                        idx = idxReset;
-                    }
-                }
-            } else {
-                for (int z = 0; z < tempPlotInterval; z++) {
-                    ShortProcessor ip = new ShortProcessor(lWidth, lHeight);
-                    for (int y = 0; y < lHeight; y++) {
-                        for (int x = 0; x < lWidth; x++) {
-                            ip.set(x, y, Common.bufferArray1D[idx]);
-                            if (x == (lWidth - 1)) {
-                                idx += inct1;
-                            } else {
-                                idx++;
-                            }
-                        }
-                        if (y == (lHeight - 1)) {
-                            idx += inct2;
-                        }
-                    }
-                    ims.addSlice(ip);
-                }
+        private void InitStack() {
+            //Green and Red of same size, the views are only rebuilt when the ROI changes
+            greenStack = getWindowStack(greenStack, lLeft, lTop);
+            greenStack.setWindow(framestart, tempPlotInterval);
+            Common.ims_nonCumGreen = greenStack;
+            if (isCCFmode) {
+                redStack = getWindowStack(redStack, lLeftRed, lTopRed);
+                redStack.setWindow(framestart, tempPlotInterval);
+                Common.ims_nonCumRed = redStack;
             }
-//            IJ.log("PI: " + tempPlotInterval + ", lW: " + lWidth + ", lH: " + lHeight + " calibration stack time: " + (System.nanoTime() - timestart) / 1000 + " us");
         }
 
-        private int getIndexGR(String channel) {
-            int idx;
-            if (channel.equals("green")) {
-                idx = getBufferIndex(framestart) + (lTop - 1) * oWidth + (lLeft - 1); //index start of 0
-            } else {
-                //red
-                idx = getBufferIndex(framestart) + (lTopRed - 1) * oWidth + (lLeftRed - 1); //index start of 0
+        private FrameWindowStack getWindowStack(FrameWindowStack stack, int left, int top) {
+            if (stack != null && stack.isViewOf(Common.frameRing, left - 1, top - 1, lWidth, lHeight)) {
+                return stack;
             }
-
-            return idx;
+            return new FrameWindowStack(Common.frameRing, oWidth, left - 1, top - 1, lWidth, lHeight);
         }
 
         private ImagePlus getPlus(String mode) {
@@ -1354,9 +1276,8 @@ public class Workers {
 
             Thread.currentThread().setName("NonCumulativeACFWorkerV3");
             printlogthread("Starting thread: " + Thread.currentThread().getName());
-            while (Common.framecounter.getCounter() == 0) {
-                Thread.sleep(100);
-            }
+            cursor = Common.frameRing.newCursor(1, ConsumerPolicy.BOUNDED_LAG);
+            cursor.await(1, WaitStrategy.BLOCKING, Workers::isTerminated);
 
             while (!Common.isPrematureTermination) {
                 if (Common.isPrematureTermination == true) {
@@ -1366,27 +1287,30 @@ public class Workers {
                 proceed = Common.analysisMode.equals($amode[1]); //non-cumulative
 
                 if (proceed) {
+                    yieldToRecording();
                     holdUserInputToTemp();
 
-                    InitStack();    //instantiate ImageStack object(s)
-
-                    //wait untill enough frames is available to buffer
-                    while (Common.framecounter.getCounter() < frameend) {
-                        if (Common.isPrematureTermination == true) {
-                            break;
-                        }
-                        Thread.sleep(100); // not relly important. can't noticeably differentiate 100ms delay
+                    if (tempPlotInterval > Common.frameRing.getCapacity() - 1) {
+                        IJ.log("Calibration: the plot interval must be shorter than the buffer of " + Common.frameRing.getCapacity() + " frames.");
+                        break;
                     }
 
+                    InitStack();    //point the ImageStack view(s) to the interval
+
+                    //wait untill enough frames is available to buffer, woken once frameend is published
+                    cursor.seek(framestart);
+                    cursor.await(frameend - framestart + 1, WaitStrategy.BLOCKING, Workers::isTerminated);
+
                     /*
                     START
-                    Fill ImageStack array to be passed for calculation and display
+                    Correlate the interval in place, the stacks read the ring without copy
                      */
-                    //Fill Green channel  and Red Channel if CCF mode is true
-                    fillImageStack(needToReset(), Common.ims_nonCumGreen, "green");
-                    if (isCCFmode) {
-                        fillImageStack(needToReset(), Common.ims_nonCumRed, "red");
+                    // the camera wrapped around the buffer before the interval was read, drop this interval
+                    if (!cursor.validate(framestart)) {
+                        IJ.log("Calibration: frames overwritten before they were read, " + cursor.getOverruns() + " frame(s) lost so far.");
+                        continue;
                     }
+                    cursor.seek(frameend); // the next interval follows this one
 
                     //Set Imp green to imfcs obj //TODO use Ims instead
                     Common.fromImFCSobj1.settingImp(getPlus("green"));
@@ -1401,21 +1325,63 @@ public class Workers {
                     if (Common.fromImFCSobj1.settingPlotOption(Common.plotACFCurves, Common.plotTrace, Common.plotAverage, Common.plotJustCCF, CCFdistX, CCFdistY, Common.plotCalibAmplitude, Common.plotCalibDiffusion, Common.isResetCalibPlot, Common.noptsavr, Common.background, Common.plotCalibIntensity, Common.isCalibFixScale, $amode[1], 1)) {
                         Common.fromImFCSobj1.settingExpParameters(Common.pixelSize * Common.inCameraBinning, Common.objMag, Common.NA, Common.emlambda, Common.sigmaxy);
                         Common.isResetCalibPlot = false;
+                        long time = System.nanoTime();
                         Common.fromImFCSobj1.runPlotACF();
+                        long elapsed = System.nanoTime() - time;
+                        double measured = elapsed / 1e9 / tempPlotInterval;
+                        correlationTime = correlationTime == 0 ? measured : 0.8 * correlationTime + 0.2 * measured;
+                        latency.record(cursor, frameend - 1);
+                        reportUpdateTime(elapsed);
+                    }
+
+                    // the frames were read during the correlation, which is only valid if they were not overwritten meanwhile
+                    if (!cursor.validate(framestart)) {
+                        IJ.log("Calibration: frames overwritten while they were correlated, the last plot may be wrong. Use a larger buffer or a shorter plot interval.");
                     }
 
                     /*
                     END
-                    Fill ImageStack array to be passed for calculation and display
+                    Correlate the interval in place, the stacks read the ring without copy
                      */
+                } else {
+                    cursor.skipToLatest(); // not a lag: the frames are not wanted while another analysis mode is selected
                 }
 
             }
 
+            latency.update(cursor);
+            printlatency(latency);
+            if (updateTime.getCount() > 0) {
+                IJ.log(String.format("Calibration update: %d update(s), mean %.1f ms, max %.1f ms", updateTime.getCount(), updateTime.getMeanMillis(), updateTime.getMaxMillis())
+                        + (intervalSeconds > 0 ? String.format(", %.0f%% of the plot intervals", 100 * updateSeconds / intervalSeconds) : ""));
+            }
             printlogthread("Ending thread: " + Thread.currentThread().getName());
             return true;
         }
 
+        /*
+        Show how long the last update took compared with the plot interval, i.e. the time the camera takes to acquire
+        the interval. Above 100 %, the calibration falls behind the camera and frames are skipped.
+         */
+        private void reportUpdateTime(long nanos) {
+            updateTime.record(nanos);
+            double interval = tempPlotInterval * Common.kineticCycleTime;
+            updateSeconds += nanos / 1e9;
+            intervalSeconds += interval;
+            if (interval <= 0) {
+                // no kinetic cycle time, the update cannot be compared with the acquisition
+                IJ.showStatus(String.format("Calibration: update %.1f ms", nanos / 1e6));
+                return;
+            }
+            double percent = 100 * nanos / 1e9 / interval;
+            IJ.showStatus(String.format("Calibration: update %.1f ms, %.0f%% of the %.0f ms plot interval", nanos / 1e6, percent, interval * 1e3));
+            boolean late = percent > 100;
+            if (late && !isUpdateLate) {
+                IJ.log(String.format("Calibration: the update takes %.0f%% of the plot interval, frames are skipped to keep up with the camera. Use a smaller ROI to correlate every frame.", percent));
+            }
+            isUpdateLate = late;
+        }
+
         @Override
         protected void done() {
             latch.countDown();
@@ -1433,7 +1399,7 @@ public class Workers {
         private CountDownLatch latch;
         private final int totalframe;
         private final int size;
-        private final int size_f;
+        private final StageLatency latency = LiveMetrics.newStage("Recording");
 
         public BufferToStackWorker(int w, int h, int f, CountDownLatch latch, int arraysize) {
             this.width = w;
@@ -1441,7 +1407,6 @@ public class Workers {
             this.latch = latch;
             this.totalframe = f;
             size = width * height;
-            this.size_f = (arraysize - (arraysize % size)) / size; // per frame unit
 
             InitStack();
         }
@@ -1456,34 +1421,35 @@ public class Workers {
             Thread.currentThread().setName("BufferToStackWorker");
             printlogthread("Staring thread: " + Thread.currentThread().getName());
 
-            for (int i = 1; i <= totalframe; i++) {
-
-                while (Common.framecounter.getCounter() < (i * Common.transferFrameInterval)) {
-                    if (Common.isPrematureTermination == true) {
-                        break;
-                    }
-                    try {
-                        Thread.sleep(1);
-                    } catch (InterruptedException ex) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
+            // lossless consumer: woken up by the camera thread for every frame
+            FrameRingBuffer.Cursor cursor = Common.frameRing.newCursor(1, ConsumerPolicy.LOSSLESS);
+            short[] frame = new short[size];
 
-                if (Common.isPrematureTermination == true) {
+            while (cursor.getNext() <= totalframe) {
+                if (!cursor.await(1, WaitStrategy.BLOCKING, () -> Common.isPrematureTermination)) {
                     break;
                 }
 
                 //copy 1D circular buffer to ims
-                ShortProcessor ip = new ShortProcessor(width, height);
-                for (int y = 0; y < height; y++) {
-                    for (int x = 0; x < width; x++) {
-                        ip.set(x, y, Common.bufferArray1D[((i - 1) % size_f) * size + (y * width) + x]);
-                    }
+                int frameNumber = cursor.getNext();
+                if (!cursor.read(frame)) {
+                    // frames overwritten before they were stored, they are missing from the stack
+                    Common.framecounterIMSX.incrementby(cursor.getNext() - frameNumber);
+                    continue;
                 }
-                Common.ims_cum.addSlice(ip);
+                Common.ims_cum.addSlice(new ShortProcessor(width, height, frame.clone(), null));
+                latency.record(cursor, frameNumber);
 
                 Common.framecounterIMSX.incrementby(1);
             }
+            cursor.close();
+
+            latency.update(cursor);
+            printlatency(latency);
+
+            if (cursor.getOverruns() > 0) {
+                IJ.log("Recording: " + cursor.getOverruns() + " frame(s) overwritten before they were stored.");
+            }
 
             printlogthread("Ending thread: " + Thread.currentThread().getName());
             return true;
@@ -1496,6 +1462,103 @@ public class Workers {
 
     }
 
+    public static class DiskRecorderWorker extends SwingWorker<Boolean, Void> {
+
+        /*
+        Write the frames of the circular buffer to a raw file, for acquisitions longer than the memory. Common.ims_cum
+        stays empty: the cumulative ACF is not available.
+         */
+        private final File file;
+        private final int width;
+        private final int height;
+        private CountDownLatch latch;
+        private final int totalframe;
+        private final StageLatency latency = LiveMetrics.newStage("Disk recording");
+        // longest wait before a partial chunk is written, so that the end of the acquisition is not waited for
+        private static final long CHUNK_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+        public DiskRecorderWorker(File file, int w, int h, int f, CountDownLatch latch) {
+            this.file = file;
+            this.width = w;
+            this.height = h;
+            this.latch = latch;
+            this.totalframe = f;
+
+            Common.ims_cum = new ImageStack(width, height);
+        }
+
+        @Override
+        protected Boolean doInBackground() throws Exception {
+
+            Thread.currentThread().setName("DiskRecorderWorker");
+            printlogthread("Staring thread: " + Thread.currentThread().getName());
+
+            FrameRingBuffer.Cursor cursor = Common.frameRing.newCursor(1, ConsumerPolicy.LOSSLESS);
+            IJ.log("Recording to " + file.getPath() + ", cumulative ACF not available while recording to disk.");
+
+            try {
+                RawFrameWriter writer = new RawFrameWriter(file, width, height, totalframe);
+                try {
+                    // woken every chunk, or every half ring when the ring holds less than a chunk
+                    int batch = Math.max(1, Math.min(writer.getFramesPerChunk(), Common.frameRing.getCapacity() / 2));
+                    while (cursor.getNext() <= totalframe) {
+                        int available = cursor.awaitBatch(batch, CHUNK_TIMEOUT_NANOS, WaitStrategy.BLOCKING, Workers::isTerminated);
+                        if (available == 0 && isTerminated()) {
+                            break;
+                        }
+                        for (int i = 0; i < available && cursor.getNext() <= totalframe; i++) {
+                            int frameNumber = cursor.getNext();
+                            if (!writer.write(cursor)) {
+                                // frames overwritten before they were written, blank in the file
+                                int lost = Math.min(cursor.getNext(), totalframe + 1) - frameNumber;
+                                writer.writeBlank(lost);
+                                Common.framecounterIMSX.incrementby(lost);
+                                break;
+                            }
+                            latency.record(cursor, frameNumber);
+                            Common.framecounterIMSX.incrementby(1);
+                        }
+                    }
+                } finally {
+                    // writes the last chunk, so the statistics are read after
+                    writer.close();
+                }
+                IJ.log(String.format("Recorded %d frame(s) to %s: %.1f MB/s sustained, %.1f MB/s written; %d frame(s) dropped.",
+                        writer.getFrames(), file.getName(), writer.getSustainedBandwidth(), writer.getWriteBandwidth(), cursor.getOverruns()));
+
+                Map<String, Object> metadata = new LinkedHashMap<>();
+                metadata.put("kinetic cycle [s]", Common.kineticCycleTime);
+                metadata.put("dropped frames", cursor.getOverruns());
+                writer.writeMetadata(metadata);
+                TimeTaggedStorage tts = Common.getTimeTaggedStorage();
+                if (tts != null && tts.isDataForSavingAvailable()) {
+                    tts.saveAsJson(new File(file.getParentFile(), RawFrameWriter.baseName(file) + "_timetagged.txt").getPath());
+                }
+            } catch (IOException e) {
+                IJ.log("Recording to " + file.getPath() + " failed: " + e.getMessage());
+                // keep counting, the analysis workers wait for the acquisition
+                while (cursor.getNext() <= totalframe && cursor.await(1, WaitStrategy.BLOCKING, Workers::isTerminated)) {
+                    cursor.skipToLatest();
+                    Common.framecounterIMSX.incrementby(Math.min(cursor.getNext() - 1, totalframe) - Common.framecounterIMSX.getCount());
+                }
+                return false;
+            } finally {
+                cursor.close();
+            }
+
+            latency.update(cursor);
+            printlatency(latency);
+            printlogthread("Ending thread: " + Thread.currentThread().getName());
+            return true;
+        }
+
+        @Override
+        protected void done() {
+            latch.countDown();
+        }
+
+    }
+
     public static class CumulativeACFWorkerV3 extends SwingWorker<Boolean, Void> {
 
         // perform ACF calculation from frame = 1.
@@ -1503,6 +1566,9 @@ public class Workers {
         private CountDownLatch latch;
         private static int previousFC;
         boolean proceed;
+        // longest wait for the stack, so that changes of the plot interval or of the analysis mode are picked up
+        private static final long PLOT_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+        private final StageLatency latency = LiveMetrics.newStage("Cumulative ACF");
 
         public CumulativeACFWorkerV3(CountDownLatch latch) {
             this.latch = latch;
@@ -1537,6 +1603,14 @@ public class Workers {
 //            return ((runner / divisor) % 1 == 0);
         }
 
+        private static int framesToNextPlot() {
+            // next stack size passing isImageReady: a multiple of the plot interval, at least 100 and not plotted yet
+            int plotInterval = Math.max(1, Common.cumulativePlotInterval);
+            int stackSize = Common.ims_cum.getSize();
+            int base = Math.max(99, Math.max(previousFC, stackSize - 1));
+            return (base / plotInterval + 1) * plotInterval - stackSize;
+        }
+
         @Override
         protected Boolean doInBackground() throws Exception {
 
@@ -1549,8 +1623,8 @@ public class Workers {
                 if (Common.isPrematureTermination == true) {
                     break;
                 }
-                // sleep necessary
-                Thread.sleep(10);//100
+                // woken once the stack reaches the next plot interval
+                Common.framecounterIMSX.await(Common.framecounterIMSX.getCount() + framesToNextPlot(), PLOT_TIMEOUT_NANOS, Workers::isTerminated);
 
                 proceed = Common.analysisMode.equals($amode[2]); //cumulative
 
@@ -1560,16 +1634,20 @@ public class Workers {
                         continue;
                     }
 
+                    yieldToRecording();
                     Common.imp_cum = new ImagePlus("imp acquisition", Common.ims_cum);
 
                     Common.fromImFCSobj2.settingImp(Common.imp_cum);
                     if (Common.fromImFCSobj2.settingPlotOption(Common.plotACFCurves, Common.plotTrace, Common.plotAverage, Common.plotJustCCF, Common.CCFdistX, Common.CCFdistY, Common.plotCalibAmplitude, Common.plotCalibDiffusion, Common.isResetCalibPlot, Common.noptsavr, Common.background, Common.plotCalibIntensity, Common.isCalibFixScale, $amode[2], Common.fitStartCumulative)) {
                         Common.fromImFCSobj2.runPlotACF();//does not wrap SwingWorker on CorrelateROI
+                        long published = Common.framecounter.getPublishNanos(previousFC); // last frame of the plotted stack
+                        latency.record(published == 0 ? -1 : System.nanoTime() - published);
                     }
                 }
 
             }
 
+            printlatency(latency);
             printlogthread("Ending thread: " + Thread.currentThread().getName());
             return true;
         }
@@ -1583,11 +1661,11 @@ public class Workers {
 
     public static class CppTOJavaTransferWorkerV2 extends SwingWorker<Boolean, Void> {
 
-        protected short[] array;
+        protected FrameRingBuffer ring;
         protected CountDownLatch latch;
 
-        public CppTOJavaTransferWorkerV2(short[] array, CountDownLatch latch) {
-            this.array = array;
+        public CppTOJavaTransferWorkerV2(FrameRingBuffer ring, CountDownLatch latch) {
+            this.ring = ring;
             this.latch = latch;
         }
 
@@ -1622,12 +1700,12 @@ public class Workers {
         private final int oWidth; //original Width dimesntion available to java //stored in WidthDisp variable
         private final int oHeight; // original Height dimension available to Java // stored in HeighDisp  variable
         private final CountDownLatch latch;
-        private final int size;
-        private final int size_f;
 
         private ShortProcessor ip_ICCS;
         private ImagePlus imp_ICCS;
         private int frameIdx; //1 -- first frame //frame index to correlate
+        private FrameRingBuffer.Cursor cursor;
+        private final StageLatency latency = LiveMetrics.newStage("ICCS");
 
         // parameter to correlate (temporary holder)
         private Rectangle rect1;
@@ -1644,8 +1722,6 @@ public class Workers {
             this.oWidth = width;
             this.oHeight = height;
             this.latch = latch;
-            this.size = width * height;
-            this.size_f = (arraysize - (arraysize % size)) / size;
 
             iccsObj1 = new ICCS(oWidth, oHeight);
 
@@ -1665,35 +1741,12 @@ public class Workers {
             imp_ICCS = new ImagePlus("ICCS", ip_ICCS);
         }
 
-        private boolean isReady() {
-
-            if ((System.currentTimeMillis() - timestart) > refreshInterval) {
-                frameIdx = Common.framecounter.getCounter();
-                return true;
-            }
-            return false;
-
-        }
-
-        private int getBufferIndex(int frameAcquired) {
-            // return index of first element of last available image
-            if (frameAcquired == 0) {
-                IJ.log("error25");
-                return -1;
-            }
-            return (int) ((frameAcquired - Common.transferFrameInterval) % size_f) * size;
-        }
-
         private void fillImageStack() {
             for (int y = 0; y < oHeight; y++) {
                 for (int x = 0; x < oWidth; x++) {
-                    ip_ICCS.set(x, y, Common.bufferArray1D[((frameIdx - 1) % size_f) * size + (y * oWidth) + x]);
+                    ip_ICCS.set(x, y, Common.frameRing.get(frameIdx, (y * oWidth) + x));
                 }
             }
-
-//            short[] PixelArrForDisplay = new short[size]; //reusing tempPixelArray to hold portion of Java1Dbuffer
-//            System.arraycopy(Common.bufferArray1D, getBufferIndex(frameIdx), PixelArrForDisplay, 0, size); //
-//            ip_ICCS.setPixels(PixelArrForDisplay);
         }
 
         private void holdUserInputToTemp() {
@@ -1711,10 +1764,7 @@ public class Workers {
         protected Boolean doInBackground() throws Exception {
             Thread.currentThread().setName("ICCSWorker");
             printlogthread("Starting thread: " + Thread.currentThread().getName());
-
-            while (Common.framecounter.getCounter() == 0) {
-                Thread.sleep(100);
-            }
+            cursor = Common.frameRing.newCursor(1, ConsumerPolicy.LATEST_ONLY);
 
             while (!Common.isPrematureTermination) {
                 if (Common.isPrematureTermination == true) {
@@ -1730,20 +1780,22 @@ public class Workers {
                 //Takes user parameter
                 holdUserInputToTemp();
 
-                //wait for reasonable refresh rate
-                while (!isReady()) {
-                    if (Common.isPrematureTermination == true) {
-                        break;
-                    }
-                    Thread.sleep(100); // not relly important. can't noticeably differentiate 100ms delay
+                //wait for reasonable refresh rate, then for a frame newer than the last one correlated
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(refreshInterval - (System.currentTimeMillis() - timestart)));
+                if (!cursor.await(1, WaitStrategy.BLOCKING, Workers::isTerminated)) {
+                    break;
                 }
 
                 /*
                     START
                     Fill ImageStack array to be passed for calculation and display
                  */
-                frameIdx = Common.framecounter.getCounter();
+                yieldToRecording();
+                frameIdx = cursor.skipToLatest();
                 fillImageStack();
+                if (!cursor.validate(frameIdx)) {
+                    continue; // overwritten while it was read, the next refresh takes a newer frame
+                }
 
                 /*
                 // uncomment to show image
@@ -1759,6 +1811,7 @@ public class Workers {
                 if (true) { //if ICCS plot option true
                     if (iccsObj1.SetParam(imp_ICCS, rect1, CCFdistX, CCFdistY, pXShift, pYShift)) {
                         iccsObj1.runICCS();
+                        latency.record(cursor, frameIdx);
                     }
                 }
 
@@ -1768,6 +1821,8 @@ public class Workers {
                  */
             }
 
+            latency.update(cursor);
+            printlatency(latency);
             printlogthread("Ending thread: " + Thread.currentThread().getName());
             return true;
         }
@@ -0,0 +1,161 @@
+package fiji.plugin.imaging_fcs.imfcs;
+
+import fiji.plugin.imaging_fcs.imfcs.model.BatchAnalysis;
+import fiji.plugin.imaging_fcs.imfcs.utils.BatchPipeline;
+import fiji.plugin.imaging_fcs.imfcs.utils.ImageLoader;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultsWriter;
+import ij.IJ;
+import ij.ImagePlus;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line entry point running the batch analysis without any window.
+ * <p>
+ * Usage: {@code ImagingFCSBatch <settings.yaml> <image|@list.txt>...}, where a list file holds one image path per
+ * line. The settings file is described in {@link BatchAnalysis}; the configuration written by the plugin can be used
+ * as is. The results are saved next to each image, or in the "Output directory" of the "Batch" section.
+ * </p>
+ */
+public final class ImagingFCSBatch {
+    private ImagingFCSBatch() {
+    }
+
+    public static void main(final String[] args) {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        if (args.length < 2) {
+            System.err.println("Usage: ImagingFCSBatch <settings.yaml> <image|@list.txt>...");
+            System.exit(2);
+        }
+
+        BatchAnalysis analysis;
+        List<File> files;
+        try {
+            analysis = new BatchAnalysis(loadConfig(args[0]));
+            files = listFiles(args);
+        } catch (Exception e) {
+            System.err.println("Invalid arguments: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        int failures = run(analysis, files);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Reads a YAML settings file.
+     *
+     * @param path the path of the file.
+     * @return the configuration.
+     * @throws IOException if the file cannot be read.
+     */
+    private static Map<String, Object> loadConfig(String path) throws IOException {
+        try (InputStream inputStream = new FileInputStream(path)) {
+            Map<String, Object> config = new Yaml().load(inputStream);
+            if (config == null) {
+                throw new IOException("The settings file is empty: " + path);
+            }
+            return config;
+        }
+    }
+
+    /**
+     * Lists the images given on the command line, expanding the list files prefixed by '@'.
+     *
+     * @param args the command line arguments, the first one being the settings file.
+     * @return the images to analyze.
+     * @throws IOException if a list file cannot be read.
+     */
+    private static List<File> listFiles(String[] args) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("@")) {
+                for (String line : Files.readAllLines(new File(args[i].substring(1)).toPath(),
+                        StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty() && !line.trim().startsWith("#")) {
+                        files.add(new File(line.trim()));
+                    }
+                }
+            } else {
+                files.add(new File(args[i]));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Analyzes the images and saves their results. The next image is loaded while the current ones are analyzed, and
+     * several images are analyzed at the same time, up to the "Parallel files" and "Memory budget (MB)" options of
+     * the "Batch" section.
+     *
+     * @param analysis the configured analysis.
+     * @param files    the images to analyze.
+     * @return the number of images that failed.
+     */
+    static int run(BatchAnalysis analysis, List<File> files) {
+        Map<String, Object> run = analysis.getRun();
+        String suffix = run.get("File suffix").toString().isEmpty() ?
+                new SimpleDateFormat("yyyy_MM_dd-HH_mm_ss").format(new Date()) : run.get("File suffix").toString();
+        String outputDirectory = run.get("Output directory").toString();
+        boolean saveExcel = Boolean.parseBoolean(run.get("Save excel").toString());
+        boolean saveResults = Boolean.parseBoolean(run.get("Save results").toString());
+        if (run.containsKey("Save plot windows")) {
+            IJ.log("'Save plot windows' is ignored, no plot is drawn in headless mode.");
+        }
+
+        // the GPU is shared, so images are analyzed one at a time when it is used
+        int parallelism = analysis.isUseGpu() ? 1 :
+                Integer.parseInt(run.getOrDefault("Parallel files", Runtime.getRuntime().availableProcessors())
+                        .toString());
+        long memoryBudget = run.containsKey("Memory budget (MB)") ?
+                Long.parseLong(run.get("Memory budget (MB)").toString()) << 20 :
+                Runtime.getRuntime().maxMemory() / 2;
+
+        BatchPipeline<ImagePlus, BatchAnalysis.Result> pipeline = new BatchPipeline<>(parallelism, memoryBudget,
+                file -> {
+                    IJ.log("Processing " + file.getAbsolutePath());
+                    return ImageLoader.openImage(file.getAbsolutePath());
+                },
+                (file, image) -> analysis.analyze(image),
+                (file, result) -> {
+                    String baseName = file.getName().replaceFirst("[.][^.]+$", "") + suffix;
+                    File parent = outputDirectory.isEmpty() ? file.getAbsoluteFile().getParentFile() :
+                            new File(outputDirectory);
+                    String basePath = new File(parent, baseName).getAbsolutePath();
+
+                    if (saveResults) {
+                        try {
+                            result.saveResults(basePath + ResultsWriter.EXTENSION);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("Cannot write " + basePath + ResultsWriter.EXTENSION +
+                                    ": " + e.getMessage(), e);
+                        }
+                    }
+                    if (saveExcel) {
+                        try {
+                            result.prepareExcelExport(basePath + ".xlsx").write();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("Cannot write " + basePath + ".xlsx: " + e.getMessage(), e);
+                        }
+                    }
+                });
+
+        return pipeline.run(files);
+    }
+}
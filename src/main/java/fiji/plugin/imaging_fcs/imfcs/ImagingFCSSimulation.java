@@ -0,0 +1,146 @@
+package fiji.plugin.imaging_fcs.imfcs;
+
+import fiji.plugin.imaging_fcs.imfcs.model.BatchAnalysis;
+import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
+import fiji.plugin.imaging_fcs.imfcs.model.FitModel;
+import fiji.plugin.imaging_fcs.imfcs.model.SimulationModel;
+import fiji.plugin.imaging_fcs.imfcs.model.correlations.Correlator;
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.Simulation2D;
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.Simulation3D;
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.SimulationBase;
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.SimulationCorrelationPipeline;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line entry point simulating an experiment and correlating it on the fly with
+ * {@link SimulationCorrelationPipeline}, so that long simulations can be analyzed without holding the image stack.
+ * <p>
+ * Usage: {@code ImagingFCSSimulation output=<file> [key=value]...} with the keys
+ * <ul>
+ *     <li>output: results file, an Excel file if it ends with .xlsx.</li>
+ *     <li>settings: YAML file whose "Settings" and "Fit" sections, as described in {@link BatchAnalysis}, configure
+ *     the correlation and the fit. Without it, the defaults of the plugin are used. The frame time
+ *     and the frame range are taken from the simulation.</li>
+ *     <li>sim.3d: true for a 3D simulation (default false).</li>
+ *     <li>sim.pixels (default 21), sim.frames (50000), sim.frameTime in s (0.001), sim.particles (1000), sim.cps
+ *     (10000), sim.D1 in um2/s (1), sim.seed (1) and sim.threads (number of cores).</li>
+ * </ul>
+ * </p>
+ */
+public final class ImagingFCSSimulation {
+    private ImagingFCSSimulation() {
+    }
+
+    public static void main(final String[] args) {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                options.clear();
+                break;
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        if (!options.containsKey("output")) {
+            System.err.println("Usage: ImagingFCSSimulation output=<file.imfcs|file.xlsx> [settings=<settings.yaml>] " +
+                    "[sim.3d=false] [sim.pixels=21] [sim.frames=50000] [sim.frameTime=0.001] [sim.particles=1000] " +
+                    "[sim.cps=10000] [sim.D1=1] [sim.seed=1] [sim.threads=<cores>]");
+            System.exit(2);
+        }
+
+        ExpSettingsModel settings;
+        FitModel fitModel;
+        SimulationModel model;
+        try {
+            if (options.containsKey("settings")) {
+                BatchAnalysis analysis = new BatchAnalysis(loadConfig(options.get("settings")));
+                settings = analysis.getSettings();
+                fitModel = analysis.getFitModel();
+            } else {
+                settings = new ExpSettingsModel();
+                fitModel = new FitModel(settings);
+            }
+            model = createModel(settings, options);
+            settings.setFrameTime(Double.toString(model.getFrameTime()));
+            // the whole simulation is correlated, whatever the frame range of the settings file
+            if (settings.getFirstFrame() != 1) {
+                settings.setFirstFrame("1");
+            }
+            settings.setLastFrame(Integer.toString(model.getNumFrames()));
+        } catch (Exception e) {
+            System.err.println("Invalid arguments: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        SimulationBase simulation = model.getIs2D() ? new Simulation2D(model, settings) :
+                new Simulation3D(model, settings);
+        SimulationCorrelationPipeline pipeline = new SimulationCorrelationPipeline(settings, fitModel);
+        try {
+            long start = System.nanoTime();
+            Correlator correlator = pipeline.run(simulation, model.getCameraOffset());
+            System.out.printf("Simulated and correlated %d frame(s) of %dx%d in %.1f s%n", simulation.getNumFrames(),
+                    simulation.getWidth(), simulation.getHeight(), (System.nanoTime() - start) / 1e9);
+            pipeline.saveResults(correlator, options.get("output"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Failed to save the results: " + e.getMessage());
+            System.exit(1);
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Reads a YAML settings file.
+     *
+     * @param path the path of the file.
+     * @return the configuration.
+     * @throws IOException if the file cannot be read.
+     */
+    private static Map<String, Object> loadConfig(String path) throws IOException {
+        try (InputStream inputStream = new FileInputStream(path)) {
+            Map<String, Object> config = new Yaml().load(inputStream);
+            if (config == null) {
+                throw new IOException("The settings file is empty: " + path);
+            }
+            return config;
+        }
+    }
+
+    /**
+     * Creates the simulation parameters from the "sim." options, the others keep the defaults of the plugin.
+     *
+     * @param settings the experimental settings, giving the pixel size and the optics.
+     * @param options  the command line options.
+     * @return the simulation model.
+     */
+    private static SimulationModel createModel(ExpSettingsModel settings, Map<String, String> options) {
+        SimulationModel model = new SimulationModel(settings);
+        model.setIs2D(!Boolean.parseBoolean(options.getOrDefault("sim.3d", "false")));
+        model.setPixelNum(options.getOrDefault("sim.pixels", Integer.toString(model.getPixelNum())));
+        model.setNumFrames(options.getOrDefault("sim.frames", Integer.toString(model.getNumFrames())));
+        model.setFrameTime(options.getOrDefault("sim.frameTime", Double.toString(model.getFrameTime())));
+        model.setNumParticles(options.getOrDefault("sim.particles", Integer.toString(model.getNumParticles())));
+        model.setCPS(options.getOrDefault("sim.cps", Integer.toString(model.getCPS())));
+        model.setD1(options.getOrDefault("sim.D1", "1"));
+        model.setSeed(options.getOrDefault("sim.seed", Integer.toString(model.getSeed())));
+        model.setNumThreads(options.getOrDefault("sim.threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        return model;
+    }
+}
@@ -3,6 +3,8 @@ package fiji.plugin.imaging_fcs.imfcs.controller;
 import fiji.plugin.imaging_fcs.imfcs.model.*;
 import fiji.plugin.imaging_fcs.imfcs.utils.ExcelExporter;
 import fiji.plugin.imaging_fcs.imfcs.utils.Pair;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultsReader;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultsWriter;
 import fiji.plugin.imaging_fcs.imfcs.view.DiffusionLawView;
 import fiji.plugin.imaging_fcs.imfcs.view.Plots;
 import fiji.plugin.imaging_fcs.imfcs.view.dialogs.PSFView;
@@ -14,6 +16,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.io.IOException;
 
 /**
  * The {@code DiffusionLawController} class serves as the controller in the Model-View-Controller (MVC) pattern
@@ -147,6 +150,26 @@ public class DiffusionLawController {
         ExcelExporter.savePSFSheet(workbook, model.getPsfResults());
     }
 
+    /**
+     * Saves the diffusion law and PSF data into the given results file.
+     *
+     * @param writer the results file to which the entries will be added
+     * @throws IOException if the entries cannot be written
+     */
+    public void saveResults(ResultsWriter writer) throws IOException {
+        writer.writeDiffusionLaw(model);
+        writer.writePSF(model.getPsfResults());
+    }
+
+    /**
+     * Restores the PSF results saved in a results file, so that they are exported again with the other results.
+     *
+     * @param reader the results file
+     */
+    public void loadResults(ResultsReader reader) {
+        model.setPsfResults(reader.readPSF());
+    }
+
     /**
      * Sets the visibility of the diffusion law view.
      *
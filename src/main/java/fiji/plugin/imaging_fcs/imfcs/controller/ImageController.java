@@ -8,6 +8,7 @@ import fiji.plugin.imaging_fcs.imfcs.model.correlations.Correlator;
 import fiji.plugin.imaging_fcs.imfcs.model.correlations.SelectedPixel;
 import fiji.plugin.imaging_fcs.imfcs.utils.Pair;
 import fiji.plugin.imaging_fcs.imfcs.utils.Range;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultCache;
 import fiji.plugin.imaging_fcs.imfcs.view.ImageView;
 import fiji.plugin.imaging_fcs.imfcs.view.Plots;
 import ij.IJ;
@@ -169,6 +170,9 @@ public final class ImageController {
         Plots.closePlots();
 
         imageModel.loadImage(image, simulationName);
+        if (simulationName == null && options.isUseTraceCache()) {
+            imageModel.loadTraceCache();
+        }
 
         initializeAndDisplayImage();
 
@@ -242,8 +246,19 @@ public final class ImageController {
         Point[] cursorPositions = selectedPixel.performCorrelationFunctionEvaluation(x, y, singlePixelCorrelation);
         Point pixel = cursorPositions[0];
 
-        PixelModel pixelModel = correlator.getPixelModel(pixel.x, pixel.y);
+        fitPixelModel(correlator.getPixelModel(pixel.x, pixel.y), x, y);
+
+        return cursorPositions;
+    }
 
+    /**
+     * Fits a correlated pixel model if the fit is activated, and computes its MSD if it is enabled.
+     *
+     * @param pixelModel The pixel model to fit.
+     * @param x          The x-coordinate of the pixel.
+     * @param y          The y-coordinate of the pixel.
+     */
+    private void fitPixelModel(PixelModel pixelModel, int x, int y) {
         if (settings.isFCCSDisp()) {
             fitFCCS(pixelModel.getAcf1PixelModel(), pixelModel.getAcf2PixelModel(), x, y);
         }
@@ -261,8 +276,6 @@ public final class ImageController {
                     correlationToMSD(pixelModel.getCorrelationFunction(), settings.getParamAx(), settings.getParamAy(),
                             settings.getParamW(), settings.getSigmaZ(), settings.isMSD3d()));
         }
-
-        return cursorPositions;
     }
 
     /**
@@ -370,12 +383,25 @@ public final class ImageController {
             return;
         }
 
+        // the results of the whole image are cached, so that correlating it again with the same settings is instant,
+        // unless the cache is turned off in the options
+        ResultCache cache = options.getResultCache();
+        String correlationKey = cache != null && isWholeImage(xRange, yRange) ?
+                ResultCache.correlationKey(imageModel, settings, bleachCorrectionModel, options.isUseGpu()) : null;
+        String fitKey = correlationKey != null && fitController.isActivated() && fitController.getModel().canFit() ?
+                ResultCache.fitKey(correlationKey, fitController.getModel()) : null;
+        if (loadCachedResults(cache, correlationKey, fitKey)) {
+            SwingUtilities.invokeLater(this::plotAll);
+            return;
+        }
+
         // GPU fitting is not supported for DC-FCCS_2D model
         if (options.isUseGpu() && settings.getFitModel() != FitFunctions.DC_FCCS_2D) {
             GpuCorrelator gpuCorrelator =
                     new GpuCorrelator(settings, bleachCorrectionModel, imageModel, fitController.getModel(), false,
                             correlator, xRange, yRange);
             gpuCorrelator.correlateAndFit(xRange, yRange, fitController.isActivated(), true);
+            storeCachedResults(cache, correlationKey, fitKey);
             SwingUtilities.invokeLater(this::plotAll);
         } else {
             List<PixelModel> correlatedPixels = new ArrayList<>();
@@ -410,10 +436,82 @@ public final class ImageController {
                     IJ.showProgress(x - xRange.getStart(), xRange.length());
             }
 
+            storeCachedResults(cache, correlationKey, fitKey);
             plotMultiplePixelsModels(correlatedPixels);
         }
     }
 
+    /**
+     * Checks whether binned pixel ranges cover every pixel that can be correlated, as with the "All" button.
+     *
+     * @param xRange the range of binned x-coordinates.
+     * @param yRange the range of binned y-coordinates.
+     * @return true if the ranges cover the whole image.
+     */
+    private boolean isWholeImage(Range xRange, Range yRange) {
+        Point minimum = settings.getMinCursorPosition();
+        Point maximum = settings.getMaxCursorPosition(imageModel.getDimension());
+        return xRange.getStart() <= minimum.x && xRange.getEnd() >= maximum.x && yRange.getStart() <= minimum.y &&
+                yRange.getEnd() >= maximum.y;
+    }
+
+    /**
+     * Loads the results of the whole image from the cache. Cached correlations without the requested fits are fitted
+     * again, unless the fit needs the covariance matrix of the correlations (GLS) or runs on the GPU.
+     *
+     * @param cache          the result cache, or null if the results are not cached.
+     * @param correlationKey the key of the correlations, or null if they are not cached.
+     * @param fitKey         the key of the fits, or null if the pixels are not fitted.
+     * @return true if the results were loaded.
+     */
+    private boolean loadCachedResults(ResultCache cache, String correlationKey, String fitKey) {
+        boolean canFitAgain = !fitController.getModel().isGLS() && !options.isUseGpu();
+        if (correlationKey == null || (fitKey != null && !canFitAgain && !cache.containsFits(fitKey)) ||
+                !cache.loadCorrelations(correlationKey, correlator)) {
+            return false;
+        }
+
+        PixelModel[][] pixelModels = correlator.getPixelModels();
+        if (fitKey != null && !cache.loadFits(fitKey, pixelModels)) {
+            for (int x = 0; x < pixelModels.length; x++) {
+                for (int y = 0; y < pixelModels[0].length; y++) {
+                    if (pixelModels[x][y] != null) {
+                        fitPixelModel(pixelModels[x][y], x, y);
+                    }
+                }
+            }
+            cache.storeFits(fitKey, pixelModels);
+        }
+
+        for (PixelModel[] pixelModelsRow : pixelModels) {
+            for (PixelModel pixelModel : pixelModelsRow) {
+                if (pixelModel != null && pixelModel.isAtLeastOneFitted()) {
+                    fitController.updateThresholds(pixelModel);
+                }
+            }
+        }
+        refreshThresholdView.run();
+        IJ.showStatus("Results loaded from the cache");
+
+        return true;
+    }
+
+    /**
+     * Stores the results of the whole image in the cache.
+     *
+     * @param cache          the result cache, or null if the results are not cached.
+     * @param correlationKey the key of the correlations, or null if they are not cached.
+     * @param fitKey         the key of the fits, or null if the pixels are not fitted.
+     */
+    private void storeCachedResults(ResultCache cache, String correlationKey, String fitKey) {
+        if (correlationKey != null) {
+            cache.storeCorrelations(correlationKey, correlator);
+            if (fitKey != null) {
+                cache.storeFits(fitKey, correlator.getPixelModels());
+            }
+        }
+    }
+
     /**
      * Correlates the given ROI without cancellation support.
      *
@@ -540,6 +638,8 @@ public final class ImageController {
      * computes the intensity trace for each valid pixel model, and plots the fitted
      * parameters.
      * Finally, it plots multiple pixel models together (ACF and MSD).
+     * Pixel models whose curves are not read yet from a results file are left out,
+     * so that restoring results does not read every curve of the file.
      */
     public void plotAll() {
         List<PixelModel> pixelModelList = new ArrayList<>();
@@ -551,13 +651,16 @@ public final class ImageController {
 
         for (PixelModel[] pixelModelsRow : pixelModels) {
             for (PixelModel currentPixelModel : pixelModelsRow) {
-                if (currentPixelModel != null && currentPixelModel.getCorrelationFunction() != null) {
+                if (currentPixelModel != null && currentPixelModel.isCurvesLoaded() &&
+                        currentPixelModel.getCorrelationFunction() != null) {
                     pixelModelList.add(currentPixelModel);
                 }
             }
         }
 
-        plotMultiplePixelsModels(pixelModelList);
+        if (!pixelModelList.isEmpty()) {
+            plotMultiplePixelsModels(pixelModelList);
+        }
     }
 
     /**
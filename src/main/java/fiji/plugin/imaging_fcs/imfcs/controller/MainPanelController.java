@@ -31,14 +31,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileSystems;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static fiji.plugin.imaging_fcs.imfcs.controller.FieldListenerFactory.createFocusListener;
 
@@ -73,7 +76,7 @@ public final class MainPanelController {
      * @param hardwareModel The model containing hardware settings for the imaging FCS analysis.
      */
     public MainPanelController(HardwareModel hardwareModel) {
-        this(new OptionsModel(hardwareModel.isCuda()), null);
+        this(new OptionsModel(hardwareModel.isCuda()), (Workbook) null);
     }
 
     /**
@@ -86,6 +89,37 @@ public final class MainPanelController {
      * @param workbook     The Excel workbook containing previously saved configuration, or null to load saved config.
      */
     public MainPanelController(OptionsModel optionsModel, Workbook workbook) {
+        this(optionsModel, workbook == null ? null : () -> ExcelReader.readSheetToMap(workbook,
+                        "Experimental settings"),
+                workbook == null ? null :
+                        (correlator, dimension) -> correlator.loadResultsFromWorkbook(workbook, dimension));
+    }
+
+    /**
+     * Constructor that initializes models, views, and other controllers needed for the main panel, and restores the
+     * settings and results saved in a binary results file, including the PSF results. The curves are read from the
+     * file when they are first used, so the correlator keeps the file open until its results are reset.
+     *
+     * @param optionsModel The model containing options settings for the imaging FCS analysis.
+     * @param results      The results file to load.
+     */
+    public MainPanelController(OptionsModel optionsModel, ResultsReader results) {
+        this(optionsModel, results::getSettings, (correlator, dimension) -> correlator.loadResultsFromResultsFile(
+                results, dimension));
+        diffusionLawController.loadResults(results);
+    }
+
+    /**
+     * Constructor that initializes models, views, and other controllers needed for the main panel.
+     * If saved settings are provided, they are loaded together with the saved results; otherwise, the previously
+     * saved configuration is loaded.
+     *
+     * @param optionsModel  The model containing options settings for the imaging FCS analysis.
+     * @param savedSettings Supplies the saved experimental settings, or null to load the saved config.
+     * @param savedResults  Restores the saved results into the correlator, given the image dimension.
+     */
+    private MainPanelController(OptionsModel optionsModel, Supplier<Map<String, Object>> savedSettings,
+                                BiConsumer<Correlator, Dimension> savedResults) {
         this.optionsModel = optionsModel;
 
         this.settings = new ExpSettingsModel(this::askResetResults);
@@ -115,18 +149,18 @@ public final class MainPanelController {
 
         this.parameterVideoController = new ParameterVideoController(settings, imageModel, fitModel);
 
-        if (workbook == null) {
+        if (savedSettings == null) {
             // load previously saved configuration
             loadConfig();
         } else {
-            // load parameters from the excel file
+            // load parameters from the saved file
             try {
-                loadExcelSettings(workbook, imageController);
+                loadSavedSettings(savedSettings.get(), imageController);
             } catch (Exception e) {
-                // if we fail to read the excel file, we just setup the class the normal way
-                IJ.showMessage("Error", "Excel format is incorrect.");
+                // if we fail to read the saved file, we just setup the class the normal way
+                IJ.showMessage("Error", "Saved results format is incorrect.");
                 loadConfig();
-                workbook = null;
+                savedResults = null;
             }
         }
 
@@ -137,9 +171,9 @@ public final class MainPanelController {
         updateSettingsField();
         this.view = new MainPanelView(this, this.settings);
 
-        if (workbook != null) {
-            // read the Excel file to restore parameters
-            correlator.loadResultsFromWorkbook(workbook, imageModel.getDimension());
+        if (savedResults != null) {
+            // read the saved file to restore parameters
+            savedResults.accept(correlator, imageModel.getDimension());
 
             // Plot the restored pixel models
             imageController.plotAll();
@@ -174,19 +208,17 @@ public final class MainPanelController {
     }
 
     /**
-     * Loads settings from the provided Excel workbook and applies them to the image model through the ImageController.
-     * This method reads the experimental settings from the workbook, attempts to reload the image
-     * from the specified path, and updates the settings and image model with the retrieved data.
+     * Loads saved settings and applies them to the image model through the ImageController.
+     * This method attempts to reload the image from the saved path, and updates the settings and image model with
+     * the saved data.
      *
-     * @param workbook        the Excel workbook containing the settings to be loaded
+     * @param expSettingsMap  the saved experimental settings, read from an Excel or a results file
      * @param imageController the ImageController instance to be updated with the loaded settings
      */
-    private void loadExcelSettings(Workbook workbook, ImageController imageController) {
-        Map<String, Object> expSettingsMap = ExcelReader.readSheetToMap(workbook, "Experimental settings");
-
-        ImagePlus reloadImage = IJ.openImage(expSettingsMap.get("Image path").toString());
+    private void loadSavedSettings(Map<String, Object> expSettingsMap, ImageController imageController) {
+        ImagePlus reloadImage = ImageLoader.openImage(expSettingsMap.get("Image path").toString());
         if (reloadImage == null) {
-            IJ.log(String.format("Fail to load '%s' from saved Excel file",
+            IJ.log(String.format("Fail to load '%s' from saved file",
                     expSettingsMap.get("Image path").toString()));
             reloadImage = ImageLoader.openImagePlusWithDialog();
         }
@@ -408,6 +440,8 @@ public final class MainPanelController {
             diffusionLawController.dispose();
 
             imageController.unloadImage();
+            // release the results file the curves may still be read from
+            correlator.resetResults();
 
             Plots.closePlots();
         };
@@ -502,11 +536,22 @@ public final class MainPanelController {
      * @param filePath the path where the Excel file will be saved
      */
     private void exportAllToExcel(String filePath) {
-        Map<String, Object> settingsMap = settings.toMap();
-        settingsMap.put("Polynomial Order", bleachCorrectionModel.getPolynomialOrder());
-        settingsMap.putAll(imageController.toMap());
+        try {
+            prepareExcelExport(filePath).write();
+        } catch (IOException e) {
+            IJ.showMessage("Error saving result table", e.getMessage());
+        }
+    }
 
-        ExcelExporter.saveExcelFile(filePath, settingsMap, (workbook) -> {
+    /**
+     * Prepares the export of all analysis results, like {@link #exportAllToExcel}, and returns the task writing the
+     * file. The task no longer depends on the current results, so it can run while the next image is analyzed.
+     *
+     * @param filePath the path where the Excel file will be saved
+     * @return the task writing the Excel file
+     */
+    private ExcelExporter.ExcelExport prepareExcelExport(String filePath) {
+        return ExcelExporter.prepareExcelFile(filePath, getSettingsToSave(), (workbook) -> {
             ExcelExporter.saveExcelPixelModels(workbook, correlator.getPixelModels(), settings, correlator);
             diffusionLawController.saveExcelSheets(workbook);
             nbController.saveExcelSheet(workbook);
@@ -514,6 +559,34 @@ public final class MainPanelController {
         });
     }
 
+    /**
+     * Saves all analysis results and settings to a binary results file, with the same content as
+     * {@link #exportAllToExcel}.
+     *
+     * @param filePath the path where the results file will be saved
+     */
+    private void saveAllResults(String filePath) {
+        ResultsWriter.saveResultsFile(filePath, getSettingsToSave(), (writer) -> {
+            writer.writePixelModels(correlator.getPixelModels(), settings, correlator);
+            diffusionLawController.saveResults(writer);
+            nbController.saveResults(writer);
+            writer.writeDccf(correlator.getDccf());
+        });
+    }
+
+    /**
+     * Collects the settings saved with the results: the experimental settings, the polynomial order and the image
+     * settings.
+     *
+     * @return the settings to save
+     */
+    private Map<String, Object> getSettingsToSave() {
+        Map<String, Object> settingsMap = settings.toMap();
+        settingsMap.put("Polynomial Order", bleachCorrectionModel.getPolynomialOrder());
+        settingsMap.putAll(imageController.toMap());
+        return settingsMap;
+    }
+
     /**
      * Creates an ActionListener for the save button, allowing the user to select a file path and save parameters and
      * results to an Excel file.
@@ -527,13 +600,17 @@ public final class MainPanelController {
                 return;
             }
 
-            String filePath = ExcelExporter.selectExcelFileToSave(imageController.getFileName() + ".xlsx",
-                    imageController.getDirectory());
+            String filePath =
+                    ResultsWriter.selectResultsFileToSave(imageController.getFileName(), imageController.getDirectory());
             if (filePath == null) {
                 return;
             }
 
-            new BackgroundTaskWorker<Void, Void>(() -> exportAllToExcel(filePath)).execute();
+            if (filePath.endsWith(ResultsWriter.EXTENSION)) {
+                new BackgroundTaskWorker<Void, Void>(() -> saveAllResults(filePath)).execute();
+            } else {
+                new BackgroundTaskWorker<Void, Void>(() -> exportAllToExcel(filePath)).execute();
+            }
         };
     }
 
@@ -547,23 +624,72 @@ public final class MainPanelController {
      */
     public ActionListener btnLoadPressed() {
         return (ActionEvent ev) -> {
+            File file = ResultsReader.selectResultsFileToLoad(
+                    imageController.isImageLoaded() ? imageController.getDirectory() : "");
+
+            // In this case, the user didn't select a file, we can just leave the method
+            if (file == null) {
+                return;
+            }
+
             Workbook workbook = null;
+            ResultsReader results = null;
             try {
-                workbook = ExcelReader.selectExcelFileToLoad(
-                        imageController.isImageLoaded() ? imageController.getDirectory() : "");
+                if (ResultsReader.isResultsFile(file)) {
+                    results = new ResultsReader(file);
+                } else {
+                    workbook = ExcelReader.openExcelFile(file);
+                }
             } catch (Exception e) {
                 IJ.showMessage(e.getMessage());
-            }
-
-            // In this case, the user didn't select a file, we can just leave the method
-            if (workbook == null) {
                 return;
             }
 
             this.view.dispose();
             btnExitPressed().actionPerformed(ev);
 
-            new MainPanelController(this.optionsModel, workbook);
+            if (results != null) {
+                new MainPanelController(this.optionsModel, results);
+            } else {
+                new MainPanelController(this.optionsModel, workbook);
+            }
+        };
+    }
+
+    /**
+     * Creates an ActionListener for the "To Excel" button, converting a binary results file to an Excel file saved
+     * next to it. The current results are not changed.
+     *
+     * @return an ActionListener that handles the "To Excel" button press event
+     */
+    public ActionListener btnResultsToExcelPressed() {
+        return (ActionEvent ev) -> {
+            File file = ResultsReader.selectResultsFileToLoad(
+                    imageController.isImageLoaded() ? imageController.getDirectory() : "");
+            if (file == null) {
+                return;
+            }
+            if (!ResultsReader.isResultsFile(file)) {
+                IJ.showMessage("Please select a results file (*" + ResultsWriter.EXTENSION + ").");
+                return;
+            }
+
+            File excelFile = new File(file.getParentFile(), file.getName().replaceFirst("[.][^.]+$", "") + ".xlsx");
+            if (excelFile.exists() && JOptionPane.showConfirmDialog(null,
+                    "The file " + excelFile.getName() + " already exists. Do you want to replace it?",
+                    "File already exists", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+                return;
+            }
+
+            new BackgroundTaskWorker<Void, Void>(() -> {
+                IJ.showStatus("Converting " + file.getName() + " to Excel");
+                try (ResultsReader reader = new ResultsReader(file)) {
+                    ExcelExporter.saveResultsFileAsExcel(reader, excelFile.getAbsolutePath());
+                } catch (IOException | RuntimeException e) {
+                    IJ.showMessage("Error converting results", e.getMessage());
+                }
+                IJ.showStatus("Done");
+            }).execute();
         };
     }
 
@@ -596,94 +722,110 @@ public final class MainPanelController {
             File[] files = fileChooser.getSelectedFiles();
 
             new BackgroundTaskWorker<Void, Void>(() -> {
-                for (File file : files) {
+                // the next image is read while the current one is analyzed, and its Excel file is written while the
+                // next one is analyzed. Images are analyzed one at a time as they share the models of the interface.
+                new BatchPipeline<ImagePlus, ExcelExporter.ExcelExport>(1, Runtime.getRuntime().maxMemory() / 4,
+                        file -> ImageLoader.openImage(file.getAbsolutePath()), (file, image) -> {
+                    ExcelExporter.ExcelExport export = null;
                     try {
-                        imageController.loadImage(IJ.openImage(file.getAbsolutePath()), null);
-                    } catch (Exception e) {
-                        IJ.log(String.format("The file %s is not an image file. Skipping it.", file.getAbsolutePath()));
-                        continue;
-                    }
+                        imageController.loadImage(image, null);
 
-                    if ((boolean) run.get("Correlate All")) {
-                        // Perform the correlation synchronously
-                        Range[] ranges = settings.getAllArea(imageController.getImageDimension());
-                        Range xRange = ranges[0];
-                        Range yRange = ranges[1];
+                        if ((boolean) run.get("Correlate All")) {
+                            // Perform the correlation synchronously
+                            Range[] ranges = settings.getAllArea(imageController.getImageDimension());
+                            Range xRange = ranges[0];
+                            Range yRange = ranges[1];
 
-                        Roi imgRoi = new Roi(xRange.getStart(), yRange.getStart(), xRange.getEnd(), yRange.getEnd());
+                            Roi imgRoi =
+                                    new Roi(xRange.getStart(), yRange.getStart(), xRange.getEnd(), yRange.getEnd());
 
-                        imageController.correlateROI(imgRoi);
-                    }
+                            imageController.correlateROI(imgRoi);
+                        }
 
-                    if ((boolean) run.get("PSF Calculation")) {
-                        Dimension imageDimension = imageController.getImageDimension();
-                        if (imageDimension.width < 20 || imageDimension.height < 20) {
-                            IJ.log("Image is too small to provide good PSF statistics. At least 20x20 pixels are " +
-                                    "required");
-                        } else {
-                            // Every condition is validated (image loaded and size >= 20), so we can run the PSF.
-                            diffusionLawController.displayPSFDialog();
+                        if ((boolean) run.get("PSF Calculation")) {
+                            Dimension imageDimension = imageController.getImageDimension();
+                            if (imageDimension.width < 20 || imageDimension.height < 20) {
+                                IJ.log("Image is too small to provide good PSF statistics. At least 20x20 pixels " +
+                                        "are required");
+                            } else {
+                                // Every condition is validated (image loaded and size >= 20), so we can run the PSF.
+                                diffusionLawController.displayPSFDialog();
+                            }
                         }
-                    }
 
-                    if ((boolean) run.get("Diffusion Law")) {
-                        diffusionLawController.runCalculate();
-                        diffusionLawController.btnFitPressed().actionPerformed(null);
-                    }
+                        if ((boolean) run.get("Diffusion Law")) {
+                            diffusionLawController.runCalculate();
+                            diffusionLawController.btnFitPressed().actionPerformed(null);
+                        }
 
-                    if ((boolean) run.get("Vertical DCCF")) {
-                        new DeltaCCFWorker(settings, correlator, imageController.getImage(), DccfDirection.X_DIRECTION,
-                                (dccfArray, direction) -> {
-                                    IJ.showStatus("Done");
-                                    Plots.plotDCCFWindow(dccfArray, direction.getDisplayName());
-                                }).executeAndWait();
-                    }
+                        if ((boolean) run.get("Vertical DCCF")) {
+                            new DeltaCCFWorker(settings, correlator, imageController.getImage(),
+                                    DccfDirection.X_DIRECTION, (dccfArray, direction) -> {
+                                IJ.showStatus("Done");
+                                Plots.plotDCCFWindow(dccfArray, direction.getDisplayName());
+                            }).executeAndWait();
+                        }
 
-                    if ((boolean) run.get("Horizontal DCCF")) {
-                        new DeltaCCFWorker(settings, correlator, imageController.getImage(), DccfDirection.Y_DIRECTION,
-                                (dccfArray, direction) -> {
-                                    IJ.showStatus("Done");
-                                    Plots.plotDCCFWindow(dccfArray, direction.getDisplayName());
-                                }).executeAndWait();
-                    }
+                        if ((boolean) run.get("Horizontal DCCF")) {
+                            new DeltaCCFWorker(settings, correlator, imageController.getImage(),
+                                    DccfDirection.Y_DIRECTION, (dccfArray, direction) -> {
+                                IJ.showStatus("Done");
+                                Plots.plotDCCFWindow(dccfArray, direction.getDisplayName());
+                            }).executeAndWait();
+                        }
 
-                    if ((boolean) run.get("Diagonal Up DCCF")) {
-                        new DeltaCCFWorker(settings, correlator, imageController.getImage(),
-                                DccfDirection.DIAGONAL_UP_DIRECTION, (dccfArray, direction) -> {
-                            IJ.showStatus("Done");
-                            Plots.plotDCCFWindow(dccfArray, direction.getDisplayName());
-                        }).executeAndWait();
-                    }
+                        if ((boolean) run.get("Diagonal Up DCCF")) {
+                            new DeltaCCFWorker(settings, correlator, imageController.getImage(),
+                                    DccfDirection.DIAGONAL_UP_DIRECTION, (dccfArray, direction) -> {
+                                IJ.showStatus("Done");
+                                Plots.plotDCCFWindow(dccfArray, direction.getDisplayName());
+                            }).executeAndWait();
+                        }
 
-                    if ((boolean) run.get("Diagonal Down DCCF")) {
-                        new DeltaCCFWorker(settings, correlator, imageController.getImage(),
-                                DccfDirection.DIAGONAL_DOWN_DIRECTION, (dccfArray, direction) -> {
-                            IJ.showStatus("Done");
-                            Plots.plotDCCFWindow(dccfArray, direction.getDisplayName());
-                        }).executeAndWait();
-                    }
+                        if ((boolean) run.get("Diagonal Down DCCF")) {
+                            new DeltaCCFWorker(settings, correlator, imageController.getImage(),
+                                    DccfDirection.DIAGONAL_DOWN_DIRECTION, (dccfArray, direction) -> {
+                                IJ.showStatus("Done");
+                                Plots.plotDCCFWindow(dccfArray, direction.getDisplayName());
+                            }).executeAndWait();
+                        }
 
-                    // Get the suffix
-                    String suffix = run.get("File suffix").toString();
-                    if (suffix.isEmpty()) {
-                        suffix = new SimpleDateFormat("yyyy_MM_dd-HH_mm_ss").format(new Date());
-                    }
+                        // Get the suffix
+                        String suffix = run.get("File suffix").toString();
+                        if (suffix.isEmpty()) {
+                            suffix = new SimpleDateFormat("yyyy_MM_dd-HH_mm_ss").format(new Date());
+                        }
 
-                    // Get the absolute path without the extension
-                    String absolutePathNoExt = file.getAbsolutePath().replaceFirst("[.][^.]+$", "");
+                        // Get the absolute path without the extension
+                        String absolutePathNoExt = file.getAbsolutePath().replaceFirst("[.][^.]+$", "");
 
-                    if ((boolean) run.get("Save excel")) {
-                        exportAllToExcel(absolutePathNoExt + suffix + ".xlsx");
-                    }
+                        if ((boolean) run.get("Save excel")) {
+                            export = prepareExcelExport(absolutePathNoExt + suffix + ".xlsx");
+                        }
 
-                    if ((boolean) run.get("Save plot windows")) {
-                        Plots.saveWindows(absolutePathNoExt + suffix);
-                    }
+                        if ((boolean) run.get("Save results")) {
+                            saveAllResults(absolutePathNoExt + suffix + ResultsWriter.EXTENSION);
+                        }
 
-                    Plots.closePlots();
-                    imageController.unloadImage();
-                    fitController.btnResetParametersPressed().actionPerformed(null);
-                }
+                        if ((boolean) run.get("Save plot windows")) {
+                            Plots.saveWindows(absolutePathNoExt + suffix);
+                        }
+                    } finally {
+                        Plots.closePlots();
+                        imageController.unloadImage();
+                        fitController.btnResetParametersPressed().actionPerformed(null);
+                    }
+                    return export;
+                }, (file, export) -> {
+                    if (export != null) {
+                        // the batch logs the files that failed
+                        try {
+                            export.write();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }).run(Arrays.asList(files));
             }).execute();
         }
     }
@@ -4,12 +4,14 @@ import fiji.plugin.imaging_fcs.imfcs.model.*;
 import fiji.plugin.imaging_fcs.imfcs.model.correlations.Correlator;
 import fiji.plugin.imaging_fcs.imfcs.utils.ApplyCustomLUT;
 import fiji.plugin.imaging_fcs.imfcs.utils.ExcelExporter;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultsWriter;
 import ij.IJ;
 import ij.ImagePlus;
 import org.apache.poi.ss.usermodel.Workbook;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
 
 /**
  * Controller class for managing the Number & Brightness (NB) analysis workflow.
@@ -74,4 +76,14 @@ public final class NBController {
     public void saveExcelSheet(Workbook workbook) {
         ExcelExporter.saveNumberAndBrightnessSheet(workbook, model.getNBB(), model.getNBN());
     }
+
+    /**
+     * Saves the "Number and Brightness" (N&B) data into the provided results file.
+     *
+     * @param writer the results file to which the N&B entry will be added
+     * @throws IOException if the entry cannot be written
+     */
+    public void saveResults(ResultsWriter writer) throws IOException {
+        writer.writeNumberAndBrightness(model.getNBB(), model.getNBN());
+    }
 }
\ No newline at end of file
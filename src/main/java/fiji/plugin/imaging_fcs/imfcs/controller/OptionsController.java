@@ -1,7 +1,9 @@
 package fiji.plugin.imaging_fcs.imfcs.controller;
 
 import fiji.plugin.imaging_fcs.imfcs.model.OptionsModel;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultCache;
 import fiji.plugin.imaging_fcs.imfcs.view.dialogs.OptionsView;
+import ij.IJ;
 
 /**
  * The OptionsController class manages the interactions between the OptionsModel and the OptionsView.
@@ -28,7 +30,8 @@ public final class OptionsController {
     /**
      * Called when the OK button in the options dialog is pressed.
      * This method updates the OptionsModel with the new settings based on the user's input.
-     * If CUDA is detected, it also updates the model with the user's preference for using GPU.
+     * If CUDA is detected, it also updates the model with the user's preference for using GPU. The result cache is
+     * cleared if it was asked.
      */
     public void onDialogOk() {
         // with the implementation of GenericDialog you can only get the boolean in order
@@ -39,10 +42,22 @@ public final class OptionsController {
         optionsModel.setPlotParaHist(optionsView.getNextBoolean());
         optionsModel.setPlotBlockingCurve(optionsView.getNextBoolean());
         optionsModel.setPlotCovMats(optionsView.getNextBoolean());
+        optionsModel.setUseTraceCache(optionsView.getNextBoolean());
+        optionsModel.setUseResultCache(optionsView.getNextBoolean());
+        boolean clearResultCache = optionsView.getNextBoolean();
+        optionsModel.setResultCacheDirectory(optionsView.getNextString());
 
         // This box only exist if Cuda was detected
         if (optionsModel.isCuda()) {
             optionsModel.setUseGpu(optionsView.getNextBoolean());
         }
+
+        if (clearResultCache) {
+            // the chosen directory is cleared even if the cache is turned off
+            ResultCache cache = optionsModel.getResultCacheLocation();
+            long freed = cache.clear();
+            IJ.log(String.format("Result cache cleared: %.1f MB freed in %s", freed / 1048576.0,
+                    cache.getDirectory().getAbsolutePath()));
+        }
     }
 }
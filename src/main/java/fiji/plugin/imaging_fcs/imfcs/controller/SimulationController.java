@@ -19,6 +19,7 @@ import java.io.File;
  * and simulation execution feedback.
  */
 public final class SimulationController {
+    private static final long BYTES_PER_MB = 1024 * 1024;
     private final ImageController imageController;
     private final SimulationView simulationView;
     private final SimulationModel simulationModel;
@@ -65,6 +66,13 @@ public final class SimulationController {
         double[] rangeD1 = new double[]{view.getNextNumber(), view.getNextNumber(), view.getNextNumber()};
         double[] rangeD2 = new double[]{view.getNextNumber(), view.getNextNumber(), view.getNextNumber()};
         double[] rangeF2 = new double[]{view.getNextNumber(), view.getNextNumber(), view.getNextNumber()};
+        int numWorkers = (int) view.getNextNumber();
+        long memoryBudget = (long) view.getNextNumber() * BYTES_PER_MB;
+
+        if (numWorkers < 1 || memoryBudget < 1) {
+            IJ.showMessage("The number of workers and the memory budget must be positive.");
+            return;
+        }
 
         JFileChooser fc = new JFileChooser();
         fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
@@ -82,7 +90,8 @@ public final class SimulationController {
             simulationView.enableBtnSimulate(false);
             simulationView.enableBtnBatch(false);
 
-            simulationModel.runBatch(path, rangeD1, rangeD2, rangeF2, this::onBatchSimulationComplete);
+            simulationModel.runBatch(path, rangeD1, rangeD2, rangeF2, numWorkers, memoryBudget,
+                    this::onBatchSimulationComplete);
         }
     }
 
@@ -156,7 +165,8 @@ public final class SimulationController {
     public ActionListener btnBatchSimPressed() {
         return (ActionEvent ev) -> {
             BatchSimulationView view = new BatchSimulationView();
-            view.display(this::runBatchSimulation);
+            view.display(this::runBatchSimulation, simulationModel.getDefaultBatchWorkers(),
+                    simulationModel.getDefaultBatchMemoryBudget() / BYTES_PER_MB);
         };
     }
 
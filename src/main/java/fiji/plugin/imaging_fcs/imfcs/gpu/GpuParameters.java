@@ -2,14 +2,17 @@ package fiji.plugin.imaging_fcs.imfcs.gpu;
 
 import fiji.plugin.imaging_fcs.gpufit.*;
 import fiji.plugin.imaging_fcs.imfcs.enums.BleachCorrectionMethod;
+import fiji.plugin.imaging_fcs.imfcs.model.BackgroundModel;
 import fiji.plugin.imaging_fcs.imfcs.model.BleachCorrectionModel;
 import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
 import fiji.plugin.imaging_fcs.imfcs.model.FitModel;
 import fiji.plugin.imaging_fcs.imfcs.model.ImageModel;
 import fiji.plugin.imaging_fcs.imfcs.model.correlations.Correlator;
 import fiji.plugin.imaging_fcs.imfcs.utils.Range;
+import fiji.plugin.imaging_fcs.imfcs.utils.TraceCache;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.process.ImageProcessor;
 
 import java.awt.*;
 
@@ -195,21 +198,31 @@ public class GpuParameters {
 
         // Try to read from the ImagePlus in one shot, if possible
         ImagePlus imp = imageModel.getImage();
-        try {
-            // startX, startY are in "binned coordinates."
-            // Convert them to unbinned absolute coords:
-            int absoluteX = xRange.getStart() * binningX;
-            int absoluteY = yRange.getStart() * binningY;
-            int absoluteZ = (this.firstframe - 1); // zero-based slice index if needed
-
-            imp.getStack().getVoxels(absoluteX, absoluteY, absoluteZ, intensityWidth, // width
-                    intensityHeight, // height
-                    totalFrames, // depth
-                    pixels // destination
-            );
-        } catch (Exception e) {
-            IJ.log("getVoxels() failed, switching to manual copy. Reason: " + e.getMessage());
-            manualVoxelCopy(imp, pixels, xRange, yRange, totalFrames);
+        TraceCache traceCache = imageModel.getTraceCache(imp);
+        // startX, startY are in "binned coordinates."
+        // Convert them to unbinned absolute coords:
+        int absoluteX = xRange.getStart() * binningX;
+        int absoluteY = yRange.getStart() * binningY;
+        int absoluteZ = (this.firstframe - 1); // zero-based slice index if needed
+
+        if (traceCache != null) {
+            try {
+                traceCacheCopy(traceCache, pixels, absoluteX, absoluteY, absoluteZ, intensityWidth, intensityHeight,
+                        totalFrames);
+            } finally {
+                traceCache.release();
+            }
+        } else {
+            try {
+                imp.getStack().getVoxels(absoluteX, absoluteY, absoluteZ, intensityWidth, // width
+                        intensityHeight, // height
+                        totalFrames, // depth
+                        pixels // destination
+                );
+            } catch (Exception e) {
+                IJ.log("getVoxels() failed, switching to manual copy. Reason: " + e.getMessage());
+                manualVoxelCopy(imp, pixels, xRange, yRange, totalFrames);
+            }
         }
 
         // Check if we need binning (only if binningX or binningY > 1)
@@ -232,6 +245,37 @@ public class GpuParameters {
         return pixels;
     }
 
+    /**
+     * Copies voxel data from the trace cache, reading the whole trace of each pixel at once.
+     *
+     * @param traceCache  The trace cache of the image.
+     * @param dest        Destination array, ordered frame by frame like the output of {@code getVoxels()}.
+     * @param x0          The x-coordinate of the first pixel.
+     * @param y0          The y-coordinate of the first pixel.
+     * @param z0          The first frame, 0-based.
+     * @param width       The width of the region.
+     * @param height      The height of the region.
+     * @param totalFrames Total number of frames to copy.
+     */
+    private void traceCacheCopy(TraceCache traceCache, float[] dest, int x0, int y0, int z0, int width, int height,
+                                int totalFrames) {
+        short[] trace = new short[totalFrames];
+        int frameSize = width * height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // like getVoxels(), pixels outside the image stay at 0
+                if (x0 + x >= traceCache.getWidth() || y0 + y >= traceCache.getHeight()) {
+                    continue;
+                }
+                traceCache.readTrace(x0 + x, y0 + y, z0, trace);
+                int index = y * width + x;
+                for (int frameIndex = 0; frameIndex < totalFrames; frameIndex++) {
+                    dest[frameIndex * frameSize + index] = trace[frameIndex] & 0xFFFF;
+                }
+            }
+        }
+    }
+
     /**
      * Fallback method: Manually copies voxel data from the image stack using a triple-nested loop.
      *
@@ -247,6 +291,8 @@ public class GpuParameters {
         // For each frame/time index from firstframe..lastframe
         for (int frameIndex = 0; frameIndex < totalFrames; frameIndex++) {
             int z = (this.firstframe - 1) + frameIndex;
+            // getVoxel() reads the slice array directly, which virtual stacks do not have
+            ImageProcessor ip = imp.getStack().getProcessor(z + 1);
             // for each binned y
             for (int by = 0; by < heightTemp; by++) {
                 int absY = (yRange.getStart() * binningY) + by;
@@ -255,7 +301,7 @@ public class GpuParameters {
                     int absX = (xRange.getStart() * binningX) + bx;
 
                     // Read from the stack voxel by voxel
-                    float val = (float) imp.getStack().getVoxel(absX, absY, z);
+                    float val = ip.getf(absX, absY);
                     // Store it in the correct location in 'dest'
                     int index = frameIndex * (widthTemp * heightTemp) + by * widthTemp + bx;
                     dest[index] = val;
@@ -331,19 +377,22 @@ public class GpuParameters {
      * @param pixels The array of intensity values (size = w_temp * h_temp * framediff).
      */
     private void doBackgroundSubtraction(float[] pixels) {
+        BackgroundModel.BackgroundPlane background = imageModel.getBackgroundPlane(1);
+        int binArea = binningX * binningY;
+
+        // the pixel-dependent background does not change between frames, sum it once per binning area
+        int[] pixelBackground = new int[w_temp * h_temp];
+        for (int x = 0; x < w_temp; x++) {
+            for (int y = 0; y < h_temp; y++) {
+                pixelBackground[y * w_temp + x] = background.getBinnedPixelValue(x, y, binningX, binningY);
+            }
+        }
+
         for (int z = 0; z < framediff; z++) {
-            for (int x = 0; x < w_temp; x++) {
-                for (int y = 0; y < h_temp; y++) {
-                    int outIndex = z * (w_temp * h_temp) + y * w_temp + x;
-
-                    // Subtract for each sub-bin
-                    for (int bx = 0; bx < binningX; bx++) {
-                        for (int by = 0; by < binningY; by++) {
-                            int background = imageModel.getBackgroundValue(z + firstframe, x + bx, y + by, 1);
-                            pixels[outIndex] -= background;
-                        }
-                    }
-                }
+            int frameBackground = background.getFrameValue(z + firstframe) * binArea;
+            int frameOffset = z * (w_temp * h_temp);
+            for (int i = 0; i < pixelBackground.length; i++) {
+                pixels[frameOffset + i] -= frameBackground + pixelBackground[i];
             }
         }
     }
@@ -19,11 +19,15 @@ public class BackgroundModel {
     private int constantBackground1 = 0;
     private int constantBackground2 = 0;
     private int[] frameMin = null;      // one int per frame
+    private int frameMinOrigin = 1;     // frame index of frameMin[0]
     private int globalMin;
     private int[][] pixelMin;
     private int[][] backgroundMean, backgroundVariance;
     private double[][] backgroundCovariance;
 
+    // compiled planes for background 1 and 2, rebuilt lazily after any background change
+    private final BackgroundPlane[] compiledPlanes = new BackgroundPlane[2];
+
     /**
      * Constructs a BackgroundModel with the specified experiment settings and reset callback.
      *
@@ -45,6 +49,19 @@ public class BackgroundModel {
      *              to {@link BackgroundMode#LOAD_BGR_IMAGE}.
      */
     public void computeBackground(ImagePlus image) {
+        computeBackground(image, image != null && image.isVisible());
+    }
+
+    /**
+     * Computes background values like {@link #computeBackground(ImagePlus)}, also for an image that is not
+     * displayed, as in a headless batch.
+     *
+     * @param image     The image for which the background is computed.
+     * @param readStack Whether the stack of the image can be read; if false, only a loaded background image is
+     *                  used.
+     */
+    public void computeBackground(ImagePlus image, boolean readStack) {
+        invalidatePlanes();
         constantBackground1 = 0;
         constantBackground2 = 0;
 
@@ -53,7 +70,7 @@ public class BackgroundModel {
             return;
         }
 
-        if (image == null || !image.isVisible()) {
+        if (image == null || !readStack) {
             return;
         }
 
@@ -90,6 +107,7 @@ public class BackgroundModel {
         int nFrames = lastFrame - firstFrame + 1;
 
         frameMin = new int[nFrames];
+        frameMinOrigin = firstFrame;
 
         for (int f = firstFrame; f <= lastFrame; f++) {
             short[] pixels = (short[]) image.getStack().getProcessor(f).getPixels();
@@ -240,6 +258,8 @@ public class BackgroundModel {
 
     /**
      * Returns the background value at the specified location and frame, based on the current mode.
+     * Convenience accessor for single lookups; loops over traces should fetch the plane once with
+     * {@link #getBackgroundPlane(int)} instead.
      *
      * @param frame   The frame index (1-based for ImageJ).
      * @param x       The x-coordinate of the pixel.
@@ -248,33 +268,66 @@ public class BackgroundModel {
      * @return The background value.
      */
     public int getBackgroundValue(int frame, int x, int y, int whichBg) {
+        return getBackgroundPlane(whichBg).getValue(frame, x, y);
+    }
+
+    /**
+     * Returns the background of the current mode compiled into a per-frame vector and/or a per-pixel plane.
+     * The plane is built on first use and reused until the mode or any background value changes.
+     *
+     * @param whichBg Identifies which constant background value to use if the mode is constant (1 or 2).
+     * @return The compiled background plane.
+     */
+    public BackgroundPlane getBackgroundPlane(int whichBg) {
+        int index = whichBg == 2 ? 1 : 0;
+        BackgroundPlane plane = compiledPlanes[index];
+        if (plane == null) {
+            plane = compilePlane(whichBg);
+            compiledPlanes[index] = plane;
+        }
+
+        return plane;
+    }
+
+    /**
+     * Builds the background plane for the current mode.
+     *
+     * @param whichBg Identifies which constant background value to use if the mode is constant (1 or 2).
+     * @return A new background plane.
+     */
+    private BackgroundPlane compilePlane(int whichBg) {
         switch (mode) {
             case CONSTANT_BACKGROUND:
-                if (whichBg == 1) {
-                    return constantBackground1;
-                } else {
-                    return constantBackground2;
-                }
+                return new BackgroundPlane(whichBg == 1 ? constantBackground1 : constantBackground2, null, 0, null,
+                        0);
 
             case MIN_FRAME_BY_FRAME:
-                return frameMin[frame - settings.getFirstFrame()];
+                return new BackgroundPlane(0, frameMin, frameMinOrigin, null, 0);
 
             case MIN_PER_IMAGE_STACK:
-                return globalMin;
+                return new BackgroundPlane(globalMin, null, 0, null, 0);
 
             case MIN_PIXEL_WISE_PER_IMAGE_STACK:
-                return pixelMin[x][y];
+                return BackgroundPlane.fromPixelMatrix(pixelMin);
 
             case LOAD_BGR_IMAGE:
                 // If you only have one background image, same for both ROI1 & ROI2
-                return backgroundMean[x][y];
+                return BackgroundPlane.fromPixelMatrix(backgroundMean);
 
             default:
                 // fallback
-                return 0;
+                return new BackgroundPlane(0, null, 0, null, 0);
         }
     }
 
+    /**
+     * Drops the compiled planes so they are rebuilt with the current background on next use.
+     */
+    private void invalidatePlanes() {
+        compiledPlanes[0] = null;
+        compiledPlanes[1] = null;
+    }
+
     /**
      * Loads a background image for {@link BackgroundMode#LOAD_BGR_IMAGE}, checking compatibility
      * and size. Resets constant backgrounds upon successful loading.
@@ -300,6 +353,7 @@ public class BackgroundModel {
         // set background values to 0 if a background is loaded
         constantBackground1 = 0;
         constantBackground2 = 0;
+        invalidatePlanes();
         return true;
     }
 
@@ -311,6 +365,7 @@ public class BackgroundModel {
         backgroundMean = null;
         backgroundVariance = null;
         backgroundCovariance = null;
+        invalidatePlanes();
     }
 
     public ImagePlus getBackgroundImage() {
@@ -327,6 +382,7 @@ public class BackgroundModel {
 
     public void setMode(BackgroundMode mode) {
         this.mode = mode;
+        invalidatePlanes();
     }
 
     public int getConstantBackground1() {
@@ -337,6 +393,7 @@ public class BackgroundModel {
         int tmp = Integer.parseInt(constantBackground1);
         resetCallback.run();
         this.constantBackground1 = tmp;
+        invalidatePlanes();
     }
 
     public int getConstantBackground2() {
@@ -347,5 +404,116 @@ public class BackgroundModel {
         int tmp = Integer.parseInt(constantBackground2);
         resetCallback.run();
         this.constantBackground2 = tmp;
+        invalidatePlanes();
+    }
+
+    /**
+     * Background values of one mode, precomputed so that trace extraction subtracts with plain array lookups.
+     * The value for a sample is the sum of a frame-dependent part (a constant, optionally plus a per-frame vector)
+     * and a pixel-dependent part (an optional per-pixel plane).
+     */
+    public static final class BackgroundPlane {
+        private final int constant;
+        private final int[] frameValues;
+        private final int firstFrame;
+        private final int[] pixelValues;
+        private final int width;
+
+        /**
+         * Constructs a background plane.
+         *
+         * @param constant    Value added to every sample.
+         * @param frameValues Per-frame values, or null if the background does not depend on the frame.
+         * @param firstFrame  Frame index (1-based) of {@code frameValues[0]}.
+         * @param pixelValues Row-major per-pixel values, or null if the background does not depend on the pixel.
+         * @param width       Row length of {@code pixelValues}.
+         */
+        BackgroundPlane(int constant, int[] frameValues, int firstFrame, int[] pixelValues, int width) {
+            this.constant = constant;
+            this.frameValues = frameValues;
+            this.firstFrame = firstFrame;
+            this.pixelValues = pixelValues;
+            this.width = width;
+        }
+
+        /**
+         * Flattens a [width][height] matrix into a row-major per-pixel plane.
+         *
+         * @param matrix The per-pixel background, may be null.
+         * @return The background plane, zero everywhere if the matrix is null.
+         */
+        private static BackgroundPlane fromPixelMatrix(int[][] matrix) {
+            if (matrix == null) {
+                return new BackgroundPlane(0, null, 0, null, 0);
+            }
+
+            int width = matrix.length;
+            int height = matrix[0].length;
+            int[] plane = new int[width * height];
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    plane[y * width + x] = matrix[x][y];
+                }
+            }
+
+            return new BackgroundPlane(0, null, 0, plane, width);
+        }
+
+        /**
+         * Returns the frame-dependent part of the background, shared by all pixels of the frame.
+         *
+         * @param frame The frame index (1-based for ImageJ).
+         * @return The frame-dependent background.
+         */
+        public int getFrameValue(int frame) {
+            return frameValues == null ? constant : constant + frameValues[frame - firstFrame];
+        }
+
+        /**
+         * Returns the pixel-dependent part of the background, shared by all frames.
+         *
+         * @param x The x-coordinate of the pixel.
+         * @param y The y-coordinate of the pixel.
+         * @return The pixel-dependent background.
+         */
+        public int getPixelValue(int x, int y) {
+            return pixelValues == null ? 0 : pixelValues[y * width + x];
+        }
+
+        /**
+         * Returns the sum of the pixel-dependent background over a binning area.
+         *
+         * @param x        The x-coordinate of the top left corner of the binning area.
+         * @param y        The y-coordinate of the top left corner of the binning area.
+         * @param binningX The width of the binning area.
+         * @param binningY The height of the binning area.
+         * @return The summed pixel-dependent background.
+         */
+        public int getBinnedPixelValue(int x, int y, int binningX, int binningY) {
+            if (pixelValues == null) {
+                return 0;
+            }
+
+            int sum = 0;
+            for (int by = 0; by < binningY; by++) {
+                int rowOffset = (y + by) * width + x;
+                for (int bx = 0; bx < binningX; bx++) {
+                    sum += pixelValues[rowOffset + bx];
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * Returns the full background value of one sample.
+         *
+         * @param frame The frame index (1-based for ImageJ).
+         * @param x     The x-coordinate of the pixel.
+         * @param y     The y-coordinate of the pixel.
+         * @return The background value.
+         */
+        public int getValue(int frame, int x, int y) {
+            return getFrameValue(frame) + getPixelValue(x, y);
+        }
     }
 }
@@ -0,0 +1,641 @@
+package fiji.plugin.imaging_fcs.imfcs.model;
+
+import fiji.plugin.imaging_fcs.imfcs.enums.BackgroundMode;
+import fiji.plugin.imaging_fcs.imfcs.enums.DccfDirection;
+import fiji.plugin.imaging_fcs.imfcs.enums.EnumUtils;
+import fiji.plugin.imaging_fcs.imfcs.enums.FitFunctions;
+import fiji.plugin.imaging_fcs.imfcs.gpu.GpuCorrelator;
+import fiji.plugin.imaging_fcs.imfcs.model.correlations.Correlator;
+import fiji.plugin.imaging_fcs.imfcs.model.correlations.DeltaCCF;
+import fiji.plugin.imaging_fcs.imfcs.model.correlations.SelectedPixel;
+import fiji.plugin.imaging_fcs.imfcs.utils.ExcelExporter;
+import fiji.plugin.imaging_fcs.imfcs.utils.Range;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultCache;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultsWriter;
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static fiji.plugin.imaging_fcs.imfcs.model.correlations.MeanSquareDisplacement.correlationToMSD;
+
+/**
+ * Runs the analysis of the batch mode on images that are not displayed, using the models only, so it can run
+ * headless.
+ * <p>
+ * The analysis is configured with a map read from a YAML file. Every section is optional:
+ * <ul>
+ *     <li>"Settings": the experimental settings, with the names of the saved "Experimental settings".</li>
+ *     <li>"Fit": "Fit start", "Fit end", "GLS", "Bayes", "Fix", the initial "Parameters" and their "Hold" status,
+ *     with the names of the fit panel.</li>
+ *     <li>"Image": "Background mode", "Background", "Background 2", "Background file" and "Polynomial Order".</li>
+ *     <li>"Options": "Use GPU".</li>
+ *     <li>"Batch": the options of the batch dialog, e.g. "Correlate All", "Fit", "Diffusion Law",
+ *     "Vertical DCCF", "Save excel" or "Save results", and the result cache, off by default: "Use cache",
+ *     "Cache directory" and "Cache size (MB)".</li>
+ *     <li>"PSF" and "Diffusion Law": the ranges of the PSF calculation and of the diffusion law.</li>
+ * </ul>
+ * Each image gets its own copy of the settings, so the configuration is never changed by an analysis.
+ */
+public final class BatchAnalysis {
+    private static final Map<String, DccfDirection> DCCF_OPTIONS = new LinkedHashMap<>();
+
+    static {
+        DCCF_OPTIONS.put("Vertical DCCF", DccfDirection.X_DIRECTION);
+        DCCF_OPTIONS.put("Horizontal DCCF", DccfDirection.Y_DIRECTION);
+        DCCF_OPTIONS.put("Diagonal Up DCCF", DccfDirection.DIAGONAL_UP_DIRECTION);
+        DCCF_OPTIONS.put("Diagonal Down DCCF", DccfDirection.DIAGONAL_DOWN_DIRECTION);
+    }
+
+    private final ExpSettingsModel settings;
+    private final FitModel fitModel;
+    private final OptionsModel options;
+    private final Map<String, Object> run;
+    private final Map<String, Object> image;
+    private final Map<String, Object> psf;
+    private final Map<String, Object> diffusionLaw;
+    private final Object slidingWindowLength;
+    private final ResultCache cache;
+
+    /**
+     * Creates an analysis from a configuration.
+     *
+     * @param config the configuration, usually read from a YAML file.
+     * @throws RuntimeException if a value of the configuration is invalid.
+     */
+    public BatchAnalysis(Map<String, Object> config) {
+        Map<String, Object> settingsSection = section(config, "Settings");
+        Map<String, Object> fitSection = section(config, "Fit");
+        Map<String, Object> optionsSection = section(config, "Options");
+
+        settings = new ExpSettingsModel();
+        Map<String, Object> settingsMap = settings.toMap();
+        settingsMap.putAll(settingsSection);
+        // the last frame is set for each image, up to the number of frames of the image
+        if (Integer.parseInt(settingsMap.get("Last frame").toString()) <= 0) {
+            settingsMap.put("Last frame", Integer.MAX_VALUE);
+        }
+        settings.fromMapExcelLoading(settingsMap);
+        slidingWindowLength = settingsSection.get("Sliding window length");
+
+        fitModel = new FitModel(settings);
+        loadFitSettings(fitSection);
+
+        boolean useGpu = Boolean.parseBoolean(optionsSection.getOrDefault("Use GPU", false).toString());
+        options = new OptionsModel(useGpu && new HardwareModel().isCuda());
+        options.setUseGpu(useGpu);
+
+        run = new LinkedHashMap<>();
+        run.put("Correlate All", true);
+        run.put("Fit", true);
+        run.put("PSF Calculation", false);
+        run.put("Diffusion Law", false);
+        for (String dccfOption : DCCF_OPTIONS.keySet()) {
+            run.put(dccfOption, false);
+        }
+        run.put("File suffix", "");
+        run.put("Output directory", "");
+        run.put("Save excel", false);
+        run.put("Save results", true);
+        run.putAll(section(config, "Batch"));
+
+        if (Boolean.parseBoolean(run.getOrDefault("Use cache", false).toString())) {
+            String cacheDirectory = run.getOrDefault("Cache directory", "").toString();
+            cache = new ResultCache(cacheDirectory.isEmpty() ? ResultCache.DEFAULT_DIRECTORY : new File(cacheDirectory),
+                    run.containsKey("Cache size (MB)") ?
+                            Long.parseLong(run.get("Cache size (MB)").toString()) << 20 :
+                            ResultCache.DEFAULT_MAX_SIZE);
+        } else {
+            cache = null;
+        }
+
+        image = section(config, "Image");
+        psf = section(config, "PSF");
+        diffusionLaw = section(config, "Diffusion Law");
+    }
+
+    /**
+     * Returns a section of the configuration.
+     *
+     * @param config the configuration.
+     * @param name   the name of the section.
+     * @return the section, empty if it is missing.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(Map<String, Object> config, String name) {
+        Object section = config.get(name);
+        if (section == null) {
+            return Collections.emptyMap();
+        } else if (!(section instanceof Map)) {
+            throw new IllegalArgumentException(String.format("The section '%s' of the settings is not a map.", name));
+        }
+        return (Map<String, Object>) section;
+    }
+
+    /**
+     * Applies the fit section of the configuration to the fit model.
+     *
+     * @param fit the fit section.
+     */
+    private void loadFitSettings(Map<String, Object> fit) {
+        if (fit.containsKey("Fit end")) {
+            fitModel.setFitEnd(fit.get("Fit end").toString());
+        }
+        if (fit.containsKey("Fit start")) {
+            fitModel.setFitStart(fit.get("Fit start").toString());
+        }
+        fitModel.setGLS(Boolean.parseBoolean(fit.getOrDefault("GLS", fitModel.isGLS()).toString()));
+        fitModel.setBayes(Boolean.parseBoolean(fit.getOrDefault("Bayes", fitModel.isBayes()).toString()));
+        fitModel.setFix(Boolean.parseBoolean(fit.getOrDefault("Fix", fitModel.isFix()).toString()));
+
+        for (Map.Entry<String, Object> entry : section(fit, "Parameters").entrySet()) {
+            parameterSetter(entry.getKey()).accept(entry.getValue().toString());
+        }
+        for (Map.Entry<String, Object> entry : section(fit, "Hold").entrySet()) {
+            parameterGetter(entry.getKey()).apply(fitModel)
+                    .setHold(Boolean.parseBoolean(entry.getValue().toString()));
+        }
+    }
+
+    /**
+     * Returns the setter of a fit parameter, taking a value in the units of the fit panel.
+     *
+     * @param name the name of the parameter.
+     * @return the setter.
+     */
+    private Consumer<String> parameterSetter(String name) {
+        switch (name) {
+            case "N":
+                return fitModel::setN;
+            case "D":
+                return fitModel::setD;
+            case "vx":
+                return fitModel::setVx;
+            case "vy":
+                return fitModel::setVy;
+            case "G":
+                return fitModel::setG;
+            case "F2":
+                return fitModel::setF2;
+            case "D2":
+                return fitModel::setD2;
+            case "F3":
+                return fitModel::setF3;
+            case "D3":
+                return fitModel::setD3;
+            case "FTrip":
+                return fitModel::setFTrip;
+            case "TTrip":
+                return fitModel::setTTrip;
+            default:
+                throw new IllegalArgumentException("Unknown fit parameter: " + name);
+        }
+    }
+
+    /**
+     * Returns the getter of a fit parameter.
+     *
+     * @param name the name of the parameter.
+     * @return the getter.
+     */
+    private static Function<FitModel, FitModel.Parameter> parameterGetter(String name) {
+        switch (name) {
+            case "N":
+                return FitModel::getN;
+            case "D":
+                return FitModel::getD;
+            case "vx":
+                return FitModel::getVx;
+            case "vy":
+                return FitModel::getVy;
+            case "G":
+                return FitModel::getG;
+            case "F2":
+                return FitModel::getF2;
+            case "D2":
+                return FitModel::getD2;
+            case "F3":
+                return FitModel::getF3;
+            case "D3":
+                return FitModel::getD3;
+            case "FTrip":
+                return FitModel::getFTrip;
+            case "TTrip":
+                return FitModel::getTTrip;
+            default:
+                throw new IllegalArgumentException("Unknown fit parameter: " + name);
+        }
+    }
+
+    /**
+     * Returns the batch options, with the names of the batch dialog.
+     *
+     * @return the batch options.
+     */
+    public Map<String, Object> getRun() {
+        return run;
+    }
+
+    /**
+     * Returns the experimental settings of the "Settings" section.
+     *
+     * @return the settings.
+     */
+    public ExpSettingsModel getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the fit model configured by the "Fit" section.
+     *
+     * @return the fit model.
+     */
+    public FitModel getFitModel() {
+        return fitModel;
+    }
+
+    /**
+     * Returns whether the analysis runs on the GPU, in which case images must be analyzed one at a time.
+     *
+     * @return true if the GPU is used.
+     */
+    public boolean isUseGpu() {
+        return options.isUseGpu();
+    }
+
+    private boolean isEnabled(String option) {
+        return Boolean.parseBoolean(run.get(option).toString());
+    }
+
+    /**
+     * Analyzes an image as configured. The image is closed at the end.
+     *
+     * @param img the image to analyze, which does not need to be displayed.
+     * @return the results of the analysis.
+     * @throws RuntimeException if the image cannot be analyzed.
+     */
+    public Result analyze(ImagePlus img) {
+        ExpSettingsModel imageSettings = new ExpSettingsModel(settings);
+        ImageModel imageModel = new ImageModel(imageSettings, () -> {
+        });
+
+        try {
+            imageModel.loadImage(img, null);
+            imageSettings.setLastFrame(String.valueOf(Math.min(settings.getLastFrame(), imageModel.getStackSize())));
+            if (slidingWindowLength != null) {
+                imageSettings.setSlidingWindowLength(Integer.parseInt(slidingWindowLength.toString()));
+            }
+
+            loadBackground(imageModel, img);
+            imageModel.setFilterArray(imageSettings.getFilter(), imageSettings.getFilterLowerLimit(),
+                    imageSettings.getFilterUpperLimit(), imageSettings.getFirstFrame(), imageSettings.getLastFrame());
+
+            BleachCorrectionModel bleachCorrectionModel = new BleachCorrectionModel(imageSettings, imageModel);
+            if (image.containsKey("Polynomial Order")) {
+                bleachCorrectionModel.setPolynomialOrder(Integer.parseInt(image.get("Polynomial Order").toString()));
+            }
+
+            FitModel imageFitModel = new FitModel(imageSettings, fitModel);
+            Correlator correlator = new Correlator(imageSettings, bleachCorrectionModel, imageFitModel);
+
+            if (isEnabled("Correlate All")) {
+                correlateAll(imageSettings, imageModel, bleachCorrectionModel, imageFitModel, correlator);
+            }
+
+            DiffusionLawModel diffusionLawModel =
+                    new DiffusionLawModel(imageSettings, options, imageModel, imageFitModel, bleachCorrectionModel,
+                            () -> {
+                            });
+            if (isEnabled("PSF Calculation")) {
+                runPSF(diffusionLawModel, imageModel);
+            }
+            if (isEnabled("Diffusion Law")) {
+                runDiffusionLaw(diffusionLawModel);
+            }
+
+            for (Map.Entry<String, DccfDirection> dccfOption : DCCF_OPTIONS.entrySet()) {
+                if (isEnabled(dccfOption.getKey())) {
+                    DeltaCCF.dccf(correlator, img, dccfOption.getValue(), imageSettings);
+                }
+            }
+
+            Map<String, Object> settingsMap = imageSettings.toMap();
+            settingsMap.put("Polynomial Order", bleachCorrectionModel.getPolynomialOrder());
+            settingsMap.putAll(imageModel.toMap());
+
+            return new Result(imageSettings, correlator, diffusionLawModel, settingsMap);
+        } finally {
+            imageModel.unloadImage();
+        }
+    }
+
+    /**
+     * Sets up the background subtraction of an image.
+     *
+     * @param imageModel the image model holding the image.
+     * @param img        the image.
+     */
+    private void loadBackground(ImageModel imageModel, ImagePlus img) {
+        BackgroundModel backgroundModel = imageModel.getBackgroundModel();
+        if (image.containsKey("Background mode")) {
+            backgroundModel.setMode(
+                    EnumUtils.fromDisplayName(BackgroundMode.class, image.get("Background mode").toString()));
+        }
+
+        Object backgroundFile = image.get("Background file");
+        if (backgroundFile != null && !backgroundFile.toString().isEmpty()) {
+            ImagePlus backgroundImage = IJ.openImage(backgroundFile.toString());
+            if (backgroundImage == null) {
+                throw new RuntimeException("Failed to open background image at path: " + backgroundFile);
+            }
+            backgroundModel.loadBackgroundImage(img, backgroundImage);
+            backgroundModel.setMode(BackgroundMode.LOAD_BGR_IMAGE);
+        }
+
+        backgroundModel.computeBackground(img, true);
+
+        // like in the interface, constant backgrounds entered by the user replace the computed ones
+        if (backgroundModel.getMode() == BackgroundMode.CONSTANT_BACKGROUND) {
+            if (image.containsKey("Background")) {
+                backgroundModel.setConstantBackground1(image.get("Background").toString());
+            }
+            if (image.containsKey("Background 2")) {
+                backgroundModel.setConstantBackground2(image.get("Background 2").toString());
+            }
+        }
+    }
+
+    /**
+     * Correlates every pixel of the image, like "Correlate All", and fits them if the fit is enabled. The results are
+     * reused from the cache when it holds them.
+     *
+     * @param settings              the settings of the image.
+     * @param imageModel            the image model holding the image.
+     * @param bleachCorrectionModel the bleach correction model of the image.
+     * @param fitModel              the fit model of the image.
+     * @param correlator            the correlator storing the pixel models.
+     */
+    private void correlateAll(ExpSettingsModel settings, ImageModel imageModel,
+                              BleachCorrectionModel bleachCorrectionModel, FitModel fitModel, Correlator correlator) {
+        boolean fit = isEnabled("Fit") && fitModel.canFit();
+        // the keys are computed before fitting, as the fit can update the initial values of the fit model
+        String correlationKey = cache == null ? null :
+                ResultCache.correlationKey(imageModel, settings, bleachCorrectionModel, options.isUseGpu());
+        String fitKey = correlationKey != null && fit ? ResultCache.fitKey(correlationKey, fitModel) : null;
+
+        if (loadCachedResults(settings, fitModel, correlator, correlationKey, fitKey)) {
+            IJ.log("Results loaded from the cache for " + imageModel.getFileName());
+            return;
+        }
+
+        correlateAndFit(settings, imageModel, bleachCorrectionModel, fitModel, correlator, fit);
+
+        if (correlationKey != null) {
+            cache.storeCorrelations(correlationKey, correlator);
+            if (fitKey != null) {
+                cache.storeFits(fitKey, correlator.getPixelModels());
+            }
+        }
+    }
+
+    /**
+     * Loads the results of the image from the cache. Cached correlations without the requested fits are fitted again,
+     * unless the fit needs the covariance matrix of the correlations (GLS) or runs on the GPU.
+     *
+     * @param settings       the settings of the image.
+     * @param fitModel       the fit model of the image.
+     * @param correlator     the correlator to update.
+     * @param correlationKey the key of the correlations, or null if they are not cached.
+     * @param fitKey         the key of the fits, or null if the pixels are not fitted.
+     * @return true if the results were loaded.
+     */
+    private boolean loadCachedResults(ExpSettingsModel settings, FitModel fitModel, Correlator correlator,
+                                      String correlationKey, String fitKey) {
+        boolean canFitAgain = !fitModel.isGLS() && !options.isUseGpu();
+        if (correlationKey == null || (fitKey != null && !canFitAgain && !cache.containsFits(fitKey)) ||
+                !cache.loadCorrelations(correlationKey, correlator)) {
+            return false;
+        }
+
+        PixelModel[][] pixelModels = correlator.getPixelModels();
+        if (fitKey != null && !cache.loadFits(fitKey, pixelModels)) {
+            for (int x = 0; x < pixelModels.length; x++) {
+                for (int y = 0; y < pixelModels[0].length; y++) {
+                    if (pixelModels[x][y] != null) {
+                        fitPixelModel(settings, fitModel, correlator, pixelModels[x][y], true, x, y);
+                    }
+                }
+            }
+            cache.storeFits(fitKey, pixelModels);
+        }
+
+        return true;
+    }
+
+    /**
+     * Correlates every pixel of the image and fits them if requested.
+     *
+     * @param settings              the settings of the image.
+     * @param imageModel            the image model holding the image.
+     * @param bleachCorrectionModel the bleach correction model of the image.
+     * @param fitModel              the fit model of the image.
+     * @param correlator            the correlator storing the pixel models.
+     * @param fit                   whether the pixels are fitted.
+     */
+    private void correlateAndFit(ExpSettingsModel settings, ImageModel imageModel,
+                                 BleachCorrectionModel bleachCorrectionModel, FitModel fitModel,
+                                 Correlator correlator, boolean fit) {
+        Point minimum = settings.getMinCursorPosition();
+        Point maximum = settings.getMaxCursorPosition(imageModel.getDimension());
+
+        // GPU fitting is not supported for DC-FCCS_2D model
+        if (options.isUseGpu() && settings.getFitModel() != FitFunctions.DC_FCCS_2D) {
+            Range xRange = new Range(minimum.x, maximum.x, 1);
+            Range yRange = new Range(minimum.y, maximum.y, 1);
+            new GpuCorrelator(settings, bleachCorrectionModel, imageModel, fitModel, false, correlator, xRange,
+                    yRange).correlateAndFit(xRange, yRange, fit, false);
+            return;
+        }
+
+        SelectedPixel selectedPixel = new SelectedPixel(imageModel, correlator, settings);
+        Point pixelBinning = settings.getPixelBinning();
+
+        for (int x = minimum.x; x <= maximum.x; x++) {
+            for (int y = minimum.y; y <= maximum.y; y++) {
+                if (imageModel.isPixelFiltered(x * pixelBinning.x, y * pixelBinning.y)) {
+                    continue;
+                }
+
+                try {
+                    Point pixel = selectedPixel.performCorrelationFunctionEvaluation(x, y, false)[0];
+                    fitPixelModel(settings, fitModel, correlator, correlator.getPixelModel(pixel.x, pixel.y), fit,
+                            x, y);
+                } catch (Exception e) {
+                    IJ.log(String.format("Fail to correlate points for x=%d, y=%d with error: %s", x, y,
+                            e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Fits a correlated pixel model, and the ones of its autocorrelations for the FCCS display.
+     *
+     * @param settings   the settings of the image.
+     * @param fitModel   the fit model of the image.
+     * @param correlator the correlator holding the lag times.
+     * @param pixelModel the pixel model to fit.
+     * @param fit        whether the pixel is fitted.
+     * @param x          the x-coordinate of the pixel, for the log.
+     * @param y          the y-coordinate of the pixel, for the log.
+     */
+    private static void fitPixelModel(ExpSettingsModel settings, FitModel fitModel, Correlator correlator,
+                                      PixelModel pixelModel, boolean fit, int x, int y) {
+        if (settings.isFCCSDisp()) {
+            fitPixel(settings, fitModel, correlator, pixelModel.getAcf1PixelModel(), FitFunctions.ITIR_FCS_2D, fit,
+                    x, y);
+            fitPixel(settings, fitModel, correlator, pixelModel.getAcf2PixelModel(), FitFunctions.ITIR_FCS_2D_2, fit,
+                    x, y);
+        }
+        fitPixel(settings, fitModel, correlator, pixelModel, settings.getFitModel(), fit, x, y);
+    }
+
+    /**
+     * Fits a correlated pixel if requested and computes its MSD if it is enabled.
+     *
+     * @param settings   the settings of the image.
+     * @param fitModel   the fit model of the image.
+     * @param correlator the correlator holding the lag times.
+     * @param pixelModel the pixel model to fit.
+     * @param modelName  the fit function.
+     * @param fit        whether the pixel is fitted.
+     * @param x          the x-coordinate of the pixel, for the log.
+     * @param y          the y-coordinate of the pixel, for the log.
+     */
+    private static void fitPixel(ExpSettingsModel settings, FitModel fitModel, Correlator correlator,
+                                 PixelModel pixelModel, FitFunctions modelName, boolean fit, int x, int y) {
+        if (fit) {
+            try {
+                fitModel.fit(pixelModel, modelName, correlator.getLagTimes(),
+                        correlator.getRegularizedCovarianceMatrix());
+            } catch (RuntimeException e) {
+                IJ.log(String.format("%s at pixel x=%d, y=%d", e.getClass().getName(), x, y));
+                pixelModel.setFitted(false);
+            }
+        }
+
+        if (settings.isMSD()) {
+            pixelModel.setMSD(correlationToMSD(pixelModel.getCorrelationFunction(), settings.getParamAx(),
+                    settings.getParamAy(), settings.getParamW(), settings.getSigmaZ(), settings.isMSD3d()));
+        }
+    }
+
+    /**
+     * Runs the PSF calculation with the configured range, using the defaults of the PSF dialog.
+     *
+     * @param diffusionLawModel the diffusion law model of the image.
+     * @param imageModel        the image model, to check the image size.
+     */
+    private void runPSF(DiffusionLawModel diffusionLawModel, ImageModel imageModel) {
+        if (imageModel.getWidth() < 20 || imageModel.getHeight() < 20) {
+            IJ.log("Image is too small to provide good PSF statistics. At least 20x20 pixels are required");
+            return;
+        }
+
+        diffusionLawModel.determinePSF(
+                Double.parseDouble(psf.getOrDefault("Start value", 0.6).toString()),
+                Double.parseDouble(psf.getOrDefault("End value", 1.0).toString()),
+                Double.parseDouble(psf.getOrDefault("Step size", 0.1).toString()),
+                Integer.parseInt(psf.getOrDefault("Binning start", 1).toString()),
+                Integer.parseInt(psf.getOrDefault("Binning end", 5).toString()));
+    }
+
+    /**
+     * Calculates and fits the diffusion law, on the default range of the image unless another one is configured.
+     *
+     * @param diffusionLawModel the diffusion law model of the image.
+     */
+    private void runDiffusionLaw(DiffusionLawModel diffusionLawModel) {
+        diffusionLawModel.setDefaultRange();
+        if (diffusionLaw.containsKey("Binning end")) {
+            diffusionLawModel.setBinningEnd(diffusionLaw.get("Binning end").toString());
+        }
+        if (diffusionLaw.containsKey("Binning start")) {
+            diffusionLawModel.setBinningStart(diffusionLaw.get("Binning start").toString());
+        }
+        diffusionLawModel.setFitEnd(
+                diffusionLaw.getOrDefault("Fit end", diffusionLawModel.getBinningEnd()).toString());
+        diffusionLawModel.setFitStart(
+                diffusionLaw.getOrDefault("Fit start", diffusionLawModel.getBinningStart()).toString());
+
+        diffusionLawModel.calculateDiffusionLaw();
+        try {
+            diffusionLawModel.fit();
+        } catch (RuntimeException e) {
+            IJ.log("Diffusion law fit failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The results of the analysis of one image. They no longer depend on the image, which is closed.
+     */
+    public static final class Result {
+        private final ExpSettingsModel settings;
+        private final Correlator correlator;
+        private final DiffusionLawModel diffusionLawModel;
+        private final Map<String, Object> settingsMap;
+
+        private Result(ExpSettingsModel settings, Correlator correlator, DiffusionLawModel diffusionLawModel,
+                       Map<String, Object> settingsMap) {
+            this.settings = settings;
+            this.correlator = correlator;
+            this.diffusionLawModel = diffusionLawModel;
+            this.settingsMap = settingsMap;
+        }
+
+        /**
+         * Saves the results to a binary results file.
+         *
+         * @param filePath the path of the file.
+         * @throws IOException if the file cannot be written, it is then deleted.
+         */
+        public void saveResults(String filePath) throws IOException {
+            ResultsWriter.writeResultsFile(filePath, settingsMap, (writer) -> {
+                writer.writePixelModels(correlator.getPixelModels(), settings, correlator);
+                writer.writeDiffusionLaw(diffusionLawModel);
+                writer.writePSF(diffusionLawModel.getPsfResults());
+                writer.writeDccf(correlator.getDccf());
+            });
+        }
+
+        /**
+         * Prepares the export of the results to an Excel file, see {@link ExcelExporter#prepareExcelFile}.
+         *
+         * @param filePath the path of the file.
+         * @return the task writing the file.
+         */
+        public ExcelExporter.ExcelExport prepareExcelExport(String filePath) {
+            return ExcelExporter.prepareExcelFile(filePath, settingsMap, (workbook) -> {
+                ExcelExporter.saveExcelPixelModels(workbook, correlator.getPixelModels(), settings, correlator);
+                ExcelExporter.saveDiffusionLawSheet(workbook, diffusionLawModel);
+                ExcelExporter.savePSFSheet(workbook, diffusionLawModel.getPsfResults());
+                ExcelExporter.savedCCFSheets(workbook, correlator.getDccf());
+            });
+        }
+
+        public Correlator getCorrelator() {
+            return correlator;
+        }
+
+        public DiffusionLawModel getDiffusionLawModel() {
+            return diffusionLawModel;
+        }
+    }
+}
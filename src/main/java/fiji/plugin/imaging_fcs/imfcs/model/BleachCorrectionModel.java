@@ -4,6 +4,7 @@ import fiji.plugin.imaging_fcs.imfcs.enums.FitFunctions;
 import fiji.plugin.imaging_fcs.imfcs.model.fit.intensity_trace.DoubleExponentialFit;
 import fiji.plugin.imaging_fcs.imfcs.model.fit.intensity_trace.PolynomialFit;
 import fiji.plugin.imaging_fcs.imfcs.model.fit.intensity_trace.SingleExponentialFit;
+import fiji.plugin.imaging_fcs.imfcs.utils.TraceCache;
 import ij.ImagePlus;
 import ij.process.ImageProcessor;
 
@@ -78,20 +79,48 @@ public class BleachCorrectionModel {
         intensityTrace2 = new double[numPointsIntensityTrace];
         intensityTime = new double[numPointsIntensityTrace];
 
+        int binningX = settings.getBinning().x;
+        int binningY = settings.getBinning().y;
+        int binArea = binningX * binningY;
+
+        BackgroundModel.BackgroundPlane background1 = imageModel.getBackgroundPlane(1);
+        BackgroundModel.BackgroundPlane background2 = imageModel.getBackgroundPlane(background2Index);
+        // the pixel-dependent background does not change between frames
+        int pixelBackground1 = background1.getBinnedPixelValue(x1, y1, binningX, binningY);
+        int pixelBackground2 = background2.getBinnedPixelValue(x2, y2, binningX, binningY);
+
+        // with a trace cache, both traces are read at once instead of frame by frame
+        TraceCache traceCache = imageModel.getTraceCache(img);
+        int[] trace1 = null, trace2 = null;
+        if (traceCache != null) {
+            int numFrames = numPointsIntensityTrace * average;
+            try {
+                trace1 = traceCache.readBinnedTrace(x1, y1, binningX, binningY, initialFrame - 1, numFrames);
+                trace2 = traceCache.readBinnedTrace(x2, y2, binningX, binningY, initialFrame - 1, numFrames);
+            } finally {
+                traceCache.release();
+            }
+        }
+
         for (int i = 0; i < numPointsIntensityTrace; i++) {
             double sum1 = 0;
             double sum2 = 0;
 
-            for (int x = 0; x < settings.getBinning().x; x++) {
-                for (int y = 0; y < settings.getBinning().y; y++) {
-                    for (int z = initialFrame + i * average; z < initialFrame + (i + 1) * average; z++) {
-                        int background1 = imageModel.getBackgroundValue(z, x1 + x, y1 + y, 1);
-                        int background2 = imageModel.getBackgroundValue(z, x2 + x, y2 + y, background2Index);
-
-                        sum1 += img.getStack().getProcessor(z).get(x1 + x, y1 + y) - background1;
-                        sum2 += img.getStack().getProcessor(z).get(x2 + x, y2 + y) - background2;
+            for (int z = initialFrame + i * average; z < initialFrame + (i + 1) * average; z++) {
+                if (traceCache != null) {
+                    sum1 += trace1[z - initialFrame];
+                    sum2 += trace2[z - initialFrame];
+                } else {
+                    ImageProcessor ip = img.getStack().getProcessor(z);
+                    for (int x = 0; x < binningX; x++) {
+                        for (int y = 0; y < binningY; y++) {
+                            sum1 += ip.get(x1 + x, y1 + y);
+                            sum2 += ip.get(x2 + x, y2 + y);
+                        }
                     }
                 }
+                sum1 -= background1.getFrameValue(z) * binArea + pixelBackground1;
+                sum2 -= background2.getFrameValue(z) * binArea + pixelBackground2;
             }
             intensityTrace1[i] = sum1 / average;
             intensityTrace2[i] = sum2 / average;
@@ -150,14 +179,37 @@ public class BleachCorrectionModel {
     private void fillIntensityData(ImagePlus img, int mode, double[] intensityData, int x, int y, int initialFrame) {
         int backgroundIndex = (mode == 2 && settings.getFitModel() == FitFunctions.DC_FCCS_2D) ? 2 : 1;
 
+        int binningX = settings.getBinning().x;
+        int binningY = settings.getBinning().y;
+        int binArea = binningX * binningY;
+
+        BackgroundModel.BackgroundPlane background = imageModel.getBackgroundPlane(backgroundIndex);
+        // the pixel-dependent background does not change between frames
+        int pixelBackground = background.getBinnedPixelValue(x, y, binningX, binningY);
+
+        TraceCache traceCache = imageModel.getTraceCache(img);
+        int[] trace = null;
+        if (traceCache != null) {
+            try {
+                trace = traceCache.readBinnedTrace(x, y, binningX, binningY, initialFrame - 1, intensityData.length);
+            } finally {
+                traceCache.release();
+            }
+        }
+
         for (int i = 0; i < intensityData.length; i++) {
-            final ImageProcessor ip = img.getStack().getProcessor(initialFrame + i);
-            for (int bx = 0; bx < settings.getBinning().x; bx++) {
-                for (int by = 0; by < settings.getBinning().y; by++) {
-                    int background = imageModel.getBackgroundValue(initialFrame + i, x + bx, y + by, backgroundIndex);
-                    intensityData[i] += ip.get(x + bx, y + by) - background;
+            int sum = 0;
+            if (trace != null) {
+                sum = trace[i];
+            } else {
+                final ImageProcessor ip = img.getStack().getProcessor(initialFrame + i);
+                for (int bx = 0; bx < binningX; bx++) {
+                    for (int by = 0; by < binningY; by++) {
+                        sum += ip.get(x + bx, y + by);
+                    }
                 }
             }
+            intensityData[i] += sum - (background.getFrameValue(initialFrame + i) * binArea + pixelBackground);
         }
     }
 
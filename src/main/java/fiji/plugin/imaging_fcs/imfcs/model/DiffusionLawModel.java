@@ -529,4 +529,13 @@ public class DiffusionLawModel {
     public Map<Double, double[][]> getPsfResults() {
         return psfResults;
     }
+
+    /**
+     * Restores the results of a previous PSF calculation, for instance read from a results file.
+     *
+     * @param psfResults the D and SD per binning for each PSF value, or null.
+     */
+    public void setPsfResults(Map<Double, double[][]> psfResults) {
+        this.psfResults = psfResults;
+    }
 }
@@ -7,6 +7,8 @@ import fiji.plugin.imaging_fcs.imfcs.model.fit.GLSFit;
 import fiji.plugin.imaging_fcs.imfcs.model.fit.StandardFit;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.function.Function;
 
 import java.util.stream.IntStream;
@@ -131,6 +133,35 @@ public class FitModel {
         fitEnd = settings.getChannelNumber() - 1;
     }
 
+    /**
+     * Converts the fit settings to a map: the initial value and hold status of each parameter, the fit range and the
+     * fit options.
+     *
+     * @return a map containing the fit settings.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        String[] names = {"N", "D", "vx", "vy", "G", "F2", "D2", "F3", "D3", "FTrip", "TTrip"};
+        Parameter[] parameters = {N, D, vx, vy, G, F2, D2, F3, D3, fTrip, tTrip};
+        for (int i = 0; i < names.length; i++) {
+            data.put(names[i], parameters[i].getValue());
+            data.put(names[i] + " hold", parameters[i].isHeld());
+        }
+
+        data.put("Q2", Q2);
+        data.put("Q3", Q3);
+        data.put("Mod prob 1", modProb1);
+        data.put("Mod prob 2", modProb2);
+        data.put("Mod prob 3", modProb3);
+        data.put("Fit start", fitStart);
+        data.put("Fit end", fitEnd);
+        data.put("Fix", fix);
+        data.put("GLS", GLS);
+        data.put("Bayes", bayes);
+
+        return data;
+    }
+
     /**
      * Resets the fit end position to the maximum channel number.
      */
@@ -2,6 +2,8 @@ package fiji.plugin.imaging_fcs.imfcs.model;
 
 import fiji.plugin.imaging_fcs.imfcs.enums.BackgroundMode;
 import fiji.plugin.imaging_fcs.imfcs.enums.FilterMode;
+import fiji.plugin.imaging_fcs.imfcs.utils.MappedFrameStack;
+import fiji.plugin.imaging_fcs.imfcs.utils.TraceCache;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
@@ -12,6 +14,8 @@ import ij.gui.Roi;
 import ij.process.ImageProcessor;
 
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.EventListener;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -30,6 +34,8 @@ public final class ImageModel {
     private int height = -1;
 
     private boolean[][] filterArray = null;
+    // pixel-major copy of the image on disk, set once it is available
+    private volatile TraceCache traceCache = null;
 
     /**
      * Constructs an ImageModel instance with no image loaded.
@@ -229,7 +235,18 @@ public final class ImageModel {
             removeListeners(canvas.getKeyListeners(), canvas::removeKeyListener);
         }
 
+        // closing the image can release its stack, keep it to unmap the file
+        ImageStack stack = image.getStack();
         image.close();
+        synchronized (this) {
+            if (traceCache != null) {
+                traceCache.close();
+                traceCache = null;
+            }
+        }
+        if (stack instanceof MappedFrameStack) {
+            ((MappedFrameStack) stack).close();
+        }
 
         image = null;
 
@@ -360,6 +377,16 @@ public final class ImageModel {
         return backgroundModel.getBackgroundValue(frame, x, y, whichBg);
     }
 
+    /**
+     * Returns the current background compiled into per-frame and per-pixel lookups.
+     *
+     * @param whichBg Identifies which constant background value to use if the mode is constant (1 or 2).
+     * @return The compiled background plane.
+     */
+    public BackgroundModel.BackgroundPlane getBackgroundPlane(int whichBg) {
+        return backgroundModel.getBackgroundPlane(whichBg);
+    }
+
     // List of getters
     public ImageWindow getWindow() {
         return image.getWindow();
@@ -424,4 +451,52 @@ public final class ImageModel {
     public String getFileName() {
         return fileName;
     }
+
+    /**
+     * Opens the trace cache of the loaded image, or builds it in the background if it is missing or outdated.
+     * Analyses read the stack until the cache is available. Images that do not come from a file have no cache.
+     */
+    public void loadTraceCache() {
+        if (image == null || imagePath == null || imagePath.isEmpty() || !new File(imagePath).isFile()) {
+            return;
+        }
+
+        File source = new File(imagePath);
+        TraceCache cache = TraceCache.open(source, width, height, image.getStackSize());
+        if (cache != null) {
+            traceCache = cache;
+            return;
+        }
+
+        ImagePlus cachedImage = image;
+        new BackgroundTaskWorker<Void, Void>(() -> {
+            IJ.showStatus("Writing the trace cache");
+            try {
+                TraceCache built = TraceCache.build(source, cachedImage.getStack());
+                synchronized (this) {
+                    // the image may have been replaced while the cache was written
+                    if (image == cachedImage) {
+                        traceCache = built;
+                    } else {
+                        built.close();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                IJ.log("Failed to write the trace cache: " + e.getMessage());
+            }
+        }).execute();
+    }
+
+    /**
+     * Returns the trace cache of an image if it is the loaded image and its cache is available. The cache is held
+     * with {@link TraceCache#acquire()}, so that unloading the image does not close it during the reads; the caller
+     * must call {@link TraceCache#release()} once done.
+     *
+     * @param img the image to read traces from.
+     * @return the held cache, or null if the traces have to be read from the stack.
+     */
+    public TraceCache getTraceCache(ImagePlus img) {
+        TraceCache cache = traceCache;
+        return img == image && cache != null && cache.acquire() ? cache : null;
+    }
 }
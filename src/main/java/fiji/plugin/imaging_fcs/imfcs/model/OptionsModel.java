@@ -1,5 +1,8 @@
 package fiji.plugin.imaging_fcs.imfcs.model;
 
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultCache;
+
+import java.io.File;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -18,6 +21,10 @@ public final class OptionsModel {
     private boolean plotBlockingCurve = false;
     private boolean plotCovMats = false;
     private boolean useGpu;
+    private boolean useTraceCache = false;
+    private boolean useResultCache = false;
+    // empty for the default directory of the result cache
+    private String resultCacheDirectory = "";
 
     /**
      * Constructs an OptionsModel with CUDA availability.
@@ -47,6 +54,9 @@ public final class OptionsModel {
         data.put("Plot Parameter Histogram", plotParaHist);
         data.put("Plot Blocking Curves", plotBlockingCurve);
         data.put("Plot Covariance Matrix", plotCovMats);
+        data.put("Use Trace Cache", useTraceCache);
+        data.put("Use Result Cache", useResultCache);
+        data.put("Result Cache Directory", resultCacheDirectory);
 
         return data;
     }
@@ -66,6 +76,10 @@ public final class OptionsModel {
         plotParaHist = (boolean) data.get("Plot Parameter Histogram");
         plotBlockingCurve = (boolean) data.get("Plot Blocking Curves");
         plotCovMats = (boolean) data.get("Plot Covariance Matrix");
+        // absent from the configurations written before the cache options
+        useTraceCache = (boolean) data.getOrDefault("Use Trace Cache", false);
+        useResultCache = (boolean) data.getOrDefault("Use Result Cache", false);
+        resultCacheDirectory = data.getOrDefault("Result Cache Directory", "").toString();
     }
 
     // Getters and setters follows, setUseGpu is the only one with a specific behavior
@@ -140,6 +154,50 @@ public final class OptionsModel {
         this.useGpu = useGpu && isCuda;
     }
 
+    public boolean isUseTraceCache() {
+        return useTraceCache;
+    }
+
+    public void setUseTraceCache(boolean useTraceCache) {
+        this.useTraceCache = useTraceCache;
+    }
+
+    public boolean isUseResultCache() {
+        return useResultCache;
+    }
+
+    public void setUseResultCache(boolean useResultCache) {
+        this.useResultCache = useResultCache;
+    }
+
+    public String getResultCacheDirectory() {
+        return resultCacheDirectory;
+    }
+
+    public void setResultCacheDirectory(String resultCacheDirectory) {
+        this.resultCacheDirectory = resultCacheDirectory.trim();
+    }
+
+    /**
+     * Returns the cache of the correlation and fit results in the chosen directory, or in the default one, whether
+     * the results are cached or not.
+     *
+     * @return the cache.
+     */
+    public ResultCache getResultCacheLocation() {
+        return ResultCache.getInstance(resultCacheDirectory.isEmpty() ? ResultCache.DEFAULT_DIRECTORY :
+                new File(resultCacheDirectory));
+    }
+
+    /**
+     * Returns the cache of the correlation and fit results.
+     *
+     * @return the cache, or null if the results are not cached.
+     */
+    public ResultCache getResultCache() {
+        return useResultCache ? getResultCacheLocation() : null;
+    }
+
     public boolean isCuda() {
         return isCuda;
     }
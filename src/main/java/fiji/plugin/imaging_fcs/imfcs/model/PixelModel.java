@@ -5,6 +5,7 @@ import ij.ImagePlus;
 import ij.process.ImageProcessor;
 
 import java.util.Arrays;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.IntStream;
 
@@ -47,7 +48,9 @@ public class PixelModel {
     private FitParameters fitParams;
     private PixelModel acf1PixelModel = null;
     private PixelModel acf2PixelModel = null;
-
+    // restores the curves of a pixel read from a results file the first time they are needed
+    private volatile Consumer<PixelModel> curveLoader = null;
+    private boolean loadingCurves = false;
 
     /**
      * Constructs a new PixelModel instance.
@@ -63,6 +66,7 @@ public class PixelModel {
      * @param other The PixelModel to copy from.
      */
     public PixelModel(PixelModel other) {
+        other.loadCurves();
         this.CorrelationFunction = other.CorrelationFunction;
         this.varianceCF = other.varianceCF;
         this.standardDeviationCF = other.standardDeviationCF;
@@ -297,43 +301,97 @@ public class PixelModel {
         }
     }
 
+    /**
+     * Defers the reading of the curves (correlation function, standard deviation, fit function, residuals and MSD)
+     * until one of them is first requested. The loader fills the curves using the setters of this model.
+     *
+     * @param curveLoader the function reading the curves of this pixel.
+     */
+    public void setCurveLoader(Consumer<PixelModel> curveLoader) {
+        this.curveLoader = curveLoader;
+    }
+
+    /**
+     * Checks whether the curves of this pixel are in memory, i.e. they were computed or already read from the
+     * results file.
+     *
+     * @return true if reading a curve does not require loading it.
+     */
+    public boolean isCurvesLoaded() {
+        return curveLoader == null;
+    }
+
+    /**
+     * Reads the curves with the deferred loader, if any. Other threads asking for a curve wait until it is done, and
+     * setting a curve first loads the others so the loader never overwrites a newer value.
+     */
+    private void loadCurves() {
+        if (curveLoader == null) {
+            return;
+        }
+
+        synchronized (this) {
+            // the loader sets the curves through the setters, which must not load them again
+            if (curveLoader == null || loadingCurves) {
+                return;
+            }
+            loadingCurves = true;
+            try {
+                curveLoader.accept(this);
+                curveLoader = null;
+            } finally {
+                loadingCurves = false;
+            }
+        }
+    }
+
     public double[] getCorrelationFunction() {
+        loadCurves();
         return CorrelationFunction;
     }
 
     public void setCorrelationFunction(double[] correlationFunction) {
+        loadCurves();
         this.CorrelationFunction = correlationFunction;
     }
 
     public double[] getStandardDeviationCF() {
+        loadCurves();
         return standardDeviationCF;
     }
 
     public void setStandardDeviationCF(double[] standardDeviationCF) {
+        loadCurves();
         this.standardDeviationCF = standardDeviationCF;
     }
 
     public double[] getFittedCF() {
+        loadCurves();
         return fittedCF;
     }
 
     public void setFittedCF(double[] fittedCF) {
+        loadCurves();
         this.fittedCF = fittedCF;
     }
 
     public double[] getResiduals() {
+        loadCurves();
         return residuals;
     }
 
     public void setResiduals(double[] residuals) {
+        loadCurves();
         this.residuals = residuals;
     }
 
     public double[] getMSD() {
+        loadCurves();
         return MSD;
     }
 
     public void setMSD(double[] MSD) {
+        loadCurves();
         this.MSD = MSD;
     }
 
@@ -347,10 +405,12 @@ public class PixelModel {
     }
 
     public double[] getVarianceCF() {
+        loadCurves();
         return varianceCF;
     }
 
     public void setVarianceCF(double[] varianceCF) {
+        loadCurves();
         this.varianceCF = varianceCF;
     }
 
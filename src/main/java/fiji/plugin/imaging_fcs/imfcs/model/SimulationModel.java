@@ -1,5 +1,10 @@
 package fiji.plugin.imaging_fcs.imfcs.model;
 
+import fiji.plugin.imaging_fcs.imfcs.controller.InvalidUserInputException;
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.Simulation2D;
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.Simulation3D;
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.SimulationBase;
+import fiji.plugin.imaging_fcs.imfcs.model.simulation.SimulationBatchScheduler;
 import fiji.plugin.imaging_fcs.imfcs.model.simulation.SimulationWorker;
 import ij.IJ;
 import ij.ImagePlus;
@@ -19,7 +24,8 @@ import static fiji.plugin.imaging_fcs.imfcs.constants.Constants.PIXEL_SIZE_REAL_
 public final class SimulationModel {
     private static final double DOMAIN_MESH_CONVERSION = Math.pow(10, 9);
     private final ExpSettingsModel expSettingsModel;
-    private List<SimulationWorker> simulationWorkers;
+    private List<SimulationWorker> simulationWorkers = new ArrayList<>();
+    private SimulationBatchScheduler batchScheduler;
 
     private boolean is2D, isDomain, isMesh, blinkFlag;
     private int seed = 1;
@@ -31,6 +37,7 @@ public final class SimulationModel {
     private int numFrames = 50000; // number of frames to be simulated
     private double frameTime = 0.001; // time resolution of the camera in second
     private int stepsPerFrame = 10; // simulation steps per frame
+    private int numThreads = 1; // number of threads stepping the particles of one simulation
     private double D1 = 1.0 / DIFFUSION_COEFFICIENT_BASE; // particle 1 diffusion coefficient
     private double doutDinRatio = 1.0; // ratio of diffusion coefficients outside over inside of domains
     private double D2 = 0.1 / DIFFUSION_COEFFICIENT_BASE; // particle 2 diffusion coefficient
@@ -74,10 +81,8 @@ public final class SimulationModel {
     public void runSimulation(Runnable onSimulationComplete, Consumer<ImagePlus> loadImage) {
         simulationWorkers = new ArrayList<>();
         try {
-            // Here we will load the image directly in the plugin so the path is null.
-            // Only one simulation is running, so we don't need a callback to increment the errors numbers
-            simulationWorkers.add(new SimulationWorker(this, expSettingsModel, null, loadImage,
-                    onSimulationComplete, null));
+            // Here we will load the image directly in the plugin
+            simulationWorkers.add(new SimulationWorker(this, expSettingsModel, loadImage, onSimulationComplete));
             simulationWorkers.get(0).execute();
         } catch (RuntimeException e) {
             IJ.showStatus("Instantiation error");
@@ -100,61 +105,113 @@ public final class SimulationModel {
     }
 
     /**
-     * Initiates batch simulations based on provided parameter ranges, handling each simulation in separate threads.
+     * Initiates batch simulations based on provided parameter ranges. The simulations are queued on a
+     * {@link SimulationBatchScheduler} running at most {@code numWorkers} of them at the same time, and fewer if
+     * they do not fit in the memory budget. Each simulation streams its frames to a TIFF file in the given directory.
      *
-     * @param path    Directory for saving batch simulation results.
-     * @param rangeD1 Range for D1 parameter.
-     * @param rangeD2 Range for D2 parameter.
-     * @param rangeF2 Range for F2 parameter.
+     * @param path                      Directory for saving batch simulation results.
+     * @param rangeD1                   Range for D1 parameter.
+     * @param rangeD2                   Range for D2 parameter.
+     * @param rangeF2                   Range for F2 parameter.
+     * @param numWorkers                Maximum number of simulations running at the same time.
+     * @param memoryBudget              Memory that running simulations may use together, in bytes.
+     * @param onBatchSimulationComplete Callback invoked on the Event Dispatch Thread each time a simulation ends.
      */
-    public void runBatch(File path, double[] rangeD1, double[] rangeD2, double[] rangeF2,
-                         Runnable onBatchSimulationComplete) {
+    public void runBatch(File path, double[] rangeD1, double[] rangeD2, double[] rangeF2, int numWorkers,
+                         long memoryBudget, Runnable onBatchSimulationComplete) {
         // reset the variables to count the number of simulations running and errors
         simulationsRunning = 0;
         numSimulationsErrors = 0;
 
-        simulationWorkers = new ArrayList<>();
-
         // Store the initial values to restore them later
         double initialD1 = this.D1;
         double initialD2 = this.D2;
         double initialF2 = this.F2;
 
-        for (double D1 = rangeD1[0]; D1 <= rangeD1[1]; D1 += rangeD1[2]) {
-            this.D1 = D1 / DIFFUSION_COEFFICIENT_BASE;
-
-            for (double D2 = rangeD2[0]; D2 <= rangeD2[1]; D2 += rangeD2[2]) {
-                this.D2 = D2 / DIFFUSION_COEFFICIENT_BASE;
-
-                for (double F2 = rangeF2[0]; F2 <= rangeF2[1]; F2 += rangeF2[2]) {
-                    this.F2 = F2;
-
-                    try {
-                        // In batch mode, we will not load the image in the plugin but save it directly.
-                        // Here loadImage callback is null.
-                        SimulationWorker simulationWorker =
-                                new SimulationWorker(this, expSettingsModel, path, null,
-                                        onBatchSimulationComplete, this::incrementSimulationErrorsNumber);
-                        simulationWorkers.add(simulationWorker);
-
-                        incrementSimulationsRunningNumber();
-                        simulationWorker.execute();
-                    } catch (RuntimeException e) {
-                        IJ.showStatus("Instantiation error");
-                        IJ.showMessage(e.getMessage());
-
-                        // reset the values to make the UI consistent with the model
-                        resetValues(initialD1, initialD2, initialF2);
-                        incrementSimulationErrorsNumber();
-                        onBatchSimulationComplete.run();
-                        return;
+        // The simulations only snapshot their parameters here, particles and frames are created once they run
+        List<SimulationBase> simulations = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        long bytesPerSimulation = 0;
+
+        try {
+            for (double D1 = rangeD1[0]; D1 <= rangeD1[1]; D1 += rangeD1[2]) {
+                this.D1 = D1 / DIFFUSION_COEFFICIENT_BASE;
+
+                for (double D2 = rangeD2[0]; D2 <= rangeD2[1]; D2 += rangeD2[2]) {
+                    this.D2 = D2 / DIFFUSION_COEFFICIENT_BASE;
+
+                    for (double F2 = rangeF2[0]; F2 <= rangeF2[1]; F2 += rangeF2[2]) {
+                        this.F2 = F2;
+
+                        SimulationBase simulation = createSimulation();
+                        simulations.add(simulation);
+                        files.add(new File(String.format("%s/sim-D1=%.2f-D2=%.2f-F2=%.2f.tif",
+                                path.getAbsolutePath(), getD1Interface(), getD2Interface(), this.F2)));
+                        bytesPerSimulation = Math.max(bytesPerSimulation, simulation.estimateMemoryBytes());
                     }
                 }
             }
+        } catch (RuntimeException e) {
+            IJ.showStatus("Instantiation error");
+            IJ.showMessage(e.getMessage());
+
+            // reset the values to make the UI consistent with the model
+            resetValues(initialD1, initialD2, initialF2);
+            incrementSimulationErrorsNumber();
+            onBatchSimulationComplete.run();
+            return;
         }
 
         // reset the values to make the UI consistent with the model
         resetValues(initialD1, initialD2, initialF2);
+
+        if (simulations.isEmpty()) {
+            onBatchSimulationComplete.run();
+            return;
+        }
+
+        batchScheduler = new SimulationBatchScheduler(numWorkers, memoryBudget, bytesPerSimulation);
+        IJ.log(String.format("Batch simulation: %d simulations, %d running at the same time", simulations.size(),
+                batchScheduler.getConcurrency()));
+
+        for (int i = 0; i < simulations.size(); i++) {
+            incrementSimulationsRunningNumber();
+            batchScheduler.submit(simulations.get(i), files.get(i), onBatchSimulationComplete,
+                    this::incrementSimulationErrorsNumber);
+        }
+        batchScheduler.shutdown();
+    }
+
+    /**
+     * Creates a 2D or 3D simulation from the current parameters.
+     *
+     * @return the simulation.
+     */
+    private SimulationBase createSimulation() {
+        if (is2D) {
+            return new Simulation2D(this, expSettingsModel);
+        } else {
+            return new Simulation3D(this, expSettingsModel);
+        }
+    }
+
+    /**
+     * Gets the default number of batch simulations running at the same time, so that the threads of all simulations
+     * together use every core.
+     *
+     * @return the default number of batch workers.
+     */
+    public int getDefaultBatchWorkers() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / numThreads);
+    }
+
+    /**
+     * Gets the default memory budget of a batch, half of the maximum heap.
+     *
+     * @return the default memory budget in bytes.
+     */
+    public long getDefaultBatchMemoryBudget() {
+        return Runtime.getRuntime().maxMemory() / 2;
     }
 
     /**
@@ -167,6 +224,11 @@ public final class SimulationModel {
         for (SimulationWorker simulationWorker : simulationWorkers) {
             simulationWorker.cancel(mayInterruptIfRunning);
         }
+
+        if (batchScheduler != null) {
+            batchScheduler.cancel();
+            batchScheduler = null;
+        }
     }
 
     /**
@@ -314,6 +376,18 @@ public final class SimulationModel {
         this.stepsPerFrame = Integer.parseInt(stepsPerFrame);
     }
 
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(String numThreads) {
+        int tmp = Integer.parseInt(numThreads);
+        if (tmp < 1) {
+            throw new InvalidUserInputException("Number of threads must be at least 1.");
+        }
+        this.numThreads = tmp;
+    }
+
     public double getD1Interface() {
         return D1 * DIFFUSION_COEFFICIENT_BASE;
     }
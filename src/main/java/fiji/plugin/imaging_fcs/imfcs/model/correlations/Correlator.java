@@ -6,6 +6,7 @@ import fiji.plugin.imaging_fcs.imfcs.enums.FitFunctions;
 import fiji.plugin.imaging_fcs.imfcs.model.*;
 import fiji.plugin.imaging_fcs.imfcs.utils.ExcelReader;
 import fiji.plugin.imaging_fcs.imfcs.utils.Pair;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultsReader;
 import ij.ImagePlus;
 import org.apache.poi.ss.usermodel.Workbook;
 
@@ -14,6 +15,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import static fiji.plugin.imaging_fcs.imfcs.utils.MatrixDeepCopy.deepCopy;
 
@@ -23,7 +25,7 @@ import static fiji.plugin.imaging_fcs.imfcs.utils.MatrixDeepCopy.deepCopy;
  * models to compute correlation functions and covariance matrices.
  */
 public class Correlator {
-    private final int BLOCK_LAG = 1;
+    static final int BLOCK_LAG = 1;
     private final ExpSettingsModel settings;
     private final BleachCorrectionModel bleachCorrectionModel;
     private final FitModel fitModel;
@@ -35,6 +37,8 @@ public class Correlator {
     private double[][] regularizedCovarianceMatrix, varianceBlocks;
     private PixelModel[][] pixelModels;
     private Pair<Point[], PixelModel> lastUsedPixelModel;
+    // the results file the curves of the loaded pixel models are read from, kept open until the results are reset
+    private ResultsReader resultsFile;
 
     /**
      * Constructs a Correlator with the specified settings, bleach correction model, and fit model.
@@ -75,6 +79,93 @@ public class Correlator {
         }
     }
 
+    /**
+     * Loads results from a binary results file, like {@link #loadResultsFromWorkbook}, except that only the fit
+     * parameters are read here. The curves of a pixel are read from the file the first time they are used, so the
+     * file stays open until the results are reset, and the correlator is responsible for closing it.
+     *
+     * @param reader    the results file containing the saved results
+     * @param dimension the dimension of the image (width and height)
+     */
+    public void loadResultsFromResultsFile(ResultsReader reader, Dimension dimension) {
+        closeResultsFile();
+        resultsFile = reader;
+
+        if (reader.isTableEntry("Lag Time")) {
+            double[][] lagTable = reader.readTable("Lag Time");
+            setLagTimes(lagTable[1]);
+            setSampleTimes(Arrays.stream(lagTable[2]).mapToInt(d -> (int) d).toArray());
+        }
+        pixelModels = new PixelModel[dimension.width][dimension.height];
+
+        loadPixelModelsEntries(reader, "CF", pixelModels);
+
+        if (settings.getFitModel() == FitFunctions.DC_FCCS_2D) {
+            PixelModel[][] acf1PixelModels = new PixelModel[dimension.width][dimension.height];
+            loadPixelModelsEntries(reader, "ACF1", acf1PixelModels);
+            loadAcfPixelModels(acf1PixelModels, PixelModel::setAcf1PixelModel);
+
+            PixelModel[][] acf2PixelModels = new PixelModel[dimension.width][dimension.height];
+            loadPixelModelsEntries(reader, "ACF2", acf2PixelModels);
+            loadAcfPixelModels(acf2PixelModels, PixelModel::setAcf2PixelModel);
+        }
+    }
+
+    /**
+     * Loads the entries of a results file into the pixel models, like {@link #loadPixelModelsSheets}. The fit
+     * parameters are read right away, while the curves of each pixel are only read when first requested.
+     *
+     * @param reader      the results file
+     * @param name        the base name of the entries (e.g., "CF")
+     * @param pixelModels a 2D array of PixelModel objects to update
+     */
+    private void loadPixelModelsEntries(ResultsReader reader, String name, PixelModel[][] pixelModels) {
+        for (int x = 0; x < pixelModels.length; x++) {
+            for (int y = 0; y < pixelModels[0].length; y++) {
+                if (reader.hasPixel(name, x, y)) {
+                    pixelModels[x][y] = new PixelModel();
+                    pixelModels[x][y].setCurveLoader(curveLoader(reader, name, x, y));
+                }
+            }
+        }
+
+        reader.readPixelModels(name + " - Fit Parameters", pixelModels,
+                (pixelModel, values) -> pixelModel.setFitParams(new PixelModel.FitParameters(values)));
+    }
+
+    /**
+     * Creates the function reading the curves of a pixel from a results file. Nothing is read once the file is
+     * closed, as the results it holds are no longer the current ones.
+     *
+     * @param reader the results file
+     * @param name   the base name of the entries (e.g., "CF")
+     * @param x      the x-coordinate of the pixel
+     * @param y      the y-coordinate of the pixel
+     * @return the loader to set on the pixel model
+     */
+    private static Consumer<PixelModel> curveLoader(ResultsReader reader, String name, int x, int y) {
+        return pixelModel -> {
+            if (!reader.isOpen()) {
+                return;
+            }
+            pixelModel.setCorrelationFunction(reader.readPixel(name, x, y));
+            pixelModel.setStandardDeviationCF(reader.readPixel(name + " - Standard Deviation", x, y));
+            pixelModel.setFittedCF(reader.readPixel(name + " - Fit Functions", x, y));
+            pixelModel.setResiduals(reader.readPixel(name + " - Residuals", x, y));
+            pixelModel.setMSD(reader.readPixel(name + " - MSD", x, y));
+        };
+    }
+
+    /**
+     * Closes the results file the pixel models were loaded from, if any.
+     */
+    private void closeResultsFile() {
+        if (resultsFile != null) {
+            resultsFile.close();
+            resultsFile = null;
+        }
+    }
+
     /**
      * Loads data from various sheets in the workbook and updates the corresponding pixel model attributes.
      * This includes correlation functions, standard deviation, fitted functions, residuals, and MSD data.
@@ -328,12 +419,37 @@ public class Correlator {
         int blockCount = calculateBlockCount(numFrames);
 
         varianceBlocks = new double[3][blockCount];
+        int[] numProducts = new int[blockCount];
+
+        processBlocks(intensityCorrelation, blockCount, numFrames, varianceBlocks, numProducts);
+        blockIndex = determineBlockIndex(pixelModel, varianceBlocks, numProducts, correlatorQ);
+    }
+
+    /**
+     * Determines the block index from the blocking curve. The standard error of each point of the curve is derived
+     * from its number of products, and the block index is the first point after the curve reaches a plateau.
+     *
+     * @param pixelModel     The pixel model, whose blocked flag is updated.
+     * @param varianceBlocks The variance blocks, the standard errors are written in the third row.
+     * @param numProducts    The number of products of each block.
+     * @param correlatorQ    The correlator Q, the block index is at least Q - 1.
+     * @return The block index.
+     */
+    int determineBlockIndex(PixelModel pixelModel, double[][] varianceBlocks, int[] numProducts, int correlatorQ) {
+        int blockCount = numProducts.length;
         double[] lowerQuartile = new double[blockCount];
         double[] upperQuartile = new double[blockCount];
 
-        processBlocks(intensityCorrelation, blockCount, numFrames, varianceBlocks, lowerQuartile, upperQuartile);
-        blockIndex =
+        for (int i = 0; i < blockCount; i++) {
+            varianceBlocks[1][i] = Math.sqrt(varianceBlocks[1][i]);
+            varianceBlocks[2][i] = varianceBlocks[1][i] / Math.sqrt(2 * (numProducts[i] - 1));
+            upperQuartile[i] = varianceBlocks[1][i] + varianceBlocks[2][i];
+            lowerQuartile[i] = varianceBlocks[1][i] - varianceBlocks[2][i];
+        }
+
+        int index =
                 determineLastIndexMeetingCriteria(pixelModel, blockCount, varianceBlocks, lowerQuartile, upperQuartile);
+        return Math.max(index, correlatorQ - 1);
     }
 
     /**
@@ -342,7 +458,7 @@ public class Correlator {
      * @param numFrames The number of frames.
      * @return The number of blocks.
      */
-    private int calculateBlockCount(int numFrames) {
+    int calculateBlockCount(int numFrames) {
         // if the parameters are not instantiated then we compute them
         if (lags == null) {
             calculateParameters(numFrames);
@@ -436,14 +552,12 @@ public class Correlator {
      * @param blockCount     The number of blocks.
      * @param numFrames      The number of frames.
      * @param varianceBlocks The variance blocks.
-     * @param lowerQuartile  The lower quartile values.
-     * @param upperQuartile  The upper quartile values.
+     * @param numProducts    The number of products of each block.
      */
     private void processBlocks(double[][] intensityBlock, int blockCount, int numFrames, double[][] varianceBlocks,
-                               double[] lowerQuartile, double[] upperQuartile) {
+                               int[] numProducts) {
         int currentIncrement = BLOCK_LAG;
         int numBinnedDataPoints = numFrames;
-        int[] numProducts = new int[blockCount];
 
         for (int i = 0; i < settings.getChannelNumber(); i++) {
             // check whether the kcf width has changed
@@ -460,13 +574,6 @@ public class Correlator {
                         numProducts, currentIncrement);
             }
         }
-
-        for (int i = 0; i < blockCount; i++) {
-            varianceBlocks[1][i] = Math.sqrt(varianceBlocks[1][i]);
-            varianceBlocks[2][i] = varianceBlocks[1][i] / Math.sqrt(2 * (numProducts[i] - 1));
-            upperQuartile[i] = varianceBlocks[1][i] + varianceBlocks[2][i];
-            lowerQuartile[i] = varianceBlocks[1][i] - varianceBlocks[2][i];
-        }
     }
 
     /**
@@ -636,7 +743,7 @@ public class Correlator {
             pixelModel.setBlocked(1);
         }
 
-        return Math.max(index, correlatorQ - 1);
+        return index;
     }
 
     /**
@@ -970,6 +1077,7 @@ public class Correlator {
 
         pixelModels = null;
         lastUsedPixelModel = null;
+        closeResultsFile();
         lags = null;
         lagTimes = null;
         sampleTimes = null;
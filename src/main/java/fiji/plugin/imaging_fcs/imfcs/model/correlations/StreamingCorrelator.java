@@ -0,0 +1,554 @@
+package fiji.plugin.imaging_fcs.imfcs.model.correlations;
+
+import fiji.plugin.imaging_fcs.imfcs.enums.BleachCorrectionMethod;
+import fiji.plugin.imaging_fcs.imfcs.enums.FitFunctions;
+import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
+import fiji.plugin.imaging_fcs.imfcs.model.FitModel;
+import fiji.plugin.imaging_fcs.imfcs.model.PixelModel;
+import fiji.plugin.imaging_fcs.imfcs.utils.Range;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Correlates every pixel of an image stack while its frames are produced, without keeping the stack.
+ * <p>
+ * Each pixel runs a multiple-tau correlator with the lags and bin widths of {@link Correlator}, keeping only the
+ * last values of each bin width. The correlation function is computed from running sums of the products and of the
+ * monitors. Blocked products are summarized by their moments for every block size the blocking analysis can choose,
+ * so the correlation function and its standard deviation are the ones {@link Correlator} computes on the full
+ * traces, up to rounding.
+ * </p>
+ * Bleach correction, GLS fitting and FCCS need the full traces and are not supported.
+ */
+public final class StreamingCorrelator {
+    // moments kept for each block size, see BlockMoments
+    private static final int NUM_MOMENTS = 9;
+
+    private final ExpSettingsModel settings;
+    private final Correlator correlator;
+    private final int width, height, numFrames, background;
+    private final int binningX, binningY;
+    private final int channelNumber, historySize, numLevels, blockCount, correlatorQ;
+    private final int[] lags, sampleTimes, numSamples;
+    private final List<PixelStream> streams = new ArrayList<>();
+    private int framesAdded = 0;
+
+    /**
+     * Creates a correlator for every pixel of the correlation area defined by the settings.
+     *
+     * @param settings   the experimental settings, giving the correlator structure, binning and CCF distance.
+     * @param fitModel   the fit model that will be used on the results.
+     * @param width      the width of the frames in pixels.
+     * @param height     the height of the frames in pixels.
+     * @param numFrames  the number of frames that will be added.
+     * @param background the constant background subtracted from each pixel.
+     */
+    public StreamingCorrelator(ExpSettingsModel settings, FitModel fitModel, int width, int height, int numFrames,
+                               int background) {
+        validateSettings(settings, fitModel);
+
+        this.settings = settings;
+        this.width = width;
+        this.height = height;
+        this.numFrames = numFrames;
+        this.background = background;
+
+        correlator = new Correlator(settings, null, fitModel);
+        correlator.calculateParameters(numFrames);
+        lags = correlator.getLags();
+        sampleTimes = correlator.getSampleTimes();
+        numSamples = correlator.getNumSamples();
+
+        channelNumber = settings.getChannelNumber();
+        if (numSamples[channelNumber - 1] < 2) {
+            throw new RuntimeException("Not enough frames for the correlator structure.");
+        }
+
+        historySize = settings.getCorrelatorP() + 1;
+        numLevels = log2(sampleTimes[channelNumber - 1]) + 1;
+        blockCount = Math.max(correlator.calculateBlockCount(numFrames), 0);
+        correlatorQ = settings.getCorrelatorQ();
+
+        binningX = settings.getBinning().x;
+        binningY = settings.getBinning().y;
+        Dimension ccf = settings.getCCF();
+
+        Range[] ranges = settings.getAllArea(new Dimension(width, height));
+        for (int x = ranges[0].getStart(); x < ranges[0].getEnd(); x += ranges[0].getStep()) {
+            for (int y = ranges[1].getStart(); y < ranges[1].getEnd(); y += ranges[1].getStep()) {
+                streams.add(new PixelStream(x, y, x + ccf.width, y + ccf.height));
+            }
+        }
+    }
+
+    /**
+     * Checks that the settings can be applied without the full traces.
+     *
+     * @param settings the experimental settings.
+     * @param fitModel the fit model.
+     */
+    private static void validateSettings(ExpSettingsModel settings, FitModel fitModel) {
+        if (settings.getBleachCorrection() != BleachCorrectionMethod.NO_BLEACH_CORRECTION) {
+            throw new RuntimeException("Streaming correlation does not support bleach correction.");
+        }
+        if (settings.isFCCSDisp() || settings.getFitModel() == FitFunctions.DC_FCCS_2D) {
+            throw new RuntimeException("Streaming correlation does not support FCCS.");
+        }
+        if (fitModel.isGLS()) {
+            throw new RuntimeException("Streaming correlation does not support GLS fitting.");
+        }
+    }
+
+    /**
+     * Computes the base 2 logarithm of a power of two.
+     *
+     * @param value a power of two.
+     * @return the exponent.
+     */
+    private static int log2(int value) {
+        return Integer.numberOfTrailingZeros(value);
+    }
+
+    /**
+     * Computes the number of blocks used for the variance of every channel when the blocking analysis selects the
+     * given block index, as {@link Correlator} does.
+     *
+     * @param blockIndex the block index.
+     * @return the number of blocks.
+     */
+    private int minProducts(int blockIndex) {
+        int topLevel = log2(sampleTimes[channelNumber - 1]);
+        return numSamples[channelNumber - 1] >> Math.max(blockIndex - topLevel, 0);
+    }
+
+    /**
+     * Adds the next frame.
+     *
+     * @param frame the pixels of the frame, row by row.
+     */
+    public void addFrame(short[] frame) {
+        List<short[]> frames = new ArrayList<>(1);
+        frames.add(frame);
+        addFrames(frames);
+    }
+
+    /**
+     * Adds the next frames, in order. Pixels are processed in parallel, each of them going through all the frames,
+     * so larger chunks amortize the synchronization.
+     *
+     * @param frames the pixels of the frames, row by row.
+     */
+    public void addFrames(List<short[]> frames) {
+        if (framesAdded + frames.size() > numFrames) {
+            throw new IllegalStateException("More frames than announced were added.");
+        }
+
+        IntStream.range(0, streams.size()).parallel().forEach(p -> {
+            PixelStream stream = streams.get(p);
+            for (short[] frame : frames) {
+                stream.addFrame(frame);
+            }
+        });
+        framesAdded += frames.size();
+    }
+
+    /**
+     * Computes the correlation functions once all frames are added.
+     *
+     * @return a correlator holding the pixel models and the lag times, as if the stack had been correlated.
+     */
+    public Correlator finish() {
+        if (framesAdded != numFrames) {
+            throw new IllegalStateException(
+                    String.format("%d frames were added out of %d.", framesAdded, numFrames));
+        }
+
+        PixelModel[][] pixelModels = new PixelModel[width][height];
+        streams.parallelStream().forEach(stream -> pixelModels[stream.x][stream.y] = stream.toPixelModel());
+        correlator.setPixelModels(pixelModels);
+
+        return correlator;
+    }
+
+    /**
+     * The multiple-tau correlator of one pixel, or of a pair of pixels for cross-correlations.
+     */
+    private final class PixelStream {
+        private final int x, y, x2, y2;
+        // last values of each bin width, in a ring buffer indexed by the value number
+        private final double[][] history1, history2;
+        private final int[] count;
+        // first value of a pair being binned for the next bin width
+        private final double[] pending1, pending2;
+        private final boolean[] hasPending;
+        private final ChannelAccumulator[][] channelsByLevel;
+        private final ChannelAccumulator[] channels;
+        private final BlockMoments blockingCurve;
+
+        /**
+         * Creates the correlator of a pixel.
+         *
+         * @param x  the x-coordinate of the first pixel.
+         * @param y  the y-coordinate of the first pixel.
+         * @param x2 the x-coordinate of the second pixel.
+         * @param y2 the y-coordinate of the second pixel.
+         */
+        private PixelStream(int x, int y, int x2, int y2) {
+            this.x = x;
+            this.y = y;
+            this.x2 = x2;
+            this.y2 = y2;
+
+            history1 = new double[numLevels][historySize];
+            history2 = new double[numLevels][historySize];
+            count = new int[numLevels];
+            pending1 = new double[numLevels];
+            pending2 = new double[numLevels];
+            hasPending = new boolean[numLevels];
+
+            channels = new ChannelAccumulator[channelNumber];
+            int[] channelsPerLevel = new int[numLevels];
+            for (int i = 0; i < channelNumber; i++) {
+                channelsPerLevel[log2(sampleTimes[i])]++;
+            }
+            channelsByLevel = new ChannelAccumulator[numLevels][];
+            for (int level = 0; level < numLevels; level++) {
+                channelsByLevel[level] = new ChannelAccumulator[channelsPerLevel[level]];
+                channelsPerLevel[level] = 0;
+            }
+            for (int i = 0; i < channelNumber; i++) {
+                int level = log2(sampleTimes[i]);
+                channels[i] = new ChannelAccumulator(i, level);
+                channelsByLevel[level][channelsPerLevel[level]++] = channels[i];
+            }
+
+            // the blocking curve uses every block of the first lag, up to the largest block
+            int[] noCutoff = new int[Math.max(blockCount, 1)];
+            Arrays.fill(noCutoff, Integer.MAX_VALUE);
+            blockingCurve = new BlockMoments(Math.max(blockCount - 1, 0), 0, noCutoff);
+        }
+
+        /**
+         * Sums the pixels of the binning area.
+         *
+         * @param frame the pixels of the frame.
+         * @param px    the x-coordinate of the first pixel of the area.
+         * @param py    the y-coordinate of the first pixel of the area.
+         * @return the background corrected intensity.
+         */
+        private double binnedIntensity(short[] frame, int px, int py) {
+            int sum = 0;
+            for (int j = 0; j < binningY; j++) {
+                int row = (py + j) * width + px;
+                for (int i = 0; i < binningX; i++) {
+                    sum += frame[row + i] & 0xFFFF;
+                }
+            }
+            return sum - background * binningX * binningY;
+        }
+
+        /**
+         * Adds the intensities of the next frame.
+         *
+         * @param frame the pixels of the frame.
+         */
+        private void addFrame(short[] frame) {
+            double value1 = binnedIntensity(frame, x, y);
+            double value2 = (x == x2 && y == y2) ? value1 : binnedIntensity(frame, x2, y2);
+            addValue(0, value1, value2);
+        }
+
+        /**
+         * Adds a value at a bin width, correlates it with the previous values and bins it for the next bin width.
+         *
+         * @param level  the base 2 logarithm of the bin width.
+         * @param value1 the value of the first trace.
+         * @param value2 the value of the second trace.
+         */
+        private void addValue(int level, double value1, double value2) {
+            int t = count[level]++;
+            history1[level][t % historySize] = value1;
+            history2[level][t % historySize] = value2;
+
+            // each channel multiplies the direct value at t - delay with the delayed value at t
+            for (ChannelAccumulator channel : channelsByLevel[level]) {
+                if (t >= channel.delay) {
+                    channel.add(history1[level][(t - channel.delay) % historySize], value2);
+                }
+            }
+
+            if (level + 1 < numLevels) {
+                if (hasPending[level]) {
+                    hasPending[level] = false;
+                    addValue(level + 1, pending1[level] + value1, pending2[level] + value2);
+                } else {
+                    pending1[level] = value1;
+                    pending2[level] = value2;
+                    hasPending[level] = true;
+                }
+            }
+        }
+
+        /**
+         * Runs the blocking analysis and computes the correlation function and its standard deviation.
+         *
+         * @return the pixel model holding the results.
+         */
+        private PixelModel toPixelModel() {
+            PixelModel pixelModel = new PixelModel();
+
+            ChannelAccumulator blockingChannel = channels[Correlator.BLOCK_LAG];
+            double blockingNormalization = blockingChannel.directMonitor() * blockingChannel.delayedMonitor();
+
+            double[][] varianceBlocks = new double[3][blockCount];
+            int[] numProducts = new int[blockCount];
+            for (int b = 0; b < blockCount; b++) {
+                numProducts[b] = blockingCurve.numBlocks(b);
+                double[] sums = blockingCurve.sums(b, blockingChannel.directMonitor(),
+                        blockingChannel.delayedMonitor());
+                varianceBlocks[0][b] = (1 << b) * settings.getFrameTime();
+                varianceBlocks[1][b] = (sums[1] / numProducts[b] - Math.pow(sums[0] / numProducts[b], 2)) /
+                        (numProducts[b] * Math.pow(blockingNormalization, 2));
+            }
+            int blockIndex = correlator.determineBlockIndex(pixelModel, varianceBlocks, numProducts, correlatorQ);
+
+            double[] correlationFunction = new double[channelNumber];
+            double[] varianceCF = new double[channelNumber];
+            double[] standardDeviationCF = new double[channelNumber];
+            int minProducts = minProducts(blockIndex);
+
+            for (int i = 0; i < channelNumber; i++) {
+                ChannelAccumulator channel = channels[i];
+                double directMonitor = channel.directMonitor();
+                double delayedMonitor = channel.delayedMonitor();
+                double normalization = directMonitor * delayedMonitor;
+
+                // sum of (I1 - M1) * (I2 - M2) is the sum of I1 * I2 minus n * M1 * M2
+                correlationFunction[i] = (channel.sumProducts - channel.numProducts * normalization) /
+                        (channel.numProducts * normalization);
+
+                int blockLevel = Math.max(blockIndex - channel.level, 0);
+                int numBlocks = Math.min(minProducts, channel.moments.numBlocks(blockLevel));
+                double[] sums = channel.moments.sums(blockLevel, directMonitor, delayedMonitor);
+                varianceCF[i] = (sums[1] / numBlocks - Math.pow(sums[0] / numBlocks, 2)) /
+                        ((numBlocks - 1) * Math.pow(normalization, 2));
+                standardDeviationCF[i] = Math.sqrt(varianceCF[i]);
+            }
+
+            pixelModel.setCorrelationFunction(correlationFunction);
+            pixelModel.setVarianceCF(varianceCF);
+            pixelModel.setStandardDeviationCF(standardDeviationCF);
+
+            return pixelModel;
+        }
+
+        /**
+         * The running sums of one lag channel.
+         */
+        private final class ChannelAccumulator {
+            private final int index, level, delay;
+            private final BlockMoments moments;
+            private double sumProducts, sumDirect, sumDelayed;
+            private long numProducts;
+
+            /**
+             * Creates the accumulator of a channel.
+             *
+             * @param index the index of the channel.
+             * @param level the base 2 logarithm of the bin width of the channel.
+             */
+            private ChannelAccumulator(int index, int level) {
+                this.index = index;
+                this.level = level;
+                this.delay = lags[index] / sampleTimes[index];
+
+                // the block index is at least Q - 1 and at most the last point of the blocking curve
+                int firstBlockIndex = correlatorQ - 1;
+                int lastBlockIndex = Math.max(blockCount - 1, firstBlockIndex);
+                int firstLevel = Math.max(firstBlockIndex - level, 0);
+                int lastLevel = Math.max(lastBlockIndex - level, 0);
+
+                int[] cutoffs = new int[lastLevel + 1];
+                for (int b = 0; b <= lastLevel; b++) {
+                    // a level of 0 is used for every block index up to the level of the channel, they all give the
+                    // same number of blocks since the level is at most the level of the last channel
+                    cutoffs[b] = minProducts(level + b);
+                }
+                moments = new BlockMoments(lastLevel, firstLevel, cutoffs);
+            }
+
+            /**
+             * Adds a product to the channel.
+             *
+             * @param direct  the direct value.
+             * @param delayed the delayed value.
+             */
+            private void add(double direct, double delayed) {
+                double product = direct * delayed;
+                sumProducts += product;
+                sumDirect += direct;
+                sumDelayed += delayed;
+                numProducts++;
+
+                moments.add(product, direct, delayed);
+                if (index == Correlator.BLOCK_LAG) {
+                    blockingCurve.add(product, direct, delayed);
+                }
+            }
+
+            private double directMonitor() {
+                return sumDirect / numProducts;
+            }
+
+            private double delayedMonitor() {
+                return sumDelayed / numProducts;
+            }
+        }
+    }
+
+    /**
+     * Moments of the blocked products of a channel, for every block size from 2^firstLevel to 2^lastLevel products.
+     * <p>
+     * A blocked product is the mean of (I1 - M1) * (I2 - M2) over a block, where the monitors M1 and M2 are only known
+     * at the end. It is an affine function of the block sums a = sum(I1 * I2), u = sum(I1) and v = sum(I2), so the sum
+     * and the sum of squares of the blocked products follow from the sums of a, u, v and of their pairwise products.
+     * </p>
+     * Only the first blocks up to the cutoff of each level are counted, as {@link Correlator} only uses the number of
+     * blocks available for every channel.
+     */
+    private static final class BlockMoments {
+        private final int firstLevel, lastLevel;
+        private final int[] cutoffs;
+        private final int[] numBlocks;
+        // sums of the first block of a pair being built, for each level
+        private final double[] pendingA, pendingU, pendingV;
+        private final boolean[] hasPending;
+        // for each recorded level: sum a, u, v, a*a, u*u, v*v, a*u, a*v, u*v
+        private final double[] moments;
+
+        /**
+         * Creates the moments.
+         *
+         * @param lastLevel  the base 2 logarithm of the largest block size.
+         * @param firstLevel the base 2 logarithm of the smallest block size whose moments are kept.
+         * @param cutoffs    the number of blocks counted at each level.
+         */
+        private BlockMoments(int lastLevel, int firstLevel, int[] cutoffs) {
+            this.firstLevel = Math.min(firstLevel, lastLevel);
+            this.lastLevel = lastLevel;
+            this.cutoffs = cutoffs;
+
+            numBlocks = new int[lastLevel + 1];
+            pendingA = new double[lastLevel + 1];
+            pendingU = new double[lastLevel + 1];
+            pendingV = new double[lastLevel + 1];
+            hasPending = new boolean[lastLevel + 1];
+            moments = new double[(lastLevel - this.firstLevel + 1) * NUM_MOMENTS];
+        }
+
+        /**
+         * Adds a product, which completes a block of size 1 and possibly larger blocks.
+         *
+         * @param a the product.
+         * @param u the direct value.
+         * @param v the delayed value.
+         */
+        private void add(double a, double u, double v) {
+            for (int level = 0; ; level++) {
+                if (level >= firstLevel) {
+                    record(level, a, u, v);
+                } else {
+                    numBlocks[level]++;
+                }
+
+                if (level == lastLevel) {
+                    return;
+                }
+
+                int next = level + 1;
+                if (!hasPending[next]) {
+                    pendingA[next] = a;
+                    pendingU[next] = u;
+                    pendingV[next] = v;
+                    hasPending[next] = true;
+                    return;
+                }
+
+                a += pendingA[next];
+                u += pendingU[next];
+                v += pendingV[next];
+                hasPending[next] = false;
+            }
+        }
+
+        /**
+         * Records a complete block, if it is among the blocks counted at its level.
+         *
+         * @param level the base 2 logarithm of the block size.
+         * @param a     the sum of the products of the block.
+         * @param u     the sum of the direct values of the block.
+         * @param v     the sum of the delayed values of the block.
+         */
+        private void record(int level, double a, double u, double v) {
+            if (numBlocks[level]++ >= cutoffs[level]) {
+                return;
+            }
+
+            int offset = (level - firstLevel) * NUM_MOMENTS;
+            moments[offset] += a;
+            moments[offset + 1] += u;
+            moments[offset + 2] += v;
+            moments[offset + 3] += a * a;
+            moments[offset + 4] += u * u;
+            moments[offset + 5] += v * v;
+            moments[offset + 6] += a * u;
+            moments[offset + 7] += a * v;
+            moments[offset + 8] += u * v;
+        }
+
+        /**
+         * Gets the number of blocks counted at a level.
+         *
+         * @param level the base 2 logarithm of the block size.
+         * @return the number of blocks.
+         */
+        private int numBlocks(int level) {
+            return Math.min(numBlocks[level], cutoffs[level]);
+        }
+
+        /**
+         * Computes the sum and the sum of squares of the blocked products at a level.
+         *
+         * @param level          the base 2 logarithm of the block size.
+         * @param directMonitor  the mean of the direct values.
+         * @param delayedMonitor the mean of the delayed values.
+         * @return the sum and the sum of squares of the blocked products.
+         */
+        private double[] sums(int level, double directMonitor, double delayedMonitor) {
+            int offset = (level - firstLevel) * NUM_MOMENTS;
+            double size = 1 << level;
+            double count = numBlocks(level);
+            // blocked product: (a - M2 * u - M1 * v + k) / size, with k = size * M1 * M2
+            double k = size * directMonitor * delayedMonitor;
+
+            double sumA = moments[offset], sumU = moments[offset + 1], sumV = moments[offset + 2];
+            double sum = sumA - delayedMonitor * sumU - directMonitor * sumV + count * k;
+            double sumSquares = moments[offset + 3] +
+                    delayedMonitor * delayedMonitor * moments[offset + 4] +
+                    directMonitor * directMonitor * moments[offset + 5] +
+                    count * k * k -
+                    2 * delayedMonitor * moments[offset + 6] -
+                    2 * directMonitor * moments[offset + 7] +
+                    2 * k * sumA +
+                    2 * directMonitor * delayedMonitor * moments[offset + 8] -
+                    2 * k * delayedMonitor * sumU -
+                    2 * k * directMonitor * sumV;
+
+            return new double[]{sum / size, sumSquares / (size * size)};
+        }
+    }
+}
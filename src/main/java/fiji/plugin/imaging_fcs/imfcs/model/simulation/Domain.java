@@ -25,20 +25,31 @@ public final class Domain {
     }
 
     /**
-     * Determines if a given {@code Particle2D} is inside the domain.
-     * This method checks if the distance between the particle and the domain's center
+     * Determines if a given position is inside the domain.
+     * This method checks if the distance between the position and the domain's center
      * is less than the domain's radius. It uses the squared distance for efficiency,
      * avoiding the computational cost of square root operations.
      *
-     * @param particle the {@code Particle2D} to check.
-     * @return {@code true} if the particle is inside the domain; {@code false} otherwise.
+     * @param px the x-coordinate of the position to check.
+     * @param py the y-coordinate of the position to check.
+     * @return {@code true} if the position is inside the domain; {@code false} otherwise.
      */
-    public boolean isParticleInsideDomain(Particle2D particle) {
-        double dx = particle.x - x;
-        double dy = particle.y - y;
+    public boolean contains(double px, double py) {
+        double dx = px - x;
+        double dy = py - y;
         double distanceSq = dx * dx + dy * dy;
 
         // Do not use square root for fastest computation
         return distanceSq < radius * radius;
     }
+
+    /**
+     * Determines if a given {@code Particle2D} is inside the domain.
+     *
+     * @param particle the {@code Particle2D} to check.
+     * @return {@code true} if the particle is inside the domain; {@code false} otherwise.
+     */
+    public boolean isParticleInsideDomain(Particle2D particle) {
+        return contains(particle.x, particle.y);
+    }
 }
@@ -0,0 +1,174 @@
+package fiji.plugin.imaging_fcs.imfcs.model.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Manages spatial partitioning of domains in a two-dimensional space to efficiently
+ * query which domain a particle is in. Domains are stored in a flat array of grid cells
+ * covering the simulation area, so a lookup is a few array accesses and never allocates.
+ */
+public final class DomainGrid {
+    // Caps the memory of the grid for large simulation areas, cells grow instead
+    private static final int MAX_CELLS_PER_AXIS = 2048;
+    private final double origin;
+    private final double cellSize;
+    private final int cellsPerAxis;
+    // null for cells without domain
+    private final Domain[][] cells;
+    private double maxRadius = 0;
+
+    /**
+     * Creates a {@code DomainGrid} covering the simulation area.
+     *
+     * @param lowerLimit  the lower limit of the simulation area on both axes.
+     * @param upperLimit  the upper limit of the simulation area on both axes.
+     * @param minCellSize the minimum size of each grid cell, must be larger than the radius of any domain.
+     */
+    public DomainGrid(double lowerLimit, double upperLimit, double minCellSize) {
+        double length = upperLimit - lowerLimit;
+        cellSize = Math.max(minCellSize, length / MAX_CELLS_PER_AXIS);
+
+        // keep one cell of margin on each side so that border cells have neighbours
+        origin = lowerLimit - cellSize;
+        cellsPerAxis = cellsPerAxis(length, cellSize);
+        cells = new Domain[cellsPerAxis * cellsPerAxis][];
+    }
+
+    /**
+     * Computes the number of cells along each axis, including the margin.
+     *
+     * @param length   the length of the simulation area.
+     * @param cellSize the size of each grid cell.
+     * @return the number of cells per axis.
+     */
+    private static int cellsPerAxis(double length, double cellSize) {
+        return (int) Math.ceil(length / cellSize) + 3;
+    }
+
+    /**
+     * Estimates the heap used by a grid holding the given number of domains, in bytes.
+     *
+     * @param lowerLimit  the lower limit of the simulation area on both axes.
+     * @param upperLimit  the upper limit of the simulation area on both axes.
+     * @param minCellSize the minimum size of each grid cell.
+     * @param numDomains  the number of domains inserted.
+     * @return the estimated memory footprint of the grid.
+     */
+    public static long estimateMemoryBytes(double lowerLimit, double upperLimit, double minCellSize,
+                                           long numDomains) {
+        double length = upperLimit - lowerLimit;
+        long cellsPerAxis = cellsPerAxis(length, Math.max(minCellSize, length / MAX_CELLS_PER_AXIS));
+        // one reference per cell, and for each domain its object plus a small array holding it
+        return cellsPerAxis * cellsPerAxis * 8 + numDomains * 64;
+    }
+
+    /**
+     * Computes the grid coordinate of the cell containing a position.
+     *
+     * @param position the x or y coordinate.
+     * @return the cell coordinate, possibly outside the grid.
+     */
+    private int cellCoordinate(double position) {
+        return (int) Math.floor((position - origin) / cellSize);
+    }
+
+    /**
+     * Inserts a domain into the appropriate cell based on its location.
+     *
+     * @param domain the {@code Domain} to insert.
+     */
+    public void insert(Domain domain) {
+        int ix = cellCoordinate(domain.x);
+        int iy = cellCoordinate(domain.y);
+        if (ix < 0 || iy < 0 || ix >= cellsPerAxis || iy >= cellsPerAxis) {
+            throw new IllegalArgumentException("Domain center is outside the simulation area.");
+        }
+
+        int index = iy * cellsPerAxis + ix;
+        Domain[] cell = cells[index];
+        if (cell == null) {
+            cell = new Domain[]{domain};
+        } else {
+            cell = Arrays.copyOf(cell, cell.length + 1);
+            cell[cell.length - 1] = domain;
+        }
+        cells[index] = cell;
+
+        maxRadius = Math.max(maxRadius, domain.radius);
+    }
+
+    /**
+     * Finds the domain containing the given position, checking the cell of the position and its adjacent cells.
+     *
+     * @param x the x-coordinate.
+     * @param y the y-coordinate.
+     * @return the {@code Domain} containing the position, or {@code null} if not found.
+     */
+    public Domain findDomain(double x, double y) {
+        int ix = cellCoordinate(x);
+        int iy = cellCoordinate(y);
+
+        int endX = Math.min(ix + 1, cellsPerAxis - 1);
+        int endY = Math.min(iy + 1, cellsPerAxis - 1);
+        for (int cy = Math.max(iy - 1, 0); cy <= endY; cy++) {
+            for (int cx = Math.max(ix - 1, 0); cx <= endX; cx++) {
+                Domain[] cell = cells[cy * cellsPerAxis + cx];
+                if (cell == null) {
+                    continue;
+                }
+                for (Domain domain : cell) {
+                    if (domain.contains(x, y)) {
+                        return domain;
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the domain containing the given particle.
+     *
+     * @param particle the {@code Particle2D} to find the domain for.
+     * @return the {@code Domain} containing the particle, or {@code null} if not found.
+     */
+    public Domain findDomainForParticle(Particle2D particle) {
+        return findDomain(particle.x, particle.y);
+    }
+
+    /**
+     * Checks if a new domain overlaps with any existing domains in the grid.
+     *
+     * @param newDomain the {@code Domain} to check for overlap.
+     * @return {@code true} if there is an overlap; {@code false} otherwise.
+     */
+    public boolean hasOverlap(Domain newDomain) {
+        // Any overlapping domain has its center within the sum of both radii
+        double reach = newDomain.radius + maxRadius;
+        int startX = Math.max(cellCoordinate(newDomain.x - reach), 0);
+        int endX = Math.min(cellCoordinate(newDomain.x + reach), cellsPerAxis - 1);
+        int startY = Math.max(cellCoordinate(newDomain.y - reach), 0);
+        int endY = Math.min(cellCoordinate(newDomain.y + reach), cellsPerAxis - 1);
+
+        for (int iy = startY; iy <= endY; iy++) {
+            for (int ix = startX; ix <= endX; ix++) {
+                Domain[] cell = cells[iy * cellsPerAxis + ix];
+                if (cell == null) {
+                    continue;
+                }
+                for (Domain domain : cell) {
+                    double dx = newDomain.x - domain.x;
+                    double dy = newDomain.y - domain.y;
+                    double distanceSq = dx * dx + dy * dy;
+                    double minDistance = newDomain.radius + domain.radius;
+                    if (distanceSq < minDistance * minDistance) {
+                        return true; // Overlap detected
+                    }
+                }
+            }
+        }
+
+        return false; // No overlap found
+    }
+}
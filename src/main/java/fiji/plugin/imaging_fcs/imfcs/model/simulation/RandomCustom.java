@@ -1,18 +1,63 @@
 package fiji.plugin.imaging_fcs.imfcs.model.simulation;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
- * Extends the java.util.Random class to include a method for generating Poisson-distributed random numbers.
+ * Random number generator used by the simulation engine.
+ * <p>
+ * It is backed by a {@link SplittableRandom}, which has no shared atomic state, so an instance is cheap to use from
+ * the single thread owning it. Independent and deterministic streams for worker threads are derived with
+ * {@link #split()}. Gaussian numbers are drawn with the ziggurat method and Poisson numbers with the transformed
+ * rejection method (PTRS) for large means, so both cost O(1) per draw.
+ * </p>
+ * Instances are not thread-safe, each thread must use its own stream.
  */
-public final class RandomCustom extends Random {
+public final class RandomCustom {
+    // Ziggurat parameters for the normal distribution (Marsaglia and Tsang, 128 layers)
+    private static final int ZIGGURAT_LAYERS = 128;
+    private static final double ZIGGURAT_R = 3.442619855899;
+    private static final double ZIGGURAT_V = 9.91256303526217e-3;
+    private static final double[] ZIGGURAT_X = new double[ZIGGURAT_LAYERS + 1];
+    private static final double[] ZIGGURAT_RATIO = new double[ZIGGURAT_LAYERS];
+
+    // Below this mean the Poisson distribution is sampled by inversion, above it with PTRS
+    private static final double PTRS_MIN_MEAN = 10.0;
+    private static final int LOG_FACTORIAL_TABLE_SIZE = 256;
+    private static final double[] LOG_FACTORIAL = new double[LOG_FACTORIAL_TABLE_SIZE];
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    static {
+        double f = Math.exp(-0.5 * ZIGGURAT_R * ZIGGURAT_R);
+        ZIGGURAT_X[0] = ZIGGURAT_V / f;
+        ZIGGURAT_X[1] = ZIGGURAT_R;
+        ZIGGURAT_X[ZIGGURAT_LAYERS] = 0;
+        for (int i = 2; i < ZIGGURAT_LAYERS; i++) {
+            ZIGGURAT_X[i] = Math.sqrt(-2 * Math.log(ZIGGURAT_V / ZIGGURAT_X[i - 1] + f));
+            f = Math.exp(-0.5 * ZIGGURAT_X[i] * ZIGGURAT_X[i]);
+        }
+        for (int i = 0; i < ZIGGURAT_LAYERS; i++) {
+            ZIGGURAT_RATIO[i] = ZIGGURAT_X[i + 1] / ZIGGURAT_X[i];
+        }
+
+        for (int k = 1; k < LOG_FACTORIAL_TABLE_SIZE; k++) {
+            LOG_FACTORIAL[k] = LOG_FACTORIAL[k - 1] + Math.log(k);
+        }
+    }
+
+    private final SplittableRandom source;
+
+    // Poisson constants cached for the last mean, the simulation draws with the same mean over and over
+    private double poissonMean = Double.NaN;
+    private double expMinusMean;
+    private double ptrsMean = Double.NaN;
+    private double logMean, ptrsA, ptrsB, ptrsVr, logInvAlpha;
 
     /**
      * Creates a new random number generator. This constructor sets the seed of the random number generator to
      * a value very likely to be distinct from any other invocation of this constructor.
      */
     public RandomCustom() {
-        super();
+        this(new SplittableRandom());
     }
 
     /**
@@ -21,24 +66,211 @@ public final class RandomCustom extends Random {
      * @param seed the initial seed
      */
     public RandomCustom(int seed) {
-        super(seed);
+        this(new SplittableRandom(seed));
+    }
+
+    /**
+     * Wraps an existing source of random bits.
+     *
+     * @param source the underlying generator
+     */
+    private RandomCustom(SplittableRandom source) {
+        this.source = source;
+    }
+
+    /**
+     * Computes ln(k!) from a table for small k and from the Stirling series otherwise.
+     *
+     * @param k a non-negative integer
+     * @return the natural logarithm of k factorial
+     */
+    private static double logFactorial(long k) {
+        if (k < LOG_FACTORIAL_TABLE_SIZE) {
+            return LOG_FACTORIAL[(int) k];
+        }
+
+        double x = k;
+        double inv = 1.0 / x;
+        double inv2 = inv * inv;
+        return x * Math.log(x) - x + 0.5 * Math.log(2 * Math.PI * x) +
+                inv * (1.0 / 12 - inv2 * (1.0 / 360 - inv2 / 1260));
+    }
+
+    /**
+     * Creates a new generator whose stream is independent of this one. For a given seed, the sequence of generators
+     * obtained by successive calls is always the same, which keeps multithreaded simulations reproducible.
+     *
+     * @return a new generator
+     */
+    public RandomCustom split() {
+        return new RandomCustom(source.split());
+    }
+
+    /**
+     * Returns a uniformly distributed double in [0, 1).
+     *
+     * @return the next uniform double
+     */
+    public double nextDouble() {
+        return source.nextDouble();
+    }
+
+    /**
+     * Returns a uniformly distributed boolean.
+     *
+     * @return the next boolean
+     */
+    public boolean nextBoolean() {
+        return source.nextBoolean();
+    }
+
+    /**
+     * Returns a uniformly distributed integer in [0, bound).
+     *
+     * @param bound the upper bound (exclusive), must be positive
+     * @return the next integer
+     */
+    public int nextInt(int bound) {
+        return source.nextInt(bound);
+    }
+
+    /**
+     * Returns a normally distributed number with mean 0 and standard deviation 1, using the ziggurat method.
+     *
+     * @return the next Gaussian number
+     */
+    public double nextGaussian() {
+        while (true) {
+            long bits = source.nextLong();
+            // the lowest 7 bits select the layer, the upper 53 bits give the uniform number
+            int i = (int) (bits & (ZIGGURAT_LAYERS - 1));
+            double u = 2 * ((bits >>> 11) * DOUBLE_UNIT) - 1;
+
+            if (Math.abs(u) < ZIGGURAT_RATIO[i]) {
+                return u * ZIGGURAT_X[i];
+            }
+
+            if (i == 0) {
+                return nextGaussianTail(u < 0);
+            }
+
+            double x = u * ZIGGURAT_X[i];
+            double f0 = Math.exp(-0.5 * (ZIGGURAT_X[i] * ZIGGURAT_X[i] - x * x));
+            double f1 = Math.exp(-0.5 * (ZIGGURAT_X[i + 1] * ZIGGURAT_X[i + 1] - x * x));
+            if (f1 + source.nextDouble() * (f0 - f1) < 1.0) {
+                return x;
+            }
+        }
+    }
+
+    /**
+     * Samples the tail of the normal distribution beyond the base layer of the ziggurat.
+     *
+     * @param negative whether the sample is in the negative tail
+     * @return a Gaussian number with absolute value greater than the ziggurat base
+     */
+    private double nextGaussianTail(boolean negative) {
+        double x, y;
+        do {
+            // 1 - nextDouble() lies in (0, 1], so the logarithms are finite
+            x = Math.log(1 - source.nextDouble()) / ZIGGURAT_R;
+            y = Math.log(1 - source.nextDouble());
+        } while (-2 * y < x * x);
+
+        return negative ? x - ZIGGURAT_R : ZIGGURAT_R - x;
     }
 
     /**
      * Generates a random number based on the Poisson distribution with the given mean.
+     * Small means are sampled by inversion, large means with the transformed rejection method of Hörmann (PTRS).
      *
      * @param mean the mean of the Poisson distribution
      * @return a random integer following the Poisson distribution.
      */
     public int nextPoisson(double mean) {
-        double L = Math.exp(-mean);
+        if (mean <= 0) {
+            return 0;
+        }
+
+        if (mean < PTRS_MIN_MEAN) {
+            if (mean != poissonMean) {
+                poissonMean = mean;
+                expMinusMean = Math.exp(-mean);
+            }
+            return nextPoissonInversion(mean);
+        }
+
+        if (mean != ptrsMean) {
+            preparePTRS(mean);
+        }
+        return nextPoissonPTRS(mean);
+    }
+
+    /**
+     * Computes and caches the constants used by the PTRS sampler for the given mean.
+     *
+     * @param mean the mean of the Poisson distribution
+     */
+    private void preparePTRS(double mean) {
+        ptrsMean = mean;
+        logMean = Math.log(mean);
+
+        ptrsB = 0.931 + 2.53 * Math.sqrt(mean);
+        ptrsA = -0.059 + 0.02483 * ptrsB;
+        ptrsVr = 0.9277 - 3.6224 / (ptrsB - 2);
+        logInvAlpha = Math.log(1.1239 + 1.1328 / (ptrsB - 3.4));
+    }
+
+    /**
+     * Samples a Poisson number by sequential search of the cumulative distribution. One uniform number is used per
+     * draw, and the expected number of iterations is mean + 1.
+     *
+     * @param mean the mean of the Poisson distribution
+     * @return the sampled integer
+     */
+    private int nextPoissonInversion(double mean) {
+        double u = source.nextDouble();
         int k = 0;
-        double p = 1.0;
-        do {
+        double p = expMinusMean;
+        double cdf = p;
+        while (u > cdf) {
             k++;
-            double u = nextDouble(); // Generate a uniform random number u in [0,1]
-            p *= u;
-        } while (p > L);
-        return k - 1;
+            p *= mean / k;
+            double next = cdf + p;
+            if (next == cdf) {
+                // rounding has exhausted the distribution
+                break;
+            }
+            cdf = next;
+        }
+        return k;
+    }
+
+    /**
+     * Samples a Poisson number with the transformed rejection method with squeeze (PTRS).
+     *
+     * @param mean the mean of the Poisson distribution, at least {@link #PTRS_MIN_MEAN}
+     * @return the sampled integer
+     */
+    private int nextPoissonPTRS(double mean) {
+        while (true) {
+            double u = source.nextDouble() - 0.5;
+            double v = source.nextDouble();
+            double us = 0.5 - Math.abs(u);
+            long k = (long) Math.floor((2 * ptrsA / us + ptrsB) * u + mean + 0.43);
+
+            if (us >= 0.07 && v <= ptrsVr) {
+                return (int) k;
+            }
+
+            if (k < 0 || (us < 0.013 && v > us)) {
+                continue;
+            }
+
+            if (Math.log(v) + logInvAlpha - Math.log(ptrsA / (us * us) + ptrsB) <=
+                    -mean + k * logMean - logFactorial(k)) {
+                return (int) k;
+            }
+        }
     }
 }
@@ -3,9 +3,7 @@ package fiji.plugin.imaging_fcs.imfcs.model.simulation;
 import fiji.plugin.imaging_fcs.imfcs.constants.Constants;
 import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
 import fiji.plugin.imaging_fcs.imfcs.model.SimulationModel;
-import ij.IJ;
 import ij.ImagePlus;
-import ij.process.ImageProcessor;
 
 /**
  * A final class for simulating 2D fluorescence microscopy experiments. It extends the SimulationBase class,
@@ -16,11 +14,12 @@ public final class Simulation2D extends SimulationBase {
     private static final int DOMAIN_MAX_ATTEMPTS = 10;
 
     // Define the hashmap of domains
-    private DomainHashMap domains;
+    private DomainGrid domains;
     private double domainDensity, domainRadius, DoutDinRatio, pIn, pOut;
     private double meshWorkSize, hopProbability;
     private double bleachRadius;
     private boolean isDomain, isMesh;
+    private boolean useIntegratedEmission;
 
     /**
      * Constructs a Simulation2D instance with specified simulation and experimental settings models.
@@ -62,6 +61,8 @@ public final class Simulation2D extends SimulationBase {
         hopProbability = model.getHopProbability();
 
         bleachRadius = model.getBleachRadius();
+
+        useIntegratedEmission = isIntegratedEmissionCheaper(tStep * CPS, PSFSize);
     }
 
     /**
@@ -71,18 +72,22 @@ public final class Simulation2D extends SimulationBase {
      */
     @Override
     public ImagePlus simulate() {
+        // simulate the stack of images frame by frame
+        image = runSimulation("2D Simulation");
+
+        return image;
+    }
+
+    /**
+     * Places the domains, if any, and the particles.
+     */
+    @Override
+    protected void initializeSimulation() {
         if (isDomain) {
             initializeDomains();
         }
 
         initializeParticles();
-
-        // create the stack of images
-        image = IJ.createImage("2D Simulation", "GRAY16", width, height, numFrames);
-
-        runSimulation();
-
-        return image;
     }
 
     /**
@@ -90,12 +95,10 @@ public final class Simulation2D extends SimulationBase {
      * diffusion behaviors. This method randomly places domains without overlap and assigns them a radius.
      */
     private void initializeDomains() {
-        double gridLength = sizeUpperLimit - sizeLowerLimit; // Length of the full simulation grid
-        int numberOfDomains = (int) Math.ceil(
-                Math.pow(gridLength * Constants.PIXEL_SIZE_REAL_SPACE_CONVERSION_FACTOR, 2) * domainDensity);
+        int numberOfDomains = getNumberOfDomains();
 
         double cellSize = domainRadius * 2;
-        domains = new DomainHashMap(cellSize);
+        domains = new DomainGrid(sizeLowerLimit, sizeUpperLimit, cellSize);
 
         int attempts = 0;
         int createdDomains = 0;
@@ -119,6 +122,32 @@ public final class Simulation2D extends SimulationBase {
         }
     }
 
+    /**
+     * Computes the number of domains to place from the domain density and the size of the simulation area.
+     *
+     * @return the number of domains.
+     */
+    private int getNumberOfDomains() {
+        double gridLength = sizeUpperLimit - sizeLowerLimit; // Length of the full simulation grid
+        return (int) Math.ceil(
+                Math.pow(gridLength * Constants.PIXEL_SIZE_REAL_SPACE_CONVERSION_FACTOR, 2) * domainDensity);
+    }
+
+    /**
+     * Estimates the heap used while the simulation is running, including the domain grid.
+     *
+     * @return The estimated memory footprint of the running simulation.
+     */
+    @Override
+    public long estimateMemoryBytes() {
+        long bytes = super.estimateMemoryBytes();
+        if (isDomain) {
+            bytes += DomainGrid.estimateMemoryBytes(sizeLowerLimit, sizeUpperLimit, domainRadius * 2,
+                    getNumberOfDomains());
+        }
+        return bytes;
+    }
+
     /**
      * Initializes particles within the simulation area. Particles are positioned randomly.
      */
@@ -140,8 +169,9 @@ public final class Simulation2D extends SimulationBase {
      * The movement is constrained by the meshWork size, with a certain probability to hop across mesh cells.
      *
      * @param particle the particle to update.
+     * @param random   the random stream used for this particle.
      */
-    private void updateParticlePositionWithMesh(Particle2D particle) {
+    private void updateParticlePositionWithMesh(Particle2D particle, RandomCustom random) {
         // simulate diffusion on a simple meshWork grid
         double randomRange = Math.sqrt(2 * particle.getDiffusionCoefficient() * tStep);
         // Calculate step size based on diffusion coefficient
@@ -150,13 +180,13 @@ public final class Simulation2D extends SimulationBase {
 
         // if hop is not true, step inside the mesh only
         if (!(hopProbability > random.nextDouble())) {
-            while (Math.floor(particle.x / meshWorkSize) !=
-                    Math.floor((particle.x + stepSizeX) / meshWorkSize)) {
+            double meshX = Math.floor(particle.x / meshWorkSize);
+            while (meshX != Math.floor((particle.x + stepSizeX) / meshWorkSize)) {
                 stepSizeX = randomRange * random.nextGaussian();
             }
 
-            while (Math.floor(particle.y / meshWorkSize) !=
-                    Math.floor((particle.y + stepSizeY) / meshWorkSize)) {
+            double meshY = Math.floor(particle.y / meshWorkSize);
+            while (meshY != Math.floor((particle.y + stepSizeY) / meshWorkSize)) {
                 stepSizeY = randomRange * random.nextGaussian();
             }
         }
@@ -189,8 +219,9 @@ public final class Simulation2D extends SimulationBase {
      * if the particle is within a domain and handling crossing between domains and the open simulation area.
      *
      * @param particle the particle to update.
+     * @param random   the random stream used for this particle.
      */
-    private void updateParticlePositionWithDomain(Particle2D particle) {
+    private void updateParticlePositionWithDomain(Particle2D particle, RandomCustom random) {
         Domain domain = domains.findDomainForParticle(particle);
         double diffusionCoefficient = particle.getDiffusionCoefficient();
 
@@ -207,8 +238,8 @@ public final class Simulation2D extends SimulationBase {
         boolean crossInOut = pOut > random.nextDouble();
         boolean crossOutIn = pIn > random.nextDouble();
 
-        Particle2D particleAfterMove = new Particle2D(particle.x + stepSizeX, particle.y + stepSizeY);
-        Domain domainAfterMove = domains.findDomainForParticle(particleAfterMove);
+        // the trial position is kept in locals so that no particle is allocated per move
+        Domain domainAfterMove = domains.findDomain(particle.x + stepSizeX, particle.y + stepSizeY);
 
         if (domain != null && !domain.equals(domainAfterMove)) {
             // Particle is attempting to move out of the domain, which is possible.
@@ -227,10 +258,8 @@ public final class Simulation2D extends SimulationBase {
                 while (!domain.equals(domainAfterMove)) {
                     stepSizeX = randomRange * random.nextGaussian();
                     stepSizeY = randomRange * random.nextGaussian();
-                    particleAfterMove.x = particle.x + stepSizeX;
-                    particleAfterMove.y = particle.y + stepSizeY;
 
-                    domainAfterMove = domains.findDomainForParticle(particleAfterMove);
+                    domainAfterMove = domains.findDomain(particle.x + stepSizeX, particle.y + stepSizeY);
                 }
             }
         } else if (domain == null && domainAfterMove != null) {
@@ -250,10 +279,8 @@ public final class Simulation2D extends SimulationBase {
                 while (domainAfterMove != null) {
                     stepSizeX = randomRange * random.nextGaussian();
                     stepSizeY = randomRange * random.nextGaussian();
-                    particleAfterMove.x = particle.x + stepSizeX;
-                    particleAfterMove.y = particle.y + stepSizeY;
 
-                    domainAfterMove = domains.findDomainForParticle(particleAfterMove);
+                    domainAfterMove = domains.findDomain(particle.x + stepSizeX, particle.y + stepSizeY);
                 }
             }
         }
@@ -267,14 +294,16 @@ public final class Simulation2D extends SimulationBase {
      * mesh-based movement or domain-based movement
      *
      * @param particle the particle to update.
+     * @param random   the random stream used for this particle.
      */
-    protected void updateParticlePosition(Particle2D particle) {
+    @Override
+    protected void updateParticlePosition(Particle2D particle, RandomCustom random) {
         if (!isDomain && isMesh) {
-            updateParticlePositionWithMesh(particle);
+            updateParticlePositionWithMesh(particle, random);
         } else if (isDomain && !isMesh) {
-            updateParticlePositionWithDomain(particle);
+            updateParticlePositionWithDomain(particle, random);
         } else {
-            super.updateParticlePosition(particle);
+            super.updateParticlePosition(particle, random);
         }
     }
 
@@ -301,11 +330,12 @@ public final class Simulation2D extends SimulationBase {
      * Resets a particle's position if it moves out of bounds. This method also resets the bleached state of the particle.
      *
      * @param particle The particle to reset if necessary.
+     * @param random   The random stream used for this particle.
      */
     @Override
-    protected void resetParticleIfOutOfBounds(Particle2D particle) {
+    protected void resetParticleIfOutOfBounds(Particle2D particle, RandomCustom random) {
         if (particle.isOutOfBound(sizeLowerLimit, sizeUpperLimit)) {
-            resetParticle2D(particle);
+            resetParticle2D(particle, random);
             particle.resetBleached();
         }
     }
@@ -314,17 +344,23 @@ public final class Simulation2D extends SimulationBase {
      * Emits photons for a frame based on the particle's position and state. This method is adjusted for 2D simulations,
      * considering whether the particle is in an on or off state, and whether it has been bleached.
      *
-     * @param ipSim    The ImageProcessor for the current frame.
+     * @param frame    The frame buffer for the current frame.
      * @param particle The particle to emit photons from.
+     * @param random   The random stream used for this particle.
      */
     @Override
-    protected void emitPhotonsForFrame(ImageProcessor ipSim, Particle2D particle) {
+    protected void emitPhotonsForFrame(int[] frame, Particle2D particle, RandomCustom random) {
         // If the particle is off or bleached, do nothing
         if (!particle.isOn() || particle.isBleached()) {
             return;
         }
 
-        int numPhotons = random.nextPoisson(tStep * CPS);
-        emitPhotons(ipSim, particle, numPhotons, PSFSize);
+        if (useIntegratedEmission) {
+            // bright particles: sample the count of each pixel instead of placing every photon
+            emitPhotonsIntegrated(frame, particle, tStep * CPS, PSFSize, random);
+        } else {
+            int numPhotons = random.nextPoisson(tStep * CPS);
+            emitPhotons(frame, particle, numPhotons, PSFSize, random);
+        }
     }
 }
@@ -2,9 +2,7 @@ package fiji.plugin.imaging_fcs.imfcs.model.simulation;
 
 import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
 import fiji.plugin.imaging_fcs.imfcs.model.SimulationModel;
-import ij.IJ;
 import ij.ImagePlus;
-import ij.process.ImageProcessor;
 
 import static fiji.plugin.imaging_fcs.imfcs.constants.Constants.REFRACTIVE_INDEX;
 
@@ -70,14 +68,18 @@ public final class Simulation3D extends SimulationBase {
      */
     @Override
     public ImagePlus simulate() {
-        initializeParticles();
-
-        image = IJ.createImage("3D Simulation", "GRAY16", width, height, numFrames);
-
-        runSimulation();
+        image = runSimulation("3D Simulation");
         return image;
     }
 
+    /**
+     * Places the particles in the simulation volume.
+     */
+    @Override
+    protected void initializeSimulation() {
+        initializeParticles();
+    }
+
     /**
      * Initializes particles with 3D positions within the simulation bounds.
      */
@@ -106,11 +108,12 @@ public final class Simulation3D extends SimulationBase {
      * Updates the position of a particle based on its diffusion coefficient and the time step, including z-axis movement.
      *
      * @param particle The particle to update.
+     * @param random   The random stream used for this particle.
      */
     @Override
-    protected void updateParticlePosition(Particle2D particle) {
+    protected void updateParticlePosition(Particle2D particle, RandomCustom random) {
         // update particle position for x and y
-        super.updateParticlePosition(particle);
+        super.updateParticlePosition(particle, random);
 
         double stepSizeZ = Math.sqrt(2 * particle.getDiffusionCoefficient() * tStep) * random.nextGaussian();
         ((Particle3D) particle).z += stepSizeZ;
@@ -120,15 +123,16 @@ public final class Simulation3D extends SimulationBase {
      * Resets a particle's position if it moves out of bounds, considering the z-axis.
      *
      * @param particleToCast The particle to reset if necessary.
+     * @param random         The random stream used for this particle.
      */
     @Override
-    protected void resetParticleIfOutOfBounds(Particle2D particleToCast) {
+    protected void resetParticleIfOutOfBounds(Particle2D particleToCast, RandomCustom random) {
         Particle3D particle = (Particle3D) particleToCast;
 
         if (particle.isOutOfBound(sizeLowerLimit, sizeUpperLimit, sizeZLowerLimit, sizeZUpperLimit)) {
             if (random.nextBoolean()) {
                 // resample at random z position
-                resetParticle2D(particle);
+                resetParticle2D(particle, random);
                 particle.z = sizeZLowerLimit + random.nextDouble() * (sizeZUpperLimit - sizeZLowerLimit);
             } else {
                 // resample at z-boundary
@@ -144,11 +148,12 @@ public final class Simulation3D extends SimulationBase {
     /**
      * Emits photons for a frame based on the particle's position and state, adjusted for 3D simulations.
      *
-     * @param ipSim      The ImageProcessor for the current frame.
+     * @param frame      The frame buffer for the current frame.
      * @param particle2D The particle to emit photons from.
+     * @param random     The random stream used for this particle.
      */
     @Override
-    protected void emitPhotonsForFrame(ImageProcessor ipSim, Particle2D particle2D) {
+    protected void emitPhotonsForFrame(int[] frame, Particle2D particle2D, RandomCustom random) {
         // If the particle is off or bleached, do nothing
         if (!particle2D.isOn() || particle2D.isBleached()) {
             return;
@@ -160,6 +165,6 @@ public final class Simulation3D extends SimulationBase {
         int numPhotons = (int) Math.round(Math.abs(
                 randomPoisson * Math.exp(-0.5 * Math.pow(particle.z / lightSheetThickness, 2))));
 
-        emitPhotons(ipSim, particle, numPhotons, zCor);
+        emitPhotons(frame, particle, numPhotons, zCor, random);
     }
 }
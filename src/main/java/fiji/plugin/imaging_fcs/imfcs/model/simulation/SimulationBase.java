@@ -4,7 +4,13 @@ import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
 import fiji.plugin.imaging_fcs.imfcs.model.SimulationModel;
 import ij.IJ;
 import ij.ImagePlus;
-import ij.process.ImageProcessor;
+import ij.ImageStack;
+import ij.process.ShortProcessor;
+import org.apache.commons.math3.special.Erf;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /**
  * An abstract base class for simulating fluorescence microscopy experiments.
@@ -13,6 +19,13 @@ import ij.process.ImageProcessor;
  */
 public abstract class SimulationBase {
     protected static final double OBSERVATION_WAVELENGTH_CONVERSION_FACTOR = Math.pow(10, 9);
+    // half width of the window, in PSF standard deviations, used when photons are sampled per pixel
+    private static final double PSF_WINDOW_SIGMAS = 5;
+    // measured cost of sampling one pixel of the window, in individually drawn photons
+    private static final double PHOTONS_PER_WINDOW_PIXEL = 5;
+    private static final int MAX_PIXEL_VALUE = 65535;
+    // rough size of a particle object and of its reference in the particles array, used for memory estimates
+    private static final long PARTICLE_BYTES = 64;
     protected final RandomCustom random;
     protected double tStep, darkF, pixelSize, wavelength, PSFSize, midPos, sizeLowerLimit, sizeUpperLimit, bleachFactor,
             blinkOnFactor, blinkOffFactor, sqrtCameraNoiseFactor, D1, D2, D3;
@@ -25,6 +38,9 @@ public abstract class SimulationBase {
     protected Particle2D[] particles;
     private int stepsPerFrame, bleachFrame;
     private int cameraOffset;
+    private int numThreads;
+    private ParticlePartition[] partitions;
+    private int[] frameBuffer; // counts of the frame being simulated, converted to 16-bit once complete
 
     /**
      * Constructs a SimulationBase instance with specified simulation and experimental settings models.
@@ -61,6 +77,7 @@ public abstract class SimulationBase {
         numFrames = model.getNumFrames();
         stepsPerFrame = model.getStepsPerFrame();
         bleachFrame = model.getBleachFrame();
+        numThreads = Math.max(1, model.getNumThreads());
 
         // Calculate the time step based on frame time and steps per frame
         tStep = model.getFrameTime() / stepsPerFrame;
@@ -133,6 +150,63 @@ public abstract class SimulationBase {
      */
     public abstract ImagePlus simulate();
 
+    /**
+     * Runs the simulation and hands every frame to the given sink as soon as it is simulated, so that the stack
+     * never has to be held in memory.
+     *
+     * @param frameSink Receives the 16-bit pixels of each frame, in order.
+     */
+    public void simulate(Consumer<short[]> frameSink) {
+        initializeSimulation();
+
+        IJ.showStatus("Simulating ...");
+        frameBuffer = new int[width * height];
+        partitions = numThreads > 1 ? createPartitions() : null;
+
+        try {
+            for (int n = 0; n < numFrames; n++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new RuntimeException("Simulation interrupted");
+                }
+                frameSink.accept(processFrame(n));
+            }
+        } finally {
+            // release the buffers, the simulation object may be kept until the end of a batch
+            frameBuffer = null;
+            partitions = null;
+            particles = null;
+        }
+    }
+
+    /**
+     * Creates the initial state of the simulation, such as the particles and the domains.
+     */
+    protected abstract void initializeSimulation();
+
+    /**
+     * Estimates the heap used while the simulation is running, in bytes.
+     *
+     * @return The estimated memory footprint of the running simulation.
+     */
+    public long estimateMemoryBytes() {
+        long frameBytes = (long) width * height;
+        // the frame buffer and one accumulator per partition are ints, the frame handed to the sink is 16-bit
+        long buffers = frameBytes * (Integer.BYTES * (1 + (numThreads > 1 ? numThreads : 0)) + Short.BYTES);
+        return buffers + numParticles * PARTICLE_BYTES;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
     /**
      * Sets the initial state of a particle based on its index and the simulation parameters.
      *
@@ -157,70 +231,121 @@ public abstract class SimulationBase {
 
     /**
      * Runs the simulation, processing each frame according to the simulation model.
+     *
+     * @param title The title of the resulting image.
+     * @return An ImagePlus object containing the simulated image stack.
      */
-    protected void runSimulation() {
-        IJ.showStatus("Simulating ...");
-        for (int n = 0; n < numFrames; n++) {
-            if (Thread.currentThread().isInterrupted()) {
-                throw new RuntimeException("Simulation interrupted");
-            }
-            processFrame(n);
-            IJ.showProgress(n, numFrames);
-        }
+    protected ImagePlus runSimulation(String title) {
+        ImageStack stack = new ImageStack(width, height);
+        simulate(pixels -> stack.addSlice(new ShortProcessor(width, height, pixels, null)));
+
+        return new ImagePlus(title, stack);
     }
 
     /**
      * Processes a single frame of the simulation.
      *
      * @param frameNumber The frame number to process.
+     * @return The 16-bit pixels of the simulated frame.
      */
-    protected void processFrame(int frameNumber) {
-        // Initialize the frame in your visualization or data structure
-        // For example, reset the image processor for the current frame if visualizing
-        ImageProcessor ipSim = initializeFrameProcessor(frameNumber);
+    protected short[] processFrame(int frameNumber) {
+        // Fill the frame buffer with the camera offset and noise
+        initializeFrameBuffer(frameBuffer);
 
         // Handle bleaching at the specified frame
         if (frameNumber == bleachFrame) {
             applyBleaching();
         }
 
-        // Iterate through each simulation step within the current frame
+        if (partitions == null) {
+            // Iterate through each simulation step within the current frame
+            stepParticles(frameBuffer, 0, particles.length, random);
+        } else {
+            // Each partition steps its own particles with its own random stream into its own accumulator
+            IntStream.range(0, partitions.length).parallel().forEach(p -> partitions[p].step());
+            for (ParticlePartition partition : partitions) {
+                partition.reduceInto(frameBuffer);
+            }
+        }
+
+        // Update progress display if applicable
+        IJ.showProgress(frameNumber + 1, numFrames);
+
+        return toShortPixels(frameBuffer);
+    }
+
+    /**
+     * Converts a frame buffer to 16-bit pixels, saturating at the maximum 16-bit value.
+     *
+     * @param frame The frame buffer.
+     * @return The 16-bit pixels.
+     */
+    private static short[] toShortPixels(int[] frame) {
+        short[] pixels = new short[frame.length];
+        for (int i = 0; i < frame.length; i++) {
+            pixels[i] = (short) Math.min(frame[i], MAX_PIXEL_VALUE);
+        }
+        return pixels;
+    }
+
+    /**
+     * Runs all simulation steps of a frame for a contiguous range of particles.
+     *
+     * @param frame  The frame buffer receiving the emitted photons.
+     * @param from   The index of the first particle (inclusive).
+     * @param to     The index of the last particle (exclusive).
+     * @param random The random stream used for these particles.
+     */
+    private void stepParticles(int[] frame, int from, int to, RandomCustom random) {
         for (int step = 0; step < stepsPerFrame; step++) {
-            for (Particle2D particle : particles) {
+            for (int i = from; i < to; i++) {
+                Particle2D particle = particles[i];
                 // Update particle positions based on diffusion and potential domain constraints
-                updateParticlePosition(particle);
+                updateParticlePosition(particle, random);
                 // Handle bleaching and blinking effects for the particle
-                handleBleachingAndBlinking(particle);
+                handleBleachingAndBlinking(particle, random);
                 // Reset particle position if it moves out of bounds
-                resetParticleIfOutOfBounds(particle);
+                resetParticleIfOutOfBounds(particle, random);
                 // Emit photons for the current frame and update the visualization
-                emitPhotonsForFrame(ipSim, particle);
+                emitPhotonsForFrame(frame, particle, random);
             }
         }
-
-        // Update progress display if applicable
-        IJ.showProgress(frameNumber + 1, numFrames);
     }
 
     /**
-     * Initializes the ImageProcessor for a specific frame, applying camera noise and offset.
+     * Splits the particles into one contiguous partition per thread. The random streams are split from the main
+     * generator in partition order, so the result only depends on the seed and the number of threads.
      *
-     * @param frameNumber The frame number to initialize the processor for.
-     * @return The initialized ImageProcessor for the specified frame.
+     * @return The particle partitions.
      */
-    protected ImageProcessor initializeFrameProcessor(int frameNumber) {
-        // Get the ImageProcessor for the current frame. Frames in ImageJ are 1-based.
-        ImageProcessor ipSim = image.getStack().getProcessor(frameNumber + 1);
+    private ParticlePartition[] createPartitions() {
+        int numPartitions = Math.min(numThreads, Math.max(1, particles.length));
+        int chunkSize = (particles.length + numPartitions - 1) / numPartitions;
+
+        ParticlePartition[] result = new ParticlePartition[numPartitions];
+        for (int p = 0; p < numPartitions; p++) {
+            int from = Math.min(p * chunkSize, particles.length);
+            int to = Math.min(from + chunkSize, particles.length);
+            result[p] = new ParticlePartition(from, to, random.split());
+        }
+
+        return result;
+    }
 
+    /**
+     * Fills the frame buffer with the camera offset and a noise term for each pixel.
+     *
+     * @param frame The frame buffer to initialize.
+     */
+    protected void initializeFrameBuffer(int[] frame) {
         // add the camera offset and a noise term to each pixel
-        for (int dx = 0; dx < height; dx++) {
-            for (int dy = 0; dy < width; dy++) {
-                double random_noise = random.nextGaussian() * sqrtCameraNoiseFactor;
-                ipSim.putPixelValue(dx, dy, cameraOffset + random_noise);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double value = cameraOffset + random.nextGaussian() * sqrtCameraNoiseFactor;
+                // round and saturate as a 16-bit processor would
+                frame[y * width + x] = (int) (Math.min(Math.max(value, 0), MAX_PIXEL_VALUE) + 0.5);
             }
         }
-
-        return ipSim; // Return the initialized ImageProcessor for the current frame
     }
 
     /**
@@ -233,8 +358,9 @@ public abstract class SimulationBase {
      * Updates the position of a particle based on its diffusion coefficient and the time step.
      *
      * @param particle The particle to update.
+     * @param random   The random stream used for this particle.
      */
-    protected void updateParticlePosition(Particle2D particle) {
+    protected void updateParticlePosition(Particle2D particle, RandomCustom random) {
         // Calculate step size based on diffusion coefficient
         double randomRange = Math.sqrt(2 * particle.getDiffusionCoefficient() * tStep);
 
@@ -250,8 +376,9 @@ public abstract class SimulationBase {
      * Handles bleaching and blinking effects for a particle.
      *
      * @param particle The particle to handle effects for.
+     * @param random   The random stream used for this particle.
      */
-    protected void handleBleachingAndBlinking(Particle2D particle) {
+    protected void handleBleachingAndBlinking(Particle2D particle, RandomCustom random) {
         // Handle bleaching
         if (bleachFlag && !particle.isBleached()) { // If the particle is not already bleached
             // Assuming bleachFactor is the probability of not bleaching, adjust as necessary
@@ -279,10 +406,17 @@ public abstract class SimulationBase {
      * by subclasses to implement specific out-of-bounds behavior.
      *
      * @param particle The particle to reset if necessary.
+     * @param random   The random stream used for this particle.
      */
-    protected abstract void resetParticleIfOutOfBounds(Particle2D particle);
+    protected abstract void resetParticleIfOutOfBounds(Particle2D particle, RandomCustom random);
 
-    protected void resetParticle2D(Particle2D particle) {
+    /**
+     * Moves a particle to a random position on the border of the simulation area.
+     *
+     * @param particle The particle to reset.
+     * @param random   The random stream used for this particle.
+     */
+    protected void resetParticle2D(Particle2D particle, RandomCustom random) {
         double random_position = sizeLowerLimit + random.nextDouble() * (sizeUpperLimit - sizeLowerLimit);
         double random_border = random.nextBoolean() ? sizeLowerLimit : sizeUpperLimit;
         // Randomly choose whether to reset x or y
@@ -300,20 +434,22 @@ public abstract class SimulationBase {
     /**
      * Emits photons for a frame based on the particle's position and state.
      *
-     * @param ipSim    The ImageProcessor for the current frame.
+     * @param frame    The frame buffer for the current frame.
      * @param particle The particle to emit photons from.
+     * @param random   The random stream used for this particle.
      */
-    protected abstract void emitPhotonsForFrame(ImageProcessor ipSim, Particle2D particle);
+    protected abstract void emitPhotonsForFrame(int[] frame, Particle2D particle, RandomCustom random);
 
     /**
-     * Simulates the emission of photons from a particle and updates the image processor accordingly.
+     * Simulates the emission of photons from a particle and updates the frame buffer accordingly.
      *
-     * @param ipSim      The ImageProcessor for the current frame.
+     * @param frame      The frame buffer for the current frame.
      * @param particle   The particle emitting photons.
      * @param numPhotons The number of photons to emit.
      * @param mean       The mean displacement of the photons from the particle's position.
+     * @param random     The random stream used for this particle.
      */
-    protected void emitPhotons(ImageProcessor ipSim, Particle2D particle, int numPhotons, double mean) {
+    protected void emitPhotons(int[] frame, Particle2D particle, int numPhotons, double mean, RandomCustom random) {
         for (int i = 0; i < numPhotons; i++) {
             double photonX = particle.x + random.nextGaussian() * mean;
             double photonY = particle.y + random.nextGaussian() * mean;
@@ -323,9 +459,124 @@ public abstract class SimulationBase {
                 int yPixel = (int) ((photonY + midPos) / pixelSize);
 
                 // Increment the pixel value at the photon's position to simulate photon emission
-                double currentValue = ipSim.getPixelValue(xPixel, yPixel);
-                ipSim.putPixelValue(xPixel, yPixel, currentValue + 1);
+                frame[yPixel * width + xPixel]++;
+            }
+        }
+    }
+
+    /**
+     * Checks whether sampling photon counts per pixel is cheaper than drawing each photon. A pixel of the PSF window
+     * costs about as much as {@link #PHOTONS_PER_WINDOW_PIXEL} individually drawn photons.
+     *
+     * @param expectedPhotons The mean number of photons emitted by a particle per step.
+     * @param sigma           The standard deviation of the PSF.
+     * @return True if {@link #emitPhotonsIntegrated} should be used.
+     */
+    protected boolean isIntegratedEmissionCheaper(double expectedPhotons, double sigma) {
+        int windowSize = 2 * (int) Math.ceil(PSF_WINDOW_SIGMAS * sigma / pixelSize) + 1;
+        return expectedPhotons > PHOTONS_PER_WINDOW_PIXEL * windowSize * windowSize;
+    }
+
+    /**
+     * Emits a Poisson number of photons with a Gaussian PSF by sampling the count of each pixel directly.
+     * Each pixel receives a Poisson number of photons whose mean is the expected number of photons times the PSF
+     * integrated over the pixel, which has the same distribution as drawing a Poisson number of photons and
+     * placing each of them.
+     *
+     * @param frame           The frame buffer for the current frame.
+     * @param particle        The particle emitting photons.
+     * @param expectedPhotons The mean number of photons emitted.
+     * @param sigma           The standard deviation of the PSF.
+     * @param random          The random stream used for this particle.
+     */
+    protected void emitPhotonsIntegrated(int[] frame, Particle2D particle, double expectedPhotons, double sigma,
+                                         RandomCustom random) {
+        int halfWindow = (int) Math.ceil(PSF_WINDOW_SIGMAS * sigma / pixelSize);
+        int centerX = (int) Math.floor((particle.x + midPos) / pixelSize);
+        int centerY = (int) Math.floor((particle.y + midPos) / pixelSize);
+
+        int firstX = Math.max(0, centerX - halfWindow);
+        int lastX = Math.min(width - 1, centerX + halfWindow);
+        int firstY = Math.max(0, centerY - halfWindow);
+        int lastY = Math.min(height - 1, centerY + halfWindow);
+        if (firstX > lastX || firstY > lastY) {
+            return;
+        }
+
+        double[] probabilitiesX = pixelProbabilities(particle.x, firstX, lastX, sigma);
+        double[] probabilitiesY = pixelProbabilities(particle.y, firstY, lastY, sigma);
+
+        for (int y = firstY; y <= lastY; y++) {
+            double meanY = expectedPhotons * probabilitiesY[y - firstY];
+            for (int x = firstX; x <= lastX; x++) {
+                frame[y * width + x] += random.nextPoisson(meanY * probabilitiesX[x - firstX]);
+            }
+        }
+    }
+
+    /**
+     * Integrates a one-dimensional Gaussian PSF over a range of pixels.
+     *
+     * @param position The position of the particle along the axis.
+     * @param first    The first pixel of the range.
+     * @param last     The last pixel of the range.
+     * @param sigma    The standard deviation of the PSF.
+     * @return The probability for a photon to land in each pixel of the range.
+     */
+    private double[] pixelProbabilities(double position, int first, int last, double sigma) {
+        double scale = 1 / (Math.sqrt(2) * sigma);
+        double[] probabilities = new double[last - first + 1];
+
+        double lower = Erf.erf((first * pixelSize - midPos - position) * scale);
+        for (int i = 0; i < probabilities.length; i++) {
+            double upper = Erf.erf(((first + i + 1) * pixelSize - midPos - position) * scale);
+            probabilities[i] = 0.5 * (upper - lower);
+            lower = upper;
+        }
+
+        return probabilities;
+    }
+
+    /**
+     * A contiguous range of particles stepped by one worker, with its own random stream and its own photon
+     * accumulator. Accumulators are summed into the frame once all partitions are done.
+     */
+    private final class ParticlePartition {
+        private final int from, to;
+        private final RandomCustom random;
+        private final int[] accumulator;
+
+        /**
+         * Creates a partition.
+         *
+         * @param from   The index of the first particle (inclusive).
+         * @param to     The index of the last particle (exclusive).
+         * @param random The random stream owned by this partition.
+         */
+        private ParticlePartition(int from, int to, RandomCustom random) {
+            this.from = from;
+            this.to = to;
+            this.random = random;
+            this.accumulator = new int[width * height];
+        }
+
+        /**
+         * Runs all simulation steps of the current frame for the particles of this partition.
+         */
+        private void step() {
+            stepParticles(accumulator, from, to, random);
+        }
+
+        /**
+         * Adds the photons accumulated during the frame to the frame buffer and clears the accumulator.
+         *
+         * @param frame The frame buffer for the current frame.
+         */
+        private void reduceInto(int[] frame) {
+            for (int i = 0; i < accumulator.length; i++) {
+                frame[i] += accumulator[i];
             }
+            Arrays.fill(accumulator, 0);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,170 @@
+package fiji.plugin.imaging_fcs.imfcs.model.simulation;
+
+import fiji.plugin.imaging_fcs.imfcs.utils.TiffStackWriter;
+import ij.IJ;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the simulations of a batch on a fixed number of worker threads and streams their frames to TIFF files.
+ * <p>
+ * The number of simulations running at the same time is bounded by the requested number of workers and by a memory
+ * budget, using the memory estimate of the simulations. Queued simulations hold no frame or particle, so a sweep of
+ * any size can be submitted at once.
+ * </p>
+ * Callbacks are invoked on the Event Dispatch Thread, once per submitted simulation, including cancelled ones.
+ */
+public final class SimulationBatchScheduler {
+    private final ExecutorService executor;
+    private final List<FutureTask<Void>> tasks = new ArrayList<>();
+    private final int concurrency;
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param numWorkers         the maximum number of simulations running at the same time.
+     * @param memoryBudget       the memory that running simulations may use together, in bytes.
+     * @param bytesPerSimulation the memory used by the largest simulation of the batch, in bytes.
+     */
+    public SimulationBatchScheduler(int numWorkers, long memoryBudget, long bytesPerSimulation) {
+        concurrency = computeConcurrency(numWorkers, memoryBudget, bytesPerSimulation);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "simulation-batch-" + threadNumber.incrementAndGet());
+            // do not keep Fiji alive because of a batch
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Computes how many simulations can run at the same time. At least one simulation always runs, even if it does
+     * not fit in the budget.
+     *
+     * @param numWorkers         the maximum number of simulations running at the same time.
+     * @param memoryBudget       the memory that running simulations may use together, in bytes.
+     * @param bytesPerSimulation the memory used by one simulation, in bytes.
+     * @return the number of worker threads.
+     */
+    public static int computeConcurrency(int numWorkers, long memoryBudget, long bytesPerSimulation) {
+        long fitting = memoryBudget / Math.max(1, bytesPerSimulation);
+        return (int) Math.max(1, Math.min(numWorkers, fitting));
+    }
+
+    /**
+     * Queues a simulation whose frames are written to the given file. The file is deleted if the simulation fails or
+     * is cancelled.
+     *
+     * @param simulation the simulation to run.
+     * @param file       the TIFF file to write.
+     * @param onComplete callback invoked once the simulation is done, whatever the outcome.
+     * @param onError    callback invoked before {@code onComplete} if the simulation failed or was cancelled.
+     */
+    public void submit(SimulationBase simulation, File file, Runnable onComplete, Runnable onError) {
+        FutureTask<Void> task = new FutureTask<Void>(() -> {
+            writeSimulation(simulation, file);
+            return null;
+        }) {
+            @Override
+            protected void done() {
+                boolean failed = isCancelled();
+                if (!failed) {
+                    try {
+                        get();
+                    } catch (ExecutionException | InterruptedException e) {
+                        failed = true;
+                    }
+                }
+
+                if (failed) {
+                    // a cancelled task may never have run, the partial file is also removed here
+                    deleteQuietly(file);
+                }
+
+                boolean error = failed;
+                SwingUtilities.invokeLater(() -> {
+                    if (error) {
+                        onError.run();
+                    }
+                    onComplete.run();
+                });
+            }
+        };
+
+        tasks.add(task);
+        executor.execute(task);
+    }
+
+    /**
+     * Runs a simulation and streams its frames to a TIFF file.
+     *
+     * @param simulation the simulation to run.
+     * @param file       the TIFF file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writeSimulation(SimulationBase simulation, File file) throws IOException {
+        try (TiffStackWriter writer = new TiffStackWriter(file, simulation.getWidth(), simulation.getHeight())) {
+            simulation.simulate(pixels -> {
+                try {
+                    writer.writeFrame(pixels);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            // the writer is closed at this point, so the partial file can be removed on every platform
+            deleteQuietly(file);
+
+            if (!Thread.currentThread().isInterrupted()) {
+                Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+                IJ.log(String.format("Simulation %s failed: %s", file.getName(), cause.getMessage()));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes a file, ignoring errors.
+     *
+     * @param file the file to delete.
+     */
+    private static void deleteQuietly(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Lets the queued simulations run and releases the worker threads once they are all done.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Cancels the queued simulations and interrupts the running ones.
+     */
+    public void cancel() {
+        for (FutureTask<Void> task : tasks) {
+            task.cancel(true);
+        }
+        executor.shutdownNow();
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+}
@@ -0,0 +1,189 @@
+package fiji.plugin.imaging_fcs.imfcs.model.simulation;
+
+import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
+import fiji.plugin.imaging_fcs.imfcs.model.FitModel;
+import fiji.plugin.imaging_fcs.imfcs.model.PixelModel;
+import fiji.plugin.imaging_fcs.imfcs.model.correlations.Correlator;
+import fiji.plugin.imaging_fcs.imfcs.model.correlations.StreamingCorrelator;
+import fiji.plugin.imaging_fcs.imfcs.utils.ExcelExporter;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultsWriter;
+import ij.IJ;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static fiji.plugin.imaging_fcs.imfcs.model.correlations.MeanSquareDisplacement.correlationToMSD;
+
+/**
+ * Simulates an experiment and correlates it at the same time, without storing the image stack.
+ * <p>
+ * The simulation runs on its own thread and hands its frames through a bounded queue to a
+ * {@link StreamingCorrelator}, which consumes them in chunks on the calling thread. Once the last frame is
+ * correlated, every pixel is fitted. Only the correlation functions and the fit results are kept, so the memory
+ * does not depend on the number of frames. It can be used headless, for instance to validate the analysis on
+ * long simulations.
+ * </p>
+ */
+public final class SimulationCorrelationPipeline {
+    // frames waiting for the correlator, bounds the memory if the simulation is faster
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int FRAMES_PER_CHUNK = 64;
+    private static final short[] END_OF_STREAM = new short[0];
+
+    private final ExpSettingsModel settings;
+    private final FitModel fitModel;
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param settings the experimental settings used for the correlation and the fit.
+     * @param fitModel the fit model, pixels are not fitted if no parameter can be fitted.
+     */
+    public SimulationCorrelationPipeline(ExpSettingsModel settings, FitModel fitModel) {
+        this.settings = settings;
+        this.fitModel = fitModel;
+    }
+
+    /**
+     * Runs the simulation, correlates and fits every pixel.
+     *
+     * @param simulation the simulation to run.
+     * @param background the constant background subtracted from each pixel, usually the camera offset.
+     * @return a correlator holding the pixel models and the lag times.
+     * @throws InterruptedException if the calling thread is interrupted.
+     */
+    public Correlator run(SimulationBase simulation, int background) throws InterruptedException {
+        StreamingCorrelator streamingCorrelator =
+                new StreamingCorrelator(settings, fitModel, simulation.getWidth(), simulation.getHeight(),
+                        simulation.getNumFrames(), background);
+
+        BlockingQueue<short[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        RuntimeException[] simulationError = new RuntimeException[1];
+
+        Thread producer = new Thread(() -> {
+            try {
+                simulation.simulate(frame -> {
+                    try {
+                        queue.put(frame);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Simulation interrupted");
+                    }
+                });
+            } catch (RuntimeException e) {
+                simulationError[0] = e;
+            } finally {
+                try {
+                    queue.put(END_OF_STREAM);
+                } catch (InterruptedException e) {
+                    // the consumer is gone
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "simulation-producer");
+
+        producer.start();
+        try {
+            consume(queue, streamingCorrelator);
+        } finally {
+            producer.interrupt();
+            producer.join();
+        }
+
+        if (simulationError[0] != null) {
+            throw simulationError[0];
+        }
+
+        Correlator correlator = streamingCorrelator.finish();
+        fitPixels(correlator);
+
+        return correlator;
+    }
+
+    /**
+     * Takes the frames from the queue in chunks and correlates them until the end of the stream.
+     *
+     * @param queue               the queue filled by the simulation.
+     * @param streamingCorrelator the correlator.
+     * @throws InterruptedException if the calling thread is interrupted.
+     */
+    private void consume(BlockingQueue<short[]> queue, StreamingCorrelator streamingCorrelator)
+            throws InterruptedException {
+        List<short[]> chunk = new ArrayList<>(FRAMES_PER_CHUNK);
+        boolean finished = false;
+
+        while (!finished) {
+            chunk.clear();
+            chunk.add(queue.take());
+            queue.drainTo(chunk, FRAMES_PER_CHUNK - 1);
+
+            // the end of the stream is always the last element put in the queue
+            int last = chunk.size() - 1;
+            if (chunk.get(last) == END_OF_STREAM) {
+                chunk.remove(last);
+                finished = true;
+            }
+
+            if (!chunk.isEmpty()) {
+                streamingCorrelator.addFrames(chunk);
+            }
+        }
+    }
+
+    /**
+     * Fits every correlated pixel and computes the MSD if it is enabled.
+     *
+     * @param correlator the correlator holding the pixel models.
+     */
+    private void fitPixels(Correlator correlator) {
+        PixelModel[][] pixelModels = correlator.getPixelModels();
+
+        for (int x = 0; x < pixelModels.length; x++) {
+            for (int y = 0; y < pixelModels[x].length; y++) {
+                PixelModel pixelModel = pixelModels[x][y];
+                if (pixelModel == null) {
+                    continue;
+                }
+
+                if (fitModel.canFit()) {
+                    try {
+                        fitModel.fit(pixelModel, settings.getFitModel(), correlator.getLagTimes(), null);
+                    } catch (RuntimeException e) {
+                        IJ.log(String.format("%s at pixel x=%d, y=%d", e.getClass().getName(), x, y));
+                        pixelModel.setFitted(false);
+                    }
+                }
+
+                if (settings.isMSD()) {
+                    pixelModel.setMSD(correlationToMSD(pixelModel.getCorrelationFunction(), settings.getParamAx(),
+                            settings.getParamAy(), settings.getParamW(), settings.getSigmaZ(), settings.isMSD3d()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the correlation functions and the fit results to a results file, or to an Excel file if the path ends
+     * with ".xlsx".
+     *
+     * @param correlator the correlator returned by {@link #run}.
+     * @param filePath   the path of the file.
+     * @throws IOException if the file cannot be written, it is then deleted.
+     */
+    public void saveResults(Correlator correlator, String filePath) throws IOException {
+        Map<String, Object> settingsMap = settings.toMap();
+        if (!filePath.endsWith(".xlsx")) {
+            ResultsWriter.writeResultsFile(filePath, settingsMap,
+                    (writer) -> writer.writePixelModels(correlator.getPixelModels(), settings, correlator));
+            return;
+        }
+
+        ExcelExporter.prepareExcelFile(filePath, settingsMap,
+                (workbook) -> ExcelExporter.saveExcelPixelModels(workbook, correlator.getPixelModels(), settings,
+                        correlator)).write();
+    }
+}
@@ -0,0 +1,171 @@
+package fiji.plugin.imaging_fcs.imfcs.utils;
+
+import ij.IJ;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Processes a list of files in three overlapping stages: load, analysis and export.
+ * <p>
+ * Files are loaded one at a time, in order, ahead of the analysis, so the next stack is read from disk while the
+ * current one is analyzed. Up to {@code parallelism} files are analyzed at the same time, and their results are
+ * written one at a time while the next files are analyzed. The files in flight, from their load to the end of their
+ * export, are bounded by a memory budget estimated from the size of the files, so that results waiting for a slow
+ * export also count. The time spent in each stage is logged at the end of a batch.
+ * </p>
+ *
+ * @param <I> the loaded file, e.g. an image.
+ * @param <R> the result of the analysis of a file.
+ */
+public final class BatchPipeline<I, R> {
+    private static final long KILOBYTE = 1024;
+
+    private final int parallelism;
+    private final int memoryBudgetKb;
+    private final Function<File, I> loader;
+    private final BiFunction<File, I, R> analyzer;
+    private final BiConsumer<File, R> exporter;
+
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder analysisNanos = new LongAdder();
+    private final LongAdder exportNanos = new LongAdder();
+
+    /**
+     * Creates a pipeline. Each stage reports a failure by throwing a RuntimeException, the file is then skipped.
+     *
+     * @param parallelism  the maximum number of files analyzed at the same time.
+     * @param memoryBudget the memory the files in flight and their results may use together, in bytes. A file larger
+     *                     than the budget is still processed, alone.
+     * @param loader       loads a file, it must not return null.
+     * @param analyzer     analyzes a loaded file, given with its path. It is responsible for releasing the loaded
+     *                     file, even on failure.
+     * @param exporter     writes the result of the analysis of a file.
+     */
+    public BatchPipeline(int parallelism, long memoryBudget, Function<File, I> loader,
+                         BiFunction<File, I, R> analyzer, BiConsumer<File, R> exporter) {
+        this.parallelism = Math.max(1, parallelism);
+        this.memoryBudgetKb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / KILOBYTE));
+        this.loader = loader;
+        this.analyzer = analyzer;
+        this.exporter = exporter;
+    }
+
+    /**
+     * Creates a named daemon executor running one stage.
+     *
+     * @param name       the name of the threads.
+     * @param numThreads the number of threads.
+     * @return the executor.
+     */
+    private static ExecutorService stageExecutor(String name, int numThreads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs a stage and adds its duration to a counter.
+     */
+    private static <A, B> B timed(LongAdder counter, Function<A, B> stage, A input) {
+        long start = System.nanoTime();
+        try {
+            return stage.apply(input);
+        } finally {
+            counter.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Processes the files and waits until every result is written.
+     *
+     * @param files the files to process.
+     * @return the number of files that failed.
+     */
+    public int run(List<File> files) {
+        ExecutorService loadExecutor = stageExecutor("batch-load", 1);
+        ExecutorService analysisExecutor = stageExecutor("batch-analysis", parallelism);
+        ExecutorService exportExecutor = stageExecutor("batch-export", 1);
+
+        // a file is loaded once an analysis slot is about to be free and its memory fits in the budget, both are held
+        // until its result is written
+        Semaphore slots = new Semaphore(parallelism + 1);
+        Semaphore memory = new Semaphore(memoryBudgetKb, true);
+        AtomicInteger failures = new AtomicInteger();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        long start = System.nanoTime();
+        try {
+            for (File file : files) {
+                int permits = (int) Math.max(1, Math.min(memoryBudgetKb, file.length() / KILOBYTE));
+                AtomicBoolean released = new AtomicBoolean();
+                Runnable release = () -> {
+                    if (released.compareAndSet(false, true)) {
+                        memory.release(permits);
+                        slots.release();
+                    }
+                };
+
+                CompletableFuture<I> loaded = CompletableFuture.supplyAsync(() -> {
+                    slots.acquireUninterruptibly();
+                    memory.acquireUninterruptibly(permits);
+                    try {
+                        I item = timed(loadNanos, loader, file);
+                        if (item == null) {
+                            throw new RuntimeException("Cannot open the file.");
+                        }
+                        return item;
+                    } catch (RuntimeException e) {
+                        release.run();
+                        throw e;
+                    }
+                }, loadExecutor);
+
+                CompletableFuture<R> analyzed = loaded.thenApplyAsync(
+                        item -> timed(analysisNanos, loadedItem -> analyzer.apply(file, loadedItem), item),
+                        analysisExecutor);
+
+                pending.add(analyzed.thenAcceptAsync(result -> timed(exportNanos, r -> {
+                    exporter.accept(file, r);
+                    return null;
+                }, result), exportExecutor).whenComplete((ignored, e) -> release.run()).exceptionally(e -> {
+                    failures.incrementAndGet();
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    IJ.log(String.format("Failed to process %s: %s", file.getName(), cause.getMessage()));
+                    return null;
+                }));
+            }
+
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            loadExecutor.shutdownNow();
+            analysisExecutor.shutdownNow();
+            exportExecutor.shutdownNow();
+        }
+
+        IJ.log(String.format("Batch of %d file(s), %d failure(s), in %.1f s. Time spent loading: %.1f s, " +
+                        "analyzing: %.1f s (%d at a time), exporting: %.1f s.", files.size(), failures.get(),
+                seconds(System.nanoTime() - start), seconds(loadNanos.sum()), seconds(analysisNanos.sum()),
+                parallelism, seconds(exportNanos.sum())));
+
+        return failures.get();
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
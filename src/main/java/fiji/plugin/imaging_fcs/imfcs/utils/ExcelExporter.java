@@ -10,13 +10,14 @@ import ij.IJ;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import javax.swing.*;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.Consumer;
@@ -26,6 +27,10 @@ import java.util.function.Function;
  * Utility class for exporting data to Excel files.
  */
 public final class ExcelExporter {
+    // memory the buffered rows of an export may use, and the number of sheets filled at the same time
+    private static final long EXPORT_MEMORY_BUDGET = Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 8);
+    private static final int EXPORT_THREADS = Runtime.getRuntime().availableProcessors();
+
     // Private constructor to prevent instantiation
     private ExcelExporter() {
     }
@@ -69,7 +74,10 @@ public final class ExcelExporter {
         int numRow = pixelModels.length;
         int numCol = pixelModels[0].length;
 
-        int rowIndex = 0;
+        // take the arrays now, so the sheet can be filled later even if the pixel models change
+        List<String> coordinates = new ArrayList<>();
+        List<double[]> arrays = new ArrayList<>();
+        int numColumns = 0;
 
         // Here x and y are inverted to follow the behavior of previous ImagingFCS version
         for (int y = 0; y < numCol; y++) {
@@ -80,22 +88,26 @@ public final class ExcelExporter {
                     if (array == null) {
                         continue;
                     }
-                    Row row = sheet.createRow(rowIndex);
-                    row.createCell(0).setCellValue(String.format("(%d, %d)", x, y));
-
-                    for (int k = 0; k < array.length; k++) {
-                        row.createCell(k + 1).setCellValue(array[k]);
-                    }
-
-                    rowIndex++;
+                    coordinates.add(String.format("(%d, %d)", x, y));
+                    arrays.add(array);
+                    numColumns = Math.max(numColumns, array.length + 1);
                 }
             }
         }
 
-        // delete sheet if no data was added
-        if (rowIndex == 0) {
-            workbook.removeSheetAt(workbook.getSheetIndex(sheet));
-        }
+        // the sheet is deleted if no data was added
+        ParallelSheetWorkbook.fillSheet(workbook, sheet, numColumns, (filledSheet) -> {
+            for (int rowIndex = 0; rowIndex < arrays.size(); rowIndex++) {
+                double[] array = arrays.get(rowIndex);
+                Row row = filledSheet.createRow(rowIndex);
+                row.createCell(0).setCellValue(coordinates.get(rowIndex));
+
+                for (int k = 0; k < array.length; k++) {
+                    row.createCell(k + 1).setCellValue(array[k]);
+                }
+            }
+            return !arrays.isEmpty();
+        });
     }
 
     /**
@@ -146,7 +158,9 @@ public final class ExcelExporter {
         int numRow = pixelModels.length;
         int numCol = pixelModels[0].length;
 
-        int rowIndex = 1;
+        // take the parameters now, so the sheet can be filled later even if the pixel models change
+        List<String> coordinates = new ArrayList<>();
+        List<double[]> parameters = new ArrayList<>();
 
         // Here x and y are inverted to follow the behavior of previous ImagingFCS version
         for (int y = 0; y < numCol; y++) {
@@ -156,22 +170,24 @@ public final class ExcelExporter {
                     continue;
                 }
 
-                row = sheet.createRow(rowIndex);
-                row.createCell(0).setCellValue(String.format("(%d, %d)", x, y));
+                coordinates.add(String.format("(%d, %d)", x, y));
+                parameters.add(Arrays.stream(pixelModel.getParams()).mapToDouble(Pair::getRight).toArray());
+            }
+        }
 
-                Pair<String, Double>[] fitParams = pixelModel.getParams();
+        // the sheet is deleted if no data was added
+        ParallelSheetWorkbook.fillSheet(workbook, sheet, numParams + 1, (filledSheet) -> {
+            for (int i = 0; i < parameters.size(); i++) {
+                Row parametersRow = filledSheet.createRow(i + 1);
+                parametersRow.createCell(0).setCellValue(coordinates.get(i));
 
-                for (int i = 0; i < numParams; i++) {
-                    row.createCell(i + 1).setCellValue(fitParams[i].getRight());
+                double[] fitParams = parameters.get(i);
+                for (int j = 0; j < numParams; j++) {
+                    parametersRow.createCell(j + 1).setCellValue(fitParams[j]);
                 }
-                rowIndex++;
             }
-        }
-
-        // delete sheet if no data was added
-        if (rowIndex == 1) {
-            workbook.removeSheetAt(workbook.getSheetIndex(sheet));
-        }
+            return !parameters.isEmpty();
+        });
     }
 
     /**
@@ -352,7 +368,7 @@ public final class ExcelExporter {
      * @param direction the original direction enum
      * @return a safe, Excel-compatible direction name
      */
-    private static String createSafeDirectionName(DccfDirection direction) {
+    static String createSafeDirectionName(DccfDirection direction) {
         if (direction == DccfDirection.DIAGONAL_UP_DIRECTION) {
             return "diagonal up";
         } else if (direction == DccfDirection.DIAGONAL_DOWN_DIRECTION) {
@@ -469,6 +485,128 @@ public final class ExcelExporter {
         }
     }
 
+    /**
+     * Converts a binary results file to an Excel file with the same sheets as a direct Excel export.
+     * Each entry becomes a sheet: per-pixel values are written one pixel per row, tables column by column and maps
+     * as a grid.
+     *
+     * @param reader   the results file to convert
+     * @param filePath the path where the Excel file will be saved
+     */
+    public static void saveResultsFileAsExcel(ResultsReader reader, String filePath) {
+        saveExcelFile(filePath, reader.getSettings(), (workbook) -> {
+            for (String name : reader.getEntryNames()) {
+                if (reader.isPixelsEntry(name)) {
+                    createSheetFromResultsPixels(workbook, reader, name);
+                } else if (reader.isTableEntry(name)) {
+                    createSheetFromResultsTable(workbook, reader, name);
+                } else if (reader.isMapEntry(name)) {
+                    createSheetFromResultsMap(workbook, reader, name);
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a sheet from a pixels entry of a results file, with the layout of
+     * {@link #createSheetFromPixelModelArray}, and a header row if the values are named.
+     *
+     * @param workbook the workbook to create the sheet in
+     * @param reader   the results file
+     * @param name     the name of the entry, used as sheet name
+     */
+    private static void createSheetFromResultsPixels(Workbook workbook, ResultsReader reader, String name) {
+        Sheet sheet = workbook.createSheet(name);
+        String[] columns = reader.getPixelColumns(name);
+        int[] dimension = reader.getPixelsDimension(name);
+
+        int rowIndex = 0;
+        if (columns != null) {
+            Row row = sheet.createRow(rowIndex++);
+            row.createCell(0).setCellValue("Coordinate");
+            for (int i = 0; i < columns.length; i++) {
+                row.createCell(i + 1).setCellValue(columns[i]);
+            }
+        }
+
+        // the results file is read-only, so the rows can be read while other sheets are filled
+        int firstRow = rowIndex;
+        ParallelSheetWorkbook.fillSheet(workbook, sheet, reader.getPixelsLength(name) + 1, (filledSheet) -> {
+            int index = firstRow;
+            for (int y = 0; y < dimension[1]; y++) {
+                for (int x = 0; x < dimension[0]; x++) {
+                    double[] values = reader.readPixel(name, x, y);
+                    if (values == null) {
+                        continue;
+                    }
+
+                    Row row = filledSheet.createRow(index++);
+                    row.createCell(0).setCellValue(String.format("(%d, %d)", x, y));
+                    for (int k = 0; k < values.length; k++) {
+                        row.createCell(k + 1).setCellValue(values[k]);
+                    }
+                }
+            }
+            // keep the sheet even if empty, like the entry it comes from
+            return true;
+        });
+    }
+
+    /**
+     * Creates a sheet from a table entry of a results file, one column per table column below a header row.
+     *
+     * @param workbook the workbook to create the sheet in
+     * @param reader   the results file
+     * @param name     the name of the entry, used as sheet name
+     */
+    private static void createSheetFromResultsTable(Workbook workbook, ResultsReader reader, String name) {
+        Sheet sheet = workbook.createSheet(name);
+        String[] columns = reader.getTableColumns(name);
+        double[][] values = reader.readTable(name);
+
+        Row headerRow = sheet.createRow(0);
+        int numRows = 0;
+        for (int i = 0; i < columns.length; i++) {
+            headerRow.createCell(i).setCellValue(columns[i]);
+            numRows = Math.max(numRows, values[i].length);
+        }
+
+        for (int r = 0; r < numRows; r++) {
+            Row row = sheet.createRow(r + 1);
+            for (int i = 0; i < columns.length; i++) {
+                if (r < values[i].length) {
+                    row.createCell(i).setCellValue(values[i][r]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a sheet from a map entry of a results file, with the layout of {@link #savedCCFSheets}.
+     *
+     * @param workbook the workbook to create the sheet in
+     * @param reader   the results file
+     * @param name     the name of the entry, used as sheet name
+     */
+    private static void createSheetFromResultsMap(Workbook workbook, ResultsReader reader, String name) {
+        Sheet sheet = workbook.createSheet(name);
+        double[][] values = reader.readMap(name);
+
+        Row headerRow = sheet.createRow(0);
+        headerRow.createCell(0).setCellValue("y / x");
+        for (int x = 0; x < values.length; x++) {
+            headerRow.createCell(x + 1).setCellValue(x);
+        }
+
+        for (int y = 0; y < values[0].length; y++) {
+            Row row = sheet.createRow(y + 1);
+            row.createCell(0).setCellValue(y);
+            for (int x = 0; x < values.length; x++) {
+                row.createCell(x + 1).setCellValue(values[x][y]);
+            }
+        }
+    }
+
     /**
      * Saves experimental settings and additional data sheets into an Excel file.
      * The method first writes the experimental settings and then uses the provided addSheets function
@@ -479,19 +617,71 @@ public final class ExcelExporter {
      * @param addSheets   a consumer function that adds additional sheets to the workbook
      */
     public static void saveExcelFile(String filePath, Map<String, Object> settingsMap, Consumer<Workbook> addSheets) {
-        try (Workbook workbook = new SXSSFWorkbook(100)) {
+        try {
+            prepareExcelFile(filePath, settingsMap, addSheets).write();
+        } catch (IOException e) {
+            IJ.showMessage("Error saving result table", e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the sheets of an Excel file on the calling thread, and returns a task that fills the large sheets
+     * concurrently and writes the file, like {@link #saveExcelFile}. The sheets only keep the data they need, so the
+     * task can run on another thread while the results it was built from are replaced. Unlike
+     * {@link #saveExcelFile}, the task reports a failure by throwing, after deleting the partial file.
+     *
+     * @param filePath    the path where the Excel file will be saved
+     * @param settingsMap a map of experimental settings to be written to the file
+     * @param addSheets   a consumer function that adds additional sheets to the workbook
+     * @return the task writing the file
+     */
+    public static ExcelExport prepareExcelFile(String filePath, Map<String, Object> settingsMap,
+                                              Consumer<Workbook> addSheets) {
+        ParallelSheetWorkbook workbook = new ParallelSheetWorkbook(EXPORT_MEMORY_BUDGET, EXPORT_THREADS);
+        try {
             // Add different sheets
             ExcelExporter.createSheetFromMap(workbook, "Experimental settings", settingsMap);
             addSheets.accept(workbook);
+        } catch (RuntimeException e) {
+            closeQuietly(workbook);
+            throw e;
+        }
+
+        return () -> {
+            try {
+                workbook.fillSheets();
 
-            try (FileOutputStream fileOut = new FileOutputStream(filePath)) {
-                workbook.write(fileOut);
+                try (FileOutputStream fileOut = new FileOutputStream(filePath)) {
+                    workbook.write(fileOut);
+                } catch (IOException | RuntimeException e) {
+                    // a truncated workbook cannot be opened
+                    new File(filePath).delete();
+                    throw e;
+                }
                 IJ.log(String.format("File saved at %s.", filePath));
-            } catch (IOException e) {
-                IJ.showMessage("Error saving result table", e.getMessage());
+            } finally {
+                closeQuietly(workbook);
             }
-        } catch (IOException e) {
-            IJ.showMessage("Error writing result table", e.getMessage());
+        };
+    }
+
+    private static void closeQuietly(Workbook workbook) {
+        try {
+            workbook.close();
+        } catch (IOException ignored) {
         }
     }
+
+    /**
+     * Writes an Excel file prepared by {@link #prepareExcelFile}.
+     */
+    @FunctionalInterface
+    public interface ExcelExport {
+        /**
+         * Fills the sheets and writes the file.
+         *
+         * @throws IOException if a sheet cannot be filled or the file cannot be written.
+         */
+        void write() throws IOException;
+    }
 }
@@ -243,16 +243,24 @@ public final class ExcelReader {
         int userSelection = fileChooser.showOpenDialog(null);
 
         if (userSelection == JFileChooser.APPROVE_OPTION) {
-            File fileToOpen = fileChooser.getSelectedFile();
-            String filePath = fileToOpen.getAbsolutePath();
-
-            try (FileInputStream fileIn = new FileInputStream(filePath)) {
-                return StreamingReader.builder().rowCacheSize(100).bufferSize(4096).open(fileIn);
-            } catch (IOException e) {
-                throw new RuntimeException("Error reading Excel file");
-            }
+            return openExcelFile(fileChooser.getSelectedFile());
         }
 
         return null;
     }
+
+    /**
+     * Opens an Excel file as a streaming Workbook.
+     *
+     * @param file the Excel file
+     * @return the Workbook
+     * @throws RuntimeException if an error occurs while reading the file
+     */
+    public static Workbook openExcelFile(File file) {
+        try (FileInputStream fileIn = new FileInputStream(file)) {
+            return StreamingReader.builder().rowCacheSize(100).bufferSize(4096).open(fileIn);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading Excel file");
+        }
+    }
 }
@@ -1,16 +1,21 @@
 package fiji.plugin.imaging_fcs.imfcs.utils;
 
+import ij.IJ;
 import ij.ImagePlus;
 import ij.io.Opener;
 
 import javax.swing.*;
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Utility class to load ImagePlus files
  */
 public class ImageLoader {
 
+    // Files larger than this fraction of the maximum heap are memory-mapped instead of loaded
+    private static final double MAPPING_HEAP_FRACTION = 0.25;
+
     // Static attribute to store the last directory visited
     private static String lastDirectory = System.getProperty("user.home");
 
@@ -39,10 +44,31 @@ public class ImageLoader {
                 lastDirectory = file.getParent();
 
                 // Return the opened ImagePlus
-                return new Opener().openImage(file.getAbsolutePath());
+                return openImage(file.getAbsolutePath());
             }
         }
         // If the user cancels or no valid file is chosen, return null
         return null;
     }
+
+    /**
+     * Opens an image. Uncompressed 16-bit TIFF files too large to be comfortably held in memory are memory-mapped
+     * and read frame by frame, other files are fully loaded by ImageJ.
+     *
+     * @param path the path of the image file.
+     * @return the opened ImagePlus, or null if the file cannot be opened.
+     */
+    public static ImagePlus openImage(String path) {
+        File file = new File(path);
+        if (file.isFile() && file.length() > Runtime.getRuntime().maxMemory() * MAPPING_HEAP_FRACTION &&
+                MappedFrameStack.isMappableTiff(file)) {
+            try {
+                return MappedFrameStack.openTiff(file).toImagePlus();
+            } catch (IOException e) {
+                IJ.log(String.format("Cannot map %s, loading it instead: %s", file.getName(), e.getMessage()));
+            }
+        }
+
+        return new Opener().openImage(path);
+    }
 }
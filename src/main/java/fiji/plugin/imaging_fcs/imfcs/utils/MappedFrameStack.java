@@ -0,0 +1,438 @@
+package fiji.plugin.imaging_fcs.imfcs.utils;
+
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A 16-bit image stack read from a memory-mapped file, so that stacks larger than the heap can be analysed.
+ * <p>
+ * Frames are decoded on demand from uncompressed TIFF files or raw data, and the last decoded frames are kept in a
+ * cache bounded in bytes. When frames are read in order, as the correlation and the bleach correction do, the next
+ * frames are decoded ahead of time on a background thread. The stack is read-only.
+ * </p>
+ */
+public final class MappedFrameStack extends VirtualStack {
+    // a mapping cannot be larger than 2 GB, the file is mapped in segments of this size
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final long DEFAULT_CACHE_BYTES = 64L << 20;
+    private static final int READ_AHEAD_FRAMES = 16;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long[] frameOffsets;
+    private final int frameBytes;
+    private final ByteOrder byteOrder;
+    private final MappedByteBuffer[] segments;
+    private final LinkedHashMap<Integer, short[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final int cacheCapacity;
+    private final ExecutorService readAhead;
+    private final long segmentStep;
+    // description of the TIFF file, kept so that the image remembers where it comes from
+    private FileInfo fileInfo;
+
+    private int lastRequested = -1;
+    private int readAheadUntil = 0;
+
+    /**
+     * Maps frames stored at arbitrary offsets of a file.
+     *
+     * @param file         the file holding the frames.
+     * @param width        the width of the frames in pixels.
+     * @param height       the height of the frames in pixels.
+     * @param frameOffsets the offset of each frame in the file, in bytes.
+     * @param byteOrder    the byte order of the pixels.
+     * @param cacheBytes   the memory used to keep decoded frames, in bytes.
+     * @throws IOException if the file cannot be opened or is too short.
+     */
+    public MappedFrameStack(File file, int width, int height, long[] frameOffsets, ByteOrder byteOrder,
+                            long cacheBytes) throws IOException {
+        super(width, height, null, file.getParent());
+
+        this.file = file;
+        this.frameOffsets = frameOffsets;
+        this.frameBytes = width * height * Short.BYTES;
+        this.byteOrder = byteOrder;
+        this.cacheCapacity = (int) Math.max(2, Math.min(Integer.MAX_VALUE, cacheBytes / frameBytes));
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long end = 0;
+        for (long offset : frameOffsets) {
+            end = Math.max(end, offset + frameBytes);
+        }
+        if (end > channel.size()) {
+            channel.close();
+            throw new IOException(String.format("%s is shorter than the frames it describes.", file.getName()));
+        }
+
+        // segments overlap by one frame, so that every frame lies entirely in one of them
+        segmentStep = SEGMENT_SIZE - frameBytes;
+        segments = new MappedByteBuffer[(int) ((end + segmentStep - 1) / segmentStep)];
+
+        readAhead = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mapped-stack-read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Maps a headerless file of contiguous 16-bit frames.
+     *
+     * @param file      the raw file.
+     * @param width     the width of the frames in pixels.
+     * @param height    the height of the frames in pixels.
+     * @param offset    the number of bytes to skip at the start of the file.
+     * @param byteOrder the byte order of the pixels.
+     * @return the mapped stack, with as many frames as the file holds.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static MappedFrameStack openRaw(File file, int width, int height, long offset, ByteOrder byteOrder)
+            throws IOException {
+        long frameBytes = (long) width * height * Short.BYTES;
+        int numFrames = (int) ((file.length() - offset) / frameBytes);
+        if (numFrames <= 0) {
+            throw new IOException(String.format("%s does not hold any %dx%d frame.", file.getName(), width, height));
+        }
+
+        long[] offsets = new long[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            offsets[i] = offset + i * frameBytes;
+        }
+
+        return new MappedFrameStack(file, width, height, offsets, byteOrder, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Maps an uncompressed 16-bit TIFF file, either saved by ImageJ or with one image file directory per frame.
+     *
+     * @param file the TIFF file.
+     * @return the mapped stack.
+     * @throws IOException if the file cannot be read or is not an uncompressed 16-bit stack.
+     */
+    public static MappedFrameStack openTiff(File file) throws IOException {
+        FileInfo[] infos = new TiffDecoder(file.getParent() + File.separator, file.getName()).getTiffInfo();
+        if (infos == null || infos.length == 0) {
+            throw new IOException(String.format("%s is not a TIFF file.", file.getName()));
+        }
+
+        FileInfo first = infos[0];
+        long[] offsets;
+        if (infos.length == 1) {
+            // ImageJ stacks are described by the first directory only
+            checkMappable(first);
+            offsets = new long[Math.max(1, first.nImages)];
+            long frameBytes = (long) first.width * first.height * Short.BYTES;
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = first.getOffset() + i * (frameBytes + first.gapBetweenImages);
+            }
+        } else {
+            offsets = new long[infos.length];
+            for (int i = 0; i < infos.length; i++) {
+                checkMappable(infos[i]);
+                if (infos[i].width != first.width || infos[i].height != first.height) {
+                    throw new IOException("All the frames of the TIFF file must have the same size.");
+                }
+                offsets[i] = infos[i].getOffset();
+            }
+        }
+
+        ByteOrder byteOrder = first.intelByteOrder ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        MappedFrameStack stack = new MappedFrameStack(file, first.width, first.height, offsets, byteOrder,
+                DEFAULT_CACHE_BYTES);
+        stack.fileInfo = first;
+
+        return stack;
+    }
+
+    /**
+     * Checks that the frame described by a directory can be read directly from the file.
+     *
+     * @param info the description of the frame.
+     * @throws IOException if the frame is compressed, not 16-bit or split in non-contiguous strips.
+     */
+    private static void checkMappable(FileInfo info) throws IOException {
+        if (info.fileType != FileInfo.GRAY16_UNSIGNED) {
+            throw new IOException("Only 16-bit unsigned TIFF files can be mapped.");
+        }
+        if (info.compression != FileInfo.COMPRESSION_NONE) {
+            throw new IOException("Compressed TIFF files cannot be mapped.");
+        }
+        if (info.stripOffsets != null && info.stripOffsets.length > 1) {
+            for (int i = 1; i < info.stripOffsets.length; i++) {
+                if (info.stripOffsets[i] != info.stripOffsets[i - 1] + info.stripLengths[i - 1]) {
+                    throw new IOException("TIFF files with non-contiguous strips cannot be mapped.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether a file can be opened as a mapped stack, without reading its pixels.
+     *
+     * @param file the TIFF file.
+     * @return true if the file is an uncompressed 16-bit TIFF file.
+     */
+    public static boolean isMappableTiff(File file) {
+        try {
+            FileInfo[] infos = new TiffDecoder(file.getParent() + File.separator, file.getName()).getTiffInfo();
+            if (infos == null || infos.length == 0) {
+                return false;
+            }
+            checkMappable(infos[0]);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates an image displaying this stack. The image keeps the file information, so that its path can be
+     * retrieved like for an image opened by ImageJ.
+     *
+     * @return the image.
+     */
+    public ImagePlus toImagePlus() {
+        ImagePlus image = new ImagePlus(file.getName(), this);
+        FileInfo info = fileInfo != null ? fileInfo : new FileInfo();
+        info.directory = file.getParent() + File.separator;
+        info.fileName = file.getName();
+        info.width = getWidth();
+        info.height = getHeight();
+        info.nImages = getSize();
+        info.fileType = FileInfo.GRAY16_UNSIGNED;
+        image.setFileInfo(info);
+        return image;
+    }
+
+    /**
+     * Returns the mapped segment holding a frame, mapping it on first use.
+     *
+     * @param index the index of the segment.
+     * @return the segment.
+     */
+    private synchronized MappedByteBuffer segment(int index) {
+        if (segments[index] == null) {
+            long start = index * segmentStep;
+            try {
+                long size = Math.min(SEGMENT_SIZE, channel.size() - start);
+                segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("Cannot map %s: %s", file.getName(), e.getMessage()));
+            }
+        }
+        return segments[index];
+    }
+
+    /**
+     * Decodes a frame from the mapped file.
+     *
+     * @param n the frame index, 0-based.
+     * @return the pixels of the frame.
+     */
+    private short[] decode(int n) {
+        long offset = frameOffsets[n];
+        // a frame starting in a segment ends before the end of that segment
+        int index = (int) (offset / segmentStep);
+
+        ByteBuffer source = segment(index).duplicate().order(byteOrder);
+        source.position((int) (offset - index * segmentStep));
+
+        short[] pixels = new short[frameBytes / Short.BYTES];
+        source.asShortBuffer().get(pixels);
+        return pixels;
+    }
+
+    /**
+     * Returns the cached pixels of a frame, without decoding it.
+     *
+     * @param n the frame index, 0-based.
+     * @return the pixels, or null if the frame is not cached.
+     */
+    private short[] cached(int n) {
+        synchronized (cache) {
+            return cache.get(n);
+        }
+    }
+
+    /**
+     * Adds a frame to the cache, evicting the least recently used frames beyond the capacity.
+     *
+     * @param n      the frame index, 0-based.
+     * @param pixels the pixels of the frame.
+     */
+    private void store(int n, short[] pixels) {
+        synchronized (cache) {
+            cache.put(n, pixels);
+            Iterator<Map.Entry<Integer, short[]>> iterator = cache.entrySet().iterator();
+            while (cache.size() > cacheCapacity && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the pixels of a frame, from the cache or from the file. Reading the frame following the last one
+     * read schedules the decoding of the next frames.
+     *
+     * @param n the frame index, 0-based.
+     * @return the pixels of the frame.
+     */
+    private short[] frame(int n) {
+        boolean sequential;
+        synchronized (this) {
+            sequential = n == lastRequested + 1;
+            lastRequested = n;
+        }
+
+        short[] pixels = cached(n);
+        if (pixels == null) {
+            pixels = decode(n);
+            store(n, pixels);
+        }
+
+        if (sequential) {
+            scheduleReadAhead(n);
+        }
+
+        return pixels;
+    }
+
+    /**
+     * Decodes the frames following a frame on the background thread, unless they are already scheduled.
+     *
+     * @param n the frame index, 0-based.
+     */
+    private synchronized void scheduleReadAhead(int n) {
+        // never read ahead more than half of the cache, the frames being used must stay in it
+        int until = Math.min(frameOffsets.length, n + 1 + Math.min(READ_AHEAD_FRAMES, cacheCapacity / 2));
+        if (until <= readAheadUntil || readAhead.isShutdown()) {
+            return;
+        }
+
+        int from = Math.max(n + 1, readAheadUntil);
+        readAheadUntil = until;
+        readAhead.execute(() -> {
+            for (int i = from; i < until; i++) {
+                if (cached(i) == null) {
+                    store(i, decode(i));
+                }
+            }
+        });
+    }
+
+    @Override
+    public ImageProcessor getProcessor(int n) {
+        checkSlice(n);
+        return new ShortProcessor(getWidth(), getHeight(), frame(n - 1), null);
+    }
+
+    @Override
+    public Object getPixels(int n) {
+        checkSlice(n);
+        return frame(n - 1);
+    }
+
+    @Override
+    public void setPixels(Object pixels, int n) {
+        // ImageJ hands back the displayed frame, edits are not written to the file like for other virtual stacks
+    }
+
+    @Override
+    public float[] getVoxels(int x0, int y0, int z0, int w, int h, int d, float[] voxels) {
+        if (voxels == null || voxels.length != w * h * d) {
+            voxels = new float[w * h * d];
+        }
+
+        int width = getWidth();
+        int i = 0;
+        for (int z = z0; z < z0 + d; z++) {
+            boolean frameInBounds = z >= 0 && z < getSize();
+            short[] pixels = frameInBounds ? frame(z) : null;
+            for (int y = y0; y < y0 + h; y++) {
+                for (int x = x0; x < x0 + w; x++) {
+                    boolean inBounds = frameInBounds && x >= 0 && y >= 0 && x < width && y < getHeight();
+                    voxels[i++] = inBounds ? pixels[y * width + x] & 0xFFFF : 0;
+                }
+            }
+        }
+
+        return voxels;
+    }
+
+    /**
+     * Checks that a slice number is valid.
+     *
+     * @param n the slice number, 1-based.
+     */
+    private void checkSlice(int n) {
+        if (n < 1 || n > frameOffsets.length) {
+            throw new IllegalArgumentException("Argument out of range: " + n);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return frameOffsets.length;
+    }
+
+    @Override
+    public String getSliceLabel(int n) {
+        return null;
+    }
+
+    @Override
+    public String getFileName(int n) {
+        return file.getName();
+    }
+
+    @Override
+    public void addSlice(String name) {
+        throw new UnsupportedOperationException("Memory-mapped stacks are read-only.");
+    }
+
+    @Override
+    public void deleteSlice(int n) {
+        throw new UnsupportedOperationException("Memory-mapped stacks are read-only.");
+    }
+
+    @Override
+    public int getBitDepth() {
+        return 16;
+    }
+
+    /**
+     * Releases the mapping and the cached frames. The mapped memory itself is released by the garbage collector.
+     */
+    public void close() {
+        readAhead.shutdownNow();
+        synchronized (cache) {
+            cache.clear();
+        }
+        synchronized (this) {
+            Arrays.fill(segments, null);
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
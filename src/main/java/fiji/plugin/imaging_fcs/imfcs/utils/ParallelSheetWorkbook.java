@@ -0,0 +1,151 @@
+package fiji.plugin.imaging_fcs.imfcs.utils;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A streaming workbook whose large sheets are filled concurrently once every sheet is created.
+ * <p>
+ * SXSSF flushes the rows of each sheet to a temporary file of its own, and this workbook does not use a shared
+ * strings table, so different sheets can be filled from different threads as long as sheets are only created and
+ * removed from one thread. The row window of each sheet is chosen so that the rows kept in memory by the sheets being
+ * filled at the same time fit in a memory budget.
+ * </p>
+ */
+public final class ParallelSheetWorkbook extends SXSSFWorkbook {
+    // rough memory used by a buffered cell, including its value and its entry in the row
+    private static final int BYTES_PER_CELL = 96;
+    private static final int MIN_WINDOW = 100;
+    private static final int MAX_WINDOW = 10000;
+
+    private final long memoryBudget;
+    private final int parallelism;
+    private final List<Sheet> pendingSheets = new ArrayList<>();
+    private final List<SheetFiller> fillers = new ArrayList<>();
+
+    /**
+     * Creates an empty workbook.
+     *
+     * @param memoryBudget the memory the buffered rows of all the sheets may use together, in bytes.
+     * @param parallelism  the maximum number of sheets filled at the same time.
+     */
+    public ParallelSheetWorkbook(long memoryBudget, int parallelism) {
+        super(MIN_WINDOW);
+        this.memoryBudget = memoryBudget;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Computes the number of rows a sheet keeps in memory before flushing them to disk.
+     *
+     * @param memoryBudget the memory the buffered rows of all the sheets may use together, in bytes.
+     * @param parallelism  the number of sheets filled at the same time.
+     * @param numColumns   the number of cells of a row.
+     * @return the row window of the sheet.
+     */
+    static int computeWindow(long memoryBudget, int parallelism, int numColumns) {
+        long bytesPerRow = (long) Math.max(1, numColumns) * BYTES_PER_CELL;
+        long window = memoryBudget / ((long) parallelism * bytesPerRow);
+        return (int) Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, window));
+    }
+
+    /**
+     * Fills a sheet now, or later and concurrently with other sheets if the workbook is a
+     * {@link ParallelSheetWorkbook}. The filler must only use data that does not change until the workbook is
+     * written. A sheet left without rows is removed.
+     *
+     * @param workbook   the workbook the sheet belongs to.
+     * @param sheet      the sheet to fill.
+     * @param numColumns the number of cells of the longest row, used to size the row window.
+     * @param filler     writes the rows of the sheet.
+     */
+    public static void fillSheet(Workbook workbook, Sheet sheet, int numColumns, SheetFiller filler) {
+        if (workbook instanceof ParallelSheetWorkbook) {
+            ((ParallelSheetWorkbook) workbook).fillLater(sheet, numColumns, filler);
+        } else if (!filler.fill(sheet)) {
+            workbook.removeSheetAt(workbook.getSheetIndex(sheet));
+        }
+    }
+
+    /**
+     * Queues a sheet to be filled by {@link #fillSheets}.
+     *
+     * @param sheet      the sheet to fill.
+     * @param numColumns the number of cells of the longest row, used to size the row window.
+     * @param filler     writes the rows of the sheet.
+     */
+    private void fillLater(Sheet sheet, int numColumns, SheetFiller filler) {
+        ((SXSSFSheet) sheet).setRandomAccessWindowSize(computeWindow(memoryBudget, parallelism, numColumns));
+        pendingSheets.add(sheet);
+        fillers.add(filler);
+    }
+
+    /**
+     * Fills the queued sheets on a pool of worker threads and removes the ones left without rows. This must be
+     * called before writing the workbook.
+     *
+     * @throws IOException if a sheet cannot be filled.
+     */
+    public void fillSheets() throws IOException {
+        if (pendingSheets.isEmpty()) {
+            return;
+        }
+
+        int numThreads = Math.min(parallelism, pendingSheets.size());
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "excel-export-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < pendingSheets.size(); i++) {
+                Sheet sheet = pendingSheets.get(i);
+                SheetFiller filler = fillers.get(i);
+                results.add(executor.submit(() -> filler.fill(sheet)));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                if (!results.get(i).get()) {
+                    removeSheetAt(getSheetIndex(pendingSheets.get(i)));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Excel export interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to fill a sheet: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+            pendingSheets.clear();
+            fillers.clear();
+        }
+    }
+
+    /**
+     * Writes the rows of a sheet.
+     */
+    @FunctionalInterface
+    public interface SheetFiller {
+        /**
+         * Writes the rows of a sheet.
+         *
+         * @param sheet the sheet to fill.
+         * @return true if at least one row was written, false to remove the sheet.
+         */
+        boolean fill(Sheet sheet);
+    }
+}
@@ -0,0 +1,506 @@
+package fiji.plugin.imaging_fcs.imfcs.utils;
+
+import fiji.plugin.imaging_fcs.imfcs.model.BackgroundModel;
+import fiji.plugin.imaging_fcs.imfcs.model.BleachCorrectionModel;
+import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
+import fiji.plugin.imaging_fcs.imfcs.model.FitModel;
+import fiji.plugin.imaging_fcs.imfcs.model.ImageModel;
+import fiji.plugin.imaging_fcs.imfcs.model.PixelModel;
+import fiji.plugin.imaging_fcs.imfcs.model.correlations.Correlator;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A local cache of correlation and fit results, addressed by the content of the analyzed image and the settings
+ * used.
+ * <p>
+ * The correlations of an image are stored under a key computed from a hash of the image file, the experimental
+ * settings, the bleach correction and the background. The fits are stored separately, under a key computed from the
+ * correlation key and the fit settings, so changing the fit settings only requires to fit again. Entries are results
+ * files; the least recently used ones are deleted when the cache grows over its size limit.
+ * </p>
+ */
+public final class ResultCache {
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".ImFCS_cache");
+    public static final long DEFAULT_MAX_SIZE = 2L << 30;
+    // changing the content of the entries must change this version, so old entries are no longer used
+    private static final String VERSION = "1";
+    private static final String[] ENTRY_NAMES = {"CF", "ACF1", "ACF2"};
+    private static final int HASH_BUFFER_SIZE = 1 << 20;
+
+    // the hash of the files already read, by path, size and modification time
+    private static final Map<String, String> fileHashes = new ConcurrentHashMap<>();
+    private static volatile ResultCache defaultCache;
+    // the caches of the other directories chosen in the interface, so that their entries are evicted together
+    private static final Map<File, ResultCache> caches = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * Creates a cache.
+     *
+     * @param directory the directory holding the entries, created if needed.
+     * @param maxSize   the maximum size of the entries, in bytes.
+     */
+    public ResultCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cache shared by the interface, in the home directory of the user.
+     *
+     * @return the default cache.
+     */
+    public static ResultCache getDefault() {
+        if (defaultCache == null) {
+            synchronized (ResultCache.class) {
+                if (defaultCache == null) {
+                    defaultCache = new ResultCache(DEFAULT_DIRECTORY, DEFAULT_MAX_SIZE);
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Returns the cache of the interface in a given directory, with the default size limit.
+     *
+     * @param directory the directory holding the entries.
+     * @return the cache.
+     */
+    public static ResultCache getInstance(File directory) {
+        File absoluteDirectory = directory.getAbsoluteFile();
+        if (absoluteDirectory.equals(DEFAULT_DIRECTORY.getAbsoluteFile())) {
+            return getDefault();
+        }
+        return caches.computeIfAbsent(absoluteDirectory, key -> new ResultCache(key, DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * Computes the SHA-256 hash of strings, in hexadecimal.
+     */
+    private static String hash(String... parts) {
+        MessageDigest digest = newDigest();
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Computes the SHA-256 hash of the content of a file. The hash of a file is only computed once as long as its size
+     * and modification time do not change.
+     *
+     * @param file the file.
+     * @return the hash, in hexadecimal.
+     * @throws IOException if the file cannot be read.
+     */
+    public static String hashFile(File file) throws IOException {
+        String id = file.getAbsolutePath() + '\0' + file.length() + '\0' + file.lastModified();
+        String fileHash = fileHashes.get(id);
+        if (fileHash != null) {
+            return fileHash;
+        }
+
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        fileHash = toHex(digest.digest());
+        fileHashes.put(id, fileHash);
+        return fileHash;
+    }
+
+    /**
+     * Returns the file an image was read from.
+     *
+     * @param image the image.
+     * @return the file, or null if the image was not read from a file.
+     */
+    private static File sourceFile(ImagePlus image) {
+        FileInfo fileInfo = image == null ? null : image.getOriginalFileInfo();
+        if (fileInfo == null || fileInfo.getFilePath() == null) {
+            return null;
+        }
+        File file = new File(fileInfo.getFilePath());
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Computes the key of the correlations of the image of an image model, given the settings used to correlate it.
+     *
+     * @param imageModel            the image model holding the image.
+     * @param settings              the experimental settings.
+     * @param bleachCorrectionModel the bleach correction model.
+     * @param useGpu                whether the correlations are computed on the GPU.
+     * @return the key, or null if the image cannot be identified, in which case its results are not cached.
+     */
+    public static String correlationKey(ImageModel imageModel, ExpSettingsModel settings,
+                                        BleachCorrectionModel bleachCorrectionModel, boolean useGpu) {
+        try {
+            File imageFile = imageModel.getImagePath() == null || imageModel.getImagePath().isEmpty() ? null :
+                    new File(imageModel.getImagePath());
+            if (imageFile == null || !imageFile.isFile()) {
+                return null;
+            }
+
+            BackgroundModel backgroundModel = imageModel.getBackgroundModel();
+            File backgroundFile = sourceFile(backgroundModel.getBackgroundImage());
+            if (backgroundModel.getBackgroundImage() != null && backgroundFile == null) {
+                return null;
+            }
+
+            return hash(VERSION, hashFile(imageFile), settings.toMap().toString(),
+                    String.valueOf(bleachCorrectionModel.getPolynomialOrder()),
+                    String.valueOf(backgroundModel.getMode()),
+                    String.valueOf(backgroundModel.getConstantBackground1()),
+                    String.valueOf(backgroundModel.getConstantBackground2()),
+                    backgroundFile == null ? "" : hashFile(backgroundFile), String.valueOf(useGpu));
+        } catch (IOException e) {
+            IJ.log("Cannot compute the cache key of the image: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Computes the key of the fits of correlations.
+     *
+     * @param correlationKey the key of the correlations.
+     * @param fitModel       the fit model.
+     * @return the key.
+     */
+    public static String fitKey(String correlationKey, FitModel fitModel) {
+        return hash(VERSION, correlationKey, fitModel.toMap().toString());
+    }
+
+    private File entryFile(String key, String kind) {
+        return new File(directory, key + "-" + kind + ResultsWriter.EXTENSION);
+    }
+
+    /**
+     * Opens an entry and marks it as recently used.
+     *
+     * @return the entry, or null if it is not in the cache or cannot be read.
+     */
+    private ResultsReader open(String key, String kind) {
+        if (key == null) {
+            return null;
+        }
+
+        File file = entryFile(key, kind);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            ResultsReader reader = new ResultsReader(file);
+            file.setLastModified(System.currentTimeMillis());
+            return reader;
+        } catch (IOException e) {
+            IJ.log(String.format("Cannot read the cache entry %s: %s", file.getName(), e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry to a temporary file, then moves it in place so that a partial entry is never read.
+     */
+    private void store(String key, String kind, ResultsWriter.ResultsConsumer addEntries) {
+        if (key == null) {
+            return;
+        }
+
+        File file = entryFile(key, kind);
+        File temporaryFile = null;
+        try {
+            Files.createDirectories(directory.toPath());
+            temporaryFile = File.createTempFile(key, ".tmp", directory);
+            try (ResultsWriter writer = new ResultsWriter(temporaryFile, new HashMap<>())) {
+                addEntries.accept(writer);
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            evict();
+        } catch (IOException e) {
+            IJ.log(String.format("Cannot write the cache entry %s: %s", file.getName(), e.getMessage()));
+        } finally {
+            if (temporaryFile != null) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Deletes every entry of the cache. Other files of the directory are kept.
+     *
+     * @return the number of bytes freed.
+     */
+    public synchronized long clear() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(ResultsWriter.EXTENSION));
+        if (files == null) {
+            return 0;
+        }
+
+        long freed = 0;
+        for (File file : files) {
+            long length = file.length();
+            if (file.delete()) {
+                freed += length;
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its size limit.
+     */
+    private synchronized void evict() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(ResultsWriter.EXTENSION));
+        if (files == null) {
+            return;
+        }
+
+        long size = Arrays.stream(files).mapToLong(File::length).sum();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    /**
+     * Loads cached correlations into a correlator, replacing its pixel models.
+     *
+     * @param key        the correlation key, see {@link #correlationKey}.
+     * @param correlator the correlator to update.
+     * @return true if the correlations were in the cache.
+     */
+    public boolean loadCorrelations(String key, Correlator correlator) {
+        ResultsReader reader = open(key, "correlations");
+        if (reader == null) {
+            return false;
+        }
+
+        try {
+            double[][] lagTable = reader.readTable("Lag Time");
+            int[] dimension = reader.getPixelsDimension("CF");
+            PixelModel[][] pixelModels = new PixelModel[dimension[0]][dimension[1]];
+
+            readCorrelations(reader, "CF", pixelModels);
+            readSubModels(reader, pixelModels, "ACF1", PixelModel::setAcf1PixelModel,
+                    (models) -> readCorrelations(reader, "ACF1", models));
+            readSubModels(reader, pixelModels, "ACF2", PixelModel::setAcf2PixelModel,
+                    (models) -> readCorrelations(reader, "ACF2", models));
+
+            correlator.setLagTimes(lagTable[1]);
+            correlator.setSampleTimes(Arrays.stream(lagTable[2]).mapToInt(d -> (int) d).toArray());
+            correlator.setPixelModels(pixelModels);
+            return true;
+        } catch (RuntimeException e) {
+            IJ.log("Cannot read the cached correlations: " + e.getMessage());
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Checks whether fits are in the cache.
+     *
+     * @param key the fit key, see {@link #fitKey}.
+     * @return true if the fits are in the cache.
+     */
+    public boolean containsFits(String key) {
+        return key != null && entryFile(key, "fits").isFile();
+    }
+
+    /**
+     * Loads cached fits into pixel models already holding the correlations.
+     *
+     * @param key         the fit key, see {@link #fitKey}.
+     * @param pixelModels the pixel models to update.
+     * @return true if the fits were in the cache.
+     */
+    public boolean loadFits(String key, PixelModel[][] pixelModels) {
+        ResultsReader reader = open(key, "fits");
+        if (reader == null) {
+            return false;
+        }
+
+        try {
+            readFits(reader, "CF", pixelModels);
+            readFits(reader, "ACF1", PixelModel.extractAcfPixelModels(pixelModels, PixelModel::getAcf1PixelModel));
+            readFits(reader, "ACF2", PixelModel.extractAcfPixelModels(pixelModels, PixelModel::getAcf2PixelModel));
+            return true;
+        } catch (RuntimeException e) {
+            IJ.log("Cannot read the cached fits: " + e.getMessage());
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void readCorrelations(ResultsReader reader, String name, PixelModel[][] pixelModels) {
+        reader.readPixelModels(name, pixelModels, PixelModel::setCorrelationFunction);
+        reader.readPixelModels(name + " - Variance", pixelModels, PixelModel::setVarianceCF);
+        reader.readPixelModels(name + " - Standard Deviation", pixelModels, PixelModel::setStandardDeviationCF);
+        reader.readPixelModels(name + " - MSD", pixelModels, PixelModel::setMSD);
+        reader.readPixelModels(name + " - Blocked", pixelModels,
+                (pixelModel, values) -> pixelModel.setBlocked((int) values[0]));
+    }
+
+    /**
+     * Reads the pixel models of the autocorrelations of a cross-correlation, if they were stored.
+     */
+    private static void readSubModels(ResultsReader reader, PixelModel[][] pixelModels, String name,
+                                      BiConsumer<PixelModel, PixelModel> setter,
+                                      Consumer<PixelModel[][]> read) {
+        if (!reader.isPixelsEntry(name)) {
+            return;
+        }
+
+        PixelModel[][] subModels = new PixelModel[pixelModels.length][pixelModels[0].length];
+        read.accept(subModels);
+        for (int x = 0; x < pixelModels.length; x++) {
+            for (int y = 0; y < pixelModels[0].length; y++) {
+                if (pixelModels[x][y] != null && subModels[x][y] != null) {
+                    setter.accept(pixelModels[x][y], subModels[x][y]);
+                }
+            }
+        }
+    }
+
+    private static void readFits(ResultsReader reader, String name, PixelModel[][] pixelModels) {
+        reader.readPixelModels(name + " - Fit Functions", pixelModels, PixelModel::setFittedCF);
+        reader.readPixelModels(name + " - Residuals", pixelModels, PixelModel::setResiduals);
+        reader.readPixelModels(name + " - Fit Parameters", pixelModels, (pixelModel, values) -> {
+            pixelModel.setFitParams(new PixelModel.FitParameters(values));
+            pixelModel.setChi2(values[PixelModel.FitParameters.NUM_PARAMETERS]);
+            pixelModel.setFitted(values[PixelModel.FitParameters.NUM_PARAMETERS + 2] != 0);
+        });
+    }
+
+    /**
+     * Stores the correlations of a correlator.
+     *
+     * @param key        the correlation key, see {@link #correlationKey}. Nothing is stored if it is null.
+     * @param correlator the correlator holding the correlations.
+     */
+    public void storeCorrelations(String key, Correlator correlator) {
+        PixelModel[][] pixelModels = correlator.getPixelModels();
+        if (pixelModels == null) {
+            return;
+        }
+
+        store(key, "correlations", (writer) -> {
+            int[] sampleTimes = correlator.getSampleTimes();
+            double[] lagTimes = correlator.getLagTimes();
+            double[] serialNumbers = new double[lagTimes.length];
+            double[] binWidths = new double[lagTimes.length];
+            for (int i = 0; i < lagTimes.length; i++) {
+                serialNumbers[i] = i;
+                binWidths[i] = sampleTimes[i];
+            }
+            writer.writeTable("Lag Time", new String[]{"S/N", "LagTime", "Bin width"},
+                    new double[][]{serialNumbers, lagTimes, binWidths});
+
+            for (String name : ENTRY_NAMES) {
+                PixelModel[][] models = entryModels(name, pixelModels);
+                writer.writePixelModelArray(name, models, PixelModel::getCorrelationFunction);
+                writer.writePixelModelArray(name + " - Variance", models, PixelModel::getVarianceCF);
+                writer.writePixelModelArray(name + " - Standard Deviation", models,
+                        PixelModel::getStandardDeviationCF);
+                writer.writePixelModelArray(name + " - MSD", models, PixelModel::getMSD);
+                writer.writePixelModelArray(name + " - Blocked", models,
+                        pixelModel -> new double[]{pixelModel.getBlocked()});
+            }
+        });
+    }
+
+    /**
+     * Stores the fits of pixel models.
+     *
+     * @param key         the fit key, see {@link #fitKey}. Nothing is stored if it is null.
+     * @param pixelModels the fitted pixel models.
+     */
+    public void storeFits(String key, PixelModel[][] pixelModels) {
+        if (pixelModels == null) {
+            return;
+        }
+
+        store(key, "fits", (writer) -> {
+            for (String name : ENTRY_NAMES) {
+                PixelModel[][] models = entryModels(name, pixelModels);
+                writer.writePixelModelArray(name + " - Fit Functions", models,
+                        pixelModel -> pixelModel.isFitted() ? pixelModel.getFittedCF() : null);
+                writer.writePixelModelArray(name + " - Residuals", models,
+                        pixelModel -> pixelModel.isFitted() ? pixelModel.getResiduals() : null);
+                writer.writePixelModelArray(name + " - Fit Parameters", models,
+                        pixelModel -> pixelModel.isFitted() ?
+                                Arrays.stream(pixelModel.getParams()).mapToDouble(Pair::getRight).toArray() : null);
+            }
+        });
+    }
+
+    /**
+     * Returns the pixel models of an entry: the pixel models themselves, or the ones of their autocorrelations.
+     */
+    private static PixelModel[][] entryModels(String name, PixelModel[][] pixelModels) {
+        switch (name) {
+            case "ACF1":
+                return PixelModel.extractAcfPixelModels(pixelModels, PixelModel::getAcf1PixelModel);
+            case "ACF2":
+                return PixelModel.extractAcfPixelModels(pixelModels, PixelModel::getAcf2PixelModel);
+            default:
+                return pixelModels;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package fiji.plugin.imaging_fcs.imfcs.utils;
+
+import fiji.plugin.imaging_fcs.imfcs.model.PixelModel;
+import org.yaml.snakeyaml.Yaml;
+
+import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import static fiji.plugin.imaging_fcs.imfcs.utils.ResultsWriter.*;
+
+/**
+ * Reads a results file written by {@link ResultsWriter}.
+ * <p>
+ * Entries are memory-mapped when first used, so reading the curves of one pixel only touches the pages holding
+ * them, whatever the size of the file. The reader is thread-safe.
+ * </p>
+ */
+public final class ResultsReader implements AutoCloseable {
+    private final File file;
+    private final FileChannel channel;
+    private final Map<String, long[]> entries = new LinkedHashMap<>();
+    private final Map<String, Byte> kinds = new HashMap<>();
+    private final Map<String, ByteBuffer> mapped = new HashMap<>();
+    private final Map<String, PixelsEntry> pixelsEntries = new HashMap<>();
+    private final Map<String, Object> settings;
+
+    /**
+     * Opens a results file and reads its index and settings.
+     *
+     * @param file the results file.
+     * @throws IOException if the file cannot be read or is not a results file.
+     */
+    public ResultsReader(File file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+            ByteBuffer header = read(0, HEADER_SIZE);
+            if (header.getLong() != MAGIC) {
+                throw new IOException(String.format("%s is not an ImFCS results file.", file.getName()));
+            }
+            int version = header.getInt();
+            if (version > VERSION) {
+                throw new IOException(String.format("%s was written by a newer version of the plugin.",
+                        file.getName()));
+            }
+            header.getInt();
+            long indexOffset = header.getLong();
+            if (indexOffset <= 0 || indexOffset >= channel.size()) {
+                throw new IOException(String.format("%s is incomplete.", file.getName()));
+            }
+
+            ByteBuffer index = read(indexOffset, (int) (channel.size() - indexOffset));
+            int numEntries = index.getInt();
+            for (int i = 0; i < numEntries; i++) {
+                String name = getString(index);
+                kinds.put(name, index.get());
+                entries.put(name, new long[]{index.getLong(), index.getLong()});
+            }
+
+            ByteBuffer settingsEntry = entry(SETTINGS_ENTRY, KIND_TEXT);
+            Map<String, Object> loaded = new Yaml().load(getString(settingsEntry));
+            settings = loaded == null ? new HashMap<>() : loaded;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a file chooser to select a saved results file, either a binary results file or an Excel file.
+     *
+     * @param openPath the initial directory path for the file chooser
+     * @return the selected file, or null if the selection is canceled
+     */
+    public static File selectResultsFileToLoad(String openPath) {
+        JFileChooser fileChooser = new JFileChooser(openPath);
+        fileChooser.setDialogTitle("Open results");
+        fileChooser.setFileFilter(
+                new FileNameExtensionFilter("ImFCS results (*.imfcs, *.xls, *.xlsx)", "imfcs", "xls", "xlsx"));
+
+        if (fileChooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+            return fileChooser.getSelectedFile();
+        }
+
+        return null;
+    }
+
+    /**
+     * Tells whether a file is a binary results file, from its extension.
+     *
+     * @param file the file.
+     * @return true if the file is a results file.
+     */
+    public static boolean isResultsFile(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * Reads bytes from the file.
+     *
+     * @param position the position of the first byte.
+     * @param length   the number of bytes.
+     * @return a buffer holding the bytes.
+     * @throws IOException if the bytes cannot be read.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException(String.format("%s is truncated.", file.getName()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the content of an entry, mapping it on first use.
+     *
+     * @param name the name of the entry.
+     * @param kind the expected kind of the entry.
+     * @return a buffer positioned at the start of the entry, independent of other callers.
+     */
+    private synchronized ByteBuffer entry(String name, byte kind) {
+        long[] entry = entries.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("No results entry named " + name);
+        }
+        if (kinds.get(name) != kind) {
+            throw new IllegalArgumentException("Results entry " + name + " has another type");
+        }
+
+        ByteBuffer buffer = mapped.get(name);
+        if (buffer == null) {
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, entry[0], entry[1]);
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("Cannot read %s from %s: %s", name, file.getName(),
+                        e.getMessage()));
+            }
+            mapped.put(name, buffer);
+        }
+
+        return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the description of a pixels entry, parsing its header on first use.
+     *
+     * @param name the name of the entry.
+     * @return the description of the entry.
+     */
+    private synchronized PixelsEntry pixelsEntry(String name) {
+        PixelsEntry pixelsEntry = pixelsEntries.get(name);
+        if (pixelsEntry == null) {
+            pixelsEntry = new PixelsEntry(entry(name, KIND_PIXELS));
+            pixelsEntries.put(name, pixelsEntry);
+        }
+        return pixelsEntry;
+    }
+
+    /**
+     * Returns the experimental settings, as text values like the ones read from an Excel file.
+     *
+     * @return the settings.
+     */
+    public Map<String, Object> getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the names of the entries, in the order they were written.
+     *
+     * @return the names of the entries.
+     */
+    public Set<String> getEntryNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public boolean hasEntry(String name) {
+        return entries.containsKey(name);
+    }
+
+    public boolean isPixelsEntry(String name) {
+        return hasEntry(name) && kinds.get(name) == KIND_PIXELS;
+    }
+
+    public boolean isTableEntry(String name) {
+        return hasEntry(name) && kinds.get(name) == KIND_TABLE;
+    }
+
+    public boolean isMapEntry(String name) {
+        return hasEntry(name) && kinds.get(name) == KIND_MAP;
+    }
+
+    /**
+     * Reads the values of one pixel.
+     *
+     * @param name the name of a pixels entry.
+     * @param x    the x-coordinate of the pixel.
+     * @param y    the y-coordinate of the pixel.
+     * @return the values, or null if the entry does not exist or has no values for this pixel.
+     */
+    public double[] readPixel(String name, int x, int y) {
+        if (!isPixelsEntry(name)) {
+            return null;
+        }
+        return pixelsEntry(name).read(x, y);
+    }
+
+    /**
+     * Checks whether a pixel has values in a pixels entry, reading only the row index.
+     *
+     * @param name the name of a pixels entry.
+     * @param x    the x-coordinate of the pixel.
+     * @param y    the y-coordinate of the pixel.
+     * @return true if the entry exists and has values for this pixel.
+     */
+    public boolean hasPixel(String name, int x, int y) {
+        return isPixelsEntry(name) && pixelsEntry(name).row(x, y) >= 0;
+    }
+
+    /**
+     * Returns the names of the values of a pixels entry.
+     *
+     * @param name the name of a pixels entry.
+     * @return the names of the values, or null if they are not named.
+     */
+    public String[] getPixelColumns(String name) {
+        return pixelsEntry(name).columns;
+    }
+
+    /**
+     * Returns the width and height of the pixel grid of a pixels entry.
+     *
+     * @param name the name of a pixels entry.
+     * @return the width and height.
+     */
+    public int[] getPixelsDimension(String name) {
+        PixelsEntry pixelsEntry = pixelsEntry(name);
+        return new int[]{pixelsEntry.width, pixelsEntry.height};
+    }
+
+    /**
+     * Returns the number of values of each pixel of a pixels entry.
+     *
+     * @param name the name of a pixels entry.
+     * @return the length of the rows of the entry.
+     */
+    public int getPixelsLength(String name) {
+        return pixelsEntry(name).length;
+    }
+
+    /**
+     * Reads every pixel of a pixels entry into pixel models, creating the missing ones, like
+     * {@link ExcelReader#readSheetToPixelModels}.
+     *
+     * @param name        the name of a pixels entry, ignored if it does not exist.
+     * @param pixelModels a 2D array of PixelModel objects to update
+     * @param setter      a function that sets values in a PixelModel object
+     */
+    public void readPixelModels(String name, PixelModel[][] pixelModels, BiConsumer<PixelModel, double[]> setter) {
+        if (!isPixelsEntry(name)) {
+            return;
+        }
+
+        PixelsEntry pixelsEntry = pixelsEntry(name);
+        int width = Math.min(pixelsEntry.width, pixelModels.length);
+        int height = Math.min(pixelsEntry.height, pixelModels[0].length);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                double[] values = pixelsEntry.read(x, y);
+                if (values != null) {
+                    if (pixelModels[x][y] == null) {
+                        pixelModels[x][y] = new PixelModel();
+                    }
+                    setter.accept(pixelModels[x][y], values);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the columns of a table entry.
+     *
+     * @param name the name of a table entry.
+     * @return the names of the columns.
+     */
+    public String[] getTableColumns(String name) {
+        ByteBuffer buffer = entry(name, KIND_TABLE);
+        String[] columns = new String[buffer.getInt()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = getString(buffer);
+            int length = buffer.getInt();
+            buffer.position(buffer.position() + length * Double.BYTES);
+        }
+        return columns;
+    }
+
+    /**
+     * Reads the columns of a table entry.
+     *
+     * @param name the name of a table entry.
+     * @return the values of each column.
+     */
+    public double[][] readTable(String name) {
+        ByteBuffer buffer = entry(name, KIND_TABLE);
+        double[][] values = new double[buffer.getInt()][];
+        for (int i = 0; i < values.length; i++) {
+            getString(buffer);
+            values[i] = new double[buffer.getInt()];
+            buffer.asDoubleBuffer().get(values[i]);
+            buffer.position(buffer.position() + values[i].length * Double.BYTES);
+        }
+        return values;
+    }
+
+    /**
+     * Reads a map entry.
+     *
+     * @param name the name of a map entry.
+     * @return the values, indexed by [x][y].
+     */
+    public double[][] readMap(String name) {
+        ByteBuffer buffer = entry(name, KIND_MAP);
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        double[][] values = new double[width][height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                values[x][y] = buffer.getDouble();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads the PSF results written by {@link ResultsWriter#writePSF}.
+     *
+     * @return the D and SD per binning for each PSF value, or null if the file has no PSF results.
+     */
+    public Map<Double, double[][]> readPSF() {
+        if (!isTableEntry(PSF_ENTRY)) {
+            return null;
+        }
+
+        // columns: PSF values, binning, then D and SD for each PSF value
+        double[][] table = readTable(PSF_ENTRY);
+        Map<Double, double[][]> psfResults = new LinkedHashMap<>();
+        for (int i = 0; i < table[0].length; i++) {
+            psfResults.put(table[0][i], new double[][]{table[1].clone(), table[2 + 2 * i], table[3 + 2 * i]});
+        }
+        return psfResults;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            mapped.clear();
+            pixelsEntries.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * The layout of a pixels entry: a row index for every pixel, then the rows of values.
+     */
+    private static final class PixelsEntry {
+        private final ByteBuffer buffer;
+        private final int width, height, length;
+        private final String[] columns;
+        private final int indexOffset, dataOffset;
+
+        PixelsEntry(ByteBuffer buffer) {
+            this.buffer = buffer;
+            width = buffer.getInt();
+            height = buffer.getInt();
+            length = buffer.getInt();
+            int numRows = buffer.getInt();
+            int numColumns = buffer.getInt();
+            columns = numColumns == 0 ? null : new String[numColumns];
+            for (int i = 0; i < numColumns; i++) {
+                columns[i] = getString(buffer);
+            }
+            indexOffset = buffer.position();
+            dataOffset = indexOffset + width * height * Integer.BYTES;
+
+            if (dataOffset + (long) numRows * length * Double.BYTES > buffer.limit()) {
+                throw new IllegalArgumentException("Truncated results entry");
+            }
+        }
+
+        /**
+         * Returns the row holding the values of a pixel.
+         *
+         * @param x the x-coordinate of the pixel.
+         * @param y the y-coordinate of the pixel.
+         * @return the row, or -1 if the pixel has no values.
+         */
+        int row(int x, int y) {
+            if (x < 0 || y < 0 || x >= width || y >= height) {
+                return -1;
+            }
+            return buffer.getInt(indexOffset + (y * width + x) * Integer.BYTES);
+        }
+
+        /**
+         * Reads the values of a pixel, using absolute reads so that the buffer is shared between threads.
+         *
+         * @param x the x-coordinate of the pixel.
+         * @param y the y-coordinate of the pixel.
+         * @return the values, or null if the pixel has none.
+         */
+        double[] read(int x, int y) {
+            int row = row(x, y);
+            if (row < 0) {
+                return null;
+            }
+
+            double[] values = new double[length];
+            int offset = dataOffset + row * length * Double.BYTES;
+            for (int i = 0; i < length; i++) {
+                values[i] = buffer.getDouble(offset + i * Double.BYTES);
+            }
+            return values;
+        }
+    }
+}
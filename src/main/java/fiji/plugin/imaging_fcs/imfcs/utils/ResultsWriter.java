@@ -0,0 +1,567 @@
+package fiji.plugin.imaging_fcs.imfcs.utils;
+
+import fiji.plugin.imaging_fcs.imfcs.enums.DccfDirection;
+import fiji.plugin.imaging_fcs.imfcs.enums.FitFunctions;
+import fiji.plugin.imaging_fcs.imfcs.model.DiffusionLawModel;
+import fiji.plugin.imaging_fcs.imfcs.model.ExpSettingsModel;
+import fiji.plugin.imaging_fcs.imfcs.model.PixelModel;
+import fiji.plugin.imaging_fcs.imfcs.model.correlations.Correlator;
+import ij.IJ;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Writes analysis results to a binary results file, a compact alternative to the Excel export.
+ * <p>
+ * The file holds a YAML header with the experimental settings and one entry per attribute, named like the sheets of
+ * the Excel export. The values of an attribute are stored in one contiguous array, with an index giving the row of
+ * each pixel, so that {@link ResultsReader} can map the file and read the curves of any pixel directly. The index of
+ * the entries is written at the end of the file, once every entry is known.
+ * </p>
+ */
+public final class ResultsWriter implements AutoCloseable {
+    public static final String EXTENSION = ".imfcs";
+
+    static final long MAGIC = 0x5345525343464D49L; // "IMFCSRES" once written little-endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final String SETTINGS_ENTRY = "Experimental settings";
+    static final String PSF_ENTRY = "PSF";
+
+    // entry kinds
+    static final byte KIND_TEXT = 0;
+    static final byte KIND_PIXELS = 1;
+    static final byte KIND_TABLE = 2;
+    static final byte KIND_MAP = 3;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final Map<String, long[]> entries = new LinkedHashMap<>();
+    private final Map<String, Byte> kinds = new HashMap<>();
+    private long position = HEADER_SIZE;
+    private boolean closed = false;
+
+    /**
+     * Creates the file and writes the experimental settings.
+     *
+     * @param file        the file to write, replaced if it exists.
+     * @param settingsMap the experimental settings.
+     * @throws IOException if the file cannot be created.
+     */
+    public ResultsWriter(File file, Map<String, Object> settingsMap) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        // the offset of the index is patched on close
+        buffer.putLong(MAGIC).putInt(VERSION).putInt(0).putLong(0);
+
+        // values are stored as text, like in the Excel export, so both are loaded the same way
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : settingsMap.entrySet()) {
+            settings.put(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+
+        beginEntry(SETTINGS_ENTRY, KIND_TEXT);
+        putBytes(new Yaml(options).dump(settings).getBytes(StandardCharsets.UTF_8));
+        endEntry(SETTINGS_ENTRY);
+    }
+
+    /**
+     * Opens a file chooser for the user to select where to save the results. The format is chosen with the file
+     * filter, the binary results format being the default and Excel an explicit conversion.
+     * If the file already exists, the user is asked to confirm that it should be replaced.
+     *
+     * @param defaultName the suggested file name, without extension
+     * @param openPath    the initial directory of the file chooser
+     * @return the selected file path with its extension, or null if the user cancels
+     */
+    public static String selectResultsFileToSave(String defaultName, String openPath) {
+        JFileChooser fileChooser = new JFileChooser(openPath);
+        fileChooser.setDialogTitle("Specify a file to save");
+        FileNameExtensionFilter resultsFilter = new FileNameExtensionFilter("ImFCS results (*.imfcs)", "imfcs");
+        FileNameExtensionFilter excelFilter = new FileNameExtensionFilter("Excel Files (*.xlsx)", "xlsx");
+        fileChooser.addChoosableFileFilter(resultsFilter);
+        fileChooser.addChoosableFileFilter(excelFilter);
+        fileChooser.setFileFilter(resultsFilter);
+        fileChooser.setSelectedFile(new File(defaultName));
+
+        if (fileChooser.showSaveDialog(null) != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+
+        String filePath = fileChooser.getSelectedFile().getAbsolutePath();
+        if (!filePath.endsWith(EXTENSION) && !filePath.endsWith(".xlsx")) {
+            filePath += fileChooser.getFileFilter() == excelFilter ? ".xlsx" : EXTENSION;
+        }
+
+        if (new File(filePath).exists()) {
+            int confirm = JOptionPane.showConfirmDialog(null, "The file already exists. Do you want to replace it?",
+                    "File already exists", JOptionPane.YES_NO_OPTION);
+            if (confirm != JOptionPane.YES_OPTION) {
+                return null;
+            }
+        }
+
+        return filePath;
+    }
+
+    /**
+     * Saves experimental settings and results into a results file, in the same spirit as
+     * {@link ExcelExporter#saveExcelFile}. If an entry cannot be written, the file is deleted.
+     *
+     * @param filePath    the path where the file will be saved
+     * @param settingsMap a map of experimental settings to be written to the file
+     * @param addEntries  a consumer function that adds the result entries
+     */
+    public static void saveResultsFile(String filePath, Map<String, Object> settingsMap,
+                                       ResultsConsumer addEntries) {
+        try {
+            writeResultsFile(filePath, settingsMap, addEntries);
+        } catch (IOException | RuntimeException e) {
+            IJ.showMessage("Error saving results", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a results file like {@link #saveResultsFile}, but reports a failure by throwing instead of showing a
+     * dialog. If an entry cannot be written, the file is deleted.
+     *
+     * @param filePath    the path where the file will be saved
+     * @param settingsMap a map of experimental settings to be written to the file
+     * @param addEntries  a consumer function that adds the result entries
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeResultsFile(String filePath, Map<String, Object> settingsMap,
+                                        ResultsConsumer addEntries) throws IOException {
+        ResultsWriter writer = null;
+        try {
+            writer = new ResultsWriter(new File(filePath), settingsMap);
+            addEntries.accept(writer);
+            writer.close();
+            IJ.log(String.format("File saved at %s.", filePath));
+        } catch (IOException | RuntimeException e) {
+            // a partial file would look like a complete one with fewer results
+            if (writer != null) {
+                writer.discard();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts an entry at the current position.
+     *
+     * @param name the name of the entry.
+     * @param kind the kind of the entry.
+     */
+    private void beginEntry(String name, byte kind) {
+        if (entries.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate results entry: " + name);
+        }
+        // the size stays negative until the entry is complete
+        entries.put(name, new long[]{position, -1});
+        kinds.put(name, kind);
+    }
+
+    /**
+     * Records the size of the entry that was just written.
+     *
+     * @param name the name of the entry.
+     */
+    private void endEntry(String name) {
+        long[] entry = entries.get(name);
+        entry[1] = position - entry[0];
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void putInt(int value) throws IOException {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(value);
+        position += Integer.BYTES;
+    }
+
+    private void putDouble(double value) throws IOException {
+        ensureRemaining(Double.BYTES);
+        buffer.putDouble(value);
+        position += Double.BYTES;
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+        putInt(bytes.length);
+        for (int offset = 0; offset < bytes.length; ) {
+            ensureRemaining(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+        position += bytes.length;
+    }
+
+    private void putString(String value) throws IOException {
+        putBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the pending bytes to the file.
+     *
+     * @throws IOException if the bytes cannot be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes one array of values per pixel. Pixels without values are not stored. Arrays shorter than the longest
+     * one are padded with NaN.
+     *
+     * @param name    the name of the entry.
+     * @param width   the width of the pixel grid.
+     * @param height  the height of the pixel grid.
+     * @param values  returns the values of the pixel (x, y), or null if the pixel has none.
+     * @param columns the names of the values, or null if they are not named.
+     * @return true if at least one pixel was written.
+     * @throws IOException if the entry cannot be written.
+     */
+    public boolean writePixels(String name, int width, int height, BiFunction<Integer, Integer, double[]> values,
+                               String[] columns) throws IOException {
+        // the rows follow the order of the Excel export, y first
+        int[] rowIndex = new int[width * height];
+        int numRows = 0;
+        int length = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double[] array = values.apply(x, y);
+                rowIndex[y * width + x] = array == null ? -1 : numRows++;
+                if (array != null) {
+                    length = Math.max(length, array.length);
+                }
+            }
+        }
+
+        if (numRows == 0) {
+            return false;
+        }
+
+        beginEntry(name, KIND_PIXELS);
+        putInt(width);
+        putInt(height);
+        putInt(length);
+        putInt(numRows);
+        putInt(columns == null ? 0 : columns.length);
+        if (columns != null) {
+            for (String column : columns) {
+                putString(column);
+            }
+        }
+        for (int row : rowIndex) {
+            putInt(row);
+        }
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (rowIndex[y * width + x] < 0) {
+                    continue;
+                }
+                double[] array = values.apply(x, y);
+                for (int i = 0; i < length; i++) {
+                    putDouble(i < array.length ? array[i] : Double.NaN);
+                }
+            }
+        }
+        endEntry(name);
+
+        return true;
+    }
+
+    /**
+     * Writes an attribute of the pixel models, skipping the pixels where it is not set.
+     *
+     * @param name        the name of the entry.
+     * @param pixelModels the pixel models, indexed by [x][y].
+     * @param arrayGetter a function that extracts the attribute from a pixel model.
+     * @throws IOException if the entry cannot be written.
+     */
+    public void writePixelModelArray(String name, PixelModel[][] pixelModels,
+                                     Function<PixelModel, double[]> arrayGetter) throws IOException {
+        writePixels(name, pixelModels.length, pixelModels[0].length, (x, y) -> {
+            PixelModel pixelModel = pixelModels[x][y];
+            return pixelModel == null ? null : arrayGetter.apply(pixelModel);
+        }, null);
+    }
+
+    /**
+     * Writes a table of named columns. Columns can have different lengths.
+     *
+     * @param name    the name of the entry.
+     * @param columns the names of the columns.
+     * @param values  the values of each column.
+     * @throws IOException if the entry cannot be written.
+     */
+    public void writeTable(String name, String[] columns, double[][] values) throws IOException {
+        beginEntry(name, KIND_TABLE);
+        putInt(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            putString(columns[i]);
+            putInt(values[i].length);
+            for (double value : values[i]) {
+                putDouble(value);
+            }
+        }
+        endEntry(name);
+    }
+
+    /**
+     * Writes a map with one value per pixel.
+     *
+     * @param name   the name of the entry.
+     * @param values the values, indexed by [x][y].
+     * @throws IOException if the entry cannot be written.
+     */
+    public void writeMap(String name, double[][] values) throws IOException {
+        int width = values.length;
+        int height = values[0].length;
+
+        beginEntry(name, KIND_MAP);
+        putInt(width);
+        putInt(height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                putDouble(values[x][y]);
+            }
+        }
+        endEntry(name);
+    }
+
+    /**
+     * Writes the correlation functions, standard deviations, fits, residuals, fit parameters and MSD of the pixel
+     * models, as well as the lag times. The entries are the same as the sheets of
+     * {@link ExcelExporter#saveExcelPixelModels}.
+     *
+     * @param pixelModels the 2D array of PixelModel objects
+     * @param settings    the experimental settings used to determine which entries to create
+     * @param correlator  the correlator providing lag and sample times
+     * @throws IOException if an entry cannot be written.
+     */
+    public void writePixelModels(PixelModel[][] pixelModels, ExpSettingsModel settings, Correlator correlator)
+            throws IOException {
+        if (pixelModels == null) {
+            return;
+        }
+
+        int[] sampleTimes = correlator.getSampleTimes();
+        double[] lagTimes = correlator.getLagTimes();
+        double[] serialNumbers = new double[lagTimes.length];
+        double[] binWidths = new double[lagTimes.length];
+        for (int i = 0; i < lagTimes.length; i++) {
+            serialNumbers[i] = i;
+            binWidths[i] = sampleTimes[i];
+        }
+        writeTable("Lag Time", new String[]{"S/N", "LagTime", "Bin width"},
+                new double[][]{serialNumbers, lagTimes, binWidths});
+
+        writePixelModelEntries("CF", pixelModels, settings.isMSD());
+        if (settings.getFitModel() == FitFunctions.DC_FCCS_2D) {
+            writePixelModelEntries("ACF1",
+                    PixelModel.extractAcfPixelModels(pixelModels, PixelModel::getAcf1PixelModel), settings.isMSD());
+            writePixelModelEntries("ACF2",
+                    PixelModel.extractAcfPixelModels(pixelModels, PixelModel::getAcf2PixelModel), settings.isMSD());
+        }
+    }
+
+    /**
+     * Writes the entries of a set of pixel models if they are not all null.
+     *
+     * @param name        the base name of the entries
+     * @param pixelModels the 2D array of PixelModel objects
+     * @param isMSD       whether MSD data should be included
+     * @throws IOException if an entry cannot be written.
+     */
+    private void writePixelModelEntries(String name, PixelModel[][] pixelModels, boolean isMSD) throws IOException {
+        boolean allNull = Arrays.stream(pixelModels).flatMap(Arrays::stream).allMatch(Objects::isNull);
+        if (allNull) {
+            IJ.log("All pixel models are null for " + name);
+            return;
+        }
+
+        writePixelModelArray(name, pixelModels, PixelModel::getCorrelationFunction);
+        writePixelModelArray(name + " - Standard Deviation", pixelModels, PixelModel::getStandardDeviationCF);
+
+        if (PixelModel.anyPixelFit(pixelModels)) {
+            writePixelModelArray(name + " - Fit Functions", pixelModels, PixelModel::getFittedCF);
+            writePixelModelArray(name + " - Residuals", pixelModels, PixelModel::getResiduals);
+            writePixels(name + " - Fit Parameters", pixelModels.length, pixelModels[0].length, (x, y) -> {
+                PixelModel pixelModel = pixelModels[x][y];
+                if (pixelModel == null || !pixelModel.isFitted()) {
+                    return null;
+                }
+                return Arrays.stream(pixelModel.getParams()).mapToDouble(Pair::getRight).toArray();
+            }, PixelModel.paramsName);
+        }
+
+        if (isMSD) {
+            writePixelModelArray(name + " - MSD", pixelModels, PixelModel::getMSD);
+        }
+    }
+
+    /**
+     * Writes the diffusion law data, if it was computed.
+     *
+     * @param diffusionLawModel the model containing the diffusion law data
+     * @throws IOException if an entry cannot be written.
+     */
+    public void writeDiffusionLaw(DiffusionLawModel diffusionLawModel) throws IOException {
+        if (diffusionLawModel.getTime() != null) {
+            writeTable("Diffusion law",
+                    new String[]{"Aeff", "Time", "SD", "intercept", "slope", "fit start", "fit end"},
+                    new double[][]{
+                            diffusionLawModel.getEffectiveArea(),
+                            diffusionLawModel.getTime(),
+                            diffusionLawModel.getStandardDeviation(),
+                            {diffusionLawModel.getIntercept()},
+                            {diffusionLawModel.getSlope()},
+                            {diffusionLawModel.getFitStart()},
+                            {diffusionLawModel.getFitEnd()}});
+        }
+    }
+
+    /**
+     * Writes the PSF results, if they were computed. The columns are those of {@link ExcelExporter#savePSFSheet},
+     * preceded by the PSF values themselves so that {@link ResultsReader#readPSF} restores them exactly.
+     *
+     * @param psfResults the D and SD per binning, for each PSF value
+     * @throws IOException if the entry cannot be written.
+     */
+    public void writePSF(Map<Double, double[][]> psfResults) throws IOException {
+        if (psfResults == null || psfResults.isEmpty()) {
+            return;
+        }
+
+        List<String> columns = new ArrayList<>();
+        List<double[]> values = new ArrayList<>();
+        columns.add(PSF_ENTRY);
+        values.add(psfResults.keySet().stream().mapToDouble(Double::doubleValue).toArray());
+        columns.add("Binning");
+        values.add(psfResults.values().iterator().next()[0]);
+        for (Map.Entry<Double, double[][]> entry : psfResults.entrySet()) {
+            columns.add(String.format("D (PSF = %.2f)", entry.getKey()));
+            values.add(entry.getValue()[1]);
+            columns.add(String.format("SD (PSF = %.2f)", entry.getKey()));
+            values.add(entry.getValue()[2]);
+        }
+        writeTable(PSF_ENTRY, columns.toArray(new String[0]), values.toArray(new double[0][]));
+    }
+
+    /**
+     * Writes the number and brightness maps, if they were computed.
+     *
+     * @param NBB a 2D array representing brightness values
+     * @param NBN a 2D array representing number values
+     * @throws IOException if the entry cannot be written.
+     */
+    public void writeNumberAndBrightness(double[][] NBB, double[][] NBN) throws IOException {
+        if (NBB == null || NBN == null) {
+            return;
+        }
+
+        writePixels("N&B", NBB.length, NBB[0].length, (x, y) -> new double[]{NBN[x][y], NBB[x][y]},
+                new String[]{"Number", "Brightness"});
+    }
+
+    /**
+     * Writes one dCCF map per direction.
+     *
+     * @param dccf a map where the key is the direction and the value is a 2D array of correlation data
+     * @throws IOException if an entry cannot be written.
+     */
+    public void writeDccf(Map<DccfDirection, double[][]> dccf) throws IOException {
+        for (Map.Entry<DccfDirection, double[][]> entry : dccf.entrySet()) {
+            writeMap("dCCF - " + ExcelExporter.createSafeDirectionName(entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * Closes and deletes the file, after a failed write.
+     */
+    public void discard() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        if (!file.delete()) {
+            IJ.log(String.format("Cannot delete the incomplete results file %s.", file.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * Writes the index of the entries and points the header to it. An entry whose writing was interrupted is left
+     * out of the index.
+     *
+     * @throws IOException if the index cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            long indexOffset = position;
+            putInt((int) entries.values().stream().filter(entry -> entry[1] >= 0).count());
+            for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+                if (entry.getValue()[1] < 0) {
+                    continue;
+                }
+                putString(entry.getKey());
+                ensureRemaining(1 + 2 * Long.BYTES);
+                buffer.put(kinds.get(entry.getKey())).putLong(entry.getValue()[0]).putLong(entry.getValue()[1]);
+                position += 1 + 2 * Long.BYTES;
+            }
+            flush();
+
+            ByteBuffer offset = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            offset.putLong(indexOffset).flip();
+            channel.write(offset, HEADER_SIZE - Long.BYTES);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Adds entries to a results file.
+     */
+    @FunctionalInterface
+    public interface ResultsConsumer {
+        void accept(ResultsWriter writer) throws IOException;
+    }
+}
@@ -0,0 +1,193 @@
+package fiji.plugin.imaging_fcs.imfcs.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a 16-bit image stack to an uncompressed TIFF file one frame at a time, so that the stack never has to be
+ * held in memory.
+ * <p>
+ * Frames are written contiguously right after the header, and the image file directories are appended once the
+ * number of frames is known, when the writer is closed. The first directory carries an ImageJ description, so
+ * ImageJ opens the file as a stack like the ones it saves itself, and other readers use the directories.
+ * </p>
+ */
+public final class TiffStackWriter implements AutoCloseable {
+    private static final int HEADER_SIZE = 8;
+    private static final int BUFFER_SIZE = 1 << 20;
+    // classic TIFF files use 32-bit offsets
+    private static final long MAX_FILE_SIZE = 0xFFFFFFFFL;
+
+    private static final short TYPE_ASCII = 2;
+    private static final short TYPE_SHORT = 3;
+    private static final short TYPE_LONG = 4;
+    private static final int ENTRY_SIZE = 12;
+    private static final int NUM_ENTRIES = 10;
+    // the first directory has one more entry, the image description
+    private static final int FIRST_IFD_SIZE = 2 + (NUM_ENTRIES + 1) * ENTRY_SIZE + 4;
+    private static final int IFD_SIZE = 2 + NUM_ENTRIES * ENTRY_SIZE + 4;
+    private static final int MAX_DESCRIPTION_SIZE = 128;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int width, height;
+    private final long frameBytes;
+    private long position = HEADER_SIZE;
+    private int numFrames = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates the file and writes the header.
+     *
+     * @param file   the file to write, replaced if it exists.
+     * @param width  the width of the frames in pixels.
+     * @param height the height of the frames in pixels.
+     * @throws IOException if the file cannot be created.
+     */
+    public TiffStackWriter(File file, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.frameBytes = (long) width * height * Short.BYTES;
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+
+        // the offset of the first directory is patched on close
+        buffer.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(0);
+    }
+
+    /**
+     * Appends a frame to the stack.
+     *
+     * @param pixels the 16-bit pixels of the frame, row by row.
+     * @throws IOException if the frame cannot be written or the file would exceed the TIFF size limit.
+     */
+    public void writeFrame(short[] pixels) throws IOException {
+        if (pixels.length != width * height) {
+            throw new IllegalArgumentException("Frame size does not match the stack dimensions.");
+        }
+
+        long directoriesSize = FIRST_IFD_SIZE + MAX_DESCRIPTION_SIZE + (long) numFrames * IFD_SIZE;
+        if (position + frameBytes + directoriesSize > MAX_FILE_SIZE) {
+            throw new IOException("The stack exceeds the 4 GB limit of TIFF files.");
+        }
+
+        for (short pixel : pixels) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putShort(pixel);
+        }
+
+        position += frameBytes;
+        numFrames++;
+    }
+
+    /**
+     * Writes the pending bytes to the file.
+     *
+     * @throws IOException if the bytes cannot be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes a directory entry. Values shorter than 4 bytes are left-justified, as required by the format.
+     *
+     * @param tag   the tag of the entry.
+     * @param type  the type of the value.
+     * @param count the number of values.
+     * @param value the value, or the offset of the values if they do not fit in 4 bytes.
+     * @throws IOException if the pending bytes cannot be written.
+     */
+    private void putEntry(int tag, short type, int count, long value) throws IOException {
+        if (buffer.remaining() < ENTRY_SIZE) {
+            flush();
+        }
+        buffer.putShort((short) tag).putShort(type).putInt(count);
+        if (type == TYPE_SHORT) {
+            buffer.putShort((short) value).putShort((short) 0);
+        } else {
+            buffer.putInt((int) value);
+        }
+    }
+
+    /**
+     * Writes the image description and one directory per frame, then points the header to the first directory.
+     *
+     * @throws IOException if the directories cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            String description = String.format("ImageJ=1.53f\nimages=%d\nslices=%d\nloop=false\n\0",
+                    numFrames, numFrames);
+            byte[] descriptionBytes = description.getBytes(StandardCharsets.US_ASCII);
+
+            long descriptionOffset = position;
+            // directories must start on a word boundary
+            long firstIfdOffset = descriptionOffset + descriptionBytes.length + (descriptionBytes.length & 1);
+
+            flush();
+            buffer.put(descriptionBytes);
+            if ((descriptionBytes.length & 1) == 1) {
+                buffer.put((byte) 0);
+            }
+
+            long ifdOffset = firstIfdOffset;
+            for (int n = 0; n < numFrames; n++) {
+                boolean first = n == 0;
+                long nextIfdOffset = ifdOffset + (first ? FIRST_IFD_SIZE : IFD_SIZE);
+
+                if (buffer.remaining() < 2) {
+                    flush();
+                }
+                buffer.putShort((short) (first ? NUM_ENTRIES + 1 : NUM_ENTRIES));
+
+                putEntry(254, TYPE_LONG, 1, 0); // new subfile type
+                putEntry(256, TYPE_LONG, 1, width);
+                putEntry(257, TYPE_LONG, 1, height);
+                putEntry(258, TYPE_SHORT, 1, 16); // bits per sample
+                putEntry(259, TYPE_SHORT, 1, 1); // no compression
+                putEntry(262, TYPE_SHORT, 1, 1); // black is zero
+                if (first) {
+                    putEntry(270, TYPE_ASCII, descriptionBytes.length, descriptionOffset);
+                }
+                putEntry(273, TYPE_LONG, 1, HEADER_SIZE + n * frameBytes); // strip offset
+                putEntry(277, TYPE_SHORT, 1, 1); // samples per pixel
+                putEntry(278, TYPE_LONG, 1, height); // rows per strip
+                putEntry(279, TYPE_LONG, 1, frameBytes); // strip byte count
+
+                if (buffer.remaining() < 4) {
+                    flush();
+                }
+                buffer.putInt(n == numFrames - 1 ? 0 : (int) nextIfdOffset);
+                ifdOffset = nextIfdOffset;
+            }
+            flush();
+
+            // point the header to the first directory
+            ByteBuffer offset = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
+            offset.putInt(numFrames == 0 ? 0 : (int) firstIfdOffset).flip();
+            channel.write(offset, 4);
+        } finally {
+            channel.close();
+        }
+    }
+}
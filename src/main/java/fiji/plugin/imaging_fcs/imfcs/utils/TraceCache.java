@@ -0,0 +1,311 @@
+package fiji.plugin.imaging_fcs.imfcs.utils;
+
+import ij.ImageStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A sidecar file holding the frames of a 16-bit stack transposed to pixel-major order, so that the intensity trace
+ * of a pixel is read with one sequential read instead of one access per frame.
+ * <p>
+ * Pixels are grouped in square tiles, and each pixel stores all its frames contiguously, so neighbouring pixels of a
+ * binned area are close in the file. The cache is written once next to the source file and reused as long as the
+ * size and the modification time of the source file do not change.
+ * </p>
+ * <p>
+ * Readers running while the owner closes the cache hold it with {@link #acquire()} and {@link #release()}, the file
+ * is then closed when the last of them releases it.
+ * </p>
+ */
+public final class TraceCache implements AutoCloseable {
+    public static final String EXTENSION = ".imfcs-traces";
+
+    private static final long MAGIC = 0x4C52545343464D49L; // "IMFCSTRL" once written little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int TILE_SIZE = 8;
+    // memory used to transpose a block of frames while building the cache
+    private static final long BUILD_BUFFER_BYTES = 64L << 20;
+
+    private final FileChannel channel;
+    private final int width, height, numFrames;
+    // the owner and the readers holding the cache, the file is closed when it drops to 0
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Wraps an opened cache file.
+     *
+     * @param channel   the channel of the cache file.
+     * @param width     the width of the stack.
+     * @param height    the height of the stack.
+     * @param numFrames the number of frames of the stack.
+     */
+    private TraceCache(FileChannel channel, int width, int height, int numFrames) {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.numFrames = numFrames;
+    }
+
+    /**
+     * Returns the cache file associated with a source file.
+     *
+     * @param source the image file.
+     * @return the sidecar file.
+     */
+    public static File cacheFile(File source) {
+        return new File(source.getPath() + EXTENSION);
+    }
+
+    /**
+     * Opens the cache of a source file if it exists and is up to date.
+     *
+     * @param source    the image file.
+     * @param width     the width of the stack.
+     * @param height    the height of the stack.
+     * @param numFrames the number of frames of the stack.
+     * @return the cache, or null if there is no valid cache for this file.
+     */
+    public static TraceCache open(File source, int width, int height, int numFrames) {
+        File file = cacheFile(source);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // read until the header is full
+            }
+            header.flip();
+
+            boolean valid = header.remaining() == HEADER_SIZE && header.getLong() == MAGIC &&
+                    header.getInt() == VERSION && header.getInt() == TILE_SIZE && header.getInt() == width &&
+                    header.getInt() == height && header.getInt() == numFrames &&
+                    header.getLong() == source.length() && header.getLong() == source.lastModified() &&
+                    channel.size() == HEADER_SIZE + (long) width * height * numFrames * Short.BYTES;
+
+            if (!valid) {
+                channel.close();
+                return null;
+            }
+
+            return new TraceCache(channel, width, height, numFrames);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the cache of a source file by transposing its stack, and opens it. The file is written under a
+     * temporary name and renamed once complete, so an interrupted build never leaves a cache that looks valid.
+     *
+     * @param source the image file the stack was read from.
+     * @param stack  the stack of the image.
+     * @return the cache.
+     * @throws IOException if the cache cannot be written.
+     */
+    public static TraceCache build(File source, ImageStack stack) throws IOException {
+        int width = stack.getWidth();
+        int height = stack.getHeight();
+        int numFrames = stack.getSize();
+        // read the source attributes first, so a file modified during the build invalidates the cache
+        long sourceSize = source.length();
+        long sourceModified = source.lastModified();
+
+        File file = cacheFile(source);
+        File temporary = new File(file.getPath() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            TraceCache layout = new TraceCache(channel, width, height, numFrames);
+
+            long frameBytes = (long) width * height * Short.BYTES;
+            int blockFrames = (int) Math.max(1, Math.min(numFrames, BUILD_BUFFER_BYTES / frameBytes));
+            short[][] block = new short[blockFrames][];
+            ByteBuffer run = ByteBuffer.allocate(blockFrames * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int start = 0; start < numFrames; start += blockFrames) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Trace cache build interrupted");
+                }
+
+                int count = Math.min(blockFrames, numFrames - start);
+                for (int i = 0; i < count; i++) {
+                    block[i] = (short[]) stack.getProcessor(start + i + 1).getPixels();
+                }
+
+                // write the part of each trace covered by this block of frames
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int index = y * width + x;
+                        run.clear();
+                        for (int i = 0; i < count; i++) {
+                            run.putShort(block[i][index]);
+                        }
+                        run.flip();
+                        long position = layout.traceOffset(x, y) + (long) start * Short.BYTES;
+                        while (run.hasRemaining()) {
+                            position += channel.write(run, position);
+                        }
+                    }
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(MAGIC).putInt(VERSION).putInt(TILE_SIZE).putInt(width).putInt(height).putInt(numFrames)
+                    .putLong(sourceSize).putLong(sourceModified);
+            header.clear();
+            channel.write(header, 0);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary.toPath());
+            throw e;
+        }
+
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        TraceCache cache = open(source, width, height, numFrames);
+        if (cache == null) {
+            throw new IOException("The source file changed while its trace cache was written.");
+        }
+        return cache;
+    }
+
+    /**
+     * Computes the offset of the trace of a pixel in the file.
+     *
+     * @param x the x-coordinate of the pixel.
+     * @param y the y-coordinate of the pixel.
+     * @return the offset of the first frame of the pixel, in bytes.
+     */
+    private long traceOffset(int x, int y) {
+        int tileX = x / TILE_SIZE;
+        int tileY = y / TILE_SIZE;
+        // tiles on the right and bottom edges can be smaller
+        int tileHeight = Math.min(TILE_SIZE, height - tileY * TILE_SIZE);
+        int tileWidth = Math.min(TILE_SIZE, width - tileX * TILE_SIZE);
+
+        long pixelIndex = (long) tileY * TILE_SIZE * width + (long) tileX * TILE_SIZE * tileHeight +
+                (y % TILE_SIZE) * tileWidth + x % TILE_SIZE;
+        return HEADER_SIZE + pixelIndex * numFrames * Short.BYTES;
+    }
+
+    /**
+     * Reads part of the intensity trace of a pixel. This method can be called from several threads.
+     *
+     * @param x          the x-coordinate of the pixel.
+     * @param y          the y-coordinate of the pixel.
+     * @param firstFrame the first frame to read, 0-based.
+     * @param trace      the array filled with the pixel values of consecutive frames.
+     */
+    public void readTrace(int x, int y, int firstFrame, short[] trace) {
+        if (x < 0 || y < 0 || x >= width || y >= height || firstFrame < 0 ||
+                firstFrame + trace.length > numFrames) {
+            throw new IllegalArgumentException("Trace out of the cached stack");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(trace.length * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = traceOffset(x, y) + (long) firstFrame * Short.BYTES;
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new IOException("Unexpected end of the trace cache");
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the trace cache: " + e.getMessage());
+        }
+
+        buffer.flip();
+        buffer.asShortBuffer().get(trace);
+    }
+
+    /**
+     * Reads the sum of the intensity traces of a binned area.
+     *
+     * @param x          the x-coordinate of the top left corner of the area.
+     * @param y          the y-coordinate of the top left corner of the area.
+     * @param binningX   the width of the area.
+     * @param binningY   the height of the area.
+     * @param firstFrame the first frame to read, 0-based.
+     * @param numFrames  the number of frames to read.
+     * @return the sum of the pixel values of the area for each frame.
+     */
+    public int[] readBinnedTrace(int x, int y, int binningX, int binningY, int firstFrame, int numFrames) {
+        int[] sums = new int[numFrames];
+        short[] trace = new short[numFrames];
+
+        for (int by = 0; by < binningY; by++) {
+            for (int bx = 0; bx < binningX; bx++) {
+                readTrace(x + bx, y + by, firstFrame, trace);
+                for (int i = 0; i < numFrames; i++) {
+                    sums[i] += trace[i] & 0xFFFF;
+                }
+            }
+        }
+
+        return sums;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Holds the cache for reading, so that it stays open until {@link #release()} even if the owner closes it.
+     *
+     * @return true if the cache is held, false if it is already closed.
+     */
+    public boolean acquire() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Releases a cache held with {@link #acquire()}, closing the file if the owner closed it in the meantime.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Closes the cache once the readers holding it release it. Only the first call has an effect.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+}
@@ -57,7 +57,7 @@ public final class MainPanelView extends BaseView {
     // Buttons
     private JButton btnSave, btnRead, btnExit, btnLoad, btnBatch, btnDCCF, btnWriteConfig, btnUseExisting, btnDCR,
             btnParamVideo, btnOptions, btnAve, btnParaCor, btnPSF, btnAll, btnROI, btnMore, btnCancel, btnBringToFront,
-            btnNB;
+            btnNB, btnResultsToExcel;
     private JToggleButton tbExpSettings, tbFit, tbOverlap, tbBackground, tbFiltering, tbBleachCorStride, tbDL, tbSim,
             tbMSD;
 
@@ -231,6 +231,8 @@ public final class MainPanelView extends BaseView {
         btnROI = createJButton("ROI", "Calculates ACFs only in the currently chose ROI.", null,
                 controller.btnROIPressed());
         btnNB = createJButton("N&B", "", null, controller.btnNBPressed());
+        btnResultsToExcel = createJButton("To Excel", "Converts a saved results file (*.imfcs) to an Excel file " +
+                "written next to it.", null, controller.btnResultsToExcelPressed());
         btnBringToFront = createJButton("To Front", "Bring all windows of this plugin instance to the front.", null,
                 controller.btnBringToFrontPressed());
         btnCancel = createJButton("Cancel correlation", "Cancel the current correlation run.", null,
@@ -396,7 +398,7 @@ public final class MainPanelView extends BaseView {
 
         addRow(extendedPanel, btnDCCF, cbDCCF, btnParaCor, cbParaCor);
         addRow(extendedPanel, btnPSF, tbDL, tbMSD, tbSim);
-        addRow(extendedPanel, btnBringToFront);
+        addRow(extendedPanel, btnBringToFront, btnResultsToExcel);
         addRow(extendedPanel, btnCancel);
     }
 
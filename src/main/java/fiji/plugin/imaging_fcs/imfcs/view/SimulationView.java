@@ -20,10 +20,10 @@ import static fiji.plugin.imaging_fcs.imfcs.view.UIUtils.createJLabel;
  */
 public final class SimulationView extends BaseView {
     // Constants
-    private static final GridLayout SIMULATION_LAYOUT = new GridLayout(16, 4);
+    private static final GridLayout SIMULATION_LAYOUT = new GridLayout(17, 4);
     private static final Point SIMULATION_LOCATION =
             new Point(Constants.MAIN_PANEL_POS.x + Constants.MAIN_PANEL_DIM.width + 10, 125);
-    private static final Dimension SIMULATION_DIM = new Dimension(370, 320);
+    private static final Dimension SIMULATION_DIM = new Dimension(370, 340);
 
     // References to the controller and the model
     private final SimulationController controller;
@@ -35,7 +35,7 @@ public final class SimulationView extends BaseView {
     private JTextField tfSeed, tfNumParticle, tfCPS, tfTauBleach, tfPixelNum, tfExtensionFactor, tfNumFrames,
             tfFrameTime, tfStepsPerFrame, tfCurrentStepSize, tfD1, tfDoutDinRatio, tfD2, tfF2, tfD3, tfF3, tfKon,
             tfKoff, tfCameraOffset, tfCameraNoiseFactor, tfBleachRadius, tfBleachFrame, tfDomainRadius, tfDomainDensity,
-            tfPin, tfPout, tfMeshworkSize, tfHopProbability;
+            tfPin, tfPout, tfMeshworkSize, tfHopProbability, tfNumThreads;
 
     // buttons
     private JButton btnSimulate, btnBatchSim, btnStopSimulation;
@@ -117,6 +117,7 @@ public final class SimulationView extends BaseView {
                 createTextField(model.getMeshWorkSizeInterface(), "", createFocusListener(model::setMeshWorkSize));
         tfHopProbability =
                 createTextField(model.getHopProbability(), "", createFocusListener(model::setHopProbability));
+        tfNumThreads = createTextField(model.getNumThreads(), "", createFocusListener(model::setNumThreads));
     }
 
     /**
@@ -298,6 +299,14 @@ public final class SimulationView extends BaseView {
         add(tfHopProbability);
 
         // rox 16
+        add(createJLabel("Threads",
+                "Integer: number of threads stepping the particles. Results are reproducible for a given seed and " +
+                        "number of threads."));
+        add(tfNumThreads);
+        add(createJLabel("", ""));
+        add(createJLabel("", ""));
+
+        // rox 17
         add(createJLabel("", ""));
         add(btnBatchSim);
         add(btnStopSimulation);
@@ -20,14 +20,18 @@ public final class BatchSimulationView extends GenericDialog {
      * to be invoked if the user clicks OK.
      * <p>
      * This method sets up numeric fields for entering start, end, and step values for both
-     * diffusion rates (D, D2) and fraction (F2), then shows the dialog. If the user confirms,
+     * diffusion rates (D, D2) and fraction (F2), as well as the number of simulations running at the same time and
+     * the memory they may use together, then shows the dialog. If the user confirms,
      * the specified listener is invoked with this view as its argument, allowing access to the
      * inputted values.
      * </p>
      *
-     * @param listener A {@link Consumer} that accepts this view to process the inputted parameters upon confirmation.
+     * @param listener       A {@link Consumer} that accepts this view to process the inputted parameters upon
+     *                       confirmation.
+     * @param defaultWorkers The default number of simulations running at the same time.
+     * @param defaultMemory  The default memory budget of the batch in MB.
      */
-    public void display(Consumer<BatchSimulationView> listener) {
+    public void display(Consumer<BatchSimulationView> listener, int defaultWorkers, long defaultMemory) {
         addNumericField("D start ", 1, 1);
         addNumericField("D end ", 10, 1);
         addNumericField("D step ", 1, 1);
@@ -37,6 +41,8 @@ public final class BatchSimulationView extends GenericDialog {
         addNumericField("F2 start ", 0, 0);
         addNumericField("F2 end ", 1, 0);
         addNumericField("F2 step ", 0.1, 2);
+        addNumericField("Workers ", defaultWorkers, 0);
+        addNumericField("Memory budget (MB) ", defaultMemory, 0);
         showDialog();
 
         if (wasOKed()) {
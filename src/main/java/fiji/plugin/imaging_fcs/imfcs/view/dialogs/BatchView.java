@@ -51,6 +51,7 @@ public class BatchView extends GenericDialog {
         out.put("File suffix", getNextString());
 
         out.put("Save excel", getNextBoolean());
+        out.put("Save results", getNextBoolean());
         out.put("Save plot windows", getNextBoolean());
 
         return out;
@@ -80,6 +81,7 @@ public class BatchView extends GenericDialog {
         addMessage("If empty, the date will be used as suffix.");
 
         addCheckbox("Save excel", true);
+        addCheckbox("Save results", false);
         addCheckbox("Save plot windows", false);
 
         showDialog();
@@ -1,6 +1,7 @@
 package fiji.plugin.imaging_fcs.imfcs.view.dialogs;
 
 import fiji.plugin.imaging_fcs.imfcs.model.OptionsModel;
+import fiji.plugin.imaging_fcs.imfcs.utils.ResultCache;
 import ij.gui.GenericDialog;
 
 /**
@@ -24,7 +25,8 @@ public final class OptionsView extends GenericDialog {
 
     /**
      * Displays the options dialog to the user, initializing checkboxes for each configuration option based on the
-     * current state of the OptionsModel. If CUDA is detected, an additional checkbox for GPU usage is also displayed.
+     * current state of the OptionsModel, and the location of the result cache. If CUDA is detected, an additional
+     * checkbox for GPU usage is also displayed.
      *
      * @param model The OptionsModel containing the current configuration to be displayed in the dialog.
      */
@@ -36,6 +38,11 @@ public final class OptionsView extends GenericDialog {
         addCheckbox("Histogram", model.isPlotParaHist());
         addCheckbox("Blocking", model.isPlotBlockingCurve());
         addCheckbox("Covariance Matrix", model.isPlotCovMats());
+        addCheckbox("Trace cache", model.isUseTraceCache());
+        addCheckbox("Result cache", model.isUseResultCache());
+        addCheckbox("Clear result cache", false);
+        addDirectoryField("Result cache directory", model.getResultCacheDirectory());
+        addMessage("Leave the directory empty to use " + ResultCache.DEFAULT_DIRECTORY.getAbsolutePath());
 
         // this box only exists if Cuda is detected
         if (model.isCuda()) {
@@ -0,0 +1,80 @@
+package fiji.plugin.imaging_fcs.imfcs.model.simulation;
+
+import java.util.Random;
+
+/**
+ * Throughput of {@link RandomCustom} against the generator it replaced: {@link java.util.Random#nextGaussian()} and
+ * Knuth's multiplication method for Poisson numbers, whose cost grows with the mean.
+ * <p>
+ * Run with
+ * {@code java -cp <classes>:<test-classes>:<dependencies> fiji.plugin.imaging_fcs.imfcs.model.simulation.RandomCustomBenchmark [draws]}
+ * ; prints the time per draw in ns.
+ * </p>
+ */
+public final class RandomCustomBenchmark {
+    private static final double[] POISSON_MEANS = {0.5, 5, 50, 500, 5000};
+
+    // keeps the JIT from removing the loops
+    private static double sink;
+
+    public static void main(String[] args) {
+        int draws = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+
+        // the first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+            RandomCustom random = new RandomCustom(1);
+            Random legacy = new Random(1);
+
+            report(print, "Gaussian", time(draws, () -> random.nextGaussian()),
+                    time(draws, () -> legacy.nextGaussian()));
+            for (double mean : POISSON_MEANS) {
+                // Knuth's method takes mean + 1 uniform numbers per draw (and underflows above a mean of ~700), fewer
+                // draws keep the run short
+                int n = (int) Math.max(1000, draws / Math.max(1, mean / 5));
+                report(print, String.format("Poisson(%g)", mean), time(n, () -> random.nextPoisson(mean)),
+                        time(n, () -> legacyPoisson(legacy, mean)));
+            }
+        }
+        System.out.println(sink == 42 ? "" : "done");
+    }
+
+    private interface Draw {
+        double next();
+    }
+
+    /*
+    Time per draw in ns.
+     */
+    private static double time(int n, Draw draw) {
+        double sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            sum += draw.next();
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += sum;
+        return (double) elapsed / n;
+    }
+
+    private static void report(boolean print, String name, double nanos, double legacyNanos) {
+        if (print) {
+            System.out.println(String.format("%-18s %8.1f ns   previous generator %8.1f ns   x%.1f", name, nanos,
+                    legacyNanos, legacyNanos / nanos));
+        }
+    }
+
+    /*
+    The Poisson sampler of the previous RandomCustom.
+     */
+    private static int legacyPoisson(Random random, double mean) {
+        double limit = Math.exp(-mean);
+        int k = 0;
+        double p = 1.0;
+        do {
+            k++;
+            p *= random.nextDouble();
+        } while (p > limit);
+        return k - 1;
+    }
+}
@@ -0,0 +1,173 @@
+package fiji.plugin.imaging_fcs.imfcs.model.simulation;
+
+import org.apache.commons.math3.distribution.ChiSquaredDistribution;
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.distribution.PoissonDistribution;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statistical checks of the samplers of {@link RandomCustom}: moments and chi-square goodness of fit of the ziggurat
+ * Gaussian and of the Poisson sampler on both sides of the inversion/PTRS switch, and reproducibility of the split
+ * streams.
+ * <p>
+ * The seeds are fixed, so the checks are deterministic. Run with
+ * {@code java -cp <classes>:<test-classes>:<dependencies> fiji.plugin.imaging_fcs.imfcs.model.simulation.RandomCustomCheck}
+ * ; the exit status is 1 if a check fails.
+ * </p>
+ */
+public final class RandomCustomCheck {
+    // p-value below which a goodness-of-fit test fails
+    private static final double MIN_P_VALUE = 1e-4;
+    // number of standard errors a moment may deviate from its expected value
+    private static final double MAX_Z = 5;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) {
+        RandomCustomCheck check = new RandomCustomCheck();
+        check.checkGaussian(2_000_000);
+        for (double mean : new double[]{0.5, 3, 9.99, 10, 30, 100, 1e3, 1e5}) {
+            check.checkPoisson(mean, 1_000_000);
+        }
+        check.checkSplit();
+
+        if (check.failures.isEmpty()) {
+            System.out.println("All RandomCustom checks passed.");
+        } else {
+            check.failures.forEach(System.out::println);
+            System.exit(1);
+        }
+    }
+
+    private void expect(boolean condition, String message) {
+        System.out.println((condition ? "ok    " : "FAIL  ") + message);
+        if (!condition) {
+            failures.add(message);
+        }
+    }
+
+    private void checkGaussian(int n) {
+        RandomCustom random = new RandomCustom(42);
+        NormalDistribution normal = new NormalDistribution(null, 0, 1);
+
+        // 40 bins of equal probability, plus the counts beyond 3 and 4 sigma for the tails of the ziggurat
+        int bins = 40;
+        long[] counts = new long[bins];
+        long beyond3 = 0;
+        long beyond4 = 0;
+        double sum = 0;
+        double sum2 = 0;
+        double sum3 = 0;
+        double sum4 = 0;
+        for (int i = 0; i < n; i++) {
+            double x = random.nextGaussian();
+            sum += x;
+            sum2 += x * x;
+            sum3 += x * x * x;
+            sum4 += x * x * x * x;
+            counts[Math.min(bins - 1, (int) (normal.cumulativeProbability(x) * bins))]++;
+            if (Math.abs(x) > 3) {
+                beyond3++;
+            }
+            if (Math.abs(x) > 4) {
+                beyond4++;
+            }
+        }
+
+        double mean = sum / n;
+        double variance = sum2 / n - mean * mean;
+        expect(Math.abs(mean) < MAX_Z / Math.sqrt(n), String.format("Gaussian mean %.5f", mean));
+        expect(Math.abs(variance - 1) < MAX_Z * Math.sqrt(2.0 / n), String.format("Gaussian variance %.5f", variance));
+        expect(Math.abs(sum3 / n) < MAX_Z * Math.sqrt(15.0 / n), String.format("Gaussian skewness %.5f", sum3 / n));
+        expect(Math.abs(sum4 / n - 3) < MAX_Z * Math.sqrt(96.0 / n), String.format("Gaussian kurtosis %.5f", sum4 / n));
+        expectTail("|x| > 3", beyond3, n, 2 * normal.cumulativeProbability(-3));
+        expectTail("|x| > 4", beyond4, n, 2 * normal.cumulativeProbability(-4));
+
+        double[] expected = new double[bins];
+        java.util.Arrays.fill(expected, (double) n / bins);
+        expectFit("Gaussian", counts, expected);
+    }
+
+    private void expectTail(String name, long count, int n, double probability) {
+        double expected = n * probability;
+        double sd = Math.sqrt(n * probability * (1 - probability));
+        expect(Math.abs(count - expected) < MAX_Z * sd,
+                String.format("Gaussian tail %s: %d, expected %.1f", name, count, expected));
+    }
+
+    private void checkPoisson(double mean, int n) {
+        RandomCustom random = new RandomCustom(7);
+        PoissonDistribution poisson = new PoissonDistribution(null, mean, PoissonDistribution.DEFAULT_EPSILON,
+                PoissonDistribution.DEFAULT_MAX_ITERATIONS);
+
+        // counts per value between the 1e-6 and 1 - 1e-6 quantiles, everything else in the first and last bins
+        int low = poisson.inverseCumulativeProbability(1e-6);
+        int high = poisson.inverseCumulativeProbability(1 - 1e-6);
+        long[] counts = new long[high - low + 1];
+        double sum = 0;
+        double sum2 = 0;
+        for (int i = 0; i < n; i++) {
+            int k = random.nextPoisson(mean);
+            sum += k;
+            sum2 += (double) k * k;
+            counts[Math.max(0, Math.min(high, k) - low)]++;
+        }
+
+        double sampleMean = sum / n;
+        double variance = sum2 / n - sampleMean * sampleMean;
+        expect(Math.abs(sampleMean - mean) < MAX_Z * Math.sqrt(mean / n),
+                String.format("Poisson(%g) mean %.5f", mean, sampleMean));
+        // the variance of the sample variance is (mu4 - sigma^4) / n = (mean + 2 mean^2) / n
+        expect(Math.abs(variance - mean) < MAX_Z * Math.sqrt((mean + 2 * mean * mean) / n),
+                String.format("Poisson(%g) variance %.5f", mean, variance));
+
+        double[] expected = new double[counts.length];
+        for (int k = low; k <= high; k++) {
+            expected[k - low] = n * poisson.probability(k);
+        }
+        expected[0] = n * poisson.cumulativeProbability(low);
+        expected[counts.length - 1] = n * (1 - poisson.cumulativeProbability(high - 1));
+        expectFit(String.format("Poisson(%g)", mean), counts, expected);
+    }
+
+    /*
+    Chi-square goodness of fit, after merging neighbouring bins until each expects at least 5 counts.
+     */
+    private void expectFit(String name, long[] counts, double[] expected) {
+        double chi2 = 0;
+        int bins = 0;
+        long count = 0;
+        double expect = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            expect += expected[i];
+            if (expect >= 5 || i == counts.length - 1) {
+                chi2 += (count - expect) * (count - expect) / expect;
+                bins++;
+                count = 0;
+                expect = 0;
+            }
+        }
+        double p = bins > 1 ? 1 - new ChiSquaredDistribution(null, bins - 1).cumulativeProbability(chi2) : 1;
+        expect(p > MIN_P_VALUE, String.format("%s chi-square %.1f over %d bins, p = %.4f", name, chi2, bins, p));
+    }
+
+    private void checkSplit() {
+        RandomCustom a = new RandomCustom(3);
+        RandomCustom b = new RandomCustom(3);
+        RandomCustom splitA = a.split();
+        RandomCustom splitB = b.split();
+        boolean same = true;
+        boolean differs = false;
+        for (int i = 0; i < 1000; i++) {
+            double x = splitA.nextDouble();
+            same &= x == splitB.nextDouble();
+            differs |= x != a.nextDouble();
+            b.nextDouble();
+        }
+        expect(same, "split streams are reproducible for a given seed");
+        expect(differs, "a split stream differs from its parent");
+    }
+}